@@ -0,0 +1,177 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+import java.util.List;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+
+
+/**
+ * An index of records by locus and alleles (REF and the ALT list), so that several records can share a locus, as they
+ * do once multi-allelic records are split.
+ * <p>
+ * A record is keyed by a 64-bit hash of its locus key and allele strings, in a {@link LongIntHashMap}, so no string is
+ * copied or kept for the index. As hashes can collide, the record found under a hash is checked against the alleles
+ * looked up, and a colliding record is put under the next hash instead (as in linear probing).
+ * <p>
+ * The records at each locus are chained in the order they were added: the locus index holds the first, and
+ * {@link #next} the one after each.
+ */
+final class AlleleIndex {
+  private static final int NO_RECORD = -1;
+
+  private final LongIntHashMap m_records;
+  // record -> the next record at its locus, or NO_RECORD; grown as needed
+  private int[] m_next;
+
+
+  AlleleIndex() {
+    m_records = new LongIntHashMap();
+    m_next = new int[16];
+    Arrays.fill(m_next, NO_RECORD);
+  }
+
+  AlleleIndex(LongIntHashMap records, int[] next) {
+    m_records = records;
+    m_next = next;
+  }
+
+  /**
+   * @return A copy of this index, no larger than needed for {@code numRecords} records
+   */
+  AlleleIndex compact(int numRecords) {
+    return new AlleleIndex(m_records.compact(), Arrays.copyOf(m_next, numRecords));
+  }
+
+
+  int size() {
+    return m_records.size();
+  }
+
+  /**
+   * @return An estimate of the bytes this index retains
+   */
+  long estimateBytes() {
+    return HeapSize.object(2 * HeapSize.REFERENCE) + m_records.estimateBytes() + HeapSize.array(4, m_next.length);
+  }
+
+  /**
+   * @return The record after {@code record} at its locus, or {@code -1} if it is the last
+   */
+  int next(int record) {
+    return record < m_next.length ? m_next[record] : NO_RECORD;
+  }
+
+  /**
+   * @return The record at the locus with the alleles, or {@code -1} if there is none
+   */
+  int get(long locusKey, long position, CharSequence chromosome, CharSequence ref, List<String> alts,
+      List<VcfPosition> positions) {
+    for (long key = hash(locusKey, ref, alts); ; key = probe(key)) {
+      int record = m_records.get(key);
+      if (record < 0 || matches(positions.get(record), position, chromosome, ref, alts)) {
+        return record;
+      }
+    }
+  }
+
+  /**
+   * Indexes a record by its locus and alleles, replacing any record with the same ones, and chains it to the other
+   * records at its locus.
+   *
+   * @param first The first record at the locus, or {@code -1} if there is none
+   * @return The first record at the locus once {@code record} is chained
+   */
+  int put(long locusKey, int first, int record, List<VcfPosition> positions) {
+    VcfPosition added = positions.get(record);
+    CharSequence ref = added.getRefView();
+    List<String> alts = added.getAltBases();
+    int replaced;
+    long key = hash(locusKey, ref, alts);
+    while (true) {
+      replaced = m_records.get(key);
+      if (replaced < 0 ||
+          matches(positions.get(replaced), added.getPosition(), added.getChromosomeView(), ref, alts)) {
+        break;
+      }
+      key = probe(key);
+    }
+    m_records.put(key, record);
+
+    if (m_next.length <= record) {
+      int length = m_next.length;
+      m_next = Arrays.copyOf(m_next, Math.max(length * 2, record + 1));
+      Arrays.fill(m_next, length, m_next.length, NO_RECORD);
+    }
+    if (first < 0) {
+      return record;
+    }
+    if (replaced == first) {
+      m_next[record] = m_next[first];
+      m_next[first] = NO_RECORD;
+      return record;
+    }
+    int previous = first;
+    while (m_next[previous] != NO_RECORD && m_next[previous] != replaced) {
+      previous = m_next[previous];
+    }
+    // either the record replaced, which is then unlinked, or the end of the chain
+    if (replaced >= 0) {
+      m_next[record] = m_next[replaced];
+      m_next[replaced] = NO_RECORD;
+    }
+    m_next[previous] = record;
+    return first;
+  }
+
+  /**
+   * @return The next record of each record (see {@link #next}), for at least every record that was indexed; not copied
+   */
+  int[] getNext() {
+    return m_next;
+  }
+
+  /**
+   * @return The records by hash; not copied
+   */
+  LongIntHashMap getRecords() {
+    return m_records;
+  }
+
+
+  private static boolean matches(VcfPosition candidate, long position, CharSequence chromosome, CharSequence ref,
+      List<String> alts) {
+    return candidate.getPosition() == position && CharSequence.compare(candidate.getRefView(), ref) == 0 &&
+        candidate.getAltBases().equals(alts) && CharSequence.compare(candidate.getChromosomeView(), chromosome) == 0;
+  }
+
+  /**
+   * Hashes the locus key, REF and ALT list (FNV-1a over their characters, with separators, and then a 64-bit
+   * finalizer).
+   */
+  static long hash(long locusKey, CharSequence ref, List<String> alts) {
+    long h = 0xCBF29CE484222325L ^ locusKey;
+    h = hash(h, ref);
+    for (String alt : alts) {
+      h = (h ^ ',') * 0x100000001B3L;
+      h = hash(h, alt);
+    }
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h == LongIntHashMap.EMPTY_KEY ? 0 : h;
+  }
+
+  private static long hash(long h, CharSequence chars) {
+    for (int x = 0; x < chars.length(); x++) {
+      h = (h ^ chars.charAt(x)) * 0x100000001B3L;
+    }
+    return h;
+  }
+
+  private static long probe(long key) {
+    key++;
+    return key == LongIntHashMap.EMPTY_KEY ? 0 : key;
+  }
+}
@@ -0,0 +1,221 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Writes BGZF (blocked gzip, as written by {@code bgzip}) to a channel: each block of up to {@link #MAX_BLOCK_SIZE}
+ * bytes becomes a gzip member of its own, with the {@code BC} extra field giving its compressed size, so the output can
+ * be indexed (e.g. by tabix) and read by any gzip reader.
+ * <p>
+ * Blocks are compressed by a pool of threads, each with {@link Deflater}s of its own, and written in the order they
+ * were given; at most a few blocks per thread are in flight at once. {@link #finish()} writes the empty block that
+ * marks the end of a BGZF file.
+ * <p>
+ * Not thread-safe: blocks must all be given by one thread.
+ */
+final class BgzfWriter implements Closeable {
+  /** The most uncompressed bytes in a block, as in htslib, so that even incompressible data fits in a block. */
+  static final int MAX_BLOCK_SIZE = 0xff00;
+  private static final int sf_maxCompressedSize = 0x10000;
+  private static final int sf_headerSize = 18;
+  private static final int sf_footerSize = 8;
+  // an empty block, which ends a BGZF file
+  static final byte[] EOF_BLOCK = {
+      0x1f, (byte)0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte)0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+      0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+  };
+
+  private final WritableByteChannel m_channel;
+  private final int m_level;
+  // null if blocks are compressed by the calling thread
+  private final @Nullable ExecutorService m_executor;
+  private final int m_maxPending;
+  // blocks being compressed, in order
+  private final ArrayDeque<Future<ByteBuffer>> m_pending = new ArrayDeque<>();
+  // Deflaters not in use, shared by the threads
+  private final ConcurrentLinkedQueue<Deflater> m_deflaters = new ConcurrentLinkedQueue<>();
+
+
+  /**
+   * @param level The {@link Deflater} compression level
+   * @param numThreads The number of threads to compress with; if 1, blocks are compressed by the calling thread
+   */
+  BgzfWriter(WritableByteChannel channel, int level, int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive");
+    }
+    m_channel = channel;
+    m_level = level;
+    if (numThreads == 1) {
+      m_executor = null;
+    } else {
+      m_executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+        Thread thread = new Thread(runnable, "BgzfWriter");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    m_maxPending = 2 * numThreads;
+  }
+
+
+  /**
+   * Compresses {@code length} bytes of {@code bytes}, from {@code offset}, into a block. They are copied, so
+   * {@code bytes} can be reused right away.
+   *
+   * @throws IllegalArgumentException If there are more than {@link #MAX_BLOCK_SIZE} bytes
+   */
+  void writeBlock(byte[] bytes, int offset, int length) throws IOException {
+    if (length > MAX_BLOCK_SIZE) {
+      throw new IllegalArgumentException("A block holds at most " + MAX_BLOCK_SIZE + " bytes, not " + length);
+    }
+    byte[] data = Arrays.copyOfRange(bytes, offset, offset + length);
+    if (m_executor == null) {
+      write(compress(data));
+      return;
+    }
+    m_pending.add(m_executor.submit(() -> compress(data)));
+    while (m_pending.size() > m_maxPending) {
+      write(await(m_pending.remove()));
+    }
+  }
+
+  /**
+   * Waits for every block given so far to be compressed, and writes them.
+   */
+  void flush() throws IOException {
+    while (!m_pending.isEmpty()) {
+      write(await(m_pending.remove()));
+    }
+  }
+
+  /**
+   * Writes every block given so far, and then the end-of-file block.
+   */
+  void finish() throws IOException {
+    flush();
+    write(ByteBuffer.wrap(EOF_BLOCK));
+  }
+
+  /**
+   * Stops the threads and frees the {@link Deflater}s, without writing anything; the channel is left open.
+   */
+  @Override
+  public void close() {
+    if (m_executor != null) {
+      m_executor.shutdownNow();
+    }
+    m_pending.clear();
+    Deflater deflater;
+    while ((deflater = m_deflaters.poll()) != null) {
+      deflater.end();
+    }
+  }
+
+
+  private void write(ByteBuffer block) throws IOException {
+    while (block.hasRemaining()) {
+      m_channel.write(block);
+    }
+  }
+
+  private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing BGZF blocks");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * @return The whole block, header to footer
+   */
+  ByteBuffer compress(byte[] data) {
+    byte[] block = new byte[sf_maxCompressedSize];
+    Deflater deflater = m_deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(m_level, true);
+    }
+    int compressedSize;
+    try {
+      compressedSize = deflate(deflater, data, block);
+    } finally {
+      deflater.reset();
+      m_deflaters.add(deflater);
+    }
+    if (compressedSize < 0) {
+      // incompressible: stored as is, which always fits
+      Deflater stored = new Deflater(Deflater.NO_COMPRESSION, true);
+      try {
+        compressedSize = deflate(stored, data, block);
+      } finally {
+        stored.end();
+      }
+    }
+
+    int blockSize = sf_headerSize + compressedSize + sf_footerSize;
+    // gzip header: ID1, ID2, CM (deflate), FLG (FEXTRA), MTIME, XFL, OS (unknown), XLEN; then the BC subfield
+    block[0] = 0x1f;
+    block[1] = (byte)0x8b;
+    block[2] = 0x08;
+    block[3] = 0x04;
+    block[9] = (byte)0xff;
+    block[10] = 0x06;
+    block[12] = 'B';
+    block[13] = 'C';
+    block[14] = 0x02;
+    putShort(block, 16, blockSize - 1);
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    int footer = sf_headerSize + compressedSize;
+    putInt(block, footer, (int)crc.getValue());
+    putInt(block, footer + 4, data.length);
+    return ByteBuffer.wrap(block, 0, blockSize);
+  }
+
+  /**
+   * @return The number of bytes {@code data} was deflated to, or -1 if they do not fit in a block
+   */
+  private static int deflate(Deflater deflater, byte[] data, byte[] block) {
+    deflater.setInput(data);
+    deflater.finish();
+    int capacity = sf_maxCompressedSize - sf_headerSize - sf_footerSize;
+    int size = 0;
+    while (!deflater.finished() && size < capacity) {
+      size += deflater.deflate(block, sf_headerSize + size, capacity - size);
+    }
+    return deflater.finished() ? size : -1;
+  }
+
+  private static void putShort(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte)value;
+    bytes[offset + 1] = (byte)(value >>> 8);
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    putShort(bytes, offset, value);
+    putShort(bytes, offset + 2, value >>> 16);
+  }
+}
@@ -0,0 +1,480 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfDataStore.Genotype;
+import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * The GT calls of every record (row) and sample (column), packed into 2 bits per call plus a phase bit.
+ * <p>
+ * The 2-bit code is {@link #HOM_REF} for {@code 0/0}, {@link #HET} for {@code 0/1}, {@link #HOM_ALT} for {@code 1/1},
+ * and {@link #ESCAPE} for anything else (a multi-allelic or non-diploid call, {@code 1/0}, a missing allele, or no
+ * GT at all); the phase bit is set if the call's separator is {@code |}. An escaped call's {@link Genotype} is kept in
+ * an escape table, found through a {@link LongIntHashMap} keyed by cell; identical calls within a row share one entry.
+ * <p>
+ * Rows are contiguous, so reading every sample of a record is a sequential scan; {@link #transpose} copies the codes
+ * into {@link Columns} so that reading one sample across records is one too.
+ */
+final class GenotypeMatrix {
+  static final int HOM_REF = 0;
+  static final int HET = 1;
+  static final int HOM_ALT = 2;
+  static final int ESCAPE = 3;
+  private static final int sf_codesPerLong = 32;
+
+  private final int m_numSamples;
+  // longs per row
+  private final int m_codeStride;
+  private final int m_phaseStride;
+  private long[] m_codes;
+  private long[] m_phases;
+  private int m_numRows;
+  // cell (row * numSamples + sample) -> index into m_escapes
+  private final LongIntHashMap m_escapeIndex;
+  // index 0 is a call without a genotype (no GT, or every allele missing)
+  private final List<@Nullable Genotype> m_escapes;
+
+
+  GenotypeMatrix(int numSamples) {
+    m_numSamples = numSamples;
+    m_codeStride = (numSamples + sf_codesPerLong - 1) / sf_codesPerLong;
+    m_phaseStride = (numSamples + Long.SIZE - 1) / Long.SIZE;
+    m_codes = new long[Math.max(1, m_codeStride) * 16];
+    m_phases = new long[Math.max(1, m_phaseStride) * 16];
+    m_escapeIndex = new LongIntHashMap();
+    m_escapes = new ArrayList<>();
+    m_escapes.add(null);
+  }
+
+  private GenotypeMatrix(GenotypeMatrix other) {
+    m_numSamples = other.m_numSamples;
+    m_codeStride = other.m_codeStride;
+    m_phaseStride = other.m_phaseStride;
+    m_numRows = other.m_numRows;
+    m_codes = Arrays.copyOf(other.m_codes, m_numRows * m_codeStride);
+    m_phases = Arrays.copyOf(other.m_phases, m_numRows * m_phaseStride);
+    m_escapeIndex = other.m_escapeIndex.compact();
+    m_escapes = Collections.unmodifiableList(new ArrayList<>(other.m_escapes));
+  }
+
+  private GenotypeMatrix(int numSamples, int numRows, long[] codes, long[] phases, LongIntHashMap escapeIndex,
+      List<@Nullable Genotype> escapes) {
+    m_numSamples = numSamples;
+    m_codeStride = (numSamples + sf_codesPerLong - 1) / sf_codesPerLong;
+    m_phaseStride = (numSamples + Long.SIZE - 1) / Long.SIZE;
+    m_numRows = numRows;
+    // room for one more row, since the arrays are only grown as needed
+    m_codes = Arrays.copyOf(codes, Math.max(1, m_codeStride) * (numRows + 1));
+    m_phases = Arrays.copyOf(phases, Math.max(1, m_phaseStride) * (numRows + 1));
+    m_escapeIndex = escapeIndex;
+    m_escapes = escapes;
+  }
+
+  /**
+   * @return A copy of this matrix, no larger than needed for its rows
+   */
+  GenotypeMatrix compact() {
+    return new GenotypeMatrix(this);
+  }
+
+
+  int getNumSamples() {
+    return m_numSamples;
+  }
+
+  int getNumRows() {
+    return m_numRows;
+  }
+
+  /**
+   * @return An estimate of the bytes the matrix retains
+   */
+  long estimateBytes() {
+    // an escaped call is taken to be a diploid Genotype whose alleles are its record's strings
+    long escapeBytes = HeapSize.object(HeapSize.REFERENCE + 1) + HeapSize.list(2);
+    return HeapSize.object(4 * 4 + 4 * HeapSize.REFERENCE) + HeapSize.array(8, m_codes.length) +
+        HeapSize.array(8, m_phases.length) + m_escapeIndex.estimateBytes() + HeapSize.list(m_escapes.size()) +
+        (m_escapes.size() - 1) * escapeBytes;
+  }
+
+  /**
+   * Adds a row for the samples' GT calls.
+   *
+   * @return The row index
+   * @throws VcfFormatException If a GT call is malformed or refers to an allele {@code position} does not have
+   */
+  int addRow(VcfPosition position, List<VcfSample> samples) {
+    checkNumSamples(samples);
+    int row = growForRow();
+    fillRow(row, position, samples);
+    m_numRows++;
+    return row;
+  }
+
+  /**
+   * Adds a copy of a row of another matrix with the same samples.
+   *
+   * @return The row index
+   */
+  int addRow(GenotypeMatrix other, int otherRow) {
+    other.checkRow(otherRow);
+    checkNumSamples(other);
+    int row = growForRow();
+    copyRow(row, other, otherRow);
+    m_numRows++;
+    return row;
+  }
+
+  /**
+   * Replaces a row with the samples' GT calls. Any escaped call the row had stays in the escape table.
+   *
+   * @throws VcfFormatException If a GT call is malformed or refers to an allele {@code position} does not have
+   */
+  void setRow(int row, VcfPosition position, List<VcfSample> samples) {
+    checkRow(row);
+    checkNumSamples(samples);
+    Arrays.fill(m_codes, row * m_codeStride, (row + 1) * m_codeStride, 0);
+    Arrays.fill(m_phases, row * m_phaseStride, (row + 1) * m_phaseStride, 0);
+    fillRow(row, position, samples);
+  }
+
+  /**
+   * Replaces a row with a copy of a row of another matrix with the same samples. Any escaped call the row had stays in
+   * the escape table.
+   */
+  void setRow(int row, GenotypeMatrix other, int otherRow) {
+    checkRow(row);
+    other.checkRow(otherRow);
+    checkNumSamples(other);
+    copyRow(row, other, otherRow);
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= m_numRows) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + m_numRows + " row(s)");
+    }
+  }
+
+  private void checkNumSamples(List<VcfSample> samples) {
+    if (samples.size() != m_numSamples) {
+      throw new VcfFormatException("Expected " + m_numSamples + " sample(s) but found " + samples.size());
+    }
+  }
+
+  private void checkNumSamples(GenotypeMatrix other) {
+    if (other.m_numSamples != m_numSamples) {
+      throw new IllegalArgumentException("Expected " + m_numSamples + " sample(s) but found " + other.m_numSamples);
+    }
+  }
+
+  /**
+   * @return The index of the next row, once the arrays have room for it
+   */
+  private int growForRow() {
+    int row = m_numRows;
+    if ((long)(row + 1) * m_codeStride > m_codes.length) {
+      m_codes = Arrays.copyOf(m_codes, Math.max(m_codes.length * 2, (row + 1) * m_codeStride));
+    }
+    if ((long)(row + 1) * m_phaseStride > m_phases.length) {
+      m_phases = Arrays.copyOf(m_phases, Math.max(m_phases.length * 2, (row + 1) * m_phaseStride));
+    }
+    return row;
+  }
+
+  /**
+   * Overwrites a row with a row of {@code other}, adding the escaped calls it has to this matrix's escape table.
+   */
+  private void copyRow(int row, GenotypeMatrix other, int otherRow) {
+    System.arraycopy(other.m_codes, otherRow * m_codeStride, m_codes, row * m_codeStride, m_codeStride);
+    System.arraycopy(other.m_phases, otherRow * m_phaseStride, m_phases, row * m_phaseStride, m_phaseStride);
+    Map<Integer, Integer> rowEscapes = null;
+    for (int s = 0; s < m_numSamples; s++) {
+      if (other.getCode(otherRow, s) != ESCAPE) {
+        continue;
+      }
+      int otherEscape = other.m_escapeIndex.get(other.cell(otherRow, s));
+      Integer escape = 0;
+      if (otherEscape != 0) {
+        if (rowEscapes == null) {
+          rowEscapes = new HashMap<>();
+        }
+        escape = rowEscapes.get(otherEscape);
+        if (escape == null) {
+          escape = m_escapes.size();
+          m_escapes.add(other.m_escapes.get(otherEscape));
+          rowEscapes.put(otherEscape, escape);
+        }
+      }
+      m_escapeIndex.put(cell(row, s), escape);
+    }
+  }
+
+  /**
+   * Fills a cleared row.
+   */
+  private void fillRow(int row, VcfPosition position, List<VcfSample> samples) {
+    boolean hasAlt = !position.getAltBases().isEmpty();
+    Map<String, Integer> rowEscapes = null;
+    for (int s = 0; s < m_numSamples; s++) {
+      VcfSample sample = samples.get(s);
+      CharSequence gt = sample.getPropertyView(ReservedFormatProperty.Genotype.getId());
+      int code = classify(gt, hasAlt);
+      if (code == ESCAPE) {
+        String text = gt == null ? "" : gt.toString();
+        if (rowEscapes == null) {
+          rowEscapes = new HashMap<>();
+        }
+        Integer escape = rowEscapes.get(text);
+        if (escape == null) {
+          Genotype genotype = MemoryMappedVcfDataStore.toGenotype(position, sample);
+          if (genotype == null) {
+            escape = 0;
+          } else {
+            escape = m_escapes.size();
+            m_escapes.add(genotype);
+          }
+          rowEscapes.put(text, escape);
+        }
+        m_escapeIndex.put(cell(row, s), escape);
+      }
+      m_codes[row * m_codeStride + s / sf_codesPerLong] |= (long)code << (2 * (s % sf_codesPerLong));
+      if (code != ESCAPE && gt.charAt(1) == '|') {
+        m_phases[row * m_phaseStride + s / Long.SIZE] |= 1L << (s % Long.SIZE);
+      }
+    }
+  }
+
+  /**
+   * @return The 2-bit code of a diploid biallelic GT, or {@link #ESCAPE}
+   */
+  private static int classify(@Nullable CharSequence gt, boolean hasAlt) {
+    if (gt == null || gt.length() != 3 || (gt.charAt(1) != '/' && gt.charAt(1) != '|')) {
+      return ESCAPE;
+    }
+    char a = gt.charAt(0);
+    char b = gt.charAt(2);
+    if (a == '0' && b == '0') {
+      return HOM_REF;
+    }
+    if (!hasAlt) {
+      return ESCAPE;
+    }
+    if (a == '0' && b == '1') {
+      return HET;
+    }
+    if (a == '1' && b == '1') {
+      return HOM_ALT;
+    }
+    return ESCAPE;
+  }
+
+  /**
+   * @return The 2-bit code of a call
+   */
+  int getCode(int row, int sample) {
+    checkCell(row, sample);
+    return (int)(m_codes[row * m_codeStride + sample / sf_codesPerLong] >>> (2 * (sample % sf_codesPerLong))) & 3;
+  }
+
+  /**
+   * @return Whether a call that is not {@link #ESCAPE escaped} is phased
+   */
+  boolean isPhased(int row, int sample) {
+    checkCell(row, sample);
+    return (m_phases[row * m_phaseStride + sample / Long.SIZE] & (1L << (sample % Long.SIZE))) != 0;
+  }
+
+  /**
+   * @return The call, as {@link MemoryMappedVcfDataStore#toGenotype} would return it for the sample
+   */
+  @Nullable Genotype getGenotype(int row, int sample, VcfPosition position) {
+    int code = getCode(row, sample);
+    if (code == ESCAPE) {
+      return m_escapes.get(m_escapeIndex.get(cell(row, sample)));
+    }
+    return toGenotype(code, isPhased(row, sample), position);
+  }
+
+  private static Genotype toGenotype(int code, boolean phased, VcfPosition position) {
+    String ref = position.getRef();
+    String alt = code == HOM_REF ? ref : position.getAltBases().get(0);
+    return new Genotype(List.of(code == HOM_ALT ? alt : ref, alt), phased);
+  }
+
+  /**
+   * Copies the codes and phase bits of some rows into a sample-major layout.
+   *
+   * @param rows The rows, in the order they are to be read
+   */
+  Columns transpose(int[] rows) {
+    int numRows = rows.length;
+    int codeStride = (numRows + sf_codesPerLong - 1) / sf_codesPerLong;
+    int phaseStride = (numRows + Long.SIZE - 1) / Long.SIZE;
+    long[] codes = new long[m_numSamples * codeStride];
+    long[] phases = new long[m_numSamples * phaseStride];
+    // a word of each sample at a time, so that the rows read for it are still cached for the next sample
+    for (int word = 0; word < codeStride; word++) {
+      int first = word * sf_codesPerLong;
+      int last = Math.min(first + sf_codesPerLong, numRows);
+      for (int s = 0; s < m_numSamples; s++) {
+        long codeWord = 0;
+        for (int x = first; x < last; x++) {
+          long code = m_codes[rows[x] * m_codeStride + s / sf_codesPerLong] >>> (2 * (s % sf_codesPerLong)) & 3;
+          codeWord |= code << (2 * (x - first));
+        }
+        codes[s * codeStride + word] = codeWord;
+      }
+    }
+    for (int word = 0; word < phaseStride; word++) {
+      int first = word * Long.SIZE;
+      int last = Math.min(first + Long.SIZE, numRows);
+      for (int s = 0; s < m_numSamples; s++) {
+        long phaseWord = 0;
+        for (int x = first; x < last; x++) {
+          long phase = m_phases[rows[x] * m_phaseStride + s / Long.SIZE] >>> (s % Long.SIZE) & 1;
+          phaseWord |= phase << (x - first);
+        }
+        phases[s * phaseStride + word] = phaseWord;
+      }
+    }
+    return new Columns(this, rows.clone(), codeStride, phaseStride, codes, phases);
+  }
+
+  /**
+   * Writes the matrix to a snapshot; see {@link #readFrom}.
+   */
+  void writeTo(SnapshotWriter out) throws IOException {
+    out.writeInt(m_numSamples);
+    out.writeInt(m_numRows);
+    out.writeLongs(m_codes, m_numRows * m_codeStride);
+    out.writeLongs(m_phases, m_numRows * m_phaseStride);
+    long[] cells = m_escapeIndex.keys();
+    out.writeInt(cells.length);
+    out.writeLongs(cells, cells.length);
+    for (long cell : cells) {
+      out.writeInt(m_escapeIndex.get(cell));
+    }
+    // index 0 is always null
+    out.writeInt(m_escapes.size() - 1);
+    for (int x = 1; x < m_escapes.size(); x++) {
+      Genotype genotype = m_escapes.get(x);
+      out.writeInt(genotype.getAlleles().size());
+      for (String allele : genotype.getAlleles()) {
+        out.writeString(allele);
+      }
+      out.writeBoolean(genotype.isPhased());
+    }
+  }
+
+  static GenotypeMatrix readFrom(SnapshotReader in) throws IOException {
+    int numSamples = in.readCount();
+    int numRows = in.readCount();
+    long[] codes = in.readLongs(Math.multiplyExact(numRows, (numSamples + sf_codesPerLong - 1) / sf_codesPerLong));
+    long[] phases = in.readLongs(Math.multiplyExact(numRows, (numSamples + Long.SIZE - 1) / Long.SIZE));
+    int numEscapedCells = in.readCount();
+    long[] cells = in.readLongs(numEscapedCells);
+    int[] indexes = in.readInts(numEscapedCells);
+    // each escaped genotype is at least its number of alleles and phase
+    int numEscapes = in.readCount(Integer.BYTES + 1);
+    List<@Nullable Genotype> escapes = new ArrayList<>(numEscapes + 1);
+    escapes.add(null);
+    for (int x = 0; x < numEscapes; x++) {
+      String[] alleles = new String[in.readCount(Integer.BYTES)];
+      for (int y = 0; y < alleles.length; y++) {
+        alleles[y] = in.readString();
+        if (alleles[y] == null) {
+          throw new VcfFormatException("Snapshot is corrupt: escaped genotype " + (x + 1) + " has a null allele");
+        }
+      }
+      escapes.add(new Genotype(Arrays.asList(alleles), in.readBoolean()));
+    }
+    LongIntHashMap escapeIndex = new LongIntHashMap(numEscapedCells);
+    for (int x = 0; x < numEscapedCells; x++) {
+      if (indexes[x] < 0 || indexes[x] >= escapes.size()) {
+        throw new VcfFormatException("Snapshot is corrupt: escaped genotype " + indexes[x] + " does not exist");
+      }
+      escapeIndex.put(cells[x], indexes[x]);
+    }
+    return new GenotypeMatrix(numSamples, numRows, codes, phases, escapeIndex, escapes);
+  }
+
+  private long cell(int row, int sample) {
+    return (long)row * m_numSamples + sample;
+  }
+
+  private void checkCell(int row, int sample) {
+    if (row < 0 || row >= m_numRows) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + m_numRows + " row(s)");
+    }
+    if (sample < 0 || sample >= m_numSamples) {
+      throw new IndexOutOfBoundsException("Sample index " + sample + " out of bounds for " + m_numSamples +
+          " sample(s)");
+    }
+  }
+
+
+  /**
+   * Some rows of a {@link GenotypeMatrix}, transposed: each sample's codes (and phase bits) are contiguous, in the
+   * order of the rows they were copied from. Escaped calls are still read from the matrix.
+   */
+  static final class Columns {
+    private final GenotypeMatrix m_matrix;
+    private final int[] m_rows;
+    // longs per sample
+    private final int m_codeStride;
+    private final int m_phaseStride;
+    private final long[] m_codes;
+    private final long[] m_phases;
+
+    private Columns(GenotypeMatrix matrix, int[] rows, int codeStride, int phaseStride, long[] codes, long[] phases) {
+      m_matrix = matrix;
+      m_rows = rows;
+      m_codeStride = codeStride;
+      m_phaseStride = phaseStride;
+      m_codes = codes;
+      m_phases = phases;
+    }
+
+    int getNumRows() {
+      return m_rows.length;
+    }
+
+    /**
+     * @return An estimate of the bytes the columns retain, apart from the matrix
+     */
+    long estimateBytes() {
+      return HeapSize.object(6 * HeapSize.REFERENCE) + HeapSize.array(4, m_rows.length) +
+          HeapSize.array(8, m_codes.length) + HeapSize.array(8, m_phases.length);
+    }
+
+    /**
+     * @return The matrix row that the {@code index}th row of the columns was copied from
+     */
+    int getRow(int index) {
+      return m_rows[index];
+    }
+
+    /**
+     * @return The call, as {@link GenotypeMatrix#getGenotype} would return it for the row
+     */
+    @Nullable Genotype getGenotype(int sample, int index, VcfPosition position) {
+      int code = (int)(m_codes[sample * m_codeStride + index / sf_codesPerLong] >>> (2 * (index % sf_codesPerLong))) &
+          3;
+      if (code == ESCAPE) {
+        return m_matrix.m_escapes.get(m_matrix.m_escapeIndex.get(m_matrix.cell(m_rows[index], sample)));
+      }
+      boolean phased = (m_phases[sample * m_phaseStride + index / Long.SIZE] & (1L << (index % Long.SIZE))) != 0;
+      return toGenotype(code, phased, position);
+    }
+  }
+}
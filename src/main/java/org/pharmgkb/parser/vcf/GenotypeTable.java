@@ -0,0 +1,155 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfDataStore.Genotype;
+import org.pharmgkb.parser.vcf.model.SampleSet;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+
+
+/**
+ * The genotypes of some samples at some loci, filled in by {@link MemoryMappedVcfDataStore#getGenotypes(java.util.List,
+ * org.pharmgkb.parser.vcf.model.SampleSet, GenotypeTable)}.
+ * <p>
+ * Rows are the loci, in the order they were asked for, and columns the selected samples, in sample order. A table can
+ * be filled again and again (e.g. for gene after gene); its arrays (including the scratch arrays the store fills it
+ * with) only grow, so once it is large enough, filling it allocates nothing but genotypes the store does not already
+ * share.
+ */
+public final class GenotypeTable {
+  private int m_numLoci;
+  private int m_numColumns;
+  private int[] m_sampleIndexes = new int[0];
+  private @Nullable VcfPosition[] m_positions = new VcfPosition[0];
+  private @Nullable Genotype[] m_genotypes = new Genotype[0];
+  // scratch space for the store: the position and record of each locus, and the common calls at a record
+  private long[] m_lociPositions = new long[0];
+  private int[] m_records = new int[0];
+  private final @Nullable Genotype[] m_commonGenotypes = new Genotype[2 * GenotypeMatrix.ESCAPE];
+
+
+  /**
+   * @return The number of loci (rows)
+   */
+  public int getNumLoci() {
+    return m_numLoci;
+  }
+
+  /**
+   * @return The number of selected samples (columns)
+   */
+  public int getNumSamples() {
+    return m_numColumns;
+  }
+
+  /**
+   * @return The index (in the VCF file) of the sample in {@code column}
+   */
+  public int getSampleIndex(int column) {
+    checkColumn(column);
+    return m_sampleIndexes[column];
+  }
+
+  /**
+   * @return Whether there is a record at the locus in {@code row}
+   */
+  public boolean isFound(int row) {
+    return getPosition(row) != null;
+  }
+
+  /**
+   * @return The position of the record at the locus in {@code row}, or null if there is none
+   */
+  public @Nullable VcfPosition getPosition(int row) {
+    checkRow(row);
+    return m_positions[row];
+  }
+
+  /**
+   * @return The genotype of the sample in {@code column} at the locus in {@code row}, or null if there is no record at
+   * the locus or the sample has no GT call (or every allele is missing)
+   */
+  public @Nullable Genotype getGenotype(int row, int column) {
+    checkRow(row);
+    checkColumn(column);
+    return m_genotypes[row * m_numColumns + column];
+  }
+
+
+  /**
+   * Clears the table and sizes it for {@code numLoci} rows and the samples in {@code samples}.
+   */
+  void reset(int numLoci, SampleSet samples) {
+    m_numLoci = numLoci;
+    m_numColumns = samples.size();
+    if (m_sampleIndexes.length < m_numColumns) {
+      m_sampleIndexes = new int[m_numColumns];
+    }
+    int column = 0;
+    for (int sample = samples.nextSample(0); sample >= 0; sample = samples.nextSample(sample + 1)) {
+      m_sampleIndexes[column++] = sample;
+    }
+    if (m_positions.length < numLoci) {
+      m_positions = new VcfPosition[numLoci];
+      m_lociPositions = new long[numLoci];
+      m_records = new int[numLoci];
+    } else {
+      Arrays.fill(m_positions, 0, numLoci, null);
+    }
+    int numCells = Math.multiplyExact(numLoci, m_numColumns);
+    if (m_genotypes.length < numCells) {
+      m_genotypes = new Genotype[numCells];
+    } else {
+      Arrays.fill(m_genotypes, 0, numCells, null);
+    }
+  }
+
+  /**
+   * @return The sample index of each column; longer than the number of columns if the table was larger before
+   */
+  int[] sampleIndexes() {
+    return m_sampleIndexes;
+  }
+
+  /**
+   * @return Scratch space for the position of each locus
+   */
+  long[] lociPositions() {
+    return m_lociPositions;
+  }
+
+  /**
+   * @return Scratch space for the record at each locus
+   */
+  int[] records() {
+    return m_records;
+  }
+
+  /**
+   * @return Scratch space for the common calls at a record, by 2-bit code and phase
+   */
+  @Nullable Genotype[] commonGenotypes() {
+    return m_commonGenotypes;
+  }
+
+  void setPosition(int row, VcfPosition position) {
+    m_positions[row] = position;
+  }
+
+  void setGenotype(int row, int column, @Nullable Genotype genotype) {
+    m_genotypes[row * m_numColumns + column] = genotype;
+  }
+
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= m_numLoci) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + m_numLoci + " loci");
+    }
+  }
+
+  private void checkColumn(int column) {
+    if (column < 0 || column >= m_numColumns) {
+      throw new IndexOutOfBoundsException("Column " + column + " out of bounds for " + m_numColumns + " sample(s)");
+    }
+  }
+}
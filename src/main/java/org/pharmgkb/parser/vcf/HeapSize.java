@@ -0,0 +1,192 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.model.CharSlice;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+import org.pharmgkb.parser.vcf.model.VcfSampleBlock;
+
+
+/**
+ * Estimates of how many bytes of heap objects retain, assuming a 64-bit JVM with compressed references (12-byte object
+ * headers, 4-byte references, 8-byte alignment) and compact (Latin-1) strings.
+ * <p>
+ * The estimates are read through public getters that do not parse anything (a position's INFO is sized from its raw
+ * text until it has been parsed), so sizing a record does not change how much memory it takes.
+ */
+final class HeapSize {
+  static final int REFERENCE = 4;
+  private static final int sf_objectHeader = 12;
+  private static final int sf_arrayHeader = 16;
+  // VcfPosition has 15 reference, long, int and boolean fields
+  private static final long sf_position = object(11 * REFERENCE + 8 + 4 + 2);
+  // VcfSample has 5 reference, int and boolean fields
+  private static final long sf_sample = object(5 * REFERENCE + 4 + 2);
+  private static final long sf_sampleBlock = object(6 * REFERENCE + 4 + 1);
+  private static final long sf_charSlice = object(REFERENCE + 3 * 4);
+  private static final long sf_bigDecimal = object(REFERENCE * 2 + 4 * 2 + 8);
+  // a HashMap entry (hash, key, value, next)
+  static final long MAP_ENTRY = object(4 + 3 * REFERENCE);
+  static final long INTEGER = object(4);
+
+  private HeapSize() {
+  }
+
+
+  static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  static long object(long fieldBytes) {
+    return align(sf_objectHeader + fieldBytes);
+  }
+
+  static long array(int elementBytes, long length) {
+    return align(sf_arrayHeader + elementBytes * length);
+  }
+
+  static long string(int length) {
+    return object(REFERENCE + 4 + 2) + array(1, length);
+  }
+
+  /**
+   * @return The size of a list of {@code size} references, not counting its elements
+   */
+  static long list(int size) {
+    return object(REFERENCE + 4) + array(REFERENCE, size);
+  }
+
+  /**
+   * @return The size of a {@link HashMap} table for {@code size} entries, not counting the entries
+   */
+  static long hashTable(int size) {
+    int capacity = Integer.highestOneBit(Math.max(16, size + size / 3) - 1) << 1;
+    return object(5 * REFERENCE + 3 * 4 + 4) + array(REFERENCE, capacity);
+  }
+
+
+  /**
+   * Estimates the bytes a record's position retains. Its strings are sized by {@code strings}, if given, which sizes a
+   * string only the first time it sees it.
+   */
+  static long position(VcfPosition position, @Nullable Strings strings) {
+    long bytes = sf_position;
+    bytes += chars(position.getChromosomeView(), strings);
+    bytes += chars(position.getRefView(), strings);
+    bytes += strings(position.getIds(), strings);
+    bytes += strings(position.getAltBases(), strings);
+    bytes += strings(position.getFilters(), strings);
+    bytes += strings(position.getFormat(), strings);
+    String rawQuality = position.getRawQuality();
+    if (rawQuality != null) {
+      bytes += string(rawQuality, strings);
+    } else if (position.getQuality() != null) {
+      bytes += sf_bigDecimal;
+    }
+    String rawInfo = position.getRawInfo();
+    if (rawInfo != null) {
+      bytes += string(rawInfo, strings);
+    } else {
+      // an ArrayListMultimap: a HashMap of a list per key
+      Set<String> keys = position.getInfoKeys();
+      bytes += object(3 * REFERENCE + 2 * 4) + hashTable(keys.size());
+      for (String key : keys) {
+        bytes += MAP_ENTRY + string(key, strings) + strings(position.getInfo(key), strings);
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Estimates the bytes a record's samples retain. A {@link VcfSampleBlock} is sized as its line (which the record's
+   * CHROM and REF may also point into), offsets and FORMAT keys; samples it has handed out are not counted.
+   */
+  static long samples(List<VcfSample> samples, List<String> format, @Nullable Strings strings) {
+    if (samples instanceof VcfSampleBlock) {
+      VcfSampleBlock block = (VcfSampleBlock)samples;
+      long bytes = sf_sampleBlock + string(block.getLine(), strings) + strings(block.getFormat(), strings);
+      int numColumns = block.getNumDistinctColumns();
+      bytes += array(4, 2L * numColumns * block.getFormat().size());
+      if (numColumns != block.size()) {
+        bytes += array(4, block.size());
+      }
+      return bytes;
+    }
+    long bytes = list(samples.size());
+    for (VcfSample sample : samples) {
+      // keys and values lists, or a LinkedHashMap with an entry per key
+      bytes += sf_sample + 2 * list(format.size());
+      for (String key : format) {
+        CharSequence value = sample.getPropertyView(key);
+        if (value != null) {
+          bytes += chars(value, strings);
+        }
+      }
+    }
+    return bytes;
+  }
+
+  private static long strings(@Nullable List<String> values, @Nullable Strings strings) {
+    if (values == null) {
+      return 0;
+    }
+    long bytes = values.isEmpty() ? 0 : list(values.size());
+    for (String value : values) {
+      bytes += string(value, strings);
+    }
+    return bytes;
+  }
+
+  private static long chars(CharSequence chars, @Nullable Strings strings) {
+    if (chars instanceof String) {
+      return string((String)chars, strings);
+    }
+    // a slice of a line that is counted with the samples
+    return chars instanceof CharSlice ? sf_charSlice : string(chars.length());
+  }
+
+  private static long string(String value, @Nullable Strings strings) {
+    return strings == null ? string(value.length()) : strings.add(value);
+  }
+
+
+  /**
+   * Sizes each distinct string object once, and keeps track of how many bytes are taken by strings equal to one seen
+   * before that are not the same object.
+   */
+  static final class Strings {
+    private final Set<String> m_objects = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<String> m_values = new HashSet<>();
+    private long m_bytes;
+    private long m_duplicateBytes;
+
+    /**
+     * @return The bytes {@code value} adds: 0 if the same object was seen before
+     */
+    long add(String value) {
+      if (!m_objects.add(value)) {
+        return 0;
+      }
+      long bytes = string(value.length());
+      m_bytes += bytes;
+      if (!m_values.add(value)) {
+        m_duplicateBytes += bytes;
+      }
+      return bytes;
+    }
+
+    long getBytes() {
+      return m_bytes;
+    }
+
+    long getDuplicateBytes() {
+      return m_duplicateBytes;
+    }
+  }
+}
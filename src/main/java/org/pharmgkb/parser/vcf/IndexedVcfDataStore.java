@@ -0,0 +1,547 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfLineParser.DuplicateHandler;
+import org.pharmgkb.parser.vcf.model.VcfMetadata;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * A {@link VcfDataStore} that reads records from an uncompressed VCF file on demand, keeping only an index and a
+ * bounded cache of records on the heap.
+ * <p>
+ * Opening a store scans the file once, reading just the CHROM, POS and ID of each data line, and splits the data lines
+ * into blocks of about {@link Builder#setBlockSize a given size}. Each record's locus and IDs are indexed by record
+ * number (the same way {@link MemoryMappedVcfDataStore} indexes them), and a lookup reads and parses the record's whole
+ * block. Parsed blocks are kept in an LRU cache bounded by an estimate of their size on the heap
+ * ({@link Builder#setCacheSize}); see {@link #getCacheStats()} for its hit, miss and eviction counts.
+ * <p>
+ * Lines are only checked when their block is parsed, so a malformed line throws a {@link VcfFormatException} from the
+ * lookup that reaches it. Cached records are {@link VcfPosition#freeze() frozen} and shared by every lookup that finds
+ * them. A store can be shared between threads; the file must not be changed while it is open.
+ */
+public class IndexedVcfDataStore implements VcfDataStore, Closeable {
+  private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  private static final long DEFAULT_CACHE_SIZE = 64L * 1024 * 1024;
+  // a rough allowance for a parsed record's objects, on top of its text
+  private static final int RECORD_OVERHEAD = 256;
+
+  private final FileChannel m_channel;
+  private final VcfMetadata m_metadata;
+  private final Map<String, Integer> m_contigOrdinals;
+  private final LongIntHashMap m_locusToRecord;
+  private final RsidIndex m_rsidToRecord;
+  private final Map<String, Integer> m_idToRecord;
+  // the file offset of each block's first line, and the end of the last block
+  private final long[] m_blockOffsets;
+  // the number of each block's first record, and the number of records
+  private final int[] m_blockFirstRecords;
+  private final LoadingCache<Integer, Block> m_cache;
+
+
+  private IndexedVcfDataStore(Path file, int blockSize, long cacheSize, DuplicateHandler duplicateIdHandler,
+      DuplicateHandler duplicateLocusHandler) throws IOException {
+    Scanner scanner = new Scanner(blockSize, duplicateIdHandler, duplicateLocusHandler);
+    try (InputStream in = Files.newInputStream(file)) {
+      scanner.scan(in);
+    }
+    m_metadata = scanner.m_metadata;
+    m_contigOrdinals = Map.copyOf(scanner.m_contigOrdinals);
+    m_locusToRecord = scanner.m_locusToRecord.compact();
+    m_rsidToRecord = scanner.m_rsidToRecord.compact();
+    m_idToRecord = Map.copyOf(scanner.m_idToRecord);
+    m_blockOffsets = Arrays.copyOf(scanner.m_blockOffsets, scanner.m_numBlocks + 1);
+    m_blockFirstRecords = Arrays.copyOf(scanner.m_blockFirstRecords, scanner.m_numBlocks + 1);
+    m_cache = CacheBuilder.newBuilder()
+        .maximumWeight(cacheSize)
+        .weigher((Integer block, Block value) -> value.m_weight)
+        .recordStats()
+        .build(new CacheLoader<>() {
+          @Override
+          public Block load(Integer block) throws IOException {
+            return readBlock(block);
+          }
+        });
+    m_channel = FileChannel.open(file, StandardOpenOption.READ);
+  }
+
+
+  @Override
+  public VcfMetadata getMetadata() {
+    return m_metadata;
+  }
+
+  /**
+   * @return The number of data lines
+   */
+  public int getNumRecords() {
+    return m_blockFirstRecords[m_blockFirstRecords.length - 1];
+  }
+
+  public int getNumBlocks() {
+    return m_blockOffsets.length - 1;
+  }
+
+  /**
+   * @return The block cache's hit, miss, load and eviction counts so far
+   */
+  public CacheStats getCacheStats() {
+    return m_cache.stats();
+  }
+
+  /**
+   * @return The estimated heap size of the cached blocks, in bytes
+   */
+  public long getCachedSize() {
+    long size = 0;
+    for (Block block : m_cache.asMap().values()) {
+      size += block.m_weight;
+    }
+    return size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    m_cache.invalidateAll();
+    m_channel.close();
+  }
+
+
+  @Override
+  public @Nullable VcfPosition getPositionForId(String id) {
+    int record = getRecordForId(id);
+    return record < 0 ? null : getPosition(record);
+  }
+
+  @Override
+  public @Nullable List<VcfSample> getSamplesForId(String id) {
+    int record = getRecordForId(id);
+    return record < 0 ? null : getSamples(record);
+  }
+
+  @Override
+  public @Nullable VcfPosition getPositionAtLocus(String chromosome, long position) {
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : getPosition(record);
+  }
+
+  @Override
+  public @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position) {
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : getSamples(record);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeForId(String positionId, int sampleIndex) {
+    int record = getRecordForId(positionId);
+    return record < 0 ? null : getGenotype(record, sampleIndex);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeAtLocus(String chromosome, long position,
+      int sampleIndex) {
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : getGenotype(record, sampleIndex);
+  }
+
+
+  private int getRecordAtLocus(String chromosome, long position) {
+    Integer ordinal = m_contigOrdinals.get(chromosome);
+    if (ordinal == null || position < 0 || position > MemoryMappedVcfDataStore.MAX_POSITION) {
+      return -1;
+    }
+    return m_locusToRecord.get(((long)ordinal << MemoryMappedVcfDataStore.POSITION_BITS) | position);
+  }
+
+  private int getRecordForId(String id) {
+    long rsid = RsidIndex.parse(id);
+    if (rsid != RsidIndex.NOT_AN_RSID) {
+      return m_rsidToRecord.get(rsid);
+    }
+    Integer record = m_idToRecord.get(id);
+    return record == null ? -1 : record;
+  }
+
+  private VcfPosition getPosition(int record) {
+    int block = blockOf(record);
+    return block(block).m_positions.get(record - m_blockFirstRecords[block]);
+  }
+
+  private List<VcfSample> getSamples(int record) {
+    int block = blockOf(record);
+    return block(block).m_samples.get(record - m_blockFirstRecords[block]);
+  }
+
+  private MemoryMappedVcfDataStore.@Nullable Genotype getGenotype(int record, int sampleIndex) {
+    int block = blockOf(record);
+    Block value = block(block);
+    int x = record - m_blockFirstRecords[block];
+    return MemoryMappedVcfDataStore.toGenotype(value.m_positions.get(x), value.m_samples.get(x).get(sampleIndex));
+  }
+
+  private int blockOf(int record) {
+    int x = Arrays.binarySearch(m_blockFirstRecords, record);
+    // blocks are never empty, so there is no run of equal first records to land in
+    return x >= 0 ? x : -x - 2;
+  }
+
+  private Block block(int block) {
+    try {
+      return m_cache.get(block);
+    } catch (ExecutionException ex) {
+      throw new UncheckedIOException((IOException)ex.getCause());
+    } catch (UncheckedExecutionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private Block readBlock(int block) throws IOException {
+    long offset = m_blockOffsets[block];
+    ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(m_blockOffsets[block + 1] - offset));
+    while (buffer.hasRemaining()) {
+      if (m_channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("VCF file was truncated after it was indexed");
+      }
+    }
+    String text = new String(buffer.array(), StandardCharsets.UTF_8);
+    int numRecords = m_blockFirstRecords[block + 1] - m_blockFirstRecords[block];
+    List<VcfPosition> positions = new ArrayList<>(numRecords);
+    List<List<VcfSample>> samples = new ArrayList<>(numRecords);
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      if (end < 0) {
+        end = text.length();
+      }
+      String line = text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end);
+      VcfParser.parseDataLine(m_metadata, line, false, 0, (metadata, position, sampleData) -> {
+        position.freeze();
+        positions.add(position);
+        samples.add(MemoryMappedVcfDataStore.freeze(sampleData));
+      });
+      start = end + 1;
+    }
+    if (positions.size() != numRecords) {
+      throw new IOException("VCF file was changed after it was indexed");
+    }
+    int weight = Ints.saturatedCast(text.length() + (long)RECORD_OVERHEAD * numRecords);
+    return new Block(positions, samples, weight);
+  }
+
+
+  private static class Block {
+    private final List<VcfPosition> m_positions;
+    private final List<List<VcfSample>> m_samples;
+    private final int m_weight;
+
+    private Block(List<VcfPosition> positions, List<List<VcfSample>> samples, int weight) {
+      m_positions = positions;
+      m_samples = samples;
+      m_weight = weight;
+    }
+  }
+
+
+  /**
+   * Reads the header and indexes the data lines, without parsing them.
+   */
+  private static class Scanner {
+    private final int m_blockSize;
+    private final DuplicateHandler m_duplicateIdHandler;
+    private final DuplicateHandler m_duplicateLocusHandler;
+    private final StringBuilder m_header = new StringBuilder();
+    private @Nullable VcfMetadata m_metadata;
+    private final Map<String, Integer> m_contigOrdinals = new HashMap<>();
+    private final LongIntHashMap m_locusToRecord = new LongIntHashMap();
+    private final RsidIndex m_rsidToRecord = new RsidIndex();
+    private final Map<String, Integer> m_idToRecord = new HashMap<>();
+    private long[] m_blockOffsets = new long[16];
+    private int[] m_blockFirstRecords = new int[16];
+    private int m_numBlocks;
+    private int m_numRecords;
+    private int m_lineNumber;
+
+    private Scanner(int blockSize, DuplicateHandler duplicateIdHandler, DuplicateHandler duplicateLocusHandler) {
+      m_blockSize = blockSize;
+      m_duplicateIdHandler = duplicateIdHandler;
+      m_duplicateLocusHandler = duplicateLocusHandler;
+    }
+
+    private void scan(InputStream in) throws IOException {
+      byte[] buffer = new byte[64 * 1024];
+      byte[] line = new byte[256];
+      int lineLength = 0;
+      long offset = 0;
+      long lineStart = 0;
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        for (int x = 0; x < n; x++) {
+          byte b = buffer[x];
+          if (b == '\n') {
+            readLine(line, lineLength, lineStart);
+            lineLength = 0;
+            lineStart = offset + x + 1;
+          } else {
+            if (lineLength == line.length) {
+              line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+          }
+        }
+        offset += n;
+      }
+      if (lineLength > 0) {
+        readLine(line, lineLength, lineStart);
+      }
+      if (m_metadata == null) {
+        throw new VcfFormatException("Missing column header line");
+      }
+      // the end of the last block
+      startBlock(offset);
+      m_numBlocks--;
+    }
+
+    private void readLine(byte[] line, int length, long offset) {
+      m_lineNumber++;
+      if (length > 0 && line[length - 1] == '\r') {
+        length--;
+      }
+      if (m_metadata == null) {
+        String text = new String(line, 0, length, StandardCharsets.UTF_8);
+        m_header.append(text).append('\n');
+        if (!text.startsWith("##")) {
+          parseHeader();
+        }
+        return;
+      }
+      if (length == 0) {
+        throw new VcfFormatException("Empty line", m_lineNumber);
+      }
+      if (line[0] == '#') {
+        throw new VcfFormatException("Unexpected line starting with '#' after the column header; VCF has no comment "
+            + "syntax", m_lineNumber);
+      }
+      if (m_numBlocks == 0 || offset - m_blockOffsets[m_numBlocks - 1] >= m_blockSize) {
+        startBlock(offset);
+      }
+      indexRecord(line, length);
+      m_numRecords++;
+    }
+
+    private void parseHeader() {
+      try (BufferedReader reader = new BufferedReader(new StringReader(m_header.toString()))) {
+        m_metadata = new VcfParser.Builder()
+            .fromReader(reader)
+            .parseWith((metadata, position, sampleData) -> { })
+            .build()
+            .parseMetadata();
+      } catch (IOException ex) {
+        // cannot happen when reading a string
+        throw new UncheckedIOException(ex);
+      }
+      for (String contig : m_metadata.getContigs().keySet()) {
+        contigOrdinal(contig);
+      }
+    }
+
+    /**
+     * Starts a new block at {@code offset}, which also ends the previous one.
+     */
+    private void startBlock(long offset) {
+      if (m_numBlocks + 1 >= m_blockOffsets.length) {
+        m_blockOffsets = Arrays.copyOf(m_blockOffsets, m_blockOffsets.length * 2);
+        m_blockFirstRecords = Arrays.copyOf(m_blockFirstRecords, m_blockFirstRecords.length * 2);
+      }
+      m_blockOffsets[m_numBlocks] = offset;
+      m_blockFirstRecords[m_numBlocks] = m_numRecords;
+      m_numBlocks++;
+    }
+
+    private void indexRecord(byte[] line, int length) {
+      int chromEnd = indexOf(line, length, 0);
+      int posEnd = indexOf(line, length, chromEnd + 1);
+      int idEnd = indexOf(line, length, posEnd + 1);
+      if (idEnd == length) {
+        throw new VcfFormatException("Data line does not have expected number of columns", m_lineNumber);
+      }
+      String chromosome = new String(line, 0, chromEnd, StandardCharsets.UTF_8);
+      long position = parsePosition(line, chromEnd + 1, posEnd);
+
+      long locus = ((long)contigOrdinal(chromosome) << MemoryMappedVcfDataStore.POSITION_BITS) | position;
+      boolean containsLocus = m_locusToRecord.containsKey(locus);
+      if (containsLocus && m_duplicateLocusHandler == DuplicateHandler.FAIL) {
+        throw new VcfFormatException("Duplicate VCF record for position " + chromosome + ":" + position,
+            m_lineNumber);
+      }
+      if (!containsLocus || m_duplicateLocusHandler == DuplicateHandler.KEEP_LAST) {
+        m_locusToRecord.put(locus, m_numRecords);
+      }
+
+      if (idEnd - posEnd == 2 && line[posEnd + 1] == '.') {
+        return;
+      }
+      int start = posEnd + 1;
+      while (start < idEnd) {
+        int end = start;
+        while (end < idEnd && line[end] != ';') {
+          end++;
+        }
+        indexId(new String(line, start, end - start, StandardCharsets.UTF_8));
+        start = end + 1;
+      }
+    }
+
+    private void indexId(String id) {
+      long rsid = RsidIndex.parse(id);
+      boolean containsId = rsid != RsidIndex.NOT_AN_RSID ? m_rsidToRecord.get(rsid) >= 0 :
+          m_idToRecord.containsKey(id);
+      if (containsId && m_duplicateIdHandler == DuplicateHandler.FAIL) {
+        throw new VcfFormatException("Duplicate VCF record for ID " + id, m_lineNumber);
+      }
+      if (!containsId || m_duplicateIdHandler == DuplicateHandler.KEEP_LAST) {
+        if (rsid != RsidIndex.NOT_AN_RSID) {
+          m_rsidToRecord.put(rsid, m_numRecords);
+        } else {
+          m_idToRecord.put(id, m_numRecords);
+        }
+      }
+    }
+
+    private long parsePosition(byte[] line, int start, int end) {
+      if (start == end || end - start > 13) {
+        throw new VcfFormatException("Invalid POS", m_lineNumber);
+      }
+      long position = 0;
+      for (int x = start; x < end; x++) {
+        if (line[x] < '0' || line[x] > '9') {
+          throw new VcfFormatException("POS is not a number", m_lineNumber);
+        }
+        position = position * 10 + (line[x] - '0');
+      }
+      if (position > MemoryMappedVcfDataStore.MAX_POSITION) {
+        throw new VcfFormatException("Position " + position + " is out of range", m_lineNumber);
+      }
+      return position;
+    }
+
+    private int contigOrdinal(String chromosome) {
+      Integer ordinal = m_contigOrdinals.get(chromosome);
+      if (ordinal == null) {
+        if (m_contigOrdinals.size() == MemoryMappedVcfDataStore.MAX_CONTIGS) {
+          throw new VcfFormatException("Too many contigs (more than " + MemoryMappedVcfDataStore.MAX_CONTIGS + ")");
+        }
+        ordinal = m_contigOrdinals.size();
+        m_contigOrdinals.put(chromosome, ordinal);
+      }
+      return ordinal;
+    }
+
+    private static int indexOf(byte[] line, int length, int from) {
+      int x = from;
+      while (x < length && line[x] != '\t') {
+        x++;
+      }
+      return x;
+    }
+  }
+
+
+  public static class Builder {
+    private @Nullable Path m_file;
+    private int m_blockSize = DEFAULT_BLOCK_SIZE;
+    private long m_cacheSize = DEFAULT_CACHE_SIZE;
+    private DuplicateHandler m_duplicateIdHandler = DuplicateHandler.FAIL;
+    private DuplicateHandler m_duplicateLocusHandler = DuplicateHandler.FAIL;
+
+    /**
+     * @param file An uncompressed VCF file
+     */
+    public Builder fromFile(Path file) {
+      m_file = file;
+      return this;
+    }
+
+    /**
+     * Sets the size in bytes at which data lines are split into blocks, the unit that is read, parsed and cached
+     * (64 KiB by default). A block ends at the first line that reaches the size, so it may be somewhat larger, and
+     * holds at least one line.
+     */
+    public Builder setBlockSize(int blockSize) {
+      if (blockSize <= 0) {
+        throw new IllegalArgumentException("Block size must be positive");
+      }
+      m_blockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * Sets the approximate heap size in bytes that parsed blocks may take (64 MiB by default); the least recently used
+     * blocks are evicted to stay within it.
+     */
+    public Builder setCacheSize(long cacheSize) {
+      if (cacheSize < 0) {
+        throw new IllegalArgumentException("Cache size must not be negative");
+      }
+      m_cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * See {@link MemoryMappedVcfLineParser.Builder#setDuplicateIdHandler}.
+     */
+    public Builder setDuplicateIdHandler(DuplicateHandler handler) {
+      m_duplicateIdHandler = handler;
+      return this;
+    }
+
+    /**
+     * See {@link MemoryMappedVcfLineParser.Builder#setDuplicateLocusHandler}.
+     */
+    public Builder setDuplicateLocusHandler(DuplicateHandler handler) {
+      m_duplicateLocusHandler = handler;
+      return this;
+    }
+
+    /**
+     * Scans and indexes the file.
+     *
+     * @throws VcfFormatException If the header is invalid, a data line's CHROM, POS or ID cannot be read, or there is
+     * a duplicate ID or locus and its handler is {@link DuplicateHandler#FAIL}
+     */
+    public IndexedVcfDataStore build() throws IOException {
+      if (m_file == null) {
+        throw new IllegalStateException("Must specify file");
+      }
+      return new IndexedVcfDataStore(m_file, m_blockSize, m_cacheSize, m_duplicateIdHandler,
+          m_duplicateLocusHandler);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+
+
+/**
+ * A map from {@code long} keys to non-negative {@code int} values, using open addressing with linear probing over two
+ * primitive arrays so that neither lookups nor entries allocate objects.
+ * <p>
+ * Keys must not be {@link #EMPTY_KEY}; {@link #get} returns {@link #NO_VALUE} for a missing key. Entries cannot be
+ * removed.
+ */
+final class LongIntHashMap {
+  static final long EMPTY_KEY = -1;
+  static final int NO_VALUE = -1;
+
+  private long[] m_keys;
+  private int[] m_values;
+  private int m_size;
+  // resize once m_size reaches this
+  private int m_threshold;
+
+
+  LongIntHashMap() {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize The number of entries expected; the map grows beyond this as needed
+   */
+  LongIntHashMap(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(4, expectedSize + expectedSize / 2) - 1) << 1;
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    m_keys = new long[capacity];
+    Arrays.fill(m_keys, EMPTY_KEY);
+    m_values = new int[capacity];
+    m_threshold = capacity / 3 * 2;
+  }
+
+
+  int size() {
+    return m_size;
+  }
+
+  /**
+   * @return The value for {@code key}, or {@link #NO_VALUE} if there is none
+   */
+  int get(long key) {
+    int mask = m_keys.length - 1;
+    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      long k = m_keys[slot];
+      if (k == key) {
+        return m_values[slot];
+      }
+      if (k == EMPTY_KEY) {
+        return NO_VALUE;
+      }
+    }
+  }
+
+  /**
+   * @return An estimate of the bytes this map retains
+   */
+  long estimateBytes() {
+    return HeapSize.object(2 * HeapSize.REFERENCE + 2 * 4) + HeapSize.array(8, m_keys.length) +
+        HeapSize.array(4, m_values.length);
+  }
+
+  boolean containsKey(long key) {
+    return get(key) != NO_VALUE;
+  }
+
+  /**
+   * @return The previous value for {@code key}, or {@link #NO_VALUE} if there was none
+   * @throws IllegalArgumentException If {@code key} is {@link #EMPTY_KEY} or {@code value} is negative
+   */
+  int put(long key, int value) {
+    if (key == EMPTY_KEY) {
+      throw new IllegalArgumentException("Key must not be " + EMPTY_KEY);
+    }
+    if (value < 0) {
+      throw new IllegalArgumentException("Value must not be negative: " + value);
+    }
+    int mask = m_keys.length - 1;
+    int slot = hash(key) & mask;
+    while (m_keys[slot] != EMPTY_KEY) {
+      if (m_keys[slot] == key) {
+        int previous = m_values[slot];
+        m_values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    m_keys[slot] = key;
+    m_values[slot] = value;
+    if (++m_size >= m_threshold) {
+      rehash(m_keys.length * 2);
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * @return The values, in no particular order
+   */
+  int[] values() {
+    int[] values = new int[m_size];
+    int n = 0;
+    for (int slot = 0; slot < m_keys.length; slot++) {
+      if (m_keys[slot] != EMPTY_KEY) {
+        values[n++] = m_values[slot];
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return The keys, in no particular order
+   */
+  long[] keys() {
+    long[] keys = new long[m_size];
+    int n = 0;
+    for (long key : m_keys) {
+      if (key != EMPTY_KEY) {
+        keys[n++] = key;
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * @return A copy of this map, no larger than needed for its entries
+   */
+  LongIntHashMap compact() {
+    LongIntHashMap copy = new LongIntHashMap(m_size);
+    for (int slot = 0; slot < m_keys.length; slot++) {
+      if (m_keys[slot] != EMPTY_KEY) {
+        copy.put(m_keys[slot], m_values[slot]);
+      }
+    }
+    return copy;
+  }
+
+  private void rehash(int capacity) {
+    long[] keys = m_keys;
+    int[] values = m_values;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int x = 0; x < keys.length; x++) {
+      if (keys[x] != EMPTY_KEY) {
+        int slot = hash(keys[x]) & mask;
+        while (m_keys[slot] != EMPTY_KEY) {
+          slot = (slot + 1) & mask;
+        }
+        m_keys[slot] = keys[x];
+        m_values[slot] = values[x];
+      }
+    }
+  }
+
+  /**
+   * Spreads the key's bits, since loci differing only in their low (position) bits are common.
+   */
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int)(h ^ (h >>> 32));
+  }
+}
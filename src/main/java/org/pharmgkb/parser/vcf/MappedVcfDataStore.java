@@ -0,0 +1,380 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.model.VcfMetadata;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * A {@link VcfDataStore} backed by a memory-mapped file written by {@link MappedVcfDataStoreWriter}.
+ * <p>
+ * Unlike {@link MemoryMappedVcfDataStore}, opening a store does not parse the VCF file again and its records are not
+ * held on the heap: the file holds each record as a VCF data line, followed by the end offsets of its FORMAT and
+ * sample columns, plus sorted indexes by locus and by ID. A lookup binary searches the mapped index and parses just the
+ * one record it finds: only up to FORMAT if only its position is asked for, and only that plus the one sample's column
+ * for a genotype. Asking for a record's samples parses its whole line. Every lookup returns newly parsed objects, so
+ * changes to them are not seen by later lookups.
+ * <p>
+ * A store is immutable and can be shared between threads. The file is mapped read-only, in chunks of up to 1 GiB, and
+ * is unmapped once the store is garbage collected; it must not be changed while a store is open.
+ */
+public class MappedVcfDataStore implements VcfDataStore {
+  /** "PGKBVCF1" */
+  static final long MAGIC = 0x50474B4256434631L;
+  static final int VERSION = 2;
+  /** The magic number and version. */
+  static final int PREAMBLE_SIZE = 12;
+  /** Header offset and length, contig table offset and count, locus index offset and count, ID heap offset, ID index
+   * offset and count, magic number. */
+  static final int FOOTER_SIZE = 64;
+  /** Contig ordinal, position, record offset and length. */
+  static final int LOCUS_ENTRY_SIZE = 24;
+  /** ID offset and length, record offset and length. */
+  static final int ID_ENTRY_SIZE = 24;
+  private static final long DEFAULT_CHUNK_SIZE = 1L << 30;
+  // chunks overlap by this much so that any int or long can be read from a single chunk
+  private static final int CHUNK_OVERLAP = 8;
+
+  private final MappedByteBuffer[] m_chunks;
+  private final long m_chunkSize;
+  private final long m_size;
+  private final VcfMetadata m_metadata;
+  private final Map<String, Integer> m_contigs;
+  private final long m_lociOffset;
+  private final int m_numLoci;
+  private final long m_idIndexOffset;
+  private final int m_numIds;
+
+
+  private MappedVcfDataStore(Path file, long chunkSize) throws IOException {
+    m_chunkSize = chunkSize;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      m_size = channel.size();
+      if (m_size < PREAMBLE_SIZE + FOOTER_SIZE) {
+        throw new VcfFormatException("Not a mapped VCF data store: " + file);
+      }
+      int numChunks = (int)((m_size + chunkSize - 1) / chunkSize);
+      m_chunks = new MappedByteBuffer[numChunks];
+      for (int x = 0; x < numChunks; x++) {
+        long start = x * chunkSize;
+        m_chunks[x] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(chunkSize + CHUNK_OVERLAP, m_size - start));
+      }
+    }
+
+    long footer = m_size - FOOTER_SIZE;
+    if (getLong(0) != MAGIC || getLong(footer + FOOTER_SIZE - 8) != MAGIC) {
+      throw new VcfFormatException("Not a mapped VCF data store (or not completely written): " + file);
+    }
+    if (getInt(8) != VERSION) {
+      throw new VcfFormatException("Unsupported mapped VCF data store version " + getInt(8) + ": " + file);
+    }
+    long headerOffset = getLong(footer);
+    int headerLength = getInt(footer + 8);
+    long contigsOffset = getLong(footer + 12);
+    int numContigs = getInt(footer + 20);
+    m_lociOffset = getLong(footer + 24);
+    m_numLoci = getInt(footer + 32);
+    // ID heap offset (footer + 36) is only needed to write the file
+    m_idIndexOffset = getLong(footer + 44);
+    m_numIds = getInt(footer + 52);
+
+    String header = getString(headerOffset, headerLength);
+    try (BufferedReader reader = new BufferedReader(new StringReader(header))) {
+      m_metadata = new VcfParser.Builder()
+          .fromReader(reader)
+          .parseWith((metadata, position, sampleData) -> { })
+          .build()
+          .parseMetadata();
+    }
+
+    m_contigs = new HashMap<>();
+    long offset = contigsOffset;
+    for (int x = 0; x < numContigs; x++) {
+      int length = getInt(offset);
+      m_contigs.put(getString(offset + 4, length), x);
+      offset += 4 + length;
+    }
+  }
+
+  /**
+   * Opens a store written by {@link MappedVcfDataStoreWriter}.
+   *
+   * @throws VcfFormatException If the file is not a (completely written) mapped VCF data store
+   */
+  public static MappedVcfDataStore open(Path file) throws IOException {
+    return new MappedVcfDataStore(file, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Opens a store, mapping it in chunks of the given size. Only for testing reads across chunk boundaries.
+   */
+  static MappedVcfDataStore open(Path file, long chunkSize) throws IOException {
+    return new MappedVcfDataStore(file, chunkSize);
+  }
+
+
+  @Override
+  public VcfMetadata getMetadata() {
+    return m_metadata;
+  }
+
+  /**
+   * @return The number of distinct loci
+   */
+  public int getNumLoci() {
+    return m_numLoci;
+  }
+
+  /**
+   * @return The number of distinct IDs
+   */
+  public int getNumIds() {
+    return m_numIds;
+  }
+
+  @Override
+  public @Nullable VcfPosition getPositionForId(String id) {
+    long record = findId(id);
+    return record == -1 ? null : readPosition(record);
+  }
+
+  @Override
+  public @Nullable List<VcfSample> getSamplesForId(String id) {
+    long record = findId(id);
+    return record == -1 ? null : readSamples(record);
+  }
+
+  @Override
+  public @Nullable VcfPosition getPositionAtLocus(String chromosome, long position) {
+    long record = findLocus(chromosome, position);
+    return record == -1 ? null : readPosition(record);
+  }
+
+  @Override
+  public @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position) {
+    long record = findLocus(chromosome, position);
+    return record == -1 ? null : readSamples(record);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeForId(String positionId, String sampleId) {
+    int idx = m_metadata.getSampleIndex(sampleId);
+    return idx < 0 ? null : getGenotypeForId(positionId, idx);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeForId(String positionId, int sampleIndex) {
+    long record = findId(positionId);
+    return record == -1 ? null : readGenotype(record, sampleIndex);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeAtLocus(String chromosome, long position,
+      String sampleId) {
+    int idx = m_metadata.getSampleIndex(sampleId);
+    return idx < 0 ? null : getGenotypeAtLocus(chromosome, position, idx);
+  }
+
+  @Override
+  public MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeAtLocus(String chromosome, long position,
+      int sampleIndex) {
+    long record = findLocus(chromosome, position);
+    return record == -1 ? null : readGenotype(record, sampleIndex);
+  }
+
+
+  /**
+   * @return The offset of the record's offset and length in the locus index, or -1 if there is no record at the locus
+   */
+  private long findLocus(String chromosome, long position) {
+    Integer contig = m_contigs.get(chromosome);
+    if (contig == null) {
+      return -1;
+    }
+    int lo = 0;
+    int hi = m_numLoci - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long entry = m_lociOffset + (long)mid * LOCUS_ENTRY_SIZE;
+      int cmp = Integer.compare(getInt(entry), contig);
+      if (cmp == 0) {
+        cmp = Long.compare(getLong(entry + 4), position);
+      }
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return entry + 12;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The offset of the record's offset and length in the ID index, or -1 if there is no record with the ID
+   */
+  private long findId(String id) {
+    byte[] key = id.getBytes(StandardCharsets.UTF_8);
+    int lo = 0;
+    int hi = m_numIds - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long entry = m_idIndexOffset + (long)mid * ID_ENTRY_SIZE;
+      int cmp = compareBytes(getLong(entry), getInt(entry + 8), key);
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return entry + 12;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Compares the bytes at {@code offset} with {@code key} as unsigned bytes, the order the ID index is sorted in.
+   */
+  private int compareBytes(long offset, int length, byte[] key) {
+    int n = Math.min(length, key.length);
+    for (int x = 0; x < n; x++) {
+      int cmp = Integer.compare(getByte(offset + x) & 0xff, key[x] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return Integer.compare(length, key.length);
+  }
+
+  /**
+   * Parses the columns of a record up to FORMAT.
+   *
+   * @param record The offset of the record's offset and length in an index
+   */
+  private VcfPosition readPosition(long record) {
+    long offset = getLong(record);
+    return parse(offset, getString(offset, getColumnEnd(record, 0)), true).m_position;
+  }
+
+  /**
+   * Parses the whole line of a record.
+   */
+  private List<VcfSample> readSamples(long record) {
+    long offset = getLong(record);
+    return parse(offset, getString(offset, getInt(record + 8)), false).m_samples;
+  }
+
+  /**
+   * Parses the columns of a record up to FORMAT and then the column of just the one sample.
+   *
+   * @throws IndexOutOfBoundsException If there is no sample at {@code sampleIndex}
+   */
+  private MemoryMappedVcfDataStore.@Nullable Genotype readGenotype(long record, int sampleIndex) {
+    int numSamples = m_metadata.getNumSamples();
+    if (sampleIndex < 0 || sampleIndex >= numSamples) {
+      throw new IndexOutOfBoundsException("Sample index " + sampleIndex + " is out of range for " + numSamples +
+          " samples");
+    }
+    VcfPosition position = readPosition(record);
+    int start = getColumnEnd(record, sampleIndex) + 1;
+    int end = getColumnEnd(record, sampleIndex + 1);
+    if (end < start) {
+      throw new VcfFormatException("Mapped VCF data store is corrupt: sample column " + sampleIndex +
+          " of the record at offset " + getLong(record) + " ends before it starts");
+    }
+    VcfSample sample = VcfParser.parseSample(getString(getLong(record) + start, end - start), position.getFormat());
+    return MemoryMappedVcfDataStore.toGenotype(position, sample);
+  }
+
+  /**
+   * @param column 0 for the end of FORMAT (or of the line, if there is no FORMAT column), or 1 plus a sample index for
+   * the end of that sample's column
+   * @return The end offset of the column, relative to the start of the record
+   */
+  private int getColumnEnd(long record, int column) {
+    long offset = getLong(record);
+    int length = getInt(record + 8);
+    // the column ends follow the line and its newline
+    long end = offset + length + 1 + 4L * column;
+    checkRange(end, 4);
+    int columnEnd = getInt(end);
+    if (columnEnd < 0 || columnEnd > length) {
+      throw new VcfFormatException("Mapped VCF data store is corrupt: column " + column + " of the record at offset " +
+          offset + " ends at " + columnEnd);
+    }
+    return columnEnd;
+  }
+
+  private Record parse(long offset, String line, boolean positionOnly) {
+    Record[] record = new Record[1];
+    VcfParser.parseDataLine(m_metadata, line, false, positionOnly, 0,
+        (metadata, position, sampleData) -> record[0] = new Record(position, sampleData));
+    if (record[0] == null) {
+      throw new VcfFormatException("Mapped VCF data store record at offset " + offset + " is empty");
+    }
+    return record[0];
+  }
+
+
+  private MappedByteBuffer chunk(long offset) {
+    return m_chunks[(int)(offset / m_chunkSize)];
+  }
+
+  private byte getByte(long offset) {
+    return chunk(offset).get((int)(offset % m_chunkSize));
+  }
+
+  private int getInt(long offset) {
+    return chunk(offset).getInt((int)(offset % m_chunkSize));
+  }
+
+  private long getLong(long offset) {
+    return chunk(offset).getLong((int)(offset % m_chunkSize));
+  }
+
+  private void checkRange(long offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > m_size) {
+      throw new VcfFormatException("Mapped VCF data store is corrupt: " + length + " byte(s) at offset " + offset +
+          " is past the end");
+    }
+  }
+
+  private String getString(long offset, int length) {
+    checkRange(offset, length);
+    byte[] bytes = new byte[length];
+    int read = 0;
+    while (read < length) {
+      long pos = offset + read;
+      int inChunk = (int)(pos % m_chunkSize);
+      int n = (int)Math.min(length - read, m_chunkSize - inChunk);
+      chunk(pos).get(inChunk, bytes, read, n);
+      read += n;
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+
+  private static class Record {
+    private final VcfPosition m_position;
+    private final List<VcfSample> m_samples;
+
+    private Record(VcfPosition position, List<VcfSample> samples) {
+      m_position = position;
+      m_samples = samples;
+    }
+  }
+}
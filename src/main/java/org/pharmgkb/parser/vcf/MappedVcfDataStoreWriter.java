@@ -0,0 +1,361 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfLineParser.DuplicateHandler;
+import org.pharmgkb.parser.vcf.model.VcfMetadata;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * A {@link VcfLineParser} that writes the VCF records it is given to a file that can then be opened as a
+ * {@link MappedVcfDataStore}:
+ * <pre>{@code
+ * try (MappedVcfDataStoreWriter writer = new MappedVcfDataStoreWriter.Builder().toFile(storeFile).build()) {
+ *   new VcfParser.Builder().fromFile(vcfFile).parseWith(writer).build().parse();
+ * }
+ * MappedVcfDataStore dataStore = MappedVcfDataStore.open(storeFile);
+ * }</pre>
+ * <p>
+ * Records are written as they are parsed; only their loci and IDs are kept on the heap until the indexes are written
+ * by {@link #close()}. As with {@link MemoryMappedVcfLineParser}, a {@link VcfFormatException} is thrown by default
+ * when a duplicate ID or locus is found (see {@link Builder#setDuplicateIdHandler} and
+ * {@link Builder#setDuplicateLocusHandler}); once this has happened, {@link #close()} deletes the incomplete file.
+ */
+public class MappedVcfDataStoreWriter implements VcfLineParser, Closeable {
+  private final Path m_file;
+  private final DuplicateHandler m_duplicateIdHandler;
+  private final DuplicateHandler m_duplicateLocusHandler;
+  private final DataOutputStream m_out;
+  private final VcfWriter m_lineWriter;
+  private long m_offset;
+  private @Nullable VcfMetadata m_metadata;
+  private boolean m_failed;
+  private boolean m_closed;
+
+  private final Map<String, Integer> m_contigIds = new HashMap<>();
+  private final List<String> m_contigs = new ArrayList<>();
+  // per record, in the order written
+  private int m_numRecords;
+  private int[] m_recordContigs = new int[1024];
+  private long[] m_recordPositions = new long[1024];
+  private long[] m_recordOffsets = new long[1024];
+  private int[] m_recordLengths = new int[1024];
+  // per ID, in the order found
+  private final List<byte[]> m_ids = new ArrayList<>();
+  private int[] m_idRecords = new int[1024];
+  // only used to fail on the first duplicate
+  private final @Nullable Set<MemoryMappedVcfDataStore.Locus> m_seenLoci;
+  private final @Nullable Set<String> m_seenIds;
+
+
+  private MappedVcfDataStoreWriter(Path file, DuplicateHandler idHandler, DuplicateHandler locusHandler)
+      throws IOException {
+    m_file = file;
+    m_duplicateIdHandler = idHandler;
+    m_duplicateLocusHandler = locusHandler;
+    m_seenLoci = locusHandler == DuplicateHandler.FAIL ? new HashSet<>() : null;
+    m_seenIds = idHandler == DuplicateHandler.FAIL ? new HashSet<>() : null;
+    m_lineWriter = new VcfWriter.Builder().toWriter(new PrintWriter(Writer.nullWriter())).build();
+    m_out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536));
+    m_out.writeLong(MappedVcfDataStore.MAGIC);
+    m_out.writeInt(MappedVcfDataStore.VERSION);
+    m_offset = MappedVcfDataStore.PREAMBLE_SIZE;
+  }
+
+
+  @Override
+  public void parseMetadata(VcfMetadata metadata) {
+    m_metadata = metadata;
+  }
+
+  @Override
+  public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> sampleData) {
+    if (m_closed) {
+      throw new IllegalStateException("Already closed");
+    }
+    if (m_metadata == null) {
+      m_metadata = metadata;
+    }
+    try {
+      checkDuplicates(position);
+      byte[] line = m_lineWriter.toLine(metadata, position, sampleData).getBytes(StandardCharsets.UTF_8);
+      int[] columnEnds = sampleColumnEnds(metadata, line);
+      m_out.write(line);
+      m_out.write('\n');
+      for (int end : columnEnds) {
+        m_out.writeInt(end);
+      }
+      addRecord(position, m_offset, line.length);
+      m_offset += line.length + 1 + 4L * columnEnds.length;
+    } catch (IOException ex) {
+      m_failed = true;
+      throw new UncheckedIOException(ex);
+    } catch (RuntimeException ex) {
+      m_failed = true;
+      throw ex;
+    }
+  }
+
+  /**
+   * @return The end of FORMAT and of every sample column in {@code line} (or just the end of the line if there is no
+   * FORMAT column)
+   */
+  private static int[] sampleColumnEnds(VcfMetadata metadata, byte[] line) {
+    int numColumns = metadata.getNumColumns();
+    int lastFixed = VcfParser.POSITION_COLUMNS - 1;
+    int[] ends = new int[Math.max(1, numColumns - lastFixed)];
+    int numTabs = 0;
+    for (int x = 0; x < line.length; x++) {
+      // a tab byte is never part of a multi-byte UTF-8 character
+      if (line[x] == '\t') {
+        if (numTabs >= lastFixed && numTabs < numColumns - 1) {
+          ends[numTabs - lastFixed] = x;
+        }
+        numTabs++;
+      }
+    }
+    if (numTabs != numColumns - 1) {
+      throw new VcfFormatException("Data line does not have expected number of columns (got " + (numTabs + 1) +
+          " vs. " + numColumns + ")");
+    }
+    ends[ends.length - 1] = line.length;
+    return ends;
+  }
+
+  private void checkDuplicates(VcfPosition position) {
+    if (m_seenLoci != null &&
+        !m_seenLoci.add(new MemoryMappedVcfDataStore.Locus(position.getChromosome(), position.getPosition()))) {
+      throw new VcfFormatException("Duplicate VCF record for position " + position.getChromosome() + ":" +
+          position.getPosition());
+    }
+    if (m_seenIds != null) {
+      for (String id : position.getIds()) {
+        if (!m_seenIds.add(id)) {
+          throw new VcfFormatException("Duplicate VCF record for ID " + id);
+        }
+      }
+    }
+  }
+
+  private void addRecord(VcfPosition position, long offset, int length) {
+    if (m_numRecords == m_recordOffsets.length) {
+      int size = m_numRecords * 2;
+      m_recordContigs = Arrays.copyOf(m_recordContigs, size);
+      m_recordPositions = Arrays.copyOf(m_recordPositions, size);
+      m_recordOffsets = Arrays.copyOf(m_recordOffsets, size);
+      m_recordLengths = Arrays.copyOf(m_recordLengths, size);
+    }
+    int record = m_numRecords++;
+    m_recordContigs[record] = m_contigIds.computeIfAbsent(position.getChromosome(), chr -> {
+      m_contigs.add(chr);
+      return m_contigs.size() - 1;
+    });
+    m_recordPositions[record] = position.getPosition();
+    m_recordOffsets[record] = offset;
+    m_recordLengths[record] = length;
+
+    for (String id : position.getIds()) {
+      if (m_ids.size() == m_idRecords.length) {
+        m_idRecords = Arrays.copyOf(m_idRecords, m_idRecords.length * 2);
+      }
+      m_idRecords[m_ids.size()] = record;
+      m_ids.add(id.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+
+  /**
+   * Writes the header and indexes and closes the file. If parsing failed, the incomplete file is deleted instead.
+   *
+   * @throws IllegalStateException If no metadata was parsed
+   */
+  @Override
+  public void close() throws IOException {
+    if (m_closed) {
+      return;
+    }
+    m_closed = true;
+    if (m_failed || m_metadata == null) {
+      m_out.close();
+      Files.deleteIfExists(m_file);
+      if (m_metadata == null) {
+        throw new IllegalStateException("No metadata was parsed");
+      }
+      return;
+    }
+    try {
+      long headerOffset = m_offset;
+      StringWriter header = new StringWriter();
+      try (VcfWriter headerWriter = new VcfWriter.Builder().toWriter(new PrintWriter(header)).build()) {
+        headerWriter.writeHeader(m_metadata);
+      }
+      byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+      write(headerBytes);
+
+      long contigsOffset = m_offset;
+      for (String contig : m_contigs) {
+        byte[] bytes = contig.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        write(bytes);
+      }
+
+      long lociOffset = m_offset;
+      int numLoci = 0;
+      for (int record : keep(sortedLoci(), this::compareLoci, m_duplicateLocusHandler)) {
+        writeInt(m_recordContigs[record]);
+        writeLong(m_recordPositions[record]);
+        writeLong(m_recordOffsets[record]);
+        writeInt(m_recordLengths[record]);
+        numLoci++;
+      }
+
+      List<Integer> ids = keep(sortedIds(), (a, b) -> Arrays.compareUnsigned(m_ids.get(a), m_ids.get(b)),
+          m_duplicateIdHandler);
+      long idHeapOffset = m_offset;
+      long[] idOffsets = new long[ids.size()];
+      for (int x = 0; x < ids.size(); x++) {
+        idOffsets[x] = m_offset;
+        write(m_ids.get(ids.get(x)));
+      }
+      long idIndexOffset = m_offset;
+      for (int x = 0; x < ids.size(); x++) {
+        int record = m_idRecords[ids.get(x)];
+        writeLong(idOffsets[x]);
+        writeInt(m_ids.get(ids.get(x)).length);
+        writeLong(m_recordOffsets[record]);
+        writeInt(m_recordLengths[record]);
+      }
+
+      writeLong(headerOffset);
+      writeInt(headerBytes.length);
+      writeLong(contigsOffset);
+      writeInt(m_contigs.size());
+      writeLong(lociOffset);
+      writeInt(numLoci);
+      writeLong(idHeapOffset);
+      writeLong(idIndexOffset);
+      writeInt(ids.size());
+      writeLong(MappedVcfDataStore.MAGIC);
+    } finally {
+      m_out.close();
+    }
+  }
+
+  private int compareLoci(int a, int b) {
+    int cmp = Integer.compare(m_recordContigs[a], m_recordContigs[b]);
+    return cmp != 0 ? cmp : Long.compare(m_recordPositions[a], m_recordPositions[b]);
+  }
+
+  /**
+   * @return Record indexes sorted by locus, and by the order they were written within a locus
+   */
+  private List<Integer> sortedLoci() {
+    List<Integer> records = new ArrayList<>(m_numRecords);
+    for (int x = 0; x < m_numRecords; x++) {
+      records.add(x);
+    }
+    // stable, so records at the same locus stay in the order they were written
+    records.sort(this::compareLoci);
+    return records;
+  }
+
+  /**
+   * @return ID indexes sorted by ID (as unsigned UTF-8 bytes), and by the order they were found within an ID
+   */
+  private List<Integer> sortedIds() {
+    List<Integer> ids = new ArrayList<>(m_ids.size());
+    for (int x = 0; x < m_ids.size(); x++) {
+      ids.add(x);
+    }
+    ids.sort((a, b) -> Arrays.compareUnsigned(m_ids.get(a), m_ids.get(b)));
+    return ids;
+  }
+
+  /**
+   * Keeps one of each run of equal entries, according to {@code handler}. Duplicates have already been rejected for
+   * {@link DuplicateHandler#FAIL}.
+   */
+  private static List<Integer> keep(List<Integer> sorted, Comparator<Integer> comparator, DuplicateHandler handler) {
+    List<Integer> kept = new ArrayList<>(sorted.size());
+    int x = 0;
+    while (x < sorted.size()) {
+      int end = x + 1;
+      while (end < sorted.size() && comparator.compare(sorted.get(x), sorted.get(end)) == 0) {
+        end++;
+      }
+      kept.add(sorted.get(handler == DuplicateHandler.KEEP_LAST ? end - 1 : x));
+      x = end;
+    }
+    return kept;
+  }
+
+  private void write(byte[] bytes) throws IOException {
+    m_out.write(bytes);
+    m_offset += bytes.length;
+  }
+
+  private void writeInt(int value) throws IOException {
+    m_out.writeInt(value);
+    m_offset += 4;
+  }
+
+  private void writeLong(long value) throws IOException {
+    m_out.writeLong(value);
+    m_offset += 8;
+  }
+
+
+  public static class Builder {
+    private @Nullable Path m_file;
+    private DuplicateHandler m_duplicateIdHandler = DuplicateHandler.FAIL;
+    private DuplicateHandler m_duplicateLocusHandler = DuplicateHandler.FAIL;
+
+    public Builder toFile(Path file) {
+      m_file = file;
+      return this;
+    }
+
+    /**
+     * See {@link MemoryMappedVcfLineParser.Builder#setDuplicateIdHandler}.
+     */
+    public Builder setDuplicateIdHandler(DuplicateHandler handler) {
+      m_duplicateIdHandler = handler;
+      return this;
+    }
+
+    /**
+     * See {@link MemoryMappedVcfLineParser.Builder#setDuplicateLocusHandler}.
+     */
+    public Builder setDuplicateLocusHandler(DuplicateHandler handler) {
+      m_duplicateLocusHandler = handler;
+      return this;
+    }
+
+    public MappedVcfDataStoreWriter build() throws IOException {
+      if (m_file == null) {
+        throw new IllegalStateException("Must specify file");
+      }
+      return new MappedVcfDataStoreWriter(m_file, m_duplicateIdHandler, m_duplicateLocusHandler);
+    }
+  }
+}
@@ -1,36 +1,637 @@
 package org.pharmgkb.parser.vcf;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
 import com.google.common.base.Joiner;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.errorprone.annotations.Immutable;
 import org.jspecify.annotations.Nullable;
 import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.SampleSet;
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
+import org.pharmgkb.parser.vcf.model.VcfSampleBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
  * See {@link MemoryMappedVcfLineParser}.
+ * <p>
+ * Despite the name, this store is held entirely on the heap and must be rebuilt by parsing the VCF file; see
+ * {@link MappedVcfDataStore} for one backed by a memory-mapped file.
+ * <p>
+ * Records are kept in lists and found by index: a locus is encoded as a single {@code long} (the contig's ordinal,
+ * starting with the {@code ##contig} lines, above a 40-bit POS) in a primitive open-addressing map, so a lookup by
+ * locus does not allocate. Records overlapping a range are found through a {@link RangeIndex}, which is built on the
+ * first range query after records were added. Canonical dbSNP rsIDs (which most IDs are) are likewise keyed by their
+ * number in a {@link RsidIndex}, which becomes a pair of sorted arrays once the store is {@link #freeze() frozen}; only
+ * other IDs are kept in a map by their text.
+ * <p>
+ * Optionally (see {@link MemoryMappedVcfLineParser.Builder#indexAlleles}), records are also keyed by their alleles in
+ * an {@link AlleleIndex}, so that a locus can have several records (such as those split from a multi-allelic record).
+ * <p>
+ * Optionally (see {@link MemoryMappedVcfLineParser.Builder#useMembershipFilters}), Bloom filters of the loci and IDs
+ * are built at load time and checked before the indexes, so that most lookups of an absent locus or ID (the usual case
+ * when querying a single sample's VCF for known variants) are answered without a probe into them.
+ * <p>
+ * Optionally (see {@link MemoryMappedVcfLineParser.Builder#useGenotypeMatrix}), every GT call is also packed into a
+ * {@link GenotypeMatrix} at load time, so that genotype lookups read a few bits instead of re-parsing GT; the samples
+ * themselves then need not be kept at all. {@link #forEachGenotype(int, BiConsumer)} reads one sample's calls from a
+ * transposed copy of the matrix, built on first use, in which they are contiguous; {@link #getGenotypes} looks up the
+ * genotypes of many loci at once.
+ * <p>
+ * {@link #getStats()} estimates how much heap the store takes, and a limit on that estimate can be set at load time
+ * (see {@link MemoryMappedVcfLineParser.Builder#setMemoryLimit}).
+ * <p>
+ * A store is not thread-safe while it is loaded, and even reads may update the records' internal state; use
+ * {@link #freeze()} to get a copy that can be shared between threads.
  * @author Douglas Myers-Turnbull
  */
-public class MemoryMappedVcfDataStore {
+public class MemoryMappedVcfDataStore implements VcfDataStore {
 
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+  // a locus key is the contig ordinal in the high bits and POS in the low POSITION_BITS
+  static final int POSITION_BITS = 40;
+  static final long MAX_POSITION = (1L << POSITION_BITS) - 1;
+  static final int MAX_CONTIGS = 1 << (63 - POSITION_BITS);
+  /** "PGKBVCS1" */
+  private static final long SNAPSHOT_MAGIC = 0x50474B4256435331L;
+  private static final int SNAPSHOT_VERSION = 3;
 
   private @Nullable VcfMetadata m_metadata;
-  private final Map<String, VcfPosition> m_idToPosition = new HashMap<>();
-  private final Map<Locus, VcfPosition> m_locusToPosition = new HashMap<>();
-  private final Map<String, List<VcfSample>> m_idToSamples = new HashMap<>();
-  private final Map<Locus, List<VcfSample>> m_locusToSamples = new HashMap<>();
+  // contig -> ordinal, starting with the ##contig lines; other contigs are numbered as they are found
+  private final Map<String, Integer> m_contigOrdinals;
+  // records, in the order they were added
+  private final List<VcfPosition> m_positions;
+  // null elements if samples are not retained
+  private final List<@Nullable List<VcfSample>> m_samples;
+  private final boolean m_retainSamples;
+  private final boolean m_useGenotypeMatrix;
+  // one row per record, if used; created with the metadata
+  private @Nullable GenotypeMatrix m_genotypes;
+  // the first record at each locus
+  private final LongIntHashMap m_locusToRecord;
+  // if used, the records by locus and alleles, and the rest of the records at each locus
+  private @Nullable AlleleIndex m_alleleIndex;
+  // canonical rsIDs by number; other IDs by text
+  private final RsidIndex m_rsidToRecord;
+  private final Map<String, Integer> m_idToRecord;
+  // if used, every locus key and ID that has been linked to a record (and, rarely, others)
+  private final @Nullable BloomFilter<Long> m_locusFilter;
+  private final @Nullable BloomFilter<CharSequence> m_idFilter;
+  // the estimated bytes of both filters
+  private final long m_filterBytes;
+  // the estimated bytes of every record's position and samples, as they were added, and the limit on the estimated
+  // bytes of the whole store (0 for none)
+  private long m_recordBytes;
+  private long m_memoryLimit;
+  // built on first use, and dropped when a record is linked to a locus; built up front once frozen
+  private @Nullable RangeIndex m_rangeIndex;
+  // the genotype matrix's rows for the records found by locus, sample by sample; built on first use, and dropped when a
+  // record is linked to a locus; volatile so that a frozen store only locks to build them
+  private volatile GenotypeMatrix.@Nullable Columns m_genotypeColumns;
+  // the frozen copy of this store (this store itself, if it is one); null until frozen
+  private @Nullable MemoryMappedVcfDataStore m_frozen;
+
+  public MemoryMappedVcfDataStore() {
+    this(false, true);
+  }
+
+  /**
+   * @param useGenotypeMatrix Whether to keep every record's GT calls in a {@link GenotypeMatrix}, from which the
+   * genotype lookups are answered
+   * @param retainSamples Whether to keep every record's samples; if not, the genotype matrix must be used and only
+   * genotypes can be looked up
+   */
+  MemoryMappedVcfDataStore(boolean useGenotypeMatrix, boolean retainSamples) {
+    this(useGenotypeMatrix, retainSamples, 0, 0);
+  }
+
+  /**
+   * @param expectedInsertions The number of loci (and of IDs) expected, for sizing the membership filters, or 0 to not
+   * use them
+   * @param falsePositiveRate The membership filters' target false positive rate, if used
+   */
+  MemoryMappedVcfDataStore(boolean useGenotypeMatrix, boolean retainSamples, long expectedInsertions,
+      double falsePositiveRate) {
+    this(useGenotypeMatrix, retainSamples,
+        expectedInsertions > 0 ? BloomFilter.create(Funnels.longFunnel(), expectedInsertions, falsePositiveRate) : null,
+        expectedInsertions > 0 ?
+            BloomFilter.create(Funnels.unencodedCharsFunnel(), expectedInsertions, falsePositiveRate) : null);
+  }
+
+  private MemoryMappedVcfDataStore(boolean useGenotypeMatrix, boolean retainSamples,
+      @Nullable BloomFilter<Long> locusFilter, @Nullable BloomFilter<CharSequence> idFilter) {
+    if (!useGenotypeMatrix && !retainSamples) {
+      throw new IllegalArgumentException("Samples must be retained without a genotype matrix");
+    }
+    m_useGenotypeMatrix = useGenotypeMatrix;
+    m_retainSamples = retainSamples;
+    m_contigOrdinals = new HashMap<>();
+    m_positions = new ArrayList<>();
+    m_samples = new ArrayList<>();
+    m_locusToRecord = new LongIntHashMap();
+    m_rsidToRecord = new RsidIndex();
+    m_idToRecord = new HashMap<>();
+    m_locusFilter = locusFilter;
+    m_idFilter = idFilter;
+    m_filterBytes = estimateBytes(locusFilter) + estimateBytes(idFilter);
+  }
+
+  /**
+   * Creates a frozen, compacted copy of {@code other}, freezing its records in place.
+   */
+  private MemoryMappedVcfDataStore(MemoryMappedVcfDataStore other) {
+    m_metadata = other.m_metadata;
+    m_useGenotypeMatrix = other.m_useGenotypeMatrix;
+    m_retainSamples = other.m_retainSamples;
+    m_contigOrdinals = Map.copyOf(other.m_contigOrdinals);
+    for (VcfPosition position : other.m_positions) {
+      position.freeze();
+    }
+    m_positions = List.copyOf(other.m_positions);
+    List<@Nullable List<VcfSample>> samples = new ArrayList<>(other.m_samples.size());
+    for (List<VcfSample> recordSamples : other.m_samples) {
+      samples.add(recordSamples == null ? null : freeze(recordSamples));
+    }
+    m_samples = Collections.unmodifiableList(samples);
+    m_genotypes = other.m_genotypes == null ? null : other.m_genotypes.compact();
+    m_locusToRecord = other.m_locusToRecord.compact();
+    m_alleleIndex = other.m_alleleIndex == null ? null : other.m_alleleIndex.compact(other.m_positions.size());
+    m_rsidToRecord = other.m_rsidToRecord.compact();
+    m_idToRecord = Map.copyOf(other.m_idToRecord);
+    // neither store adds to them any more, and reading a filter is thread-safe
+    m_locusFilter = other.m_locusFilter;
+    m_idFilter = other.m_idFilter;
+    m_filterBytes = other.m_filterBytes;
+    m_recordBytes = other.m_recordBytes;
+    m_frozen = this;
+    m_rangeIndex = rangeIndex();
+  }
+
+  /**
+   * Freezes the samples, returning them as an unmodifiable list.
+   */
+  static List<VcfSample> freeze(List<VcfSample> samples) {
+    if (samples instanceof VcfSampleBlock) {
+      return ((VcfSampleBlock)samples).freeze();
+    }
+    for (VcfSample sample : samples) {
+      sample.freeze();
+    }
+    return List.copyOf(samples);
+  }
+
+  /**
+   * Gets a read-only copy of this store that is safe to read from any number of threads without locking, once safely
+   * published (e.g. through a final or volatile field).
+   * <p>
+   * The copy's records are the same objects as this store's, {@link VcfPosition#freeze() frozen} (as are their
+   * samples), so changing them throws {@link UnsupportedOperationException}; its indexes are compacted copies, and its
+   * range index is built up front. Both stores reject records from then on, so this should be called once loading is
+   * complete. Calling it again returns the same copy.
+   */
+  public MemoryMappedVcfDataStore freeze() {
+    if (m_frozen == null) {
+      m_frozen = new MemoryMappedVcfDataStore(this);
+    }
+    return m_frozen;
+  }
+
+  /**
+   * @return Whether records can no longer be added
+   */
+  public boolean isFrozen() {
+    return m_frozen != null;
+  }
+
+  private void checkNotFrozen() {
+    if (m_frozen != null) {
+      throw new IllegalStateException("This data store is frozen");
+    }
+  }
+
+  /**
+   * Estimates how much heap this store takes, by walking every record. The estimate assumes a 64-bit JVM with
+   * compressed references; a string is counted once however many records share it, and a line that samples are read
+   * from is counted with the samples. Parsing a record's QUAL or INFO, or handing out its samples, makes it larger than
+   * estimated.
+   * <p>
+   * This takes time proportional to the size of the store, and memory proportional to its distinct strings.
+   */
+  public Stats getStats() {
+    HeapSize.Strings strings = new HeapSize.Strings();
+    long positionBytes = 2 * HeapSize.list(m_positions.size());
+    long sampleBytes = 0;
+    for (int x = 0; x < m_positions.size(); x++) {
+      VcfPosition position = m_positions.get(x);
+      positionBytes += HeapSize.position(position, strings);
+      List<VcfSample> samples = m_samples.get(x);
+      if (samples != null) {
+        sampleBytes += HeapSize.samples(samples, position.getFormat(), strings);
+      }
+    }
+    long genotypeMatrixBytes = 0;
+    if (m_genotypes != null) {
+      GenotypeMatrix.Columns columns = m_genotypeColumns;
+      genotypeMatrixBytes = m_genotypes.estimateBytes() + (columns == null ? 0 : columns.estimateBytes());
+    }
+    RangeIndex rangeIndex = m_rangeIndex;
+    long locusIndexBytes = locusIndexBytes() + (rangeIndex == null ? 0 : rangeIndex.estimateBytes());
+    return new Stats(m_positions.size(), m_locusToRecord.size(), m_rsidToRecord.size(), m_idToRecord.size(),
+        positionBytes, sampleBytes, genotypeMatrixBytes, locusIndexBytes,
+        idIndexBytes(), m_filterBytes, strings.getBytes(), strings.getDuplicateBytes());
+  }
+
+  private long locusIndexBytes() {
+    return m_locusToRecord.estimateBytes() + (m_alleleIndex == null ? 0 : m_alleleIndex.estimateBytes());
+  }
+
+  private long idIndexBytes() {
+    // the keys are the records' ID strings
+    return m_rsidToRecord.estimateBytes() + HeapSize.hashTable(m_idToRecord.size()) +
+        m_idToRecord.size() * (HeapSize.MAP_ENTRY + HeapSize.INTEGER);
+  }
+
+  private static long estimateBytes(@Nullable BloomFilter<?> filter) {
+    if (filter == null) {
+      return 0;
+    }
+    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+    try {
+      filter.writeTo(out);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return out.getCount();
+  }
+
+  /**
+   * Limits the estimated size of this store (as {@link #getStats()} would report it, except that strings shared between
+   * records are counted for each) while records are added.
+   *
+   * @param maxBytes The limit, or 0 for none
+   */
+  void setMemoryLimit(long maxBytes) {
+    m_memoryLimit = maxBytes;
+  }
+
+  /**
+   * Writes this store to a binary snapshot, which {@link #readSnapshot} loads without parsing any VCF text.
+   * <p>
+   * The snapshot holds the header, a table of the distinct strings and lists of strings (CHROM, REF, QUAL, the ID, ALT,
+   * FILTER and FORMAT lists, and INFO as a list of keys and values), every record's fields as arrays of table indexes
+   * and positions, every record's samples as the text of its distinct sample columns with their offsets (as in
+   * {@link VcfSampleBlock}), then the genotype matrix, the indexes and the membership filters. A sample without one of
+   * its record's FORMAT keys is read back with the missing value {@code "."} for it.
+   * <p>
+   * Writing reads every record's QUAL and INFO, so a store that is not {@link #freeze() frozen} must not be read by
+   * other threads meanwhile.
+   */
+  public void writeSnapshot(Path file) throws IOException {
+    int numRecords = m_positions.size();
+    SnapshotTable table = new SnapshotTable();
+    int[] chromosomes = new int[numRecords];
+    long[] positions = new long[numRecords];
+    int[] ids = new int[numRecords];
+    int[] refs = new int[numRecords];
+    int[] alts = new int[numRecords];
+    int[] qualities = new int[numRecords];
+    int[] filters = new int[numRecords];
+    int[] infos = new int[numRecords];
+    int[] formats = new int[numRecords];
+    for (int x = 0; x < numRecords; x++) {
+      VcfPosition position = m_positions.get(x);
+      chromosomes[x] = table.addString(position.getChromosome());
+      positions[x] = position.getPosition();
+      ids[x] = table.addList(position.getIds());
+      refs[x] = table.addString(position.getRef());
+      alts[x] = table.addList(position.getAltBases());
+      BigDecimal quality = position.getQuality();
+      qualities[x] = table.addString(quality == null ? null : quality.toString());
+      filters[x] = table.addList(position.getFilterStatus() == VcfPosition.FilterStatus.NONE ? List.of(".") :
+          position.getFilters());
+      infos[x] = table.addList(toInfo(position));
+      formats[x] = table.addList(position.getFormat());
+    }
+
+    try (SnapshotWriter out = new SnapshotWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+      out.writeLong(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeBoolean(m_useGenotypeMatrix);
+      out.writeBoolean(m_retainSamples);
+      writeFilter(out, m_locusFilter);
+      writeFilter(out, m_idFilter);
+      String header = null;
+      if (m_metadata != null) {
+        StringWriter writer = new StringWriter();
+        try (VcfWriter headerWriter = new VcfWriter.Builder().toWriter(new PrintWriter(writer)).build()) {
+          headerWriter.writeHeader(m_metadata);
+        }
+        header = writer.toString();
+      }
+      out.writeString(header);
+      String[] contigs = new String[m_contigOrdinals.size()];
+      m_contigOrdinals.forEach((contig, ordinal) -> contigs[ordinal] = contig);
+      out.writeInt(contigs.length);
+      for (String contig : contigs) {
+        out.writeString(contig);
+      }
+      table.writeTo(out);
+
+      out.writeInt(numRecords);
+      out.writeInts(chromosomes, numRecords);
+      out.writeLongs(positions, numRecords);
+      for (int[] column : new int[][] { ids, refs, alts, qualities, filters, infos, formats }) {
+        out.writeInts(column, numRecords);
+      }
+      if (m_retainSamples) {
+        for (int x = 0; x < numRecords; x++) {
+          writeSamples(out, m_positions.get(x).getFormat(), m_samples.get(x));
+        }
+      }
+      out.writeBoolean(m_genotypes != null);
+      if (m_genotypes != null) {
+        m_genotypes.writeTo(out);
+      }
+
+      long[] loci = m_locusToRecord.keys();
+      out.writeInt(loci.length);
+      out.writeLongs(loci, loci.length);
+      for (long locus : loci) {
+        out.writeInt(m_locusToRecord.get(locus));
+      }
+      out.writeBoolean(m_alleleIndex != null);
+      if (m_alleleIndex != null) {
+        LongIntHashMap alleles = m_alleleIndex.getRecords();
+        long[] keys = alleles.keys();
+        out.writeInt(keys.length);
+        out.writeLongs(keys, keys.length);
+        for (long key : keys) {
+          out.writeInt(alleles.get(key));
+        }
+        int[] next = Arrays.copyOf(m_alleleIndex.getNext(), numRecords);
+        for (int x = m_alleleIndex.getNext().length; x < numRecords; x++) {
+          next[x] = -1;
+        }
+        out.writeInts(next, numRecords);
+      }
+      long[] rsids = m_rsidToRecord.keys();
+      out.writeInt(rsids.length);
+      out.writeLongs(rsids, rsids.length);
+      for (long rsid : rsids) {
+        out.writeInt(m_rsidToRecord.get(rsid));
+      }
+      out.writeInt(m_idToRecord.size());
+      for (Map.Entry<String, Integer> entry : m_idToRecord.entrySet()) {
+        out.writeString(entry.getKey());
+        out.writeInt(entry.getValue());
+      }
+      out.writeLong(SNAPSHOT_MAGIC);
+    }
+  }
+
+  /**
+   * @return The INFO keys and values, one after the other (a flag's value being empty)
+   */
+  private static List<String> toInfo(VcfPosition position) {
+    List<String> info = new ArrayList<>();
+    for (String key : position.getInfoKeys()) {
+      for (String value : position.getInfo(key)) {
+        info.add(key);
+        info.add(value);
+      }
+    }
+    return info;
+  }
+
+  private static void writeFilter(SnapshotWriter out, @Nullable BloomFilter<?> filter) throws IOException {
+    out.writeBoolean(filter != null);
+    if (filter != null) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      filter.writeTo(bytes);
+      out.writeBytes(bytes.toByteArray());
+    }
+  }
+
+  /**
+   * Writes the number of samples and, if there are any, the text of each distinct sample column (its values, one after
+   * the other), the distinct column of each sample, and the offsets of every value in the text.
+   */
+  private static void writeSamples(SnapshotWriter out, List<String> format, List<VcfSample> samples)
+      throws IOException {
+    int numSamples = samples.size();
+    out.writeInt(numSamples);
+    if (numSamples == 0) {
+      return;
+    }
+    int numKeys = format.size();
+    VcfSampleBlock block = samples instanceof VcfSampleBlock ? (VcfSampleBlock)samples : null;
+    Map<List<String>, Integer> columns = new HashMap<>();
+    int[] sampleColumns = new int[numSamples];
+    int[] bounds = new int[2 * numSamples * numKeys];
+    StringBuilder text = new StringBuilder();
+    for (int x = 0; x < numSamples; x++) {
+      String[] values = new String[numKeys];
+      for (int k = 0; k < numKeys; k++) {
+        values[k] = block != null ? block.getValue(x, format.get(k)) : samples.get(x).getProperty(format.get(k));
+      }
+      Integer column = columns.putIfAbsent(Arrays.asList(values), columns.size());
+      if (column == null) {
+        column = columns.size() - 1;
+        for (int k = 0; k < numKeys; k++) {
+          int cell = 2 * (column * numKeys + k);
+          if (values[k] == null || values[k].equals(".")) {
+            bounds[cell] = VcfSampleBlock.MISSING;
+            bounds[cell + 1] = VcfSampleBlock.MISSING;
+          } else {
+            bounds[cell] = text.length();
+            text.append(values[k]);
+            bounds[cell + 1] = text.length();
+          }
+        }
+      }
+      sampleColumns[x] = column;
+    }
+    out.writeInt(columns.size());
+    out.writeInts(sampleColumns, numSamples);
+    out.writeString(text.toString());
+    out.writeInts(bounds, 2 * columns.size() * numKeys);
+  }
+
+  /**
+   * Loads a store written by {@link #writeSnapshot}. Its records are built straight from the snapshot's tables, without
+   * parsing VCF lines or checking their fields again (see {@link VcfPosition#fromChecked}), and its indexes are filled
+   * from the snapshot's; it is not frozen, even if the store that was written was.
+   *
+   * @throws VcfFormatException If the file is not a (completely written) snapshot
+   */
+  public static MemoryMappedVcfDataStore readSnapshot(Path file) throws IOException {
+    try (SnapshotReader in = new SnapshotReader(FileChannel.open(file, StandardOpenOption.READ))) {
+      if (in.readLong() != SNAPSHOT_MAGIC) {
+        throw new VcfFormatException("Not a data store snapshot: " + file);
+      }
+      int version = in.readInt();
+      if (version != SNAPSHOT_VERSION) {
+        throw new VcfFormatException("Unsupported data store snapshot version " + version + ": " + file);
+      }
+      MemoryMappedVcfDataStore dataStore = readSnapshot(in);
+      if (in.readLong() != SNAPSHOT_MAGIC) {
+        throw new VcfFormatException("Data store snapshot is corrupt: " + file);
+      }
+      return dataStore;
+    } catch (IndexOutOfBoundsException | IllegalArgumentException | ArithmeticException ex) {
+      throw new VcfFormatException("Data store snapshot is corrupt: " + file, ex);
+    }
+  }
+
+  private static MemoryMappedVcfDataStore readSnapshot(SnapshotReader in) throws IOException {
+    boolean useGenotypeMatrix = in.readBoolean();
+    boolean retainSamples = in.readBoolean();
+    BloomFilter<Long> locusFilter = readFilter(in, Funnels.longFunnel());
+    BloomFilter<CharSequence> idFilter = readFilter(in, Funnels.unencodedCharsFunnel());
+    MemoryMappedVcfDataStore dataStore = new MemoryMappedVcfDataStore(useGenotypeMatrix, retainSamples, locusFilter,
+        idFilter);
+    String header = in.readString();
+    if (header != null) {
+      try (BufferedReader reader = new BufferedReader(new StringReader(header))) {
+        dataStore.m_metadata = new VcfParser.Builder()
+            .fromReader(reader)
+            .parseWith((metadata, position, sampleData) -> { })
+            .build()
+            .parseMetadata();
+      }
+    }
+    int numContigs = in.readCount();
+    for (int x = 0; x < numContigs; x++) {
+      dataStore.m_contigOrdinals.put(in.readString(), x);
+    }
+    SnapshotTable table = SnapshotTable.readFrom(in);
+
+    int numRecords = in.readCount();
+    int[] chromosomes = in.readInts(numRecords);
+    long[] positions = in.readLongs(numRecords);
+    int[] ids = in.readInts(numRecords);
+    int[] refs = in.readInts(numRecords);
+    int[] alts = in.readInts(numRecords);
+    int[] qualities = in.readInts(numRecords);
+    int[] filters = in.readInts(numRecords);
+    int[] infos = in.readInts(numRecords);
+    int[] formats = in.readInts(numRecords);
+    for (int x = 0; x < numRecords; x++) {
+      String chromosome = table.getString(chromosomes[x]);
+      String ref = table.getString(refs[x]);
+      if (chromosome == null || ref == null) {
+        throw new VcfFormatException("Data store snapshot is corrupt: record " + x + " has no CHROM or REF");
+      }
+      dataStore.m_positions.add(VcfPosition.fromChecked(chromosome, positions[x], table.getList(ids[x]), ref,
+          table.getList(alts[x]), table.getString(qualities[x]), table.getList(filters[x]),
+          table.getMultimap(infos[x]), table.getList(formats[x])));
+    }
+    for (int x = 0; x < numRecords; x++) {
+      dataStore.m_samples.add(retainSamples ? readSamples(in, table.getList(formats[x])) : null);
+    }
+    if (in.readBoolean()) {
+      dataStore.m_genotypes = GenotypeMatrix.readFrom(in);
+    } else if (useGenotypeMatrix && dataStore.m_metadata != null) {
+      throw new VcfFormatException("Data store snapshot is missing its genotype matrix");
+    }
+
+    int numLoci = in.readCount();
+    long[] loci = in.readLongs(numLoci);
+    int[] locusRecords = in.readInts(numLoci);
+    for (int x = 0; x < numLoci; x++) {
+      dataStore.m_locusToRecord.put(loci[x], checkRecord(locusRecords[x], numRecords));
+    }
+    if (in.readBoolean()) {
+      int numAlleles = in.readCount();
+      long[] keys = in.readLongs(numAlleles);
+      int[] alleleRecords = in.readInts(numAlleles);
+      LongIntHashMap alleles = new LongIntHashMap(numAlleles);
+      for (int x = 0; x < numAlleles; x++) {
+        alleles.put(keys[x], checkRecord(alleleRecords[x], numRecords));
+      }
+      int[] next = in.readInts(numRecords);
+      for (int record : next) {
+        if (record != -1) {
+          checkRecord(record, numRecords);
+        }
+      }
+      dataStore.m_alleleIndex = new AlleleIndex(alleles, next);
+    }
+    int numRsids = in.readCount();
+    long[] rsids = in.readLongs(numRsids);
+    int[] rsidRecords = in.readInts(numRsids);
+    for (int x = 0; x < numRsids; x++) {
+      dataStore.m_rsidToRecord.put(rsids[x], checkRecord(rsidRecords[x], numRecords));
+    }
+    int numIds = in.readCount();
+    for (int x = 0; x < numIds; x++) {
+      dataStore.m_idToRecord.put(in.readString(), checkRecord(in.readInt(), numRecords));
+    }
+    return dataStore;
+  }
+
+  private static <T> @Nullable BloomFilter<T> readFilter(SnapshotReader in, Funnel<? super T> funnel)
+      throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    return BloomFilter.readFrom(new ByteArrayInputStream(in.readBytes()), funnel);
+  }
+
+  private static List<VcfSample> readSamples(SnapshotReader in, List<String> format) throws IOException {
+    int numSamples = in.readCount();
+    if (numSamples == 0) {
+      return new ArrayList<>();
+    }
+    int numColumns = in.readCount();
+    int[] sampleColumns = in.readInts(numSamples);
+    String text = in.readString();
+    if (text == null) {
+      throw new VcfFormatException("Data store snapshot is corrupt: samples have no text");
+    }
+    int[] bounds = in.readInts(Math.multiplyExact(Math.multiplyExact(2, numColumns), format.size()));
+    return numColumns == numSamples ?
+        new VcfSampleBlock(text, format, numSamples, bounds) :
+        new VcfSampleBlock(text, format, numSamples, sampleColumns, numColumns, bounds);
+  }
+
+  private static int checkRecord(int record, int numRecords) {
+    if (record < 0 || record >= numRecords) {
+      throw new VcfFormatException("Data store snapshot is corrupt: record " + record + " does not exist");
+    }
+    return record;
+  }
 
   /**
    * @return Every position read, or null if none no lines read.
@@ -40,7 +641,12 @@ Collection<VcfPosition> getAllPositions() {
     if (m_metadata == null) {
       return null;
     }
-    return m_locusToPosition.values();
+    int[] records = locusRecords();
+    List<VcfPosition> positions = new ArrayList<>(records.length);
+    for (int record : records) {
+      positions.add(m_positions.get(record));
+    }
+    return positions;
   }
 
   /**
@@ -50,111 +656,457 @@ Collection<VcfPosition> getAllPositions() {
     if (m_metadata == null) {
       return null;
     }
-    return m_locusToSamples.values();
+    int[] records = locusRecords();
+    List<List<VcfSample>> samples = new ArrayList<>(records.length);
+    for (int record : records) {
+      samples.add(samples(record));
+    }
+    return samples;
+  }
+
+  /**
+   * @return The records that can be found by locus, in the order they were added
+   */
+  private int[] locusRecords() {
+    int[] records = m_locusToRecord.values();
+    if (m_alleleIndex != null) {
+      records = withRestOfLocus(records);
+    }
+    Arrays.sort(records);
+    return records;
+  }
+
+  /**
+   * @return The first records at some loci, each followed by the rest of the records at its locus
+   */
+  private int[] withRestOfLocus(int[] firstRecords) {
+    // every record at a locus is in the allele index
+    int[] records = new int[m_alleleIndex.size()];
+    int n = 0;
+    for (int first : firstRecords) {
+      for (int record = first; record >= 0; record = m_alleleIndex.next(record)) {
+        records[n++] = record;
+      }
+    }
+    return records;
   }
 
   /**
    * @return The metadata, or null if no lines were read.
    */
+  @Override
   public @Nullable VcfMetadata getMetadata() {
     return m_metadata;
   }
 
   protected void setMetadata(VcfMetadata metadata) {
-    m_metadata = metadata;
+    if (metadata != m_metadata) {
+      checkNotFrozen();
+      if (m_useGenotypeMatrix && m_genotypes != null && m_genotypes.getNumSamples() != metadata.getNumSamples()) {
+        throw new IllegalStateException("Metadata has " + metadata.getNumSamples() + " sample(s), but " +
+            m_genotypes.getNumSamples() + " were expected");
+      }
+      if (m_useGenotypeMatrix && m_genotypes == null) {
+        m_genotypes = new GenotypeMatrix(metadata.getNumSamples());
+      }
+      m_metadata = metadata;
+      for (String contig : metadata.getContigs().keySet()) {
+        contigOrdinal(contig);
+      }
+    }
   }
 
+  @Override
   public @Nullable VcfPosition getPositionForId(String id) {
-    return m_idToPosition.get(id);
+    int record = getRecordForId(id);
+    return record < 0 ? null : m_positions.get(record);
   }
 
+  @Override
   public @Nullable List<VcfSample> getSamplesForId(String id) {
-    return m_idToSamples.get(id);
+    int record = getRecordForId(id);
+    return record < 0 ? null : samples(record);
   }
 
+  @Override
   public @Nullable VcfPosition getPositionAtLocus(String chromosome, long position) {
-    return m_locusToPosition.get(new Locus(chromosome, position));
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : m_positions.get(record);
   }
 
+  @Override
   public @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position) {
-    return m_locusToSamples.get(new Locus(chromosome, position));
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : samples(record);
   }
 
-  public @Nullable VcfSample getSampleForId(String positionId, String sampleId) {
-    List<VcfSample> samples = m_idToSamples.get(positionId);
+  /**
+   * Gets the position of every record at a locus, in the order they were added. Unless alleles are indexed (see
+   * {@link MemoryMappedVcfLineParser.Builder#indexAlleles()}), there is at most one, and it is the one
+   * {@link #getPositionAtLocus(String, long)} returns; otherwise, that is the first.
+   */
+  public List<VcfPosition> getPositionsAtLocus(String chromosome, long position) {
+    List<VcfPosition> positions = new ArrayList<>(1);
+    for (int record = getRecordAtLocus(chromosome, position); record >= 0;
+         record = m_alleleIndex == null ? -1 : m_alleleIndex.next(record)) {
+      positions.add(m_positions.get(record));
+    }
+    return positions;
+  }
+
+  /**
+   * Gets the position of the record at a locus with the given REF and ALT (in order; empty for {@code .}), which is
+   * looked up in the allele index if alleles are indexed.
+   */
+  public @Nullable VcfPosition getPositionAtLocus(String chromosome, long position, String ref, List<String> altBases) {
+    int record = getRecordForAlleles(chromosome, position, ref, altBases);
+    return record < 0 ? null : m_positions.get(record);
+  }
+
+  /**
+   * Gets the samples of the record that {@link #getPositionAtLocus(String, long, String, List)} finds.
+   */
+  public @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position, String ref,
+      List<String> altBases) {
+    int record = getRecordForAlleles(chromosome, position, ref, altBases);
+    return record < 0 ? null : samples(record);
+  }
+
+  private int getRecordForAlleles(String chromosome, long position, String ref, List<String> altBases) {
+    Integer ordinal = m_contigOrdinals.get(chromosome);
+    if (ordinal == null || position < 0 || position > MAX_POSITION) {
+      return -1;
+    }
+    long locusKey = ((long)ordinal << POSITION_BITS) | position;
+    if (m_alleleIndex != null) {
+      if (m_locusFilter != null && !m_locusFilter.mightContain(locusKey)) {
+        return -1;
+      }
+      return m_alleleIndex.get(locusKey, position, chromosome, ref, altBases, m_positions);
+    }
+    int record = getRecordAtLocus(locusKey);
+    if (record < 0) {
+      return -1;
+    }
+    VcfPosition found = m_positions.get(record);
+    return CharSequence.compare(found.getRefView(), ref) == 0 && found.getAltBases().equals(altBases) ? record : -1;
+  }
+
+  /**
+   * Gets the position of every record that overlaps a range, ordered by POS. A record covers POS through its
+   * {@link VcfPosition#getEndPosition() end}, so a structural variant whose {@code END} or {@code SVLEN} reaches into
+   * the range is included even if it starts before it.
+   * <p>
+   * Only records that can be found {@link #getPositionAtLocus by locus} are included. The ends are read when the
+   * index is built, so later changes to a record's {@code END} or {@code SVLEN} are not seen until more records are
+   * added.
+   *
+   * @param start The first position of the range (1-based, inclusive)
+   * @param end The last position of the range (inclusive)
+   */
+  public Iterator<VcfPosition> getPositionsInRange(String chromosome, long start, long end) {
+    return Arrays.stream(findRecordsInRange(chromosome, start, end)).mapToObj(m_positions::get).iterator();
+  }
+
+  /**
+   * Gets the samples of every record that overlaps a range, in the same order as {@link #getPositionsInRange}.
+   */
+  public Iterator<List<VcfSample>> getSamplesInRange(String chromosome, long start, long end) {
+    return Arrays.stream(findRecordsInRange(chromosome, start, end)).mapToObj(this::samples).iterator();
+  }
+
+  private int[] findRecordsInRange(String chromosome, long start, long end) {
+    Integer ordinal = m_contigOrdinals.get(chromosome);
+    return rangeIndex().find(ordinal == null ? -1 : ordinal, start, end);
+  }
+
+  private RangeIndex rangeIndex() {
+    RangeIndex index = m_rangeIndex;
+    if (index == null) {
+      // locus keys sort by contig ordinal and then POS
+      long[] keys = m_locusToRecord.keys();
+      Arrays.sort(keys);
+      // every record at a locus is in the allele index
+      int size = m_alleleIndex == null ? keys.length : m_alleleIndex.size();
+      int[] contigs = new int[size];
+      long[] starts = new long[size];
+      long[] ends = new long[size];
+      int[] records = new int[size];
+      int n = 0;
+      for (long key : keys) {
+        for (int record = m_locusToRecord.get(key); record >= 0;
+             record = m_alleleIndex == null ? -1 : m_alleleIndex.next(record)) {
+          contigs[n] = (int)(key >>> POSITION_BITS);
+          starts[n] = key & MAX_POSITION;
+          records[n] = record;
+          ends[n] = Math.max(starts[n], m_positions.get(record).getEndPosition());
+          n++;
+        }
+      }
+      index = new RangeIndex(m_contigOrdinals.size(), contigs, starts, ends, records);
+      m_rangeIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * @return Only the samples in {@code selection}, in sample order, or null if {@code samples} is null
+   */
+  static @Nullable List<VcfSample> select(@Nullable List<VcfSample> samples, SampleSet selection) {
     if (samples == null) {
       return null;
     }
+    if (selection.getNumSamples() != samples.size()) {
+      throw new IllegalArgumentException("Sample selection is over " + selection.getNumSamples() +
+          " sample(s), but the record has " + samples.size());
+    }
+    List<VcfSample> selected = new ArrayList<>(selection.size());
+    for (int i = selection.nextSample(0); i >= 0; i = selection.nextSample(i + 1)) {
+      selected.add(samples.get(i));
+    }
+    return selected;
+  }
+
+  @Override
+  public @Nullable VcfSample getSampleForId(String positionId, String sampleId) {
+    int record = getRecordForId(positionId);
+    if (record < 0) {
+      return null;
+    }
     int idx = m_metadata.getSampleIndex(sampleId);
-    return idx < 0 ? null : samples.get(idx);
+    return idx < 0 ? null : samples(record).get(idx);
   }
 
+  @Override
   public @Nullable VcfSample getSampleForId(String positionId, int sampleIndex) {
-    List<VcfSample> samples = m_idToSamples.get(positionId);
-    return samples == null ? null : samples.get(sampleIndex);
+    int record = getRecordForId(positionId);
+    return record < 0 ? null : samples(record).get(sampleIndex);
   }
 
+  @Override
   public @Nullable VcfSample getSampleAtLocus(String chromosome, long position, String sampleId) {
-    List<VcfSample> samples = m_locusToSamples.get(new Locus(chromosome, position));
-    if (samples == null) {
+    int record = getRecordAtLocus(chromosome, position);
+    if (record < 0) {
       return null;
     }
     int idx = m_metadata.getSampleIndex(sampleId);
-    return idx < 0 ? null : samples.get(idx);
+    return idx < 0 ? null : samples(record).get(idx);
   }
 
+  @Override
   public @Nullable VcfSample getSampleAtLocus(String chromosome, long position, int sampleIndex) {
-    List<VcfSample> samples = m_locusToSamples.get(new Locus(chromosome, position));
-    return samples == null ? null : samples.get(sampleIndex);
+    int record = getRecordAtLocus(chromosome, position);
+    return record < 0 ? null : samples(record).get(sampleIndex);
   }
 
+  @Override
   public @Nullable Genotype getGenotypeForId(String positionId, String sampleId) {
-    VcfPosition position = m_idToPosition.get(positionId);
-    List<VcfSample> samples = m_idToSamples.get(positionId);
-    if (position == null || samples == null) {
+    int record = getRecordForId(positionId);
+    if (record < 0) {
       return null;
     }
     int idx = m_metadata.getSampleIndex(sampleId);
     if (idx < 0) {
       return null;
     }
-    return doGetGenotype(position, samples.get(idx));
+    return genotype(record, idx);
   }
 
+  @Override
   public @Nullable Genotype getGenotypeAtLocus(String chromosome, long position, String sampleId) {
-    Locus locus = new Locus(chromosome, position);
-    VcfPosition pos = m_locusToPosition.get(locus);
-    List<VcfSample> samples = m_locusToSamples.get(locus);
-    if (pos == null || samples == null) {
+    int record = getRecordAtLocus(chromosome, position);
+    if (record < 0) {
       return null;
     }
     int idx = m_metadata.getSampleIndex(sampleId);
     if (idx < 0) {
       return null;
     }
-    return doGetGenotype(pos, samples.get(idx));
+    return genotype(record, idx);
   }
 
+  @Override
   public @Nullable Genotype getGenotypeForId(String positionId, int sampleIndex) {
-    VcfPosition position = m_idToPosition.get(positionId);
-    List<VcfSample> samples = m_idToSamples.get(positionId);
-    if (position == null || samples == null) {
+    int record = getRecordForId(positionId);
+    if (record < 0) {
       return null;
     }
-    return doGetGenotype(position, samples.get(sampleIndex));
+    return genotype(record, sampleIndex);
   }
 
+  @Override
   public @Nullable Genotype getGenotypeAtLocus(String chromosome, long position, int sampleIndex) {
-    Locus locus = new Locus(chromosome, position);
-    VcfPosition pos = m_locusToPosition.get(locus);
-    List<VcfSample> samples = m_locusToSamples.get(locus);
-    if (pos == null || samples == null) {
+    int record = getRecordAtLocus(chromosome, position);
+    if (record < 0) {
       return null;
     }
-    return doGetGenotype(pos, samples.get(sampleIndex));
+    return genotype(record, sampleIndex);
+  }
+
+  /**
+   * Passes the sample's genotype in every record that can be found {@link #getPositionAtLocus by locus} to
+   * {@code consumer}, with the record's position, in the order the records were added. The genotype is null if the
+   * sample has no GT call (or every allele is missing).
+   * <p>
+   * With a genotype matrix, the calls are read from a sample-major copy of it (built on the first call after records
+   * were added, and taking as much memory again), so that a sweep over one sample reads its calls sequentially rather
+   * than one row of every sample at a time.
+   *
+   * @throws IllegalArgumentException If there is no sample named {@code sampleId}
+   */
+  public void forEachGenotype(String sampleId, BiConsumer<VcfPosition, @Nullable Genotype> consumer) {
+    if (m_metadata == null) {
+      return;
+    }
+    int idx = m_metadata.getSampleIndex(sampleId);
+    if (idx < 0) {
+      throw new IllegalArgumentException("No sample named " + sampleId);
+    }
+    forEachGenotype(idx, consumer);
+  }
+
+  /**
+   * See {@link #forEachGenotype(String, BiConsumer)}.
+   *
+   * @throws IndexOutOfBoundsException If there is no sample at {@code sampleIndex}
+   */
+  public void forEachGenotype(int sampleIndex, BiConsumer<VcfPosition, @Nullable Genotype> consumer) {
+    if (m_metadata == null) {
+      return;
+    }
+    if (sampleIndex < 0 || sampleIndex >= m_metadata.getNumSamples()) {
+      throw new IndexOutOfBoundsException("Sample index " + sampleIndex + " is out of range for " +
+          m_metadata.getNumSamples() + " samples");
+    }
+    if (m_genotypes != null) {
+      GenotypeMatrix.Columns columns = genotypeColumns();
+      for (int x = 0; x < columns.getNumRows(); x++) {
+        VcfPosition position = m_positions.get(columns.getRow(x));
+        consumer.accept(position, columns.getGenotype(sampleIndex, x, position));
+      }
+    } else {
+      for (int record : locusRecords()) {
+        VcfPosition position = m_positions.get(record);
+        consumer.accept(position, toGenotype(position, samples(record).get(sampleIndex)));
+      }
+    }
+  }
+
+  /**
+   * Looks up the genotypes of the selected samples at many loci at once (e.g. the known positions of a pharmacogene),
+   * filling {@code table}, which may be reused from call to call.
+   * <p>
+   * Rather than probing the locus index once per locus, each run of loci on the same chromosome is merged with the
+   * records on that chromosome, sorted by position (the {@link #getPositionsInRange range index}, built on first use),
+   * and each sample's genotypes for a record are read one after the other. With a genotype matrix, the common calls
+   * ({@code 0/0}, {@code 0/1} and {@code 1/1}, phased or not) are shared by every sample with that call at the record,
+   * rather than created for each.
+   *
+   * @param loci The loci to look up, best grouped by chromosome and sorted by position within each chromosome; loci
+   * out of order are still found, but searched for from the start of their chromosome
+   * @param samples The samples to look up, which become the table's columns in sample order
+   * @throws IllegalArgumentException If {@code samples} is not a selection of this store's samples
+   */
+  public void getGenotypes(List<Locus> loci, SampleSet samples, GenotypeTable table) {
+    int numLoci = loci.size();
+    if (m_metadata == null) {
+      table.reset(numLoci, samples);
+      return;
+    }
+    if (samples.getNumSamples() != m_metadata.getNumSamples()) {
+      throw new IllegalArgumentException("Sample selection is over " + samples.getNumSamples() +
+          " sample(s), but the data store has " + m_metadata.getNumSamples());
+    }
+    table.reset(numLoci, samples);
+    int[] sampleIndexes = table.sampleIndexes();
+    int numColumns = table.getNumSamples();
+
+    long[] positions = table.lociPositions();
+    int[] records = table.records();
+    RangeIndex index = rangeIndex();
+    int from = 0;
+    while (from < numLoci) {
+      String chromosome = loci.get(from).getChromosome();
+      int to = from;
+      while (to < numLoci && loci.get(to).getChromosome().equals(chromosome)) {
+        positions[to] = loci.get(to).getPosition();
+        to++;
+      }
+      Integer ordinal = m_contigOrdinals.get(chromosome);
+      index.findStarts(ordinal == null ? -1 : ordinal, positions, from, to, records);
+      from = to;
+    }
+
+    // the common calls at a record, by 2-bit code and phase
+    @Nullable Genotype[] common = table.commonGenotypes();
+    for (int row = 0; row < numLoci; row++) {
+      int record = records[row];
+      if (record < 0) {
+        continue;
+      }
+      VcfPosition position = m_positions.get(record);
+      table.setPosition(row, position);
+      if (m_genotypes != null) {
+        Arrays.fill(common, null);
+        for (int column = 0; column < numColumns; column++) {
+          int sample = sampleIndexes[column];
+          int code = m_genotypes.getCode(record, sample);
+          Genotype genotype;
+          if (code == GenotypeMatrix.ESCAPE) {
+            genotype = m_genotypes.getGenotype(record, sample, position);
+          } else {
+            int call = 2 * code + (m_genotypes.isPhased(record, sample) ? 1 : 0);
+            genotype = common[call];
+            if (genotype == null) {
+              genotype = m_genotypes.getGenotype(record, sample, position);
+              common[call] = genotype;
+            }
+          }
+          table.setGenotype(row, column, genotype);
+        }
+      } else {
+        List<VcfSample> recordSamples = samples(record);
+        for (int column = 0; column < numColumns; column++) {
+          table.setGenotype(row, column, toGenotype(position, recordSamples.get(sampleIndexes[column])));
+        }
+      }
+    }
+  }
+
+  /**
+   * As a frozen store, which can be shared, builds the columns on first use like any other, building them is
+   * synchronized; once built, they are read without locking.
+   */
+  private GenotypeMatrix.Columns genotypeColumns() {
+    GenotypeMatrix.Columns columns = m_genotypeColumns;
+    if (columns == null) {
+      synchronized (this) {
+        columns = m_genotypeColumns;
+        if (columns == null) {
+          columns = m_genotypes.transpose(locusRecords());
+          m_genotypeColumns = columns;
+        }
+      }
+    }
+    return columns;
+  }
+
+  private List<VcfSample> samples(int record) {
+    List<VcfSample> samples = m_samples.get(record);
+    if (samples == null) {
+      throw new IllegalStateException("Samples were not retained; only genotypes can be looked up");
+    }
+    return samples;
+  }
+
+  private @Nullable Genotype genotype(int record, int sampleIndex) {
+    if (m_genotypes != null) {
+      return m_genotypes.getGenotype(record, sampleIndex, m_positions.get(record));
+    }
+    return toGenotype(m_positions.get(record), samples(record).get(sampleIndex));
   }
 
-  private @Nullable Genotype doGetGenotype(VcfPosition position, VcfSample sample) {
+  static @Nullable Genotype toGenotype(VcfPosition position, VcfSample sample) {
     String genotype = sample.getProperty(ReservedFormatProperty.Genotype);
     if (genotype == null || genotype.isEmpty()) {
       return null;
@@ -185,7 +1137,7 @@ protected void setMetadata(VcfMetadata metadata) {
 
   /**
    * Parses a GT allele index, converting a malformed or out-of-range value into {@link VcfFormatException} rather than
-   * letting {@link NumberFormatException} or {@link IndexOutOfBoundsException} leak out of {@link #doGetGenotype},
+   * letting {@link NumberFormatException} or {@link IndexOutOfBoundsException} leak out of {@link #toGenotype},
    * consistent with {@code VcfGenotype.getAlleleFromIndex}.
    */
   private static int parseAlleleIndex(String base, VcfPosition position) {
@@ -202,20 +1154,259 @@ private static int parseAlleleIndex(String base, VcfPosition position) {
     return index;
   }
 
-  protected Map<String, VcfPosition> getIdToPosition() {
-    return m_idToPosition;
+
+  /**
+   * Gets the key of a locus, numbering its contig if it has not been seen before.
+   *
+   * @throws VcfFormatException If the position is out of range
+   */
+  long toLocusKey(String chromosome, long position) {
+    if (position < 0 || position > MAX_POSITION) {
+      throw new VcfFormatException("Position " + position + " on " + chromosome + " is out of range");
+    }
+    return ((long)contigOrdinal(chromosome) << POSITION_BITS) | position;
+  }
+
+  private int contigOrdinal(String chromosome) {
+    Integer ordinal = m_contigOrdinals.get(chromosome);
+    if (ordinal == null) {
+      checkNotFrozen();
+      if (m_contigOrdinals.size() == MAX_CONTIGS) {
+        throw new VcfFormatException("Too many contigs (more than " + MAX_CONTIGS + ")");
+      }
+      ordinal = m_contigOrdinals.size();
+      m_contigOrdinals.put(chromosome, ordinal);
+    }
+    return ordinal;
+  }
+
+  /**
+   * @return The record at the locus, or {@code -1} if there is none
+   */
+  private int getRecordAtLocus(String chromosome, long position) {
+    Integer ordinal = m_contigOrdinals.get(chromosome);
+    if (ordinal == null || position < 0 || position > MAX_POSITION) {
+      return -1;
+    }
+    return getRecordAtLocus(((long)ordinal << POSITION_BITS) | position);
+  }
+
+  /**
+   * @return The record at the locus key, or {@code -1} if there is none
+   */
+  int getRecordAtLocus(long locusKey) {
+    if (m_locusFilter != null && !m_locusFilter.mightContain(locusKey)) {
+      return -1;
+    }
+    return m_locusToRecord.get(locusKey);
+  }
+
+  void setRecordAtLocus(long locusKey, int record) {
+    checkNotFrozen();
+    m_locusToRecord.put(locusKey, record);
+    if (m_locusFilter != null) {
+      m_locusFilter.put(locusKey);
+    }
+    m_rangeIndex = null;
+    m_genotypeColumns = null;
   }
 
-  protected Map<Locus, VcfPosition> getLocusToPosition() {
-    return m_locusToPosition;
+  /**
+   * Indexes records by their alleles as well as their locus, so that a locus can have several records; see
+   * {@link MemoryMappedVcfLineParser.Builder#indexAlleles()}.
+   */
+  void indexAlleles() {
+    checkNotFrozen();
+    if (!m_positions.isEmpty()) {
+      throw new IllegalStateException("Alleles must be indexed before records are added");
+    }
+    m_alleleIndex = new AlleleIndex();
   }
 
-  protected Map<String, List<VcfSample>> getIdToSamples() {
-    return m_idToSamples;
+  boolean isIndexingAlleles() {
+    return m_alleleIndex != null;
   }
 
-  protected Map<Locus, List<VcfSample>> getLocusToSamples() {
-    return m_locusToSamples;
+  boolean isRetainingSamples() {
+    return m_retainSamples;
+  }
+
+  /**
+   * @return The record at the locus key with the same REF and ALT as {@code position}, or {@code -1} if there is none
+   */
+  int getRecordForAlleles(long locusKey, VcfPosition position) {
+    if (m_locusFilter != null && !m_locusFilter.mightContain(locusKey)) {
+      return -1;
+    }
+    return m_alleleIndex.get(locusKey, position.getPosition(), position.getChromosomeView(), position.getRefView(),
+        position.getAltBases(), m_positions);
+  }
+
+  /**
+   * Links a record to its locus and alleles, replacing any record at the locus with the same alleles, and otherwise
+   * adding it after the records already there.
+   */
+  void setRecordForAlleles(long locusKey, int record) {
+    checkNotFrozen();
+    setRecordAtLocus(locusKey, m_alleleIndex.put(locusKey, m_locusToRecord.get(locusKey), record, m_positions));
+  }
+
+  /**
+   * @return The record with the ID, or {@code -1} if there is none
+   */
+  int getRecordForId(String id) {
+    if (m_idFilter != null && !m_idFilter.mightContain(id)) {
+      return -1;
+    }
+    long rsid = RsidIndex.parse(id);
+    if (rsid != RsidIndex.NOT_AN_RSID) {
+      return m_rsidToRecord.get(rsid);
+    }
+    Integer record = m_idToRecord.get(id);
+    return record == null ? -1 : record;
+  }
+
+  void setRecordForId(String id, int record) {
+    checkNotFrozen();
+    long rsid = RsidIndex.parse(id);
+    if (rsid != RsidIndex.NOT_AN_RSID) {
+      m_rsidToRecord.put(rsid, record);
+    } else {
+      m_idToRecord.put(id, record);
+    }
+    if (m_idFilter != null) {
+      m_idFilter.put(id);
+    }
+  }
+
+  /**
+   * @return The number of records, including any that can no longer be found by locus or ID
+   */
+  int getNumRecords() {
+    return m_positions.size();
+  }
+
+  VcfPosition getRecordPosition(int record) {
+    return m_positions.get(record);
+  }
+
+  List<VcfSample> getRecordSamples(int record) {
+    return samples(record);
+  }
+
+  /**
+   * Adds a record, which can then be linked to its locus and IDs.
+   *
+   * @return The new record's index
+   */
+  int addRecord(VcfPosition position, List<VcfSample> samples) {
+    return addRecord(position, samples, null, -1);
+  }
+
+  /**
+   * Adds a record, which can then be linked to its locus and IDs. If {@code source} is given, the record is a copy of
+   * its {@code sourceRecord}th one, and the GT calls are copied from its genotype matrix (if it has one), so that
+   * {@code samples} are only needed if this store retains them.
+   *
+   * @return The new record's index
+   */
+  int addRecord(VcfPosition position, @Nullable List<VcfSample> samples, @Nullable MemoryMappedVcfDataStore source,
+      int sourceRecord) {
+    checkNotFrozen();
+    setGenotypes(m_positions.size(), position, samples, source, sourceRecord);
+    prepareRecord(position);
+    m_positions.add(position);
+    m_samples.add(m_retainSamples ? samples : null);
+    m_recordBytes += estimateRecordBytes(position, m_retainSamples ? samples : null);
+    checkMemoryLimit();
+    return m_positions.size() - 1;
+  }
+
+  /**
+   * Replaces a record that can no longer be found by locus or ID (such as one a duplicate replaces) with a new one,
+   * which keeps its index, and so whatever links the replaced record had.
+   */
+  void setRecord(int record, VcfPosition position, List<VcfSample> samples) {
+    setRecord(record, position, samples, null, -1);
+  }
+
+  /**
+   * Replaces a record as {@link #setRecord(int, VcfPosition, List)} does, with a copy of a record of {@code source} as
+   * {@link #addRecord(VcfPosition, List, MemoryMappedVcfDataStore, int)} adds one.
+   */
+  void setRecord(int record, VcfPosition position, @Nullable List<VcfSample> samples,
+      @Nullable MemoryMappedVcfDataStore source, int sourceRecord) {
+    checkNotFrozen();
+    setGenotypes(record, position, samples, source, sourceRecord);
+    prepareRecord(position);
+    m_recordBytes -= estimateRecordBytes(m_positions.get(record), m_samples.get(record));
+    m_positions.set(record, position);
+    m_samples.set(record, m_retainSamples ? samples : null);
+    m_recordBytes += estimateRecordBytes(position, m_retainSamples ? samples : null);
+    m_rangeIndex = null;
+    m_genotypeColumns = null;
+    checkMemoryLimit();
+  }
+
+  /**
+   * Adds (if {@code record} is the next index) or replaces a row of the genotype matrix, if there is one.
+   */
+  private void setGenotypes(int record, VcfPosition position, @Nullable List<VcfSample> samples,
+      @Nullable MemoryMappedVcfDataStore source, int sourceRecord) {
+    GenotypeMatrix sourceGenotypes = source == null ? null : source.m_genotypes;
+    if (samples == null && (m_retainSamples || sourceGenotypes == null)) {
+      throw new IllegalArgumentException("Samples are required unless they are discarded and the genotypes copied");
+    }
+    if (m_genotypes == null) {
+      if (m_useGenotypeMatrix) {
+        throw new IllegalStateException("Metadata must be set before records are added");
+      }
+      return;
+    }
+    boolean add = record == m_positions.size();
+    if (sourceGenotypes != null) {
+      if (add) {
+        m_genotypes.addRow(sourceGenotypes, sourceRecord);
+      } else {
+        m_genotypes.setRow(record, sourceGenotypes, sourceRecord);
+      }
+    } else if (add) {
+      m_genotypes.addRow(position, samples);
+    } else {
+      m_genotypes.setRow(record, position, samples);
+    }
+  }
+
+  private void prepareRecord(VcfPosition position) {
+    if (!m_retainSamples) {
+      // CHROM and REF may be slices of the line, which would then be kept just for them
+      position.getChromosome();
+      position.getRef();
+    }
+    if (position.getRawLine() != null && !position.isFrozen()) {
+      // a store keeps every record, and the whole line (sample columns included) would be kept alongside the parsed
+      // fields just to write an unchanged record back out
+      position.setRawLine(null, 0);
+    }
+  }
+
+  private static long estimateRecordBytes(VcfPosition position, @Nullable List<VcfSample> samples) {
+    long bytes = HeapSize.position(position, null) + 2 * HeapSize.REFERENCE;
+    if (samples != null) {
+      bytes += HeapSize.samples(samples, position.getFormat(), null);
+    }
+    return bytes;
+  }
+
+  private void checkMemoryLimit() {
+    if (m_memoryLimit > 0) {
+      long bytes = m_recordBytes + locusIndexBytes() + idIndexBytes() + m_filterBytes +
+          (m_genotypes == null ? 0 : m_genotypes.estimateBytes());
+      if (bytes > m_memoryLimit) {
+        throw new IllegalStateException("Data store is estimated to take " + bytes + " bytes after " +
+            m_positions.size() + " records, more than its limit of " + m_memoryLimit);
+      }
+    }
   }
 
   @Immutable
@@ -260,8 +1451,161 @@ public int hashCode() {
     }
   }
 
+  /**
+   * How much a {@link MemoryMappedVcfDataStore} holds, and an estimate of how much heap it takes; see
+   * {@link #getStats()}.
+   */
+  @Immutable
+  public static class Stats {
+    private final int m_numRecords;
+    private final int m_numLoci;
+    private final int m_numRsids;
+    private final int m_numOtherIds;
+    private final long m_positionBytes;
+    private final long m_sampleBytes;
+    private final long m_genotypeMatrixBytes;
+    private final long m_locusIndexBytes;
+    private final long m_idIndexBytes;
+    private final long m_filterBytes;
+    private final long m_stringBytes;
+    private final long m_duplicateStringBytes;
+
+    private Stats(int numRecords, int numLoci, int numRsids, int numOtherIds, long positionBytes, long sampleBytes,
+        long genotypeMatrixBytes, long locusIndexBytes, long idIndexBytes, long filterBytes, long stringBytes,
+        long duplicateStringBytes) {
+      m_numRecords = numRecords;
+      m_numLoci = numLoci;
+      m_numRsids = numRsids;
+      m_numOtherIds = numOtherIds;
+      m_positionBytes = positionBytes;
+      m_sampleBytes = sampleBytes;
+      m_genotypeMatrixBytes = genotypeMatrixBytes;
+      m_locusIndexBytes = locusIndexBytes;
+      m_idIndexBytes = idIndexBytes;
+      m_filterBytes = filterBytes;
+      m_stringBytes = stringBytes;
+      m_duplicateStringBytes = duplicateStringBytes;
+    }
+
+    /**
+     * @return The number of records, including any that can no longer be found by locus or ID
+     */
+    public int getNumRecords() {
+      return m_numRecords;
+    }
+
+    /**
+     * @return The number of loci in the locus index (which have more than one record each only if alleles are indexed)
+     */
+    public int getNumLoci() {
+      return m_numLoci;
+    }
+
+    /**
+     * @return The number of canonical rsIDs in the ID index
+     */
+    public int getNumRsids() {
+      return m_numRsids;
+    }
+
+    /**
+     * @return The number of IDs in the ID index that are not canonical rsIDs
+     */
+    public int getNumOtherIds() {
+      return m_numOtherIds;
+    }
+
+    /**
+     * @return The estimated bytes of the records' positions, including their strings
+     */
+    public long getPositionBytes() {
+      return m_positionBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the records' samples, including the lines they are read from; 0 if samples are
+     * discarded
+     */
+    public long getSampleBytes() {
+      return m_sampleBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the genotype matrix (including its sample-major copy, if it has been built), or 0
+     * if there is none
+     */
+    public long getGenotypeMatrixBytes() {
+      return m_genotypeMatrixBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the locus index, including the allele index if alleles are indexed and the range
+     * index if it has been built
+     */
+    public long getLocusIndexBytes() {
+      return m_locusIndexBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the ID index, not counting the IDs themselves (which are the records')
+     */
+    public long getIdIndexBytes() {
+      return m_idIndexBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the membership filters, or 0 if there are none
+     */
+    public long getFilterBytes() {
+      return m_filterBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the whole store
+     */
+    public long getTotalBytes() {
+      return m_positionBytes + m_sampleBytes + m_genotypeMatrixBytes + m_locusIndexBytes + m_idIndexBytes +
+          m_filterBytes;
+    }
+
+    /**
+     * @return The estimated bytes of the strings the records hold (part of the position and sample bytes)
+     */
+    public long getStringBytes() {
+      return m_stringBytes;
+    }
+
+    /**
+     * @return The estimated bytes of strings equal to another string in the store that are not that same object, which
+     * interning them would save
+     */
+    public long getDuplicateStringBytes() {
+      return m_duplicateStringBytes;
+    }
+
+    /**
+     * @return {@link #getDuplicateStringBytes()} as a fraction of {@link #getStringBytes()}, or 0 if there are no
+     * strings
+     */
+    public double getDuplicateStringShare() {
+      return m_stringBytes == 0 ? 0 : (double)m_duplicateStringBytes / m_stringBytes;
+    }
+
+    @Override
+    public String toString() {
+      return m_numRecords + " records (" + m_numLoci + " loci, " + m_numRsids + " rsIDs, " + m_numOtherIds +
+          " other IDs), ~" + getTotalBytes() + " bytes: positions " + m_positionBytes + ", samples " + m_sampleBytes +
+          ", genotype matrix " + m_genotypeMatrixBytes + ", locus index " + m_locusIndexBytes + ", ID index " +
+          m_idIndexBytes + ", filters " + m_filterBytes + "; " +
+          String.format("%.1f", 100 * getDuplicateStringShare()) + "% of string bytes duplicated";
+    }
+  }
+
+  /**
+   * A chromosome and position, as used by {@link #getGenotypes}.
+   */
   @Immutable
-  protected static class Locus {
+  public static class Locus {
     private final String m_chromosome;
     private final long m_position;
 
@@ -1,6 +1,17 @@
 package org.pharmgkb.parser.vcf;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.google.common.base.Preconditions;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.model.ContigMetadata;
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
@@ -15,7 +26,8 @@
  * </ul>
  * <p>
  * <em>This implementation is memory-intensive and should only be used for short VCF files where repeated arbitrary
- * (random) access to VCF records is required.</em>
+ * (random) access to VCF records is required.</em> {@link MemoryMappedVcfDataStore#getStats()} estimates how much
+ * memory a loaded store takes, and {@link Builder#setMemoryLimit} fails a load that would take too much.
  * <p>
  * By default, a {@link VcfFormatException} is thrown each time a duplicate ID or locus is found.
  * To change this behavior, see {@link Builder#setDuplicateIdHandler} and {@link Builder#setDuplicateLocusHandler}.
@@ -23,14 +35,26 @@
  * @author Douglas Myers-Turnbull
  */
 public class MemoryMappedVcfLineParser implements VcfLineParser {
-  private MemoryMappedVcfDataStore m_dataStore = new MemoryMappedVcfDataStore();
+  private MemoryMappedVcfDataStore m_dataStore;
   private DuplicateHandler m_duplicateIdHandler;
   private DuplicateHandler m_duplicateLocusHandler;
+  // whether a record a duplicate replaces is kept, rather than overwritten, so that every record stays in the order it
+  // was added
+  private final boolean m_keepReplacedRecords;
 
 
-  private MemoryMappedVcfLineParser(DuplicateHandler idHandler, DuplicateHandler locusHandler) {
+  private MemoryMappedVcfLineParser(DuplicateHandler idHandler, DuplicateHandler locusHandler,
+      boolean useGenotypeMatrix, boolean retainSamples, long expectedInsertions, double falsePositiveRate,
+      long memoryLimit, boolean indexAlleles, boolean keepReplacedRecords) {
+    m_dataStore = new MemoryMappedVcfDataStore(useGenotypeMatrix, retainSamples, expectedInsertions,
+        falsePositiveRate);
+    m_dataStore.setMemoryLimit(memoryLimit);
+    if (indexAlleles) {
+      m_dataStore.indexAlleles();
+    }
     m_duplicateIdHandler = idHandler;
     m_duplicateLocusHandler = locusHandler;
+    m_keepReplacedRecords = keepReplacedRecords;
   }
 
 
@@ -43,35 +67,112 @@ public MemoryMappedVcfDataStore getDataStore() {
   public void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> sampleData) {
 
     m_dataStore.setMetadata(metadata);
+    addLine(position, sampleData, null, -1);
+  }
 
-    // link by locus
-    MemoryMappedVcfDataStore.Locus locus = new MemoryMappedVcfDataStore.Locus(position.getChromosome(), position.getPosition());
-    boolean containsPosition = m_dataStore.getLocusToPosition().containsKey(locus);
+  /**
+   * Adds and links a record as {@link #parseLine} does. If {@code source} is given, the record is a copy of its
+   * {@code sourceRecord}th one, whose genotypes are copied rather than parsed, and {@code sampleData} is only needed if
+   * samples are retained.
+   */
+  private void addLine(VcfPosition position, @Nullable List<VcfSample> sampleData,
+      @Nullable MemoryMappedVcfDataStore source, int sourceRecord) {
+    // link by locus (and alleles)
+    long locus = m_dataStore.toLocusKey(position.getChromosome(), position.getPosition());
+    boolean indexAlleles = m_dataStore.isIndexingAlleles();
+    boolean containsPosition = indexAlleles ? m_dataStore.getRecordForAlleles(locus, position) >= 0 :
+        m_dataStore.getRecordAtLocus(locus) >= 0;
     if (containsPosition && m_duplicateLocusHandler == DuplicateHandler.FAIL) {
-      throw new VcfFormatException("Duplicate VCF record for position " + locus);
+      throw new VcfFormatException("Duplicate VCF record for position " + position.getChromosome() + ":" +
+          position.getPosition() + (indexAlleles ? " " + position.getRef() + ">" + position.getAltBases() : ""));
+    }
+    int record = -1;
+    if (containsPosition && m_duplicateLocusHandler == DuplicateHandler.KEEP_LAST) {
+      int replaced = indexAlleles ? m_dataStore.getRecordForAlleles(locus, position) :
+          m_dataStore.getRecordAtLocus(locus);
+      if (!m_keepReplacedRecords && isUnlinkedBy(replaced, position)) {
+        // the locus (and alleles) stay linked to the same index
+        m_dataStore.setRecord(replaced, position, sampleData, source, sourceRecord);
+        record = replaced;
+      }
     }
-    if (!containsPosition || m_duplicateLocusHandler == DuplicateHandler.KEEP_LAST) {
-      m_dataStore.getLocusToPosition().put(locus, position);
-      m_dataStore.getLocusToSamples().put(locus, sampleData);
+    if (record < 0 && (!containsPosition || m_duplicateLocusHandler == DuplicateHandler.KEEP_LAST)) {
+      record = m_dataStore.addRecord(position, sampleData, source, sourceRecord);
+      if (indexAlleles) {
+        m_dataStore.setRecordForAlleles(locus, record);
+      } else {
+        m_dataStore.setRecordAtLocus(locus, record);
+      }
     }
 
     // link by ID
     for (String id : position.getIds()) {
-      boolean containsId = m_dataStore.getIdToPosition().containsKey(id);
+      int idRecord = m_dataStore.getRecordForId(id);
+      boolean containsId = idRecord >= 0;
+      if (containsId && indexAlleles && isSameLocus(m_dataStore.getRecordPosition(idRecord), position)) {
+        // a record split from the same multi-allelic record; the ID stays with the first
+        continue;
+      }
       if (containsId && m_duplicateIdHandler == DuplicateHandler.FAIL) {
         throw new VcfFormatException("Duplicate VCF record for ID " + id);
       }
       if (!containsId || m_duplicateIdHandler == DuplicateHandler.KEEP_LAST) {
-        m_dataStore.getIdToPosition().put(id, position);
-        m_dataStore.getIdToSamples().put(id, sampleData);
+        if (record < 0) {
+          if (containsId && !m_keepReplacedRecords && !isLinkedByLocus(idRecord) &&
+              isUnlinkedBy(idRecord, position)) {
+            m_dataStore.setRecord(idRecord, position, sampleData, source, sourceRecord);
+            record = idRecord;
+          } else {
+            record = m_dataStore.addRecord(position, sampleData, source, sourceRecord);
+          }
+        }
+        m_dataStore.setRecordForId(id, record);
       }
     }
   }
 
 
+  /**
+   * @return Whether no ID would link to {@code record} once {@code position} replaces it: every ID linked to it is one
+   * of {@code position}'s, which is linked to the last record with it. The record can then be overwritten with
+   * {@code position}, rather than kept (and counted) for the life of the store.
+   */
+  private boolean isUnlinkedBy(int record, VcfPosition position) {
+    for (String id : m_dataStore.getRecordPosition(record).getIds()) {
+      if (m_dataStore.getRecordForId(id) == record &&
+          (m_duplicateIdHandler != DuplicateHandler.KEEP_LAST || !position.getIds().contains(id))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Whether the record can be found by its locus (and alleles)
+   */
+  private boolean isLinkedByLocus(int record) {
+    VcfPosition position = m_dataStore.getRecordPosition(record);
+    long locus = m_dataStore.toLocusKey(position.getChromosome(), position.getPosition());
+    return (m_dataStore.isIndexingAlleles() ? m_dataStore.getRecordForAlleles(locus, position) :
+        m_dataStore.getRecordAtLocus(locus)) == record;
+  }
+
+  private static boolean isSameLocus(VcfPosition a, VcfPosition b) {
+    return a.getPosition() == b.getPosition() &&
+        CharSequence.compare(a.getChromosomeView(), b.getChromosomeView()) == 0;
+  }
+
+
   public static class Builder {
     private DuplicateHandler m_duplicateIdHandler = DuplicateHandler.FAIL;
     private DuplicateHandler m_duplicateLocusHandler = DuplicateHandler.FAIL;
+    private boolean m_useGenotypeMatrix;
+    private boolean m_retainSamples = true;
+    private long m_expectedInsertions;
+    private double m_falsePositiveRate;
+    private long m_memoryLimit;
+    private boolean m_indexAlleles;
+    private boolean m_keepReplacedRecords;
 
     /**
      * Determines what to do when an ID that was previously set is encountered, regardless of whether the two IDs
@@ -97,8 +198,213 @@ public Builder setDuplicateLocusHandler(DuplicateHandler handler) {
       return this;
     }
 
+    /**
+     * Packs every record's GT calls into a bit matrix as it is loaded (2 bits per biallelic diploid call, plus a phase
+     * bit; other calls are kept in a side table), and answers the genotype lookups from it.
+     * <p>
+     * A malformed GT then fails the load with a {@link VcfFormatException} rather than the lookup.
+     */
+    public Builder useGenotypeMatrix() {
+      m_useGenotypeMatrix = true;
+      return this;
+    }
+
+    /**
+     * Keeps only the genotypes of each record, not its samples, so that a large cohort takes far less memory. Requires
+     * {@link #useGenotypeMatrix()}; looking up samples then throws {@link IllegalStateException}.
+     */
+    public Builder discardSamples() {
+      m_retainSamples = false;
+      return this;
+    }
+
+    /**
+     * Loads several VCF files (e.g. one per chromosome) into a single data store, parsing up to {@code numThreads} of
+     * them at a time, so that loading takes about as long as the largest file rather than all of them.
+     * <p>
+     * Each file is parsed into a partial store of its own, and the partial stores are then merged in the order the
+     * files were given, by adding their records as if the files had been parsed one after the other with a single
+     * parser built by this builder: duplicate IDs and loci are handled the same way, including duplicates between
+     * files. Every file must have the same samples, in the same order. The data store's metadata is that of the first
+     * file, with the {@code ##contig} lines of the other files that it lacks added to it; their other metadata is
+     * ignored.
+     * <p>
+     * A file is only started once the one {@code numThreads} before it has been merged, so that at most
+     * {@code numThreads} partial stores are held at once: the peak memory is about that of the merged store plus the
+     * partial stores of the {@code numThreads} largest files. Partial stores are built with the same options as the
+     * merged store (e.g. {@link #discardSamples()}), and genotypes are copied from their matrices rather than parsed
+     * again.
+     *
+     * @throws VcfFormatException If a file is not valid VCF, its samples differ from the first file's, or there is a
+     * duplicate ID or locus and its handler is {@link DuplicateHandler#FAIL}
+     */
+    public MemoryMappedVcfDataStore loadInParallel(List<Path> vcfFiles, int numThreads) throws IOException {
+      Preconditions.checkArgument(numThreads > 0, "numThreads must be positive");
+      Preconditions.checkArgument(!vcfFiles.isEmpty(), "No files to load");
+      MemoryMappedVcfLineParser lineParser = build();
+      List<Future<Partial>> partials = new ArrayList<>(vcfFiles.size());
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, vcfFiles.size()));
+      try {
+        for (int x = 0; x < Math.min(numThreads, vcfFiles.size()); x++) {
+          Path file = vcfFiles.get(x);
+          partials.add(executor.submit(() -> loadPartial(file)));
+        }
+
+        VcfMetadata metadata = null;
+        for (int x = 0; x < vcfFiles.size(); x++) {
+          Partial partial = getPartial(partials.get(x));
+          if (metadata == null) {
+            metadata = partial.m_metadata;
+            lineParser.m_dataStore.setMetadata(metadata);
+          } else {
+            checkSameSamples(metadata, partial.m_metadata, vcfFiles.get(x));
+            for (ContigMetadata contig : partial.m_metadata.getContigs().values()) {
+              if (!metadata.getContigs().containsKey(contig.getId())) {
+                metadata.addContig(contig);
+              }
+            }
+          }
+          MemoryMappedVcfDataStore dataStore = partial.m_dataStore;
+          boolean retainsSamples = dataStore.isRetainingSamples();
+          for (int record = 0; record < dataStore.getNumRecords(); record++) {
+            lineParser.addLine(dataStore.getRecordPosition(record),
+                retainsSamples ? dataStore.getRecordSamples(record) : null, dataStore, record);
+          }
+          // let the partial store be collected as soon as it is merged, and only then start on another file
+          partials.set(x, null);
+          if (x + numThreads < vcfFiles.size()) {
+            Path file = vcfFiles.get(x + numThreads);
+            partials.add(executor.submit(() -> loadPartial(file)));
+          }
+        }
+        return lineParser.getDataStore();
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    private Partial loadPartial(Path file) throws IOException {
+      Builder builder = new Builder()
+          .setDuplicateIdHandler(m_duplicateIdHandler)
+          .setDuplicateLocusHandler(m_duplicateLocusHandler);
+      if (m_indexAlleles) {
+        builder.indexAlleles();
+      }
+      if (m_useGenotypeMatrix) {
+        builder.useGenotypeMatrix();
+      }
+      if (!m_retainSamples) {
+        builder.discardSamples();
+      }
+      if (m_memoryLimit > 0) {
+        // a file that is too large on its own fails before the merge
+        builder.setMemoryLimit(m_memoryLimit);
+      }
+      // the merge adds the records in the order they were added, duplicates included
+      builder.m_keepReplacedRecords = true;
+      MemoryMappedVcfLineParser lineParser = builder.build();
+      try (VcfParser parser = new VcfParser.Builder().fromFile(file).parseWith(lineParser).build()) {
+        VcfMetadata metadata = parser.parseMetadata();
+        parser.parse();
+        return new Partial(metadata, lineParser.getDataStore());
+      }
+    }
+
+    private static Partial getPartial(Future<Partial> future) throws IOException {
+      try {
+        return future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while loading VCF files");
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        }
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+
+    private static void checkSameSamples(VcfMetadata expected, VcfMetadata metadata, Path file) {
+      boolean same = expected.getNumSamples() == metadata.getNumSamples();
+      for (int x = 0; same && x < expected.getNumSamples(); x++) {
+        same = expected.getSampleName(x).equals(metadata.getSampleName(x));
+      }
+      if (!same) {
+        throw new VcfFormatException(file + " does not have the same samples as the first file");
+      }
+    }
+
+    /**
+     * Builds Bloom filters of the loci and IDs as the data store is loaded, and checks them before looking a locus or
+     * ID up, so that a lookup of one that is absent usually ends there.
+     * <p>
+     * Each filter takes about {@code -expectedInsertions * ln(falsePositiveRate) / ln(2)^2} bits (9.6 bits per entry
+     * for 1%); if more than {@code expectedInsertions} loci or IDs are loaded, lookups stay correct but the false
+     * positive rate rises.
+     *
+     * @param expectedInsertions The number of records expected
+     * @param falsePositiveRate The target rate at which an absent locus or ID passes the filter, between 0 and 1
+     */
+    public Builder useMembershipFilters(long expectedInsertions, double falsePositiveRate) {
+      Preconditions.checkArgument(expectedInsertions > 0, "expectedInsertions must be positive");
+      Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1,
+          "falsePositiveRate must be between 0 and 1");
+      m_expectedInsertions = expectedInsertions;
+      m_falsePositiveRate = falsePositiveRate;
+      return this;
+    }
+
+    /**
+     * Keys records by locus and alleles (REF and ALT) rather than by locus alone, so that a file with several records
+     * at a locus (e.g. once multi-allelic records are split into biallelic ones) loads every one of them.
+     * <p>
+     * The duplicate locus handler then applies only to records with the same locus and alleles. The records at a locus
+     * are found in the order they were added with {@link MemoryMappedVcfDataStore#getPositionsAtLocus}, and one of them
+     * by its alleles with {@link MemoryMappedVcfDataStore#getPositionAtLocus(String, long, String, List)}; lookups by
+     * locus alone (including genotype lookups) find the first. An ID repeated by records at the same locus is not a
+     * duplicate: it stays with the first of them.
+     */
+    public Builder indexAlleles() {
+      m_indexAlleles = true;
+      return this;
+    }
+
+    /**
+     * Fails the load as soon as the data store's estimated size (see {@link MemoryMappedVcfDataStore#getStats()})
+     * exceeds {@code maxBytes}, rather than running out of memory. The estimate is checked as each record is added, and
+     * counts every record's strings as its own, so it is no smaller than the one {@code getStats()} reports.
+     * <p>
+     * The failure is an {@link IllegalStateException}, which {@link VcfParser} reports as the cause of a
+     * {@link VcfFormatException} for the line being parsed.
+     */
+    public Builder setMemoryLimit(long maxBytes) {
+      Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+      m_memoryLimit = maxBytes;
+      return this;
+    }
+
     public MemoryMappedVcfLineParser build() {
-      return new MemoryMappedVcfLineParser(m_duplicateIdHandler, m_duplicateLocusHandler);
+      if (!m_retainSamples && !m_useGenotypeMatrix) {
+        throw new IllegalStateException("Samples can only be discarded when using a genotype matrix");
+      }
+      return new MemoryMappedVcfLineParser(m_duplicateIdHandler, m_duplicateLocusHandler, m_useGenotypeMatrix,
+          m_retainSamples, m_expectedInsertions, m_falsePositiveRate, m_memoryLimit, m_indexAlleles,
+          m_keepReplacedRecords);
+    }
+  }
+
+
+  private static class Partial {
+    private final VcfMetadata m_metadata;
+    private final MemoryMappedVcfDataStore m_dataStore;
+
+    private Partial(VcfMetadata metadata, MemoryMappedVcfDataStore dataStore) {
+      m_metadata = metadata;
+      m_dataStore = dataStore;
     }
   }
 
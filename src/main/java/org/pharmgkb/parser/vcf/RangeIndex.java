@@ -0,0 +1,154 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+
+
+/**
+ * An index of records by the interval they cover, for finding every record that overlaps a range.
+ * <p>
+ * For each contig, records are sorted by start, and each is stored with its end and the largest end of it and every
+ * record before it. Since that running maximum never decreases, the records that can overlap a range are exactly the
+ * run from the first whose running maximum reaches the range's start to the last that starts before the range's end;
+ * both ends are found by binary search, so a query costs O(log n) plus the records in that run.
+ */
+final class RangeIndex {
+  private static final int[] sf_noRecords = new int[0];
+  // by contig ordinal; null if there are no records on the contig
+  private final Contig[] m_contigs;
+
+
+  /**
+   * @param contigs The contig ordinal of each record
+   * @param starts The first position of each record
+   * @param ends The last position of each record
+   * @param records The record indexes; the arrays must be sorted by contig ordinal and then start
+   */
+  RangeIndex(int numContigs, int[] contigs, long[] starts, long[] ends, int[] records) {
+    m_contigs = new Contig[numContigs];
+    int x = 0;
+    while (x < records.length) {
+      int contig = contigs[x];
+      int end = x + 1;
+      while (end < records.length && contigs[end] == contig) {
+        end++;
+      }
+      m_contigs[contig] = new Contig(Arrays.copyOfRange(starts, x, end), Arrays.copyOfRange(ends, x, end),
+          Arrays.copyOfRange(records, x, end));
+      x = end;
+    }
+  }
+
+
+  /**
+   * @return An estimate of the bytes this index retains
+   */
+  long estimateBytes() {
+    long bytes = HeapSize.object(HeapSize.REFERENCE) + HeapSize.array(HeapSize.REFERENCE, m_contigs.length);
+    for (Contig contig : m_contigs) {
+      if (contig != null) {
+        int size = contig.m_records.length;
+        bytes += HeapSize.object(4 * HeapSize.REFERENCE) + 3 * HeapSize.array(8, size) + HeapSize.array(4, size);
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * @return The records on the contig that overlap {@code [start, end]}, ordered by start
+   */
+  int[] find(int contig, long start, long end) {
+    Contig index = contig < 0 || contig >= m_contigs.length ? null : m_contigs[contig];
+    if (index == null || start > end) {
+      return sf_noRecords;
+    }
+    // first record whose running maximum end reaches start
+    int from = firstIndex(index.m_maxEnds, start, false);
+    // first record that starts after end
+    int to = firstIndex(index.m_starts, end, true);
+    int[] found = new int[Math.max(0, to - from)];
+    int n = 0;
+    for (int x = from; x < to; x++) {
+      if (index.m_ends[x] >= start) {
+        found[n++] = index.m_records[x];
+      }
+    }
+    return n == found.length ? found : Arrays.copyOf(found, n);
+  }
+
+  /**
+   * Finds the record starting at each of {@code positions[from, to)} on the contig by merging them with the contig's
+   * records: each position is searched for from where the one before it was found (stepping ahead 1, 2, 4, ... records
+   * and then by binary search), so ascending positions cost O(log d) each for a gap of d records rather than a search
+   * of the whole contig. Positions need not be ascending, but each one that is not starts over.
+   *
+   * @param records Receives the record starting at each position, or {@code -1} if there is none, at the same index
+   */
+  void findStarts(int contig, long[] positions, int from, int to, int[] records) {
+    Contig index = contig < 0 || contig >= m_contigs.length ? null : m_contigs[contig];
+    if (index == null) {
+      Arrays.fill(records, from, to, -1);
+      return;
+    }
+    long[] starts = index.m_starts;
+    int cursor = 0;
+    for (int x = from; x < to; x++) {
+      long position = positions[x];
+      if (x > from && position < positions[x - 1]) {
+        cursor = 0;
+      }
+      int step = 1;
+      int hi = cursor;
+      while (hi < starts.length && starts[hi] < position) {
+        cursor = hi + 1;
+        hi += step;
+        step <<= 1;
+      }
+      cursor = firstIndex(starts, cursor, Math.min(hi, starts.length), position, false);
+      records[x] = cursor < starts.length && starts[cursor] == position ? index.m_records[cursor] : -1;
+    }
+  }
+
+  /**
+   * @return The index of the first value in {@code sorted} that is at least {@code key} (or greater than it, if
+   * {@code after}), or its length if there is none
+   */
+  private static int firstIndex(long[] sorted, long key, boolean after) {
+    return firstIndex(sorted, 0, sorted.length, key, after);
+  }
+
+  /**
+   * @return The index of the first value in {@code sorted[lo, hi)} that is at least {@code key} (or greater than it, if
+   * {@code after}), or {@code hi} if there is none
+   */
+  private static int firstIndex(long[] sorted, int lo, int hi, long key, boolean after) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] < key || (after && sorted[mid] == key)) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+
+  private static class Contig {
+    private final long[] m_starts;
+    private final long[] m_ends;
+    private final long[] m_maxEnds;
+    private final int[] m_records;
+
+    private Contig(long[] starts, long[] ends, int[] records) {
+      m_starts = starts;
+      m_ends = ends;
+      m_records = records;
+      m_maxEnds = new long[ends.length];
+      long max = Long.MIN_VALUE;
+      for (int x = 0; x < ends.length; x++) {
+        max = Math.max(max, ends[x]);
+        m_maxEnds[x] = max;
+      }
+    }
+  }
+}
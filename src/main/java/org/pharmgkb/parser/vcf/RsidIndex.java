@@ -0,0 +1,191 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * An index of records by dbSNP rsID, keyed by the rsID's number rather than its text.
+ * <p>
+ * While records are added, the index is a {@link LongIntHashMap}; {@link #compact()} turns it into a sorted
+ * {@code long[]} of rsID numbers and a parallel {@code int[]} of records, searched by binary search, which takes 12
+ * bytes per rsID and no objects at all.
+ * <p>
+ * Only canonical rsIDs (see {@link #parse}) are indexed; any other ID must be kept elsewhere.
+ */
+final class RsidIndex {
+  static final long NOT_AN_RSID = -1;
+  // Long.MAX_VALUE has 19 digits, so 18 never overflow
+  private static final int sf_maxDigits = 18;
+  private static final int sf_insertionSortThreshold = 16;
+
+  // null once compacted
+  private final @Nullable LongIntHashMap m_map;
+  // null until compacted
+  private final long @Nullable [] m_rsids;
+  private final int @Nullable [] m_records;
+
+
+  RsidIndex() {
+    m_map = new LongIntHashMap();
+    m_rsids = null;
+    m_records = null;
+  }
+
+  private RsidIndex(long[] rsids, int[] records) {
+    m_map = null;
+    m_rsids = rsids;
+    m_records = records;
+  }
+
+
+  /**
+   * Gets the number of a canonical rsID: {@code rs} followed by up to 18 digits, with no leading zero (so that each
+   * number has exactly one ID).
+   *
+   * @return The rsID's number, or {@link #NOT_AN_RSID} if {@code id} is not a canonical rsID
+   */
+  static long parse(CharSequence id) {
+    int length = id.length();
+    if (length < 3 || length > 2 + sf_maxDigits || id.charAt(0) != 'r' || id.charAt(1) != 's' ||
+        (id.charAt(2) == '0' && length > 3)) {
+      return NOT_AN_RSID;
+    }
+    long rsid = 0;
+    for (int x = 2; x < length; x++) {
+      char c = id.charAt(x);
+      if (c < '0' || c > '9') {
+        return NOT_AN_RSID;
+      }
+      rsid = rsid * 10 + (c - '0');
+    }
+    return rsid;
+  }
+
+
+  int size() {
+    return m_map != null ? m_map.size() : m_rsids.length;
+  }
+
+  boolean isCompact() {
+    return m_map == null;
+  }
+
+  /**
+   * @return An estimate of the bytes this index retains
+   */
+  long estimateBytes() {
+    long bytes = HeapSize.object(3 * HeapSize.REFERENCE);
+    if (m_map != null) {
+      return bytes + m_map.estimateBytes();
+    }
+    return bytes + HeapSize.array(8, m_rsids.length) + HeapSize.array(4, m_records.length);
+  }
+
+  /**
+   * @return The record for the rsID number, or {@code -1} if there is none
+   */
+  int get(long rsid) {
+    if (m_map != null) {
+      return m_map.get(rsid);
+    }
+    int x = Arrays.binarySearch(m_rsids, rsid);
+    return x < 0 ? -1 : m_records[x];
+  }
+
+  /**
+   * @return The rsID numbers, in no particular order
+   */
+  long[] keys() {
+    return m_map != null ? m_map.keys() : m_rsids.clone();
+  }
+
+  /**
+   * @throws IllegalStateException If this index has been compacted
+   */
+  void put(long rsid, int record) {
+    if (m_map == null) {
+      throw new IllegalStateException("This index is compact");
+    }
+    m_map.put(rsid, record);
+  }
+
+  /**
+   * @return A copy of this index as sorted arrays, which can no longer be added to
+   */
+  RsidIndex compact() {
+    if (m_map == null) {
+      return this;
+    }
+    long[] rsids = m_map.keys();
+    int[] records = new int[rsids.length];
+    for (int x = 0; x < rsids.length; x++) {
+      records[x] = m_map.get(rsids[x]);
+    }
+    sort(rsids, records, 0, rsids.length);
+    return new RsidIndex(rsids, records);
+  }
+
+
+  /**
+   * Sorts {@code keys[from, to)}, moving {@code values} along with them, by quicksort. Only the smaller partition is
+   * sorted recursively, so the stack depth stays logarithmic even for billions of keys.
+   */
+  private static void sort(long[] keys, int[] values, int from, int to) {
+    while (to - from > sf_insertionSortThreshold) {
+      int mid = (from + to) >>> 1;
+      // median of three as the pivot
+      if (keys[mid] < keys[from]) {
+        swap(keys, values, mid, from);
+      }
+      if (keys[to - 1] < keys[from]) {
+        swap(keys, values, to - 1, from);
+      }
+      if (keys[to - 1] < keys[mid]) {
+        swap(keys, values, to - 1, mid);
+      }
+      long pivot = keys[mid];
+      int i = from;
+      int j = to - 1;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(keys, values, i++, j--);
+        }
+      }
+      if (j - from < to - i) {
+        sort(keys, values, from, j + 1);
+        from = i;
+      } else {
+        sort(keys, values, i, to);
+        to = j + 1;
+      }
+    }
+    for (int x = from + 1; x < to; x++) {
+      long key = keys[x];
+      int value = values[x];
+      int y = x - 1;
+      while (y >= from && keys[y] > key) {
+        keys[y + 1] = keys[y];
+        values[y + 1] = values[y];
+        y--;
+      }
+      keys[y + 1] = key;
+      values[y + 1] = value;
+    }
+  }
+
+  private static void swap(long[] keys, int[] values, int a, int b) {
+    long key = keys[a];
+    keys[a] = keys[b];
+    keys[b] = key;
+    int value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+  }
+}
@@ -0,0 +1,143 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Reads what a {@link SnapshotWriter} wrote, filling arrays from its buffer in bulk. A read throws a
+ * {@link VcfFormatException} if the snapshot ends early, and before allocating an array for more than is left of it,
+ * so that a corrupt count does not run out of memory.
+ */
+final class SnapshotReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final SeekableByteChannel m_channel;
+  private final ByteBuffer m_buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+
+
+  SnapshotReader(SeekableByteChannel channel) {
+    m_channel = channel;
+  }
+
+
+  boolean readBoolean() throws IOException {
+    require(1);
+    return m_buffer.get() != 0;
+  }
+
+  int readInt() throws IOException {
+    require(Integer.BYTES);
+    return m_buffer.getInt();
+  }
+
+  long readLong() throws IOException {
+    require(Long.BYTES);
+    return m_buffer.getLong();
+  }
+
+  /**
+   * Reads a count written with {@link SnapshotWriter#writeInt}, checking that it is not negative.
+   */
+  int readCount() throws IOException {
+    int count = readInt();
+    if (count < 0) {
+      throw new VcfFormatException("Snapshot is corrupt: negative count " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Reads a count as {@link #readCount()} does, also checking that the snapshot has at least {@code bytesEach} bytes
+   * left for each of the items counted, so that it can size a list.
+   */
+  int readCount(int bytesEach) throws IOException {
+    int count = readCount();
+    checkAvailable((long)count * bytesEach);
+    return count;
+  }
+
+  int[] readInts(int length) throws IOException {
+    checkAvailable((long)length * Integer.BYTES);
+    int[] values = new int[length];
+    int x = 0;
+    while (x < length) {
+      require(Integer.BYTES);
+      int n = Math.min(length - x, m_buffer.remaining() / Integer.BYTES);
+      m_buffer.asIntBuffer().get(values, x, n);
+      m_buffer.position(m_buffer.position() + n * Integer.BYTES);
+      x += n;
+    }
+    return values;
+  }
+
+  long[] readLongs(int length) throws IOException {
+    checkAvailable((long)length * Long.BYTES);
+    long[] values = new long[length];
+    int x = 0;
+    while (x < length) {
+      require(Long.BYTES);
+      int n = Math.min(length - x, m_buffer.remaining() / Long.BYTES);
+      m_buffer.asLongBuffer().get(values, x, n);
+      m_buffer.position(m_buffer.position() + n * Long.BYTES);
+      x += n;
+    }
+    return values;
+  }
+
+  byte[] readBytes() throws IOException {
+    byte[] bytes = new byte[readCount(1)];
+    int x = 0;
+    while (x < bytes.length) {
+      require(1);
+      int n = Math.min(bytes.length - x, m_buffer.remaining());
+      m_buffer.get(bytes, x, n);
+      x += n;
+    }
+    return bytes;
+  }
+
+  @Nullable String readString() throws IOException {
+    require(Integer.BYTES);
+    if (m_buffer.getInt(m_buffer.position()) == -1) {
+      m_buffer.getInt();
+      return null;
+    }
+    return new String(readBytes(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @throws VcfFormatException If fewer than {@code size} bytes are left to read
+   */
+  private void checkAvailable(long size) throws IOException {
+    if (size > m_buffer.remaining() && size > m_buffer.remaining() + m_channel.size() - m_channel.position()) {
+      throw new VcfFormatException("Snapshot is corrupt: " + size + " byte(s) expected, but " +
+          (m_buffer.remaining() + m_channel.size() - m_channel.position()) + " left");
+    }
+  }
+
+  /**
+   * Makes the buffer hold at least {@code size} bytes, reading more if needed.
+   */
+  private void require(int size) throws IOException {
+    if (m_buffer.remaining() >= size) {
+      return;
+    }
+    m_buffer.compact();
+    while (m_buffer.position() < size) {
+      if (m_channel.read(m_buffer) < 0) {
+        throw new VcfFormatException("Snapshot ends unexpectedly");
+      }
+    }
+    m_buffer.flip();
+  }
+
+  @Override
+  public void close() throws IOException {
+    m_channel.close();
+  }
+}
@@ -0,0 +1,137 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * The distinct strings and lists of strings of a snapshot, so that each is written (and read back) once however many
+ * records share it. A list is written as the indexes of its strings, and read back as an {@link ImmutableList} shared
+ * by every record that had it. A multimap (such as INFO) is written as a list of its keys and values, one after the
+ * other, and read back by {@link #getMultimap} once.
+ * <p>
+ * A table is either built with {@link #addString} and {@link #addList} and then written, or read with
+ * {@link #readFrom}.
+ */
+final class SnapshotTable {
+  private final Map<String, Integer> m_stringIndexes = new HashMap<>();
+  private final List<String> m_strings;
+  private final Map<List<String>, Integer> m_listIndexes = new HashMap<>();
+  private final List<int[]> m_lists = new ArrayList<>();
+  // when read
+  private final List<ImmutableList<String>> m_readLists;
+  private final Map<Integer, ImmutableListMultimap<String, String>> m_readMultimaps = new HashMap<>();
+
+
+  SnapshotTable() {
+    m_strings = new ArrayList<>();
+    m_readLists = List.of();
+  }
+
+  private SnapshotTable(List<String> strings, List<ImmutableList<String>> lists) {
+    m_strings = strings;
+    m_readLists = lists;
+  }
+
+
+  /**
+   * @return The string's index, or {@code -1} for null
+   */
+  int addString(@Nullable String string) {
+    if (string == null) {
+      return -1;
+    }
+    Integer index = m_stringIndexes.putIfAbsent(string, m_strings.size());
+    if (index == null) {
+      index = m_strings.size();
+      m_strings.add(string);
+    }
+    return index;
+  }
+
+  /**
+   * @return The list's index
+   */
+  int addList(List<String> list) {
+    Integer index = m_listIndexes.get(list);
+    if (index == null) {
+      int[] strings = new int[list.size()];
+      for (int x = 0; x < strings.length; x++) {
+        strings[x] = addString(list.get(x));
+      }
+      index = m_lists.size();
+      m_lists.add(strings);
+      m_listIndexes.put(List.copyOf(list), index);
+    }
+    return index;
+  }
+
+  void writeTo(SnapshotWriter out) throws IOException {
+    out.writeInt(m_strings.size());
+    for (String string : m_strings) {
+      out.writeString(string);
+    }
+    out.writeInt(m_lists.size());
+    for (int[] list : m_lists) {
+      out.writeInt(list.length);
+      out.writeInts(list, list.length);
+    }
+  }
+
+
+  static SnapshotTable readFrom(SnapshotReader in) throws IOException {
+    int numStrings = in.readCount(Integer.BYTES);
+    List<String> strings = new ArrayList<>(numStrings);
+    for (int x = 0; x < numStrings; x++) {
+      strings.add(in.readString());
+    }
+    int numLists = in.readCount(Integer.BYTES);
+    List<ImmutableList<String>> lists = new ArrayList<>(numLists);
+    for (int x = 0; x < numLists; x++) {
+      int[] indexes = in.readInts(in.readCount());
+      ImmutableList.Builder<String> list = ImmutableList.builderWithExpectedSize(indexes.length);
+      for (int index : indexes) {
+        list.add(strings.get(index));
+      }
+      lists.add(list.build());
+    }
+    return new SnapshotTable(strings, lists);
+  }
+
+  /**
+   * @return The string at the index, or null for {@code -1}
+   */
+  @Nullable String getString(int index) {
+    return index == -1 ? null : m_strings.get(index);
+  }
+
+  ImmutableList<String> getList(int index) {
+    return m_readLists.get(index);
+  }
+
+  /**
+   * @throws IllegalArgumentException If the list at the index is not a list of keys and values
+   */
+  ImmutableListMultimap<String, String> getMultimap(int index) {
+    ImmutableListMultimap<String, String> multimap = m_readMultimaps.get(index);
+    if (multimap == null) {
+      ImmutableList<String> list = getList(index);
+      if (list.size() % 2 != 0) {
+        throw new IllegalArgumentException("List " + index + " has an odd number of keys and values");
+      }
+      ImmutableListMultimap.Builder<String, String> builder = ImmutableListMultimap.builder();
+      for (int x = 0; x < list.size(); x += 2) {
+        builder.put(list.get(x), list.get(x + 1));
+      }
+      multimap = builder.build();
+      m_readMultimaps.put(index, multimap);
+    }
+    return multimap;
+  }
+}
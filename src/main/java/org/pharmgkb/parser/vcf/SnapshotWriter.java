@@ -0,0 +1,122 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Writes the primitives, arrays and strings of a binary snapshot through a buffer, copying arrays into it in bulk.
+ * Values are big-endian; a string is its UTF-8 length followed by its bytes, or a length of {@code -1} for null.
+ *
+ * @see SnapshotReader
+ */
+final class SnapshotWriter implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private final WritableByteChannel m_channel;
+  private final ByteBuffer m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+
+  SnapshotWriter(WritableByteChannel channel) {
+    m_channel = channel;
+  }
+
+
+  void writeBoolean(boolean value) throws IOException {
+    ensure(1);
+    m_buffer.put(value ? (byte)1 : (byte)0);
+  }
+
+  void writeInt(int value) throws IOException {
+    ensure(Integer.BYTES);
+    m_buffer.putInt(value);
+  }
+
+  void writeLong(long value) throws IOException {
+    ensure(Long.BYTES);
+    m_buffer.putLong(value);
+  }
+
+  /**
+   * Writes the first {@code length} values, without their number.
+   */
+  void writeInts(int[] values, int length) throws IOException {
+    int x = 0;
+    while (x < length) {
+      ensure(Integer.BYTES);
+      int n = Math.min(length - x, m_buffer.remaining() / Integer.BYTES);
+      m_buffer.asIntBuffer().put(values, x, n);
+      m_buffer.position(m_buffer.position() + n * Integer.BYTES);
+      x += n;
+    }
+  }
+
+  /**
+   * Writes the first {@code length} values, without their number.
+   */
+  void writeLongs(long[] values, int length) throws IOException {
+    int x = 0;
+    while (x < length) {
+      ensure(Long.BYTES);
+      int n = Math.min(length - x, m_buffer.remaining() / Long.BYTES);
+      m_buffer.asLongBuffer().put(values, x, n);
+      m_buffer.position(m_buffer.position() + n * Long.BYTES);
+      x += n;
+    }
+  }
+
+  /**
+   * Writes the bytes, preceded by their number.
+   */
+  void writeBytes(byte[] bytes) throws IOException {
+    writeInt(bytes.length);
+    int x = 0;
+    while (x < bytes.length) {
+      ensure(1);
+      int n = Math.min(bytes.length - x, m_buffer.remaining());
+      m_buffer.put(bytes, x, n);
+      x += n;
+    }
+  }
+
+  void writeString(@Nullable String string) throws IOException {
+    if (string == null) {
+      writeInt(-1);
+    } else {
+      writeBytes(string.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Makes room in the buffer for at least {@code size} bytes, writing out what it holds if needed.
+   */
+  private void ensure(int size) throws IOException {
+    if (m_buffer.remaining() < size) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+    m_buffer.flip();
+    while (m_buffer.hasRemaining()) {
+      m_channel.write(m_buffer);
+    }
+    m_buffer.clear();
+  }
+
+  /**
+   * Writes out what the buffer holds and closes the channel.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      m_channel.close();
+    }
+  }
+}
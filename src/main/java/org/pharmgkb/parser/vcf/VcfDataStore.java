@@ -0,0 +1,101 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.model.SampleSet;
+import org.pharmgkb.parser.vcf.model.VcfMetadata;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * Random access to the records of a VCF file, by ID or by locus (chromosome and position).
+ * <p>
+ * Implementations only need to provide the record lookups; the sample and genotype lookups are derived from them.
+ *
+ * @see MemoryMappedVcfDataStore
+ * @see MappedVcfDataStore
+ * @see IndexedVcfDataStore
+ */
+public interface VcfDataStore {
+
+  /**
+   * @return The metadata, or null if it is not available (e.g. no lines were read)
+   */
+  @Nullable VcfMetadata getMetadata();
+
+  @Nullable VcfPosition getPositionForId(String id);
+
+  @Nullable List<VcfSample> getSamplesForId(String id);
+
+  @Nullable VcfPosition getPositionAtLocus(String chromosome, long position);
+
+  @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position);
+
+  /**
+   * @return Only the samples in {@code selection}, in sample order, or null if there is no record with the ID
+   */
+  default @Nullable List<VcfSample> getSamplesForId(String id, SampleSet selection) {
+    return MemoryMappedVcfDataStore.select(getSamplesForId(id), selection);
+  }
+
+  /**
+   * @return Only the samples in {@code selection}, in sample order, or null if there is no record at the locus
+   */
+  default @Nullable List<VcfSample> getSamplesAtLocus(String chromosome, long position, SampleSet selection) {
+    return MemoryMappedVcfDataStore.select(getSamplesAtLocus(chromosome, position), selection);
+  }
+
+  default @Nullable VcfSample getSampleForId(String positionId, String sampleId) {
+    return getSample(getSamplesForId(positionId), sampleId);
+  }
+
+  default @Nullable VcfSample getSampleForId(String positionId, int sampleIndex) {
+    List<VcfSample> samples = getSamplesForId(positionId);
+    return samples == null ? null : samples.get(sampleIndex);
+  }
+
+  default @Nullable VcfSample getSampleAtLocus(String chromosome, long position, String sampleId) {
+    return getSample(getSamplesAtLocus(chromosome, position), sampleId);
+  }
+
+  default @Nullable VcfSample getSampleAtLocus(String chromosome, long position, int sampleIndex) {
+    List<VcfSample> samples = getSamplesAtLocus(chromosome, position);
+    return samples == null ? null : samples.get(sampleIndex);
+  }
+
+  default MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeForId(String positionId, String sampleId) {
+    VcfPosition position = getPositionForId(positionId);
+    VcfSample sample = getSampleForId(positionId, sampleId);
+    return position == null || sample == null ? null : MemoryMappedVcfDataStore.toGenotype(position, sample);
+  }
+
+  default MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeForId(String positionId, int sampleIndex) {
+    VcfPosition position = getPositionForId(positionId);
+    VcfSample sample = getSampleForId(positionId, sampleIndex);
+    return position == null || sample == null ? null : MemoryMappedVcfDataStore.toGenotype(position, sample);
+  }
+
+  default MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeAtLocus(String chromosome, long position,
+      String sampleId) {
+    VcfPosition pos = getPositionAtLocus(chromosome, position);
+    VcfSample sample = getSampleAtLocus(chromosome, position, sampleId);
+    return pos == null || sample == null ? null : MemoryMappedVcfDataStore.toGenotype(pos, sample);
+  }
+
+  default MemoryMappedVcfDataStore.@Nullable Genotype getGenotypeAtLocus(String chromosome, long position,
+      int sampleIndex) {
+    VcfPosition pos = getPositionAtLocus(chromosome, position);
+    VcfSample sample = getSampleAtLocus(chromosome, position, sampleIndex);
+    return pos == null || sample == null ? null : MemoryMappedVcfDataStore.toGenotype(pos, sample);
+  }
+
+  private @Nullable VcfSample getSample(@Nullable List<VcfSample> samples, String sampleId) {
+    VcfMetadata metadata = getMetadata();
+    if (samples == null || metadata == null) {
+      return null;
+    }
+    int idx = metadata.getSampleIndex(sampleId);
+    return idx < 0 ? null : samples.get(idx);
+  }
+}
@@ -14,6 +14,11 @@
  */
 public interface VcfLineParser {
 
+  /**
+   * @param sampleData The samples of the line, in header order; usually a
+   * {@link org.pharmgkb.parser.vcf.model.VcfSampleBlock}, which can be changed (including adding and removing samples)
+   * like any other list
+   */
   void parseLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> sampleData);
 
   /**
@@ -7,6 +7,7 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +18,7 @@
 import org.apache.commons.lang3.StringUtils;
 import org.jspecify.annotations.Nullable;
 import org.pharmgkb.parser.vcf.model.BaseMetadata;
+import org.pharmgkb.parser.vcf.model.CharSlice;
 import org.pharmgkb.parser.vcf.model.ContigMetadata;
 import org.pharmgkb.parser.vcf.model.FormatMetadata;
 import org.pharmgkb.parser.vcf.model.IdDescriptionMetadata;
@@ -24,6 +26,7 @@
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
+import org.pharmgkb.parser.vcf.model.VcfSampleBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +53,8 @@ public class VcfParser implements Closeable {
   // the mandatory fixed fields, in order; in the column-header line CHROM is written as "#CHROM"
   private static final List<String> FIXED_FIELD_NAMES =
       List.of("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO");
+  // the columns a VcfPosition is parsed from: the fixed fields and FORMAT
+  static final int POSITION_COLUMNS = 9;
 
   private final boolean m_rsidsOnly;
   private final BufferedReader m_reader;
@@ -108,8 +113,8 @@ public VcfMetadata parseMetadata() throws IOException {
         foundHeader = true;
         break;
       } else {
-        throw new VcfFormatException("Unexpected line before the #CHROM header (only ## metadata lines are allowed here)",
-            m_lineNumber);
+        throw new VcfFormatException("Unexpected line before the #CHROM header " +
+            "(only ## metadata lines are allowed here)", m_lineNumber);
       }
     }
     m_vcfMetadata = mdBuilder.build();
@@ -190,94 +195,125 @@ public boolean parseNextLine() throws IOException, VcfFormatException {
           + "syntax", m_lineNumber);
     }
 
+    parseDataLine(m_vcfMetadata, line, m_rsidsOnly, m_lineNumber, m_vcfLineParser);
+    return true;
+  }
+
+  /**
+   * Parses a single data line (which must match {@code metadata}'s columns), passing the result to {@code lineParser}.
+   *
+   * @param lineNumber The line number to report in any {@link VcfFormatException}
+   */
+  static void parseDataLine(VcfMetadata metadata, String line, boolean rsidsOnly, int lineNumber,
+      VcfLineParser lineParser) {
+    parseDataLine(metadata, line, rsidsOnly, false, lineNumber, lineParser);
+  }
+
+  /**
+   * Parses a single data line as {@link #parseDataLine(VcfMetadata, String, boolean, int, VcfLineParser)} does, or, if
+   * {@code positionOnly}, just its first {@link #POSITION_COLUMNS} columns (CHROM to FORMAT), which is all
+   * {@code line} then holds; {@code lineParser} is then given no samples.
+   */
+  static void parseDataLine(VcfMetadata metadata, String line, boolean rsidsOnly, boolean positionOnly,
+      int lineNumber, VcfLineParser lineParser) {
     try {
       if (StringUtils.stripToNull(line) == null) {
-        throw new VcfFormatException("Empty line", m_lineNumber);
+        throw new VcfFormatException("Empty line", lineNumber);
       }
-      List<String> data = toList(TAB, line);
-      if (data.size() != m_vcfMetadata.getNumColumns()) {
-        throw new VcfFormatException("Data line does not have expected number of columns (got " + data.size() +
-            " vs. " + m_vcfMetadata.getNumColumns() + ")", m_lineNumber);
+      // find the column boundaries once; only the fixed columns are cut out of the line, sample columns are read in
+      // place by VcfSampleBlock
+      int numColumns = metadata.getNumColumns();
+      int numExpected = positionOnly ? Math.min(POSITION_COLUMNS, numColumns) : numColumns;
+      int[] columnEnds = new int[numExpected];
+      int numFound = findColumnEnds(line, columnEnds);
+      if (numFound != numExpected) {
+        throw new VcfFormatException("Data line does not have expected number of columns (got " + numFound +
+            " vs. " + numExpected + ")", lineNumber);
       }
-
       // every fixed field is mandatory; an empty field is invalid (the missing value must be ".")
       for (int i = 0; i < FIXED_FIELD_NAMES.size(); i++) {
-        if (data.get(i).isEmpty()) {
+        if (columnStart(columnEnds, i) == columnEnds[i]) {
           throw new VcfFormatException(FIXED_FIELD_NAMES.get(i) + " field is empty; the missing value must be '.'",
-              m_lineNumber);
+              lineNumber);
+        }
+      }
+      // CHROM and REF stay slices of the line (see VcfPosition#getChromosomeView); the rest are cut out of it
+      String[] data = new String[Math.min(POSITION_COLUMNS, numColumns)];
+      for (int i = 0; i < data.length; i++) {
+        if (i != 0 && i != 3) {
+          data[i] = line.substring(columnStart(columnEnds, i), columnEnds[i]);
         }
       }
 
       // CHROM
-      String chromosome = data.get(0);
+      CharSlice chromosome = new CharSlice(line, 0, columnEnds[0]);
 
       // POS
       long position;
       try {
-        position = Long.parseLong(data.get(1));
+        position = Long.parseLong(data[1]);
       } catch (NumberFormatException e) {
-        throw new VcfFormatException("POS '" + data.get(1) + "' is not a number");
+        throw new VcfFormatException("POS '" + data[1] + "' is not a number");
       }
 
       // ID
       List<String> ids = null;
-      if (!data.get(2).equals(".")) {
-        if (m_rsidsOnly && !VcfUtils.RSID_PATTERN.matcher(data.get(2)).find()) {
-          return true;
+      if (!data[2].equals(".")) {
+        if (rsidsOnly && !VcfUtils.RSID_PATTERN.matcher(data[2]).find()) {
+          return;
         }
-        ids = toList(SEMICOLON, data.get(2));
-      } else if (m_rsidsOnly) {
-        return true;
+        ids = toList(SEMICOLON, data[2]);
+      } else if (rsidsOnly) {
+        return;
       }
 
       // REF
-      String ref = data.get(3);
+      CharSlice ref = new CharSlice(line, columnStart(columnEnds, 3), columnEnds[3]);
 
       // ALT
       List<String> alt = null;
-      if (!data.get(4).equals(".")) {
-        alt = toList(COMMA, data.get(4));
+      if (!data[4].equals(".")) {
+        alt = toList(COMMA, data[4]);
       }
 
       // FILTER
       List<String> filters = null;
-      if (!data.get(6).equals("PASS")) {
-        filters = toList(SEMICOLON, data.get(6));
+      if (!data[6].equals("PASS")) {
+        filters = toList(SEMICOLON, data[6]);
       }
 
       // FORMAT
       List<String> format = null;
-      if (data.size() >= 9) {
-        format = toList(COLON, data.get(8));
+      if (numColumns >= 9) {
+        format = toList(COLON, data[8]);
       }
 
       // QUAL and INFO are parsed lazily by VcfPosition (see setRawQuality/setRawInfo); many consumers never read them.
       VcfPosition pos = new VcfPosition(chromosome, position, ids, ref, alt,
           null, filters, null, format);
-      pos.setRawQuality(data.get(5));
-      pos.setRawInfo(data.get(7));
-      List<VcfSample> samples = new ArrayList<>();
-      for (int x = 9; x < data.size(); x++) {
-        List<String> values = toSampleValues(format, data.get(x));
-        VcfUtils.fillEmptyEntriesWithDot(sf_logger, "sample value", values);
-        // per the VCF spec, trailing FORMAT sub-fields may be dropped from a sample; pad any missing ones with the
-        // missing value so the sample's value count matches the FORMAT key count
-        if (format != null) {
-          while (values.size() < format.size()) {
-            values.add(".");
-          }
-        }
-        samples.add(new VcfSample(format, values));
+      pos.setRawQuality(data[5]);
+      pos.setRawInfo(data[7]);
+      // so that a writer can copy the line while the position is unchanged; not if an empty entry was dropped or kept
+      // with a warning (see EMPTY_FIELD_HANDLING.md), as the copy would then differ from what the writer writes
+      if (!hasEmptyEntry(ids) && !hasEmptyEntry(alt) && !hasEmptyEntry(filters) && !hasEmptyEntry(format) &&
+          !hasEmptyInfoEntry(data[7])) {
+        pos.setRawLine(line, columnEnds[7]);
+      }
+      List<VcfSample> samples;
+      if (format != null && !positionOnly) {
+        samples = toSampleBlock(line, columnEnds, format);
+      } else {
+        samples = new ArrayList<>();
       }
 
-      m_vcfLineParser.parseLine(m_vcfMetadata, pos, samples);
-      return true;
+      lineParser.parseLine(metadata, pos, samples);
+      return;
 
     } catch (VcfFormatException ex) {
-      ex.addMetadata(m_lineNumber, "data");
+      ex.addMetadata(lineNumber, "data");
       throw ex;
     } catch (RuntimeException e) {
-      throw new VcfFormatException(m_lineNumber, "data", e);
+      throw new VcfFormatException(lineNumber, "data", e);
     }
   }
 
@@ -408,44 +444,217 @@ static List<String> toList(char delim, String string) {
     return list;
   }
 
+  private static boolean hasEmptyEntry(@Nullable List<String> list) {
+    return list != null && list.contains("");
+  }
+
+  /**
+   * @return Whether the raw INFO text has an empty entry, key or value, which {@link VcfPosition} drops or fills in
+   * when it parses it; errs on the side of {@code true}
+   */
+  // package-private for testing
+  static boolean hasEmptyInfoEntry(String info) {
+    if (info.equals(".")) {
+      return false;
+    }
+    // as if the text were preceded and followed by ';'
+    char previous = SEMICOLON;
+    for (int i = 0; i <= info.length(); i++) {
+      char ch = i == info.length() ? SEMICOLON : info.charAt(i);
+      if (isInfoDelimiter(ch) && isInfoDelimiter(previous)) {
+        return true;
+      }
+      previous = ch;
+    }
+    return false;
+  }
+
+  private static boolean isInfoDelimiter(char ch) {
+    return ch == SEMICOLON || ch == COMMA || ch == '=';
+  }
+
   /**
-   * Splits a sample field according to its FORMAT keys. GLE is the sole VCF 4.1/4.2 exception to ordinary
-   * colon-delimited sample values: its value is a String containing comma-separated {@code genotype:likelihood}
-   * pairs. See the GLE example in the VCF 4.2 specification.
+   * Finds the end offset of each tab-delimited column of {@code line}, filling as many entries of {@code columnEnds}
+   * as there are columns (or as fit).
+   *
+   * @return The number of columns in the line
    */
-  private static List<String> toSampleValues(@Nullable List<String> format, String sample) {
-    if (format == null) {
-      return toList(COLON, sample);
+  // package-private for testing
+  static int findColumnEnds(String line, int[] columnEnds) {
+    int numColumns = 0;
+    int idx = line.indexOf(TAB);
+    while (idx >= 0) {
+      if (numColumns < columnEnds.length) {
+        columnEnds[numColumns] = idx;
+      }
+      numColumns++;
+      idx = line.indexOf(TAB, idx + 1);
     }
+    if (numColumns < columnEnds.length) {
+      columnEnds[numColumns] = line.length();
+    }
+    return numColumns + 1;
+  }
+
+  private static int columnStart(int[] columnEnds, int column) {
+    return column == 0 ? 0 : columnEnds[column - 1] + 1;
+  }
+
+  /**
+   * Locates every sample value of a data line, without copying any of them out of the line.
+   * <p>
+   * Each sample column is split on colons according to its FORMAT keys. Per the VCF spec, trailing FORMAT sub-fields
+   * may be dropped from a sample; these, and any zero-length values, are recorded as the missing value {@code "."}.
+   * GLE is the sole VCF 4.1/4.2 exception to ordinary colon-delimited sample values: its value is a String containing
+   * comma-separated {@code genotype:likelihood} pairs. See the GLE example in the VCF 4.2 specification.
+   * <p>
+   * A sample column whose text is identical to an earlier one on the line (very common in joint-called cohorts, e.g.
+   * {@code 0/0:.:.:.} or {@code ./.}) is not split again; it shares the earlier column's offsets.
+   *
+   * @param columnEnds The end offset of every column of {@code line}; see {@link #findColumnEnds}
+   */
+  // package-private for testing
+  static VcfSampleBlock toSampleBlock(String line, int[] columnEnds, List<String> format) {
+    int numSamples = columnEnds.length - 9;
+    int numKeys = format.size();
     int gleIndex = format.indexOf(GLE);
-    if (gleIndex < 0) {
-      return toList(COLON, sample);
+    Matcher gleMatcher = gleIndex < 0 ? null : GLE_VALUE_PATTERN.matcher(line);
+    int[] bounds = new int[2 * numSamples * numKeys];
+    int[] sampleColumns = new int[numSamples];
+    // open-addressing (linear probing) table of the first sample with each distinct column text; -1 is empty
+    int[] table = new int[Integer.highestOneBit(Math.max(2, numSamples * 2 - 1)) << 1];
+    Arrays.fill(table, -1);
+    int mask = table.length - 1;
+    int numColumns = 0;
+    for (int x = 0; x < numSamples; x++) {
+      int start = columnEnds[8 + x] + 1;
+      int end = columnEnds[9 + x];
+      int slot = hash(line, start, end) & mask;
+      int first;
+      while ((first = table[slot]) != -1) {
+        int firstStart = columnEnds[8 + first] + 1;
+        int length = columnEnds[9 + first] - firstStart;
+        if (length == end - start && line.regionMatches(start, line, firstStart, length)) {
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      if (first != -1) {
+        sampleColumns[x] = sampleColumns[first];
+        continue;
+      }
+      table[slot] = x;
+      sampleColumns[x] = numColumns;
+      int firstCell = numColumns * numKeys;
+      numColumns++;
+      int numValues = -1;
+      if (gleMatcher != null) {
+        numValues = splitSampleWithGle(line, start, end, gleIndex, gleMatcher, bounds, firstCell, numKeys);
+      }
+      if (numValues < 0) {
+        numValues = splitSample(line, start, end, bounds, firstCell, 0, numKeys);
+      }
+      for (int k = numValues; k < numKeys; k++) {
+        bounds[2 * (firstCell + k)] = VcfSampleBlock.MISSING;
+        bounds[2 * (firstCell + k) + 1] = VcfSampleBlock.MISSING;
+      }
     }
+    if (numColumns == numSamples) {
+      return new VcfSampleBlock(line, format, numSamples, bounds);
+    }
+    return new VcfSampleBlock(line, format, numSamples, sampleColumns, numColumns,
+        Arrays.copyOf(bounds, 2 * numColumns * numKeys));
+  }
 
-    List<String> values = new ArrayList<>();
-    int start = 0;
+  /**
+   * Parses a single sample column (the text between the tabs) as {@link #toSampleBlock} parses each column of a line.
+   */
+  static VcfSample parseSample(String column, List<String> format) {
+    int[] columnEnds = new int[POSITION_COLUMNS + 1];
+    // the column starts after the (absent) tab ending FORMAT
+    columnEnds[POSITION_COLUMNS - 1] = -1;
+    columnEnds[POSITION_COLUMNS] = column.length();
+    return toSampleBlock(column, columnEnds, format).get(0);
+  }
+
+  private static int hash(String string, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + string.charAt(i);
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Splits {@code line[start, end)} on colons into consecutive cells, starting with key ordinal {@code keyIndex}.
+   *
+   * @return The key ordinal following the last value found
+   */
+  private static int splitSample(String line, int start, int end, int[] bounds, int firstCell, int keyIndex,
+      int numKeys) {
+    int valueStart = start;
+    for (int i = start; i <= end; i++) {
+      if (i == end || line.charAt(i) == COLON) {
+        if (keyIndex == numKeys) {
+          throw new VcfFormatException("Number of FORMAT entries does not match number of sample entries");
+        }
+        setCell(bounds, firstCell + keyIndex, valueStart, i);
+        keyIndex++;
+        valueStart = i + 1;
+      }
+    }
+    return keyIndex;
+  }
+
+  /**
+   * Splits a sample column whose FORMAT includes GLE at {@code gleIndex}.
+   *
+   * @return The number of values found, or {@code -1} if the column should be split ordinarily: GLE and every
+   * following field were dropped, or the GLE value is missing (".", which has no internal colon) or malformed (which
+   * retains the existing sample-arity validation behavior)
+   */
+  private static int splitSampleWithGle(String line, int start, int end, int gleIndex, Matcher gleMatcher,
+      int[] bounds, int firstCell, int numKeys) {
+    int gleStart = start;
     for (int i = 0; i < gleIndex; i++) {
-      int separator = sample.indexOf(COLON, start);
+      int separator = indexOf(line, COLON, gleStart, end);
       if (separator < 0) {
-        // GLE and every following field were dropped; ordinary splitting lets the caller pad the trailing fields.
-        return toList(COLON, sample);
+        return -1;
       }
-      values.add(sample.substring(start, separator));
-      start = separator + 1;
+      gleStart = separator + 1;
+    }
+    gleMatcher.region(gleStart, end);
+    if (!gleMatcher.matches()) {
+      return -1;
     }
+    int keyIndex = gleIndex == 0 ? 0 : splitSample(line, start, gleStart - 1, bounds, firstCell, 0, numKeys);
+    setCell(bounds, firstCell + keyIndex, gleMatcher.start(1), gleMatcher.end(1));
+    keyIndex++;
+    if (gleMatcher.start(2) >= 0) {
+      keyIndex = splitSample(line, gleMatcher.start(2), gleMatcher.end(2), bounds, firstCell, keyIndex, numKeys);
+    }
+    return keyIndex;
+  }
 
-    String gleAndRemainder = sample.substring(start);
-    Matcher matcher = GLE_VALUE_PATTERN.matcher(gleAndRemainder);
-    if (!matcher.matches()) {
-      // A missing GLE value (".") has no internal colon; ordinary splitting handles it and malformed values retain
-      // the existing sample-arity validation behavior.
-      return toList(COLON, sample);
+  private static void setCell(int[] bounds, int cell, int start, int end) {
+    if (start == end) {
+      sf_logger.warn("sample value contains an empty entry (VCF does not allow zero-length fields); treating it as " +
+          "the missing value '.'");
+      bounds[2 * cell] = VcfSampleBlock.MISSING;
+      bounds[2 * cell + 1] = VcfSampleBlock.MISSING;
+    } else {
+      bounds[2 * cell] = start;
+      bounds[2 * cell + 1] = end;
     }
-    values.add(matcher.group(1));
-    if (matcher.group(2) != null) {
-      values.addAll(toList(COLON, matcher.group(2)));
+  }
+
+  private static int indexOf(String string, char ch, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (string.charAt(i) == ch) {
+        return i;
+      }
     }
-    return values;
+    return -1;
   }
 
   public int getLineNumber() {
@@ -489,11 +698,11 @@ public static class Builder {
      * Provides the {@link Path} to the VCF file to parse.
      * <p>
      * This reads the file as plain, uncompressed text; it does not accept a compressed VCF (e.g. {@code .vcf.gz}) and
-     * does not attempt to decompress one. This is deliberate: {@link java.util.zip.GZIPInputStream} cannot reliably read
-     * BGZF (block gzip), the format most bioinformatics tools use for compressed VCF, since a BGZF stream is a sequence
-     * of independent gzip blocks with trailing extra data that plain {@code GZIPInputStream} does not expect and can
-     * mishandle. To read a compressed VCF, decompress it with a library appropriate to how it was compressed (BGZF vs.
-     * plain gzip) and pass the result to {@link #fromReader}.
+     * does not attempt to decompress one. This is deliberate: {@link java.util.zip.GZIPInputStream} cannot reliably
+     * read BGZF (block gzip), the format most bioinformatics tools use for compressed VCF, since a BGZF stream is a
+     * sequence of independent gzip blocks with trailing extra data that plain {@code GZIPInputStream} does not expect
+     * and can mishandle. To read a compressed VCF, decompress it with a library appropriate to how it was compressed
+     * (BGZF vs. plain gzip) and pass the result to {@link #fromReader}.
      */
     public Builder fromFile(Path dataFile) {
       Preconditions.checkNotNull(dataFile);
@@ -19,6 +19,7 @@ default void transformMetadata(VcfMetadata metadata) {}
 
   /**
    * Modifies the arguments {@code position} and {@code sampleData}. Should not modify {@code metadata}.
+   * {@code sampleData} may have samples added or removed, like any other list.
    * The default method does nothing.
    * @return If false, the VcfPosition will be removed
    */
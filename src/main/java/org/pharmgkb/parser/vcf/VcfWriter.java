@@ -1,12 +1,15 @@
 package org.pharmgkb.parser.vcf;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -16,16 +19,28 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import com.google.common.base.Preconditions;
 import org.apache.commons.io.IOUtils;
 import org.jspecify.annotations.Nullable;
 import org.pharmgkb.parser.vcf.model.BaseMetadata;
+import org.pharmgkb.parser.vcf.model.CharSlice;
 import org.pharmgkb.parser.vcf.model.FormatMetadata;
 import org.pharmgkb.parser.vcf.model.FormatType;
 import org.pharmgkb.parser.vcf.model.InfoMetadata;
 import org.pharmgkb.parser.vcf.model.InfoType;
+import org.pharmgkb.parser.vcf.model.SampleSet;
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
+import org.pharmgkb.parser.vcf.model.VcfSampleBlock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,23 +49,80 @@
  * Writes to VCF format from a {@link VcfSample}, {@link VcfPosition VcfPositions}, and {@link VcfMetadata}.
  * For now, this class performs little validation of its own, relying on {@link VcfParser} instead. For that reason, it
  * is currently package-accessible only.
+ * <p>
+ * A file (see {@link Builder#toFile}) is always written as UTF-8, whatever the platform's default charset, and is
+ * written out as its buffer fills unless a {@link Builder#setFlushPolicy flush policy} is set.
  *
  * @author Douglas Myers-Turnbull
- * @see TransformingVcfLineParser TransformingVcfLineParser - a read-transform-write streamer that is publicly accessible
+ * @see TransformingVcfLineParser TransformingVcfLineParser - a read-transform-write streamer that is publicly
+ * accessible
  */
 public class VcfWriter implements Closeable {
 
   private static final Logger sf_logger = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+  private static final int sf_bufferSize = 65536;
+  // lines written in the background are handed over in batches of about this many characters
+  private static final int sf_batchSize = 32768;
+
   private final @Nullable Path m_file;
-  private final PrintWriter m_writer;
+  // exactly one of these is set: a file is written through a channel, from a buffer lines are encoded into directly
+  private final @Nullable PrintWriter m_writer;
+  private final @Nullable FileChannel m_channel;
+  // if the file is compressed, what the buffer is written through
+  private final @Nullable BgzfWriter m_bgzf;
+  private byte[] m_bytes;
+  private ByteBuffer m_byteBuffer;
+  private int m_numBytes;
   private final boolean m_validateBeforeWrite;
+  // the sample selection, if any, and its sample indexes in order
+  private final @Nullable SampleSet m_selectedSamples;
+  private final int @Nullable [] m_selectedSampleIndexes;
+  private final FlushPolicy m_flushPolicy;
+  // reused for each data line
+  private final StringBuilder m_line = new StringBuilder();
   private int m_lineNumber;
+  private int m_linesSinceFlush;
+  private long m_bytesSinceFlush;
+  // if writing in the background: lines are formatted by the caller, and collected in m_batch until it is queued for
+  // m_executor's single thread, which is then the only one to touch the output (m_writer, m_channel and m_bytes)
+  private final @Nullable BlockingQueue<Batch> m_queue;
+  private final @Nullable ExecutorService m_executor;
+  private final @Nullable Future<?> m_background;
+  private final StringBuilder m_batch = new StringBuilder();
+  private volatile @Nullable Throwable m_backgroundError;
+  private boolean m_closed;
 
-  private VcfWriter(@Nullable Path file, PrintWriter writer, boolean validateBeforeWrite) {
+  private VcfWriter(@Nullable Path file, @Nullable PrintWriter writer, @Nullable FileChannel channel,
+      @Nullable BgzfWriter bgzf, boolean validateBeforeWrite, @Nullable SampleSet selectedSamples,
+      FlushPolicy flushPolicy, int queueCapacity) {
     m_file = file;
     m_writer = writer;
+    m_channel = channel;
+    m_bgzf = bgzf;
+    // with BGZF, room for a full block beyond what is left over from the last
+    m_bytes = new byte[channel == null ? 0 : (bgzf == null ? sf_bufferSize : 2 * BgzfWriter.MAX_BLOCK_SIZE)];
+    m_byteBuffer = ByteBuffer.wrap(m_bytes);
     m_validateBeforeWrite = validateBeforeWrite;
+    m_selectedSamples = selectedSamples;
+    m_selectedSampleIndexes = selectedSamples == null ? null : selectedSamples.toArray();
+    m_flushPolicy = flushPolicy;
+    if (queueCapacity > 0) {
+      m_queue = new ArrayBlockingQueue<>(queueCapacity);
+      m_executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VcfWriter" + (file == null ? "" : " " + file.getFileName()));
+        thread.setDaemon(true);
+        return thread;
+      });
+      m_background = m_executor.submit(() -> {
+        writeBatches();
+        return null;
+      });
+    } else {
+      m_queue = null;
+      m_executor = null;
+      m_background = null;
+    }
   }
 
   public void writeHeader(VcfMetadata metadata) {
@@ -58,6 +130,7 @@ public void writeHeader(VcfMetadata metadata) {
     if (m_validateBeforeWrite) {
       validateMetadata(metadata);
     }
+    checkSampleSelection(metadata);
 
     // file format
     printLine("##fileformat=" + metadata.getFileFormat());
@@ -68,7 +141,16 @@ public void writeHeader(VcfMetadata metadata) {
     printLines("FORMAT", metadata.getFormats().values());
     printLines("ALT", metadata.getAlts().values());
     printLines("contig", metadata.getContigs().values());
-    printLines("SAMPLE", metadata.getSamples().values());
+    if (m_selectedSamples == null) {
+      printLines("SAMPLE", metadata.getSamples().values());
+    } else {
+      printLines("SAMPLE", metadata.getSamples().values().stream()
+          .filter(sample -> {
+            int idx = metadata.getSampleIndex(sample.getId());
+            return idx < 0 || m_selectedSamples.contains(idx);
+          })
+          .toList());
+    }
     printLines("PEDIGREE", metadata.getPedigrees());
 
     for (String key : metadata.getRawPropertyKeys()) {
@@ -77,15 +159,17 @@ public void writeHeader(VcfMetadata metadata) {
 
     // header line
     StringBuilder sb = new StringBuilder("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
-    if (metadata.getNumSamples() > 0) {
+    if (getNumSamplesWritten(metadata) > 0) {
       sb.append("\tFORMAT");
     }
     for (int i = 0; i < metadata.getNumSamples(); i++) {
-      sb.append("\t").append(metadata.getSampleName(i));
+      if (m_selectedSamples == null || m_selectedSamples.contains(i)) {
+        sb.append("\t").append(metadata.getSampleName(i));
+      }
     }
     printLine(sb);
 
-    m_writer.flush();
+    flushIfDue();
     sf_logger.info("Wrote {} lines of header{}", m_lineNumber, (m_file == null ? "" : " to " + m_file));
   }
 
@@ -95,9 +179,77 @@ public void writeHeader(VcfMetadata metadata) {
    * By default, this does not fully revalidate metadata, the position, or samples, to keep the direct
    * parse-and-write path fast. If this writer was built with {@link Builder#validateBeforeWrite()}, it rejects
    * structurally invalid output and warns about detected semantic non-compliance before writing.
+   * <p>
+   * {@code samples} must always hold every sample declared in the header; if this writer was built with
+   * {@link Builder#selectSamples}, only the selected ones are written.
+   * <p>
+   * What has not changed since it was parsed is copied from the line rather than formatted again (and is not checked
+   * against the metadata unless this writer validates): the whole line, if neither the position (see
+   * {@link VcfPosition#getRawLine()}) nor its {@link VcfSampleBlock} (see {@link VcfSampleBlock#isChanged(int)}) has
+   * changed, or otherwise the CHROM to INFO columns of an unchanged position and the columns of unchanged samples.
+   * <p>
+   * Whether the line is flushed right away depends on the {@link Builder#setFlushPolicy flush policy}. If this writer
+   * {@link Builder#writeInBackground writes in the background}, the line is only formatted here, and written later.
+   *
+   * @throws UncheckedIOException If writing to a file fails (or, in the background, has failed)
    */
   public void writeLine(VcfMetadata metadata, VcfPosition position,
       List<VcfSample> samples) {
+    m_line.setLength(0);
+    appendLine(metadata, position, samples, m_line);
+    printLine(m_line);
+    flushIfDue();
+  }
+
+  /**
+   * Formats a single data line as {@link #writeLine} would write it, without writing it.
+   */
+  String toLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> samples) {
+    StringBuilder sb = new StringBuilder();
+    appendLine(metadata, position, samples, sb);
+    return sb.toString();
+  }
+
+  /**
+   * Writes out everything written so far that is still buffered. If this writer writes in the background, this waits
+   * until the background thread has written it.
+   *
+   * @throws UncheckedIOException If writing to a file fails (or, in the background, has failed)
+   */
+  public void flush() {
+    if (m_queue != null) {
+      CountDownLatch flushed = new CountDownLatch(1);
+      queueBatch(true, flushed);
+      try {
+        flushed.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw interrupted();
+      }
+      checkBackgroundError();
+    } else if (m_writer != null) {
+      m_writer.flush();
+    } else {
+      writeBuffer(true);
+    }
+    m_linesSinceFlush = 0;
+    m_bytesSinceFlush = 0;
+  }
+
+  private void flushIfDue() {
+    if (m_flushPolicy.isDue(m_linesSinceFlush, m_bytesSinceFlush)) {
+      if (m_queue != null) {
+        // the background thread flushes once it has written the batch; no need to wait for it
+        queueBatch(true, null);
+        m_linesSinceFlush = 0;
+        m_bytesSinceFlush = 0;
+      } else {
+        flush();
+      }
+    }
+  }
+
+  private void appendLine(VcfMetadata metadata, VcfPosition position, List<VcfSample> samples, StringBuilder sb) {
 
     if (m_validateBeforeWrite) {
       position.validate();
@@ -122,49 +274,139 @@ public void writeLine(VcfMetadata metadata, VcfPosition position,
       throw new VcfFormatException("Position " + position.getChromosome() + ":" + position.getPosition() +
           " has no FORMAT, but the header declares " + numSamples + " sample(s)");
     }
-    if (position.getRef().isEmpty()) {
+    if (position.getRefView().length() == 0) {
       // REF has no missing-value sentinel in the spec ("." means something else entirely for other columns); writing
       // "." here would not actually be valid VCF, just a placeholder that avoids crashing on a mutated position
       throw new VcfFormatException("Position " + position.getChromosome() + ":" + position.getPosition() +
           " has an empty REF, which the VCF spec does not allow (REF has no missing-value sentinel)");
     }
 
-    StringBuilder sb = new StringBuilder();
+    String rawLine = position.getRawLine();
+    // the samples whose columns can be copied from their line, if they are unchanged
+    VcfSampleBlock block = null;
+    if (samples instanceof VcfSampleBlock && ((VcfSampleBlock)samples).getFormat().equals(position.getFormat())) {
+      block = (VcfSampleBlock)samples;
+    }
+    if (rawLine != null && m_selectedSampleIndexes == null && (numSamples == 0 ||
+        (block != null && block.getLine() == rawLine && !block.isChanged() && !block.isFilledIn()))) {
+      // nothing has changed since the line was parsed
+      sb.append(rawLine);
+      return;
+    }
 
-    sb.append(position.getChromosome()).append("\t");
-    sb.append(position.getPosition()).append("\t");
-    addListOrElse(position.getIds(), ";", ".", sb);
-    sb.append(position.getRef()).append("\t");
-    addListOrElse(position.getAltBases(), ",", ".", sb);
-    addStringOrElse(position.getQuality(), ".", sb);
-    if (position.getFilterStatus() == VcfPosition.FilterStatus.NONE) {
-      sb.append(".\t"); // filters not applied: write the missing value rather than PASS
+    int start = sb.length();
+    if (rawLine != null) {
+      sb.append(rawLine, 0, position.getRawLineInfoEnd()).append("\t");
     } else {
-      addListOrElse(position.getFilters(), ";", "PASS", sb);
-    }
-    addInfoOrDot(metadata, position, sb);
+      append(position.getChromosomeView(), sb).append("\t");
+      sb.append(position.getPosition()).append("\t");
+      addListOrElse(position.getIds(), ";", ".", sb);
+      append(position.getRefView(), sb).append("\t");
+      addListOrElse(position.getAltBases(), ",", ".", sb);
+      addStringOrElse(position.getQuality(), ".", sb);
+      if (position.getFilterStatus() == VcfPosition.FilterStatus.NONE) {
+        sb.append(".\t"); // filters not applied: write the missing value rather than PASS
+      } else {
+        addListOrElse(position.getFilters(), ";", "PASS", sb);
+      }
+      addInfoOrDot(metadata, position, sb);
 
-    position.getFilters().stream().filter(key -> !metadata.getFilters().containsKey(key)).forEach(key ->
-        sf_logger.warn("Position {}:{} has FILTER {}, but there is no FILTER metadata with that name (on line {})",
-            position.getChromosome(), position.getPosition(), key, m_lineNumber));
+      position.getFilters().stream().filter(key -> !metadata.getFilters().containsKey(key)).forEach(key ->
+          sf_logger.warn("Position {}:{} has FILTER {}, but there is no FILTER metadata with that name (on line {})",
+              position.getChromosome(), position.getPosition(), key, m_lineNumber));
+    }
 
     // these columns can be skipped completely
-    addFormatConditionally(position, sb);
-    int sampleIndex = 0;
-    for (VcfSample sample : samples) {
-      addSampleConditionally(metadata, sampleIndex, position, sample, sb);
-      sampleIndex++;
+    if (m_selectedSampleIndexes == null) {
+      addFormatConditionally(position, sb);
+      for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+        addSample(metadata, sampleIndex, position, samples, block, sb);
+      }
+    } else if (m_selectedSampleIndexes.length > 0) {
+      addFormatConditionally(position, sb);
+      for (int sampleIndex : m_selectedSampleIndexes) {
+        addSample(metadata, sampleIndex, position, samples, block, sb);
+      }
     }
 
-    String line = sb.toString();
-    if (line.endsWith("\t")) line = line.substring(0, line.length() - 1);
-    printLine(line);
-    m_writer.flush();
+    if (sb.length() > start && sb.charAt(sb.length() - 1) == '\t') {
+      sb.setLength(sb.length() - 1);
+    }
   }
 
+  /**
+   * Closes this writer, first writing out anything still buffered (and, if this writer writes in the background,
+   * waiting for the background thread to finish).
+   *
+   * @throws UncheckedIOException If writing the rest of a file fails (or writing in the background has failed)
+   */
   @Override
   public void close() {
-    IOUtils.closeQuietly(m_writer);
+    if (m_closed) {
+      return;
+    }
+    m_closed = true;
+    if (m_queue != null) {
+      Batch last = new Batch(m_batch.toString(), true, null, true);
+      m_batch.setLength(0);
+      try {
+        m_queue.put(last);
+        assert m_background != null;
+        m_background.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw interrupted();
+      } catch (ExecutionException ex) {
+        if (m_backgroundError == null) {
+          m_backgroundError = ex.getCause();
+        }
+      } finally {
+        assert m_executor != null;
+        m_executor.shutdownNow();
+        closeOutput();
+      }
+      checkBackgroundError();
+      return;
+    }
+    closeOutput();
+  }
+
+  private void closeOutput() {
+    if (m_channel == null) {
+      IOUtils.closeQuietly(m_writer);
+      return;
+    }
+    try {
+      try {
+        writeBuffer(true);
+        if (m_bgzf != null) {
+          m_bgzf.finish();
+        }
+      } finally {
+        m_channel.close();
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      m_numBytes = 0;
+      if (m_bgzf != null) {
+        m_bgzf.close();
+      }
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException If this writer's sample selection does not match the header's samples
+   */
+  private void checkSampleSelection(VcfMetadata metadata) {
+    if (m_selectedSamples != null && m_selectedSamples.getNumSamples() != metadata.getNumSamples()) {
+      throw new IllegalArgumentException("Sample selection is over " + m_selectedSamples.getNumSamples() +
+          " sample(s), but the header declares " + metadata.getNumSamples());
+    }
+  }
+
+  private int getNumSamplesWritten(VcfMetadata metadata) {
+    return m_selectedSampleIndexes == null ? metadata.getNumSamples() : m_selectedSampleIndexes.length;
   }
 
   private void addFormatConditionally(VcfPosition position, StringBuilder sb) {
@@ -285,7 +527,8 @@ private void validateSamples(VcfMetadata metadata, VcfPosition position, List<Vc
         if (value == null) {
           sf_logger.warn("Sample #{} is missing property {}", sampleIndex, key);
         } else if (format == null) {
-          sf_logger.warn("Sample #{} contains FORMAT {}, but there is no FORMAT metadata with that name", sampleIndex, key);
+          sf_logger.warn("Sample #{} contains FORMAT {}, but there is no FORMAT metadata with that name", sampleIndex,
+              key);
         } else {
           validateFormatValue(format, value, key, sampleIndex, position.getAltBases().size(), ploidy);
         }
@@ -413,6 +656,16 @@ private int getPloidy(VcfPosition position, VcfSample sample, int sampleIndex) {
     return Math.max(1, alleles.length);
   }
 
+  private void addSample(VcfMetadata metadata, int sampleIndex, VcfPosition position, List<VcfSample> samples,
+      @Nullable VcfSampleBlock block, StringBuilder sb) {
+    if (block != null && !block.isChanged(sampleIndex) && !block.isFilledIn(sampleIndex)) {
+      block.appendRawColumn(sampleIndex, sb);
+      sb.append("\t");
+    } else {
+      addSampleConditionally(metadata, sampleIndex, position, samples.get(sampleIndex), sb);
+    }
+  }
+
   private void addSampleConditionally(VcfMetadata metadata, int sampleIndex,
       VcfPosition position, VcfSample sample, StringBuilder sb) {
 
@@ -430,7 +683,7 @@ private void addSampleConditionally(VcfMetadata metadata, int sampleIndex,
             sampleIndex, position.getChromosome(), position.getPosition(), key, m_lineNumber);
       }
 
-      String value = sample.getProperty(key);
+      CharSequence value = sample.getPropertyView(key);
       if (value == null) {
         if (!m_validateBeforeWrite) {
           sf_logger.warn("Sample #{} is missing property {}" +
@@ -447,7 +700,7 @@ private void addSampleConditionally(VcfMetadata metadata, int sampleIndex,
         } catch (NumberFormatException ignored) {}
         if (number != null && number == 1 && format.getType() != null) {
           try {
-            VcfUtils.convertProperty(format.getType(), value);
+            VcfUtils.convertProperty(format.getType(), value.toString());
           } catch (VcfFormatException e) {
             sf_logger.warn("Property {} for sample #{} is not of type {}" +
                 " (on line {})", key, sampleIndex, format.getType(), m_lineNumber);
@@ -455,7 +708,7 @@ private void addSampleConditionally(VcfMetadata metadata, int sampleIndex,
         }
       }
 
-      sb.append(value);
+      append(value, sb);
       if (i < formatKeys.size() - 1) {
         sb.append(":");
       }
@@ -471,6 +724,16 @@ private void addSampleConditionally(VcfMetadata metadata, int sampleIndex,
     sb.append("\t");
   }
 
+  /**
+   * Appends a field view, copying a {@link CharSlice} from its line in bulk rather than a char at a time.
+   */
+  private static StringBuilder append(CharSequence view, StringBuilder sb) {
+    if (view instanceof CharSlice) {
+      return ((CharSlice)view).appendTo(sb);
+    }
+    return sb.append(view);
+  }
+
   private void addInfoOrDot(VcfMetadata metadata, VcfPosition position, StringBuilder sb) {
 
     Iterator<String> keys = position.getInfoKeys().iterator();
@@ -586,7 +849,16 @@ public static class Builder {
     private Path m_file;
     private PrintWriter m_writer;
     private boolean m_validateBeforeWrite;
+    private @Nullable SampleSet m_selectedSamples;
+    private @Nullable FlushPolicy m_flushPolicy;
+    private int m_queueCapacity;
+    private int m_numBgzfThreads;
 
+    /**
+     * Writes to a file as UTF-8 (not in the platform's default charset, as a {@link java.io.FileWriter} would),
+     * encoding each line straight into a buffer that is written through a {@link FileChannel}. The buffer is written
+     * out only as it fills, and when the writer is closed, unless a {@link #setFlushPolicy flush policy} is set.
+     */
     public Builder toFile(Path file) {
       m_file = file;
       return this;
@@ -607,31 +879,388 @@ public Builder validateBeforeWrite() {
       return this;
     }
 
+    /**
+     * Writes only the given samples: the header lists only their columns (and {@code ##SAMPLE} lines), and
+     * {@link #writeLine} writes only their sample columns. The selection is copied, so later changes to
+     * {@code samples} do not affect this writer.
+     */
+    public Builder selectSamples(SampleSet samples) {
+      m_selectedSamples = samples.copy();
+      return this;
+    }
+
+    /**
+     * Sets when the writer flushes. By default, a writer to a {@link PrintWriter} flushes after every line (and after
+     * the header), unless it {@link #writeInBackground writes in the background}; a writer to a {@link #toFile file}
+     * flushes only when it is closed, writing its buffer out as it fills, as {@link FlushPolicy#onClose()} does. Use
+     * {@link FlushPolicy#everyLine()} to write a file out line by line (one write per line). Whatever the policy,
+     * {@link VcfWriter#flush()} and {@link VcfWriter#close()} write out everything buffered.
+     */
+    public Builder setFlushPolicy(FlushPolicy flushPolicy) {
+      m_flushPolicy = flushPolicy;
+      return this;
+    }
+
+    /**
+     * Writes in the background: {@link VcfWriter#writeLine} formats the line on the calling thread, and a dedicated
+     * thread encodes and writes it, so the caller does not wait on the output. Lines are handed over in batches, and
+     * the caller blocks only when {@code queueCapacity} batches are already waiting to be written. As a flush ends a
+     * batch, a writer that writes in the background flushes only when it is closed, unless a
+     * {@link #setFlushPolicy flush policy} is set.
+     * <p>
+     * A failure to write is thrown by the next call to the writer ({@link VcfWriter#writeLine},
+     * {@link VcfWriter#flush()} or {@link VcfWriter#close()}). Formatting errors are still thrown right away. The
+     * writer must then be closed, which waits for the background thread to finish.
+     */
+    public Builder writeInBackground(int queueCapacity) {
+      Preconditions.checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+      m_queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Compresses the file as BGZF (as {@code bgzip} does), so that it can be indexed (e.g. by tabix), with
+     * {@code numThreads} threads compressing blocks in parallel. As a flush ends a BGZF block, a writer that compresses
+     * flushes only when it is closed, unless a {@link #setFlushPolicy flush policy} is set.
+     */
+    public Builder compressWithBgzf(int numThreads) {
+      Preconditions.checkArgument(numThreads > 0, "Number of threads must be positive");
+      m_numBgzfThreads = numThreads;
+      return this;
+    }
+
     public VcfWriter build() throws IOException {
+      FlushPolicy flushPolicy = m_flushPolicy;
+      if (flushPolicy == null) {
+        // a file is written through its own buffer, which is best written out only once full
+        flushPolicy = m_file != null || m_queueCapacity > 0 ? FlushPolicy.onClose() : FlushPolicy.everyLine();
+      }
       if (m_file != null) {
-        m_writer = new PrintWriter(new BufferedWriter(new FileWriter(m_file.toFile()), 65536));
+        FileChannel channel = FileChannel.open(m_file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        BgzfWriter bgzf = null;
+        if (m_numBgzfThreads > 0) {
+          bgzf = new BgzfWriter(channel, Deflater.DEFAULT_COMPRESSION, m_numBgzfThreads);
+        }
+        return new VcfWriter(m_file, null, channel, bgzf, m_validateBeforeWrite, m_selectedSamples, flushPolicy,
+            m_queueCapacity);
       }
       if (m_writer == null) {
         throw new IllegalStateException("Must specify either file or writer");
       }
-      return new VcfWriter(m_file, m_writer, m_validateBeforeWrite);
+      if (m_numBgzfThreads > 0) {
+        throw new IllegalStateException("Only a file can be compressed");
+      }
+      return new VcfWriter(null, m_writer, null, null, m_validateBeforeWrite, m_selectedSamples, flushPolicy,
+          m_queueCapacity);
     }
 
   }
 
-  private void printLine(Object line) {
-    String string = line.toString();
-    if (string.contains("\n") || string.contains("\r")) {
-      throw new RuntimeException("Something went wrong writing line #" + m_lineNumber + ": [[[" + string +
-          "]]] contains a line terminator");
+  private void printLine(CharSequence line) {
+    if (m_queue != null) {
+      checkOpen();
+      checkNoLineTerminator(line);
+      m_batch.append(line).append('\n');
+      m_bytesSinceFlush += line.length() + 1;
+      if (m_batch.length() >= sf_batchSize) {
+        queueBatch(false, null);
+      }
+    } else if (m_writer == null) {
+      encodeLine(line, 0, line.length());
+    } else {
+      checkNoLineTerminator(line);
+      // always terminate with LF (not the platform separator from println) so output is deterministic across platforms
+      m_writer.append(line).print('\n');
+      m_bytesSinceFlush += line.length() + 1;
     }
-    // always terminate with LF (not the platform separator from println) so output is deterministic across platforms
-    m_writer.print(string);
-    m_writer.print('\n');
     m_lineNumber++;
+    m_linesSinceFlush++;
     if (m_lineNumber % 1000 == 0) {
       sf_logger.info("Wrote {} lines{}", m_lineNumber, (m_file == null ? "" : " to " + m_file));
     }
   }
 
+  private void checkNoLineTerminator(CharSequence line) {
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\n' || c == '\r') {
+        throw lineTerminatorError(line);
+      }
+    }
+  }
+
+  private RuntimeException lineTerminatorError(CharSequence line) {
+    return new RuntimeException("Something went wrong writing line #" + m_lineNumber + ": [[[" + line +
+        "]]] contains a line terminator");
+  }
+
+  /**
+   * Encodes a line (the characters of {@code chars} from {@code from} to {@code to}) as UTF-8, with an LF, into the
+   * buffer. The buffer is only written out between lines, so a line that turns out to contain a line terminator is
+   * dropped whole.
+   */
+  private void encodeLine(CharSequence chars, int from, int to) {
+    int length = to - from;
+    if (m_bytes.length - m_numBytes < length + 1) {
+      writeBuffer(false);
+      ensureCapacity(length + 1);
+    }
+    byte[] bytes = m_bytes;
+    int start = m_numBytes;
+    int n = start;
+    for (int i = from; i < to; i++) {
+      char c = chars.charAt(i);
+      if (c < 0x80) {
+        if (c == '\n' || c == '\r') {
+          m_numBytes = start;
+          throw lineTerminatorError(chars.subSequence(from, to));
+        }
+        bytes[n++] = (byte)c;
+        continue;
+      }
+      // no more than 3 bytes for each char left (a surrogate pair takes 4 for its 2)
+      m_numBytes = n;
+      ensureCapacity(3 * (to - i) + 1);
+      bytes = m_bytes;
+      if (c < 0x800) {
+        bytes[n++] = (byte)(0xC0 | (c >> 6));
+        bytes[n++] = (byte)(0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+        bytes[n++] = (byte)(0xF0 | (codePoint >> 18));
+        bytes[n++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[n++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[n++] = (byte)(0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // an unpaired surrogate, which is replaced as the UTF-8 encoder would
+        bytes[n++] = '?';
+      } else {
+        bytes[n++] = (byte)(0xE0 | (c >> 12));
+        bytes[n++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+        bytes[n++] = (byte)(0x80 | (c & 0x3F));
+      }
+    }
+    bytes[n++] = '\n';
+    m_numBytes = n;
+    m_bytesSinceFlush += n - start;
+  }
+
+  /**
+   * Grows the buffer, keeping what is in it, so that it has room for {@code numBytes} more.
+   */
+  private void ensureCapacity(int numBytes) {
+    long needed = (long)m_numBytes + numBytes;
+    if (needed > m_bytes.length) {
+      if (needed > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException("Line #" + m_lineNumber + " is too long to write");
+      }
+      m_bytes = Arrays.copyOf(m_bytes, (int)Math.max(needed, Math.min(2L * m_bytes.length,
+          Integer.MAX_VALUE - 8)));
+      m_byteBuffer = ByteBuffer.wrap(m_bytes);
+    }
+  }
+
+  /**
+   * Writes out the buffer. With BGZF, only full blocks are written unless {@code all} is set, and what is left over is
+   * moved to the start of the buffer; if {@code all} is set, this also waits for every block to be written.
+   */
+  private void writeBuffer(boolean all) {
+    assert m_channel != null;
+    try {
+      if (m_bgzf != null) {
+        int offset = 0;
+        while (m_numBytes - offset >= BgzfWriter.MAX_BLOCK_SIZE || (all && offset < m_numBytes)) {
+          int length = Math.min(BgzfWriter.MAX_BLOCK_SIZE, m_numBytes - offset);
+          m_bgzf.writeBlock(m_bytes, offset, length);
+          offset += length;
+        }
+        System.arraycopy(m_bytes, offset, m_bytes, 0, m_numBytes - offset);
+        m_numBytes -= offset;
+        if (all) {
+          m_bgzf.flush();
+        }
+        return;
+      }
+      m_byteBuffer.clear().limit(m_numBytes);
+      while (m_byteBuffer.hasRemaining()) {
+        m_channel.write(m_byteBuffer);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    m_numBytes = 0;
+  }
+
+
+  /**
+   * Hands the lines collected so far to the background thread, waiting for room in the queue if need be.
+   *
+   * @param flush Whether the background thread should flush once it has written them
+   * @param written Counted down once the background thread has written (and, if asked to, flushed) them
+   */
+  private void queueBatch(boolean flush, @Nullable CountDownLatch written) {
+    checkOpen();
+    if (m_batch.length() == 0 && !flush) {
+      return;
+    }
+    assert m_queue != null;
+    Batch batch = new Batch(m_batch.toString(), flush, written, false);
+    m_batch.setLength(0);
+    try {
+      m_queue.put(batch);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw interrupted();
+    }
+  }
+
+  /**
+   * Run by the background thread until it takes the last batch. Once writing fails, the rest is only taken off the
+   * queue, so the caller does not block; the failure is thrown by the caller's next call.
+   */
+  private void writeBatches() throws InterruptedException {
+    assert m_queue != null;
+    while (true) {
+      Batch batch = m_queue.take();
+      if (m_backgroundError == null) {
+        try {
+          writeBatch(batch);
+        } catch (RuntimeException | Error ex) {
+          m_backgroundError = ex;
+        }
+      }
+      if (batch.m_written != null) {
+        batch.m_written.countDown();
+      }
+      if (batch.m_last) {
+        return;
+      }
+    }
+  }
+
+  private void writeBatch(Batch batch) {
+    String text = batch.m_text;
+    if (m_writer != null) {
+      m_writer.write(text);
+      if (batch.m_flush) {
+        m_writer.flush();
+      }
+      return;
+    }
+    for (int start = 0; start < text.length(); ) {
+      int end = text.indexOf('\n', start);
+      encodeLine(text, start, end);
+      start = end + 1;
+    }
+    if (batch.m_flush) {
+      writeBuffer(true);
+    }
+  }
+
+  private static UncheckedIOException interrupted() {
+    return new UncheckedIOException(new InterruptedIOException("Interrupted while waiting for VCF to be written"));
+  }
+
+  /**
+   * @throws IllegalStateException If this writer writes in the background and has been closed, or has failed
+   */
+  private void checkOpen() {
+    if (m_closed) {
+      throw new IllegalStateException("Writer is closed");
+    }
+    checkBackgroundError();
+  }
+
+  /**
+   * Throws the failure of the background thread, if it has failed.
+   */
+  private void checkBackgroundError() {
+    Throwable error = m_backgroundError;
+    if (error == null) {
+      return;
+    }
+    if (error instanceof UncheckedIOException) {
+      throw new UncheckedIOException("Writing VCF in the background failed", ((UncheckedIOException)error).getCause());
+    }
+    throw new IllegalStateException("Writing VCF in the background failed", error);
+  }
+
+  /**
+   * Lines formatted by the caller, for the background thread to write.
+   */
+  private static final class Batch {
+    private final String m_text;
+    private final boolean m_flush;
+    private final @Nullable CountDownLatch m_written;
+    private final boolean m_last;
+
+    Batch(String text, boolean flush, @Nullable CountDownLatch written, boolean last) {
+      m_text = text;
+      m_flush = flush;
+      m_written = written;
+      m_last = last;
+    }
+  }
+
+
+  /**
+   * When a {@link VcfWriter} flushes what it has written: after every so many lines or bytes, or only when it is
+   * closed (or {@link VcfWriter#flush()} is called).
+   * <p>
+   * Output is also written out whenever the writer's buffer fills, whatever the policy.
+   */
+  public static final class FlushPolicy {
+    private static final FlushPolicy sf_onClose = new FlushPolicy(0, 0);
+    private final int m_lines;
+    private final long m_bytes;
+
+    private FlushPolicy(int lines, long bytes) {
+      m_lines = lines;
+      m_bytes = bytes;
+    }
+
+    /**
+     * Flushes after every line; the default when writing to a {@link PrintWriter}.
+     */
+    public static FlushPolicy everyLine() {
+      return everyLines(1);
+    }
+
+    /**
+     * Flushes once at least {@code lines} lines have been written since the last flush.
+     */
+    public static FlushPolicy everyLines(int lines) {
+      Preconditions.checkArgument(lines > 0, "Number of lines must be positive");
+      return new FlushPolicy(lines, 0);
+    }
+
+    /**
+     * Flushes once at least {@code bytes} bytes (characters, when writing to a {@link PrintWriter} or in the
+     * background) have been written since the last flush.
+     */
+    public static FlushPolicy everyBytes(long bytes) {
+      Preconditions.checkArgument(bytes > 0, "Number of bytes must be positive");
+      return new FlushPolicy(0, bytes);
+    }
+
+    /**
+     * Never flushes on its own: output is written out only as the buffer fills, and when the writer is closed.
+     */
+    public static FlushPolicy onClose() {
+      return sf_onClose;
+    }
+
+    boolean isDue(int lines, long bytes) {
+      return (m_lines > 0 && lines >= m_lines) || (m_bytes > 0 && bytes >= m_bytes);
+    }
+
+    @Override
+    public String toString() {
+      if (m_lines > 0) {
+        return "FlushPolicy[every " + m_lines + " line(s)]";
+      }
+      return m_bytes > 0 ? "FlushPolicy[every " + m_bytes + " byte(s)]" : "FlushPolicy[on close]";
+    }
+  }
 }
@@ -0,0 +1,115 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.Objects;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * A read-only {@link CharSequence} over a range of a {@link String} (typically a parsed VCF line), returned by the
+ * {@code *View} accessors so that callers that only compare, hash or copy out a field need not create a new
+ * {@code String} for it.
+ *
+ * <p>{@link #toString()} creates the {@code String} on first call and caches it. {@link #hashCode()} is the same as
+ * the equivalent {@code String}'s, and two slices are {@link #equals equal} if they hold the same characters; use
+ * {@link #contentEquals} to compare with any other {@code CharSequence}. Note that a slice keeps its whole source
+ * alive.</p>
+ */
+public final class CharSlice implements CharSequence {
+  private final String m_source;
+  private final int m_start;
+  private final int m_end;
+  private @Nullable String m_string;
+  private int m_hash;
+
+
+  /**
+   * @param source The string this is a slice of
+   * @param start The start index in {@code source}, inclusive
+   * @param end The end index in {@code source}, exclusive
+   * @throws IndexOutOfBoundsException If the range is not within {@code source}
+   */
+  public CharSlice(String source, int start, int end) {
+    Objects.checkFromToIndex(start, end, source.length());
+    m_source = source;
+    m_start = start;
+    m_end = end;
+  }
+
+
+  @Override
+  public int length() {
+    return m_end - m_start;
+  }
+
+  @Override
+  public char charAt(int index) {
+    Objects.checkIndex(index, length());
+    return m_source.charAt(m_start + index);
+  }
+
+  @Override
+  public CharSlice subSequence(int start, int end) {
+    Objects.checkFromToIndex(start, end, length());
+    return new CharSlice(m_source, m_start + start, m_start + end);
+  }
+
+  /**
+   * @return Whether this slice holds exactly the characters of {@code other}
+   */
+  public boolean contentEquals(CharSequence other) {
+    int length = length();
+    if (other.length() != length) {
+      return false;
+    }
+    if (other instanceof String) {
+      return m_source.regionMatches(m_start, (String)other, 0, length);
+    }
+    if (other instanceof CharSlice) {
+      CharSlice slice = (CharSlice)other;
+      return m_source.regionMatches(m_start, slice.m_source, slice.m_start, length);
+    }
+    for (int i = 0; i < length; i++) {
+      if (m_source.charAt(m_start + i) != other.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Appends this slice to {@code sb} without creating a {@code String}.
+   */
+  public StringBuilder appendTo(StringBuilder sb) {
+    return sb.append(m_source, m_start, m_end);
+  }
+
+  @Override
+  public String toString() {
+    String string = m_string;
+    if (string == null) {
+      string = m_source.substring(m_start, m_end);
+      m_string = string;
+    }
+    return string;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof CharSlice && contentEquals((CharSlice)o);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = m_hash;
+    if (hash == 0) {
+      for (int i = m_start; i < m_end; i++) {
+        hash = 31 * hash + m_source.charAt(i);
+      }
+      m_hash = hash;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,62 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Maps sample names to sample indexes in constant time, for files with many samples where a linear scan of the column
+ * list per lookup is too slow.
+ * <p>
+ * Names are kept in a single array and indexed by an open-addressing table of {@code int}s, so the registry costs a
+ * few bytes per sample on top of the names themselves (no boxed indexes or map entries).
+ */
+class SampleRegistry {
+  private static final int EMPTY = -1;
+  private final String[] m_names;
+  // open-addressing (linear probing) table of indexes into m_names
+  private final int[] m_table;
+  private final int m_mask;
+
+
+  /**
+   * @param names The sample names, in column order; if a name is repeated, lookups return its first index
+   */
+  SampleRegistry(List<String> names) {
+    m_names = names.toArray(new String[0]);
+    int capacity = Integer.highestOneBit(Math.max(2, m_names.length * 2 - 1)) << 1;
+    m_table = new int[capacity];
+    m_mask = capacity - 1;
+    Arrays.fill(m_table, EMPTY);
+    for (int x = 0; x < m_names.length; x++) {
+      int slot = spread(m_names[x].hashCode()) & m_mask;
+      while (m_table[slot] != EMPTY) {
+        slot = (slot + 1) & m_mask;
+      }
+      m_table[slot] = x;
+    }
+  }
+
+  /**
+   * @return The sample's index, or {@code -1} if there is no sample with this name
+   */
+  int indexOf(String name) {
+    int slot = spread(name.hashCode()) & m_mask;
+    int idx;
+    while ((idx = m_table[slot]) != EMPTY) {
+      if (m_names[idx].equals(name)) {
+        return idx;
+      }
+      slot = (slot + 1) & m_mask;
+    }
+    return -1;
+  }
+
+  int size() {
+    return m_names.length;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
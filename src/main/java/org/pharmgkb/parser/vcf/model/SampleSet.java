@@ -0,0 +1,210 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * A set of samples, by sample index (as in {@link VcfMetadata#getSampleIndex(String)}), stored as a bitset.
+ * <p>
+ * Use this to select a subset of a file's samples once and share that selection between components, for example to
+ * pull only those samples out of {@link org.pharmgkb.parser.vcf.MemoryMappedVcfDataStore} or to write only those
+ * sample columns with {@link org.pharmgkb.parser.vcf.VcfWriter.Builder#selectSamples(SampleSet)}. Iteration is always
+ * in sample (column) order.
+ */
+public final class SampleSet {
+  private final int m_numSamples;
+  private final long[] m_words;
+
+
+  private SampleSet(int numSamples) {
+    if (numSamples < 0) {
+      throw new IllegalArgumentException("Number of samples is negative: " + numSamples);
+    }
+    m_numSamples = numSamples;
+    m_words = new long[(numSamples + 63) >>> 6];
+  }
+
+  /**
+   * @return An empty set over {@code numSamples} samples
+   */
+  public static SampleSet none(int numSamples) {
+    return new SampleSet(numSamples);
+  }
+
+  /**
+   * @return A set containing each of {@code numSamples} samples
+   */
+  public static SampleSet all(int numSamples) {
+    SampleSet set = new SampleSet(numSamples);
+    Arrays.fill(set.m_words, -1L);
+    set.clearUnusedBits();
+    return set;
+  }
+
+  /**
+   * @return A set containing every sample in {@code metadata}
+   */
+  public static SampleSet all(VcfMetadata metadata) {
+    return all(metadata.getNumSamples());
+  }
+
+  /**
+   * @return A set containing the named samples of {@code metadata}
+   * @throws IllegalArgumentException If a name is not one of the samples in {@code metadata}
+   */
+  public static SampleSet of(VcfMetadata metadata, Collection<String> sampleNames) {
+    SampleSet set = new SampleSet(metadata.getNumSamples());
+    for (String name : sampleNames) {
+      int idx = metadata.getSampleIndex(name);
+      if (idx < 0) {
+        throw new IllegalArgumentException("No sample named " + name);
+      }
+      set.add(idx);
+    }
+    return set;
+  }
+
+  /**
+   * @return A set over {@code numSamples} samples containing the given sample indexes
+   */
+  public static SampleSet of(int numSamples, int... sampleIndexes) {
+    SampleSet set = new SampleSet(numSamples);
+    for (int idx : sampleIndexes) {
+      set.add(idx);
+    }
+    return set;
+  }
+
+  /**
+   * @return The number of samples this set selects from (not the number of samples in the set; see {@link #size()})
+   */
+  public int getNumSamples() {
+    return m_numSamples;
+  }
+
+  public boolean contains(int sampleIndex) {
+    checkIndex(sampleIndex);
+    return (m_words[sampleIndex >>> 6] & (1L << sampleIndex)) != 0;
+  }
+
+  public void add(int sampleIndex) {
+    checkIndex(sampleIndex);
+    m_words[sampleIndex >>> 6] |= 1L << sampleIndex;
+  }
+
+  public void remove(int sampleIndex) {
+    checkIndex(sampleIndex);
+    m_words[sampleIndex >>> 6] &= ~(1L << sampleIndex);
+  }
+
+  /**
+   * @return The number of samples in this set
+   */
+  public int size() {
+    int size = 0;
+    for (long word : m_words) {
+      size += Long.bitCount(word);
+    }
+    return size;
+  }
+
+  public boolean isEmpty() {
+    for (long word : m_words) {
+      if (word != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The first sample index in this set that is at least {@code fromIndex}, or {@code -1} if there is none
+   */
+  public int nextSample(int fromIndex) {
+    if (fromIndex < 0) {
+      throw new IndexOutOfBoundsException("fromIndex < 0: " + fromIndex);
+    }
+    int wordIdx = fromIndex >>> 6;
+    if (wordIdx >= m_words.length) {
+      return -1;
+    }
+    long word = m_words[wordIdx] & (-1L << fromIndex);
+    while (true) {
+      if (word != 0) {
+        return (wordIdx << 6) + Long.numberOfTrailingZeros(word);
+      }
+      if (++wordIdx == m_words.length) {
+        return -1;
+      }
+      word = m_words[wordIdx];
+    }
+  }
+
+  /**
+   * Calls {@code consumer} with each sample index in this set, in order.
+   */
+  public void forEach(IntConsumer consumer) {
+    for (int idx = nextSample(0); idx >= 0; idx = nextSample(idx + 1)) {
+      consumer.accept(idx);
+    }
+  }
+
+  /**
+   * @return The sample indexes in this set, in order
+   */
+  public int[] toArray() {
+    int[] indexes = new int[size()];
+    int x = 0;
+    for (int idx = nextSample(0); idx >= 0; idx = nextSample(idx + 1)) {
+      indexes[x++] = idx;
+    }
+    return indexes;
+  }
+
+  /**
+   * @return A modifiable copy of this set
+   */
+  public SampleSet copy() {
+    SampleSet copy = new SampleSet(m_numSamples);
+    System.arraycopy(m_words, 0, copy.m_words, 0, m_words.length);
+    return copy;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SampleSet set)) {
+      return false;
+    }
+    return m_numSamples == set.m_numSamples && Arrays.equals(m_words, set.m_words);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * m_numSamples + Arrays.hashCode(m_words);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+
+  private void checkIndex(int sampleIndex) {
+    if (sampleIndex < 0 || sampleIndex >= m_numSamples) {
+      throw new IndexOutOfBoundsException("Sample index " + sampleIndex + " is out of range for " + m_numSamples +
+          " samples");
+    }
+  }
+
+  private void clearUnusedBits() {
+    int used = m_numSamples & 63;
+    if (used != 0) {
+      m_words[m_words.length - 1] &= (1L << used) - 1;
+    }
+  }
+}
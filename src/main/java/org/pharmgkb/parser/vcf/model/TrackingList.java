@@ -0,0 +1,57 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+
+/**
+ * A view of a list that asks its owner for the list to change before every change made through it, so the owner can
+ * tell that it has changed (and, say, first replace a list it shares with a copy). Every mutator of
+ * {@link AbstractList} (including those of its iterators and sub-lists) goes through {@link #set},
+ * {@link #add(int, Object)} or {@link #remove(int)}.
+ */
+final class TrackingList<E> extends AbstractList<E> implements RandomAccess {
+  private final Supplier<List<E>> m_list;
+  private final Supplier<List<E>> m_onChange;
+
+
+  /**
+   * @param list Gets the list to read
+   * @param onChange Gets the list to change, which is the list to read from then on
+   */
+  TrackingList(Supplier<List<E>> list, Supplier<List<E>> onChange) {
+    m_list = list;
+    m_onChange = onChange;
+  }
+
+
+  @Override
+  public E get(int index) {
+    return m_list.get().get(index);
+  }
+
+  @Override
+  public int size() {
+    return m_list.get().size();
+  }
+
+  @Override
+  public E set(int index, E element) {
+    return m_onChange.get().set(index, element);
+  }
+
+  @Override
+  public void add(int index, E element) {
+    m_onChange.get().add(index, element);
+    modCount++;
+  }
+
+  @Override
+  public E remove(int index) {
+    E removed = m_onChange.get().remove(index);
+    modCount++;
+    return removed;
+  }
+}
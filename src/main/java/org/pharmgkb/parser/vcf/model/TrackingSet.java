@@ -0,0 +1,87 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * A view of a set that asks its owner for the set to change before every change made through it, so the owner can
+ * tell that it has changed (and, say, first replace a set it shares with a copy). Every mutator of
+ * {@link AbstractSet} goes through {@link #add}, {@link #remove} or its iterator's {@link Iterator#remove remove}.
+ */
+final class TrackingSet<E> extends AbstractSet<E> {
+  private final Supplier<Set<E>> m_set;
+  private final Supplier<Set<E>> m_onChange;
+
+
+  /**
+   * @param set Gets the set to read
+   * @param onChange Gets the set to change, which is the set to read from then on
+   */
+  TrackingSet(Supplier<Set<E>> set, Supplier<Set<E>> onChange) {
+    m_set = set;
+    m_onChange = onChange;
+  }
+
+
+  @Override
+  public int size() {
+    return m_set.get().size();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return m_set.get().contains(o);
+  }
+
+  @Override
+  public boolean add(E element) {
+    return m_onChange.get().add(element);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!m_set.get().contains(o)) {
+      return false;
+    }
+    return m_onChange.get().remove(o);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    Set<E> set = m_set.get();
+    Iterator<E> iterator = set.iterator();
+    return new Iterator<>() {
+      private @Nullable E m_last;
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public E next() {
+        m_last = iterator.next();
+        return m_last;
+      }
+
+      @Override
+      public void remove() {
+        if (m_last == null) {
+          throw new IllegalStateException();
+        }
+        Set<E> changing = m_onChange.get();
+        if (changing == set) {
+          iterator.remove();
+        } else {
+          // the set being iterated was replaced with a copy, which can be changed without disturbing the iteration
+          changing.remove(m_last);
+        }
+        m_last = null;
+      }
+    };
+  }
+}
@@ -26,6 +26,7 @@ public class VcfMetadata {
   private final Map<String, IdDescriptionMetadata> m_filter;
   private final Map<String, FormatMetadata> m_format;
   private final List<String> m_columns;
+  private final SampleRegistry m_sampleRegistry;
   private final ListMultimap<String, String> m_properties;
   private final Map<String, ContigMetadata> m_contig;
   private final Map<String, IdDescriptionMetadata> m_sample;
@@ -48,7 +49,8 @@ private VcfMetadata(String fileFormat, @Nullable Map<String, IdDescriptionMetada
     m_sample     = sample==null?     new HashMap<>()            : sample;
     m_pedigree   = pedigree==null?   new ArrayList<>()          : pedigree;
     m_properties = properties==null? ArrayListMultimap.create() : properties;
-    m_columns    = columns;
+    m_columns    = List.copyOf(columns);
+    m_sampleRegistry = new SampleRegistry(m_columns.subList(Math.min(9, m_columns.size()), m_columns.size()));
   }
 
 
@@ -270,18 +272,27 @@ public SortedSet<String> getRawPropertyKeys() {
     return new TreeSet<>(m_properties.keySet());
   }
 
+  /**
+   * @return the column's index, or {@code -1} if there is no such column
+   */
   public int getColumnIndex(String column) {
-    return m_columns.indexOf(column);
+    int numFixed = Math.min(9, m_columns.size());
+    for (int i = 0; i < numFixed; i++) {
+      if (m_columns.get(i).equals(column)) {
+        return i;
+      }
+    }
+    int idx = m_sampleRegistry.indexOf(column);
+    return idx < 0 ? -1 : idx + 9;
   }
 
   /**
-   * Sample numbering starts at 0.
+   * Sample numbering starts at 0. This is a constant-time lookup.
    *
    * @return the sample's index, or {@code -1} if {@code sampleId} is not a sample column
    */
   public int getSampleIndex(String sampleId) {
-    int idx = m_columns.indexOf(sampleId);
-    return idx < 9 ? -1 : idx - 9;
+    return m_sampleRegistry.indexOf(sampleId);
   }
 
   /**
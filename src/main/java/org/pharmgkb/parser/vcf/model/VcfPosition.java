@@ -3,13 +3,17 @@
 import java.lang.invoke.MethodHandles;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
 import org.jspecify.annotations.Nullable;
 import org.pharmgkb.parser.vcf.VcfFormatException;
@@ -32,6 +36,17 @@
  * 8 - FORMAT
  * </pre>
  *
+ * <p>A position is mutable and not thread-safe: its getters hand out the internal lists, and QUAL and INFO are parsed
+ * lazily on first read. {@link #freeze()} parses everything and makes the position read-only, after which it can be
+ * shared between threads (published through a concurrent collection, a {@code final} field, or similar).
+ * {@link #snapshot()} does the same to a copy, and {@link #mutableCopy()} returns a mutable position that shares a
+ * frozen position's fields until each one is changed (copy-on-write), so a transformation that changes one field does
+ * not copy the rest.</p>
+ *
+ * <p>A parsed position remembers the line it came from until it is changed (through a setter, or through a list or INFO
+ * view it handed out), so that {@link org.pharmgkb.parser.vcf.VcfWriter} can copy an unchanged position's columns
+ * from the line instead of formatting them again; see {@link #getRawLine()}.</p>
+ *
  * @author Mark Woon
  */
 public class VcfPosition {
@@ -42,10 +57,19 @@ public class VcfPosition {
   // matched with find(), not matches(): a wrapping ".*\s.*" pattern would fail to detect whitespace in a string
   // containing 2+ line-terminator characters, since "." does not match line terminators without DOTALL
   private static final Pattern sf_whitespace = Pattern.compile("\\s");
-  private String m_chromosome;
+  // the fields a position can share with the frozen position it was copied from, as bits of m_sharedFields
+  private static final int IDS = 1;
+  private static final int ALT_BASES = 1 << 1;
+  private static final int FILTERS = 1 << 2;
+  private static final int INFO = 1 << 3;
+  private static final int FORMAT = 1 << 4;
+  private static final int ALL_FIELDS = IDS | ALT_BASES | FILTERS | INFO | FORMAT;
+  // CHROM and REF are either Strings or CharSlices over the parsed line, replaced by their String on first
+  // getChromosome()/getRef(); both are immutable, so doing so is safe even on a frozen position read by several threads
+  private CharSequence m_chromosome;
   private long m_position;
   private List<String> m_ids = new ArrayList<>();
-  private String m_refBases;
+  private CharSequence m_refBases;
   private List<String> m_altBases = new ArrayList<>();
   // QUAL is stored either as a parsed BigDecimal (eager path) or as raw text parsed lazily on first getQuality()
   // (parser path via setRawQuality); many consumers never read QUAL.
@@ -59,6 +83,22 @@ public class VcfPosition {
   private @Nullable ListMultimap<String, String> m_info;
   private @Nullable String m_rawInfo;
   private List<String> m_format = new ArrayList<>();
+  // once frozen, every field is materialized and every list is immutable
+  private boolean m_frozen;
+  // the fields still shared with the frozen position this was copied from; such a field is replaced with a mutable
+  // copy when it is first changed or handed out to be changed, but is read as it is
+  private int m_sharedFields;
+  // the line this position was parsed from and the end of its INFO column, until this position is changed; while set,
+  // the mutable lists and INFO views handed out are wrapped so that changing them clears it
+  private @Nullable String m_rawLine;
+  private int m_rawLineInfoEnd;
+  // the views handed out while m_rawLine is set (or INFO is shared), created on first use and dropped on a change
+  private @Nullable List<String> m_trackedIds;
+  private @Nullable List<String> m_trackedAltBases;
+  private @Nullable List<String> m_trackedFilters;
+  private @Nullable List<String> m_trackedFormat;
+  private @Nullable Set<String> m_trackedInfoKeys;
+  private @Nullable Map<String, List<String>> m_trackedInfo;
 
 
   public VcfPosition(String chr, long pos,
@@ -69,6 +109,22 @@ public VcfPosition(String chr, long pos,
       @Nullable List<String> filter,
       @Nullable ListMultimap<String, String> info,
       @Nullable List<String> format) {
+    this((CharSequence)chr, pos, ids, ref, altBases, qual, filter, info, format);
+  }
+
+  /**
+   * Creates a position whose CHROM and REF may be {@link CharSlice}s over a parsed line, so they need not be copied out
+   * of it unless {@link #getChromosome()} or {@link #getRef()} is called. Any other kind of {@code CharSequence} is
+   * copied to a {@code String}.
+   */
+  public VcfPosition(CharSequence chr, long pos,
+      @Nullable List<String> ids,
+      CharSequence ref,
+      @Nullable List<String> altBases,
+      @Nullable BigDecimal qual,
+      @Nullable List<String> filter,
+      @Nullable ListMultimap<String, String> info,
+      @Nullable List<String> format) {
 
     /*
       1. Check the arguments, in order
@@ -98,14 +154,14 @@ public VcfPosition(String chr, long pos,
      */
 
     // not resolving ID string
-    m_chromosome = chr; // required
+    m_chromosome = immutable(chr); // required
     m_position = pos; // required
 
     if (ids != null) {
       m_ids = ids;
     }
 
-    m_refBases = ref; // required
+    m_refBases = immutable(ref); // required
 
     if (altBases != null) {
       m_altBases = altBases;
@@ -132,6 +188,26 @@ public VcfPosition(String chr, long pos,
     normalizeFilters();
   }
 
+  /**
+   * Copies every field of {@code other}, sharing its lists (but not its views).
+   */
+  private VcfPosition(VcfPosition other) {
+    m_chromosome = other.m_chromosome;
+    m_position = other.m_position;
+    m_ids = other.m_ids;
+    m_refBases = other.m_refBases;
+    m_altBases = other.m_altBases;
+    m_quality = other.m_quality;
+    m_rawQuality = other.m_rawQuality;
+    m_filter = other.m_filter;
+    m_filtersApplied = other.m_filtersApplied;
+    m_info = other.m_info;
+    m_rawInfo = other.m_rawInfo;
+    m_format = other.m_format;
+    m_rawLine = other.m_rawLine;
+    m_rawLineInfoEnd = other.m_rawLineInfoEnd;
+  }
+
   public VcfPosition(String chromosome, long position, String refBases, BigDecimal quality) {
     checkChromosome(chromosome);
     checkPosition(position);
@@ -142,9 +218,47 @@ public VcfPosition(String chromosome, long position, String refBases, BigDecimal
     m_quality = quality;
   }
 
-  private static void checkChromosome(String chr) {
+  /**
+   * Sets CHROM, POS and REF without checking them.
+   */
+  private VcfPosition(String chromosome, long position, String refBases) {
+    m_chromosome = chromosome;
+    m_position = position;
+    m_refBases = refBases;
+  }
+
+  /**
+   * Creates a position from fields that were already checked, such as those of a position written to a data store
+   * snapshot and read back, without checking them again. The lists and the INFO multimap are shared (with the other
+   * positions read from the same snapshot, say) as a {@link #mutableCopy()} shares those of a frozen position: each is
+   * copied when it is first changed or handed out to be changed. Used by
+   * {@link org.pharmgkb.parser.vcf.MemoryMappedVcfDataStore}.
+   *
+   * @param rawQuality The QUAL column text, parsed lazily as if set by {@link #setRawQuality}
+   * @param filter The FILTER values, where a lone {@code "."} means filters were not applied
+   */
+  public static VcfPosition fromChecked(String chr, long pos, ImmutableList<String> ids, String ref,
+      ImmutableList<String> altBases, @Nullable String rawQuality, ImmutableList<String> filter,
+      ImmutableListMultimap<String, String> info, ImmutableList<String> format) {
+    VcfPosition position = new VcfPosition(chr, pos, ref);
+    position.m_ids = ids;
+    position.m_altBases = altBases;
+    position.m_rawQuality = rawQuality;
+    position.m_filter = filter;
+    position.m_info = info;
+    position.m_format = format;
+    position.m_sharedFields = ALL_FIELDS;
+    position.normalizeFilters();
+    return position;
+  }
+
+  private static CharSequence immutable(CharSequence chars) {
+    return chars instanceof String || chars instanceof CharSlice ? chars : chars.toString();
+  }
+
+  private static void checkChromosome(CharSequence chr) {
     // the VCF spec forbids whitespace in CHROM (but not other characters, e.g. colons)
-    if (chr.isEmpty() || sf_whitespace.matcher(chr).find()) {
+    if (chr.length() == 0 || sf_whitespace.matcher(chr).find()) {
       throw new VcfFormatException("CHROM column \"" + chr + "\" is empty or contains whitespace");
     }
   }
@@ -156,7 +270,7 @@ private static void checkPosition(long pos) {
     }
   }
 
-  private static void checkRef(String ref) {
+  private static void checkRef(CharSequence ref) {
     if (!VcfUtils.REF_BASE_PATTERN.matcher(ref).matches()) {
       throw new VcfFormatException("Invalid reference base '" + ref +
           "' (must match " + VcfUtils.REF_BASE_PATTERN + ")");
@@ -189,7 +303,8 @@ private static List<String> checkAltBases(List<String> altBases) {
     altBases = VcfUtils.dropEmptyEntries(sf_logger, "ALT", altBases);
     for (String base : altBases) {
       if (!VcfUtils.ALT_BASE_PATTERN.matcher(base).matches()) {
-        throw new VcfFormatException("Invalid alternate base '" + base + "' (must match " + VcfUtils.ALT_BASE_PATTERN + ")");
+        throw new VcfFormatException("Invalid alternate base '" + base + "' (must match " +
+            VcfUtils.ALT_BASE_PATTERN + ")");
       }
     }
     // "." is the missing value, representing "no alternate allele"; it cannot be combined with a real allele
@@ -278,7 +393,8 @@ private void normalizeFilters() {
       if (m_filter.get(0).equals("PASS")) { // a user is likely to pass "PASS" instead of an empty list or null
         sf_logger.warn("FILTER is PASS, but should have been passed as null. Converting to null");
         m_filter = new ArrayList<>();
-      } else if (m_filter.get(0).equals(".")) { // "." is the missing value: filters were not applied (FilterStatus.NONE)
+      } else if (m_filter.get(0).equals(".")) {
+        // "." is the missing value: filters were not applied (FilterStatus.NONE)
         m_filtersApplied = false;
         m_filter = new ArrayList<>();
       }
@@ -297,6 +413,11 @@ private void normalizeFilters() {
    * mutations if you need to confirm the position is still valid.
    */
   public void validate() {
+    if (m_frozen) {
+      // checks (and discards) a copy, since validating also normalizes
+      mutableCopy().validate();
+      return;
+    }
     checkChromosome(m_chromosome);
     checkPosition(m_position);
     checkRef(m_refBases);
@@ -308,19 +429,193 @@ public void validate() {
     checkFormat(m_format);
   }
 
+  /**
+   * Makes this position read-only: QUAL and INFO are parsed (and INFO validated) now, CHROM and REF become
+   * {@code String}s, and every list becomes immutable. Afterwards, setters throw {@link UnsupportedOperationException},
+   * as does mutating any list returned by a getter, and the position can be read from several threads once safely
+   * published.
+   *
+   * @return this position
+   * @throws VcfFormatException If QUAL or INFO cannot be parsed
+   */
+  public VcfPosition freeze() {
+    if (!m_frozen) {
+      getQuality();
+      getChromosome();
+      getRef();
+      m_info = ImmutableListMultimap.copyOf(info());
+      m_ids = ImmutableList.copyOf(m_ids);
+      m_altBases = ImmutableList.copyOf(m_altBases);
+      m_filter = ImmutableList.copyOf(m_filter);
+      m_format = ImmutableList.copyOf(m_format);
+      m_frozen = true;
+      m_sharedFields = 0;
+      dropViews();
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return m_frozen;
+  }
+
+  /**
+   * Gets a frozen copy of this position (see {@link #freeze()}), or this position itself if it is already frozen.
+   * Unlike {@link #freeze()}, this position is left as it is.
+   */
+  public VcfPosition snapshot() {
+    if (m_frozen) {
+      return this;
+    }
+    VcfPosition snapshot = new VcfPosition(this);
+    // only the lists still need copying; QUAL and INFO are parsed by the copy, which leaves this position as it is
+    snapshot.m_ids = ImmutableList.copyOf(m_ids);
+    snapshot.m_altBases = ImmutableList.copyOf(m_altBases);
+    snapshot.m_filter = ImmutableList.copyOf(m_filter);
+    snapshot.m_format = ImmutableList.copyOf(m_format);
+    if (m_info != null) {
+      snapshot.m_info = ImmutableListMultimap.copyOf(m_info);
+    }
+    return snapshot.freeze();
+  }
+
+  /**
+   * Gets a mutable copy of this position. A copy of a frozen position shares its fields, and copies a list only when
+   * that list is first changed or handed out by a getter that returns it to be changed (looking up an INFO key or its
+   * values reads the shared multimap); a copy of a position that is not frozen copies every list up front.
+   */
+  public VcfPosition mutableCopy() {
+    VcfPosition copy = new VcfPosition(this);
+    if (m_frozen) {
+      copy.m_sharedFields = ALL_FIELDS;
+    } else {
+      copy.m_ids = new ArrayList<>(m_ids);
+      copy.m_altBases = new ArrayList<>(m_altBases);
+      copy.m_filter = new ArrayList<>(m_filter);
+      copy.m_format = new ArrayList<>(m_format);
+      if (m_info != null) {
+        copy.m_info = ArrayListMultimap.create(m_info);
+      }
+    }
+    return copy;
+  }
+
+  private void checkNotFrozen() {
+    if (m_frozen) {
+      throw new UnsupportedOperationException("This position is frozen; use mutableCopy() to change it");
+    }
+  }
+
+  private boolean isShared(int field) {
+    return (m_sharedFields & field) != 0;
+  }
+
+  /**
+   * @return Whether {@code field} was still shared with the frozen position this was copied from, and so must now be
+   * replaced with a copy; from now on it is not shared
+   */
+  private boolean unshare(int field) {
+    if (!isShared(field)) {
+      return false;
+    }
+    m_sharedFields &= ~field;
+    return true;
+  }
+
+  /**
+   * @return Whether the lists handed out must be views that {@link #changed() mark this position changed}
+   */
+  private boolean isTracking() {
+    return m_rawLine != null && !m_frozen;
+  }
+
+  /**
+   * Gets a view of the list {@code list} gets that {@link #changed() marks this position changed} before a change,
+   * which is made to the list {@code changeList} gets.
+   */
+  private List<String> track(Supplier<List<String>> list, Supplier<List<String>> changeList) {
+    return new TrackingList<>(list, () -> {
+      changed();
+      return changeList.get();
+    });
+  }
+
+  private void changed() {
+    m_rawLine = null;
+    dropViews();
+  }
+
+  private void dropViews() {
+    m_trackedIds = null;
+    m_trackedAltBases = null;
+    m_trackedFilters = null;
+    m_trackedFormat = null;
+    m_trackedInfoKeys = null;
+    m_trackedInfo = null;
+  }
+
+  /**
+   * Sets the line this position was parsed from. Used by the parser so that, while the position is unchanged, a writer
+   * can copy its CHROM to INFO columns from the line instead of formatting them again.
+   *
+   * @param infoEnd The end (exclusive) of the INFO column in {@code line}
+   */
+  public void setRawLine(@Nullable String line, int infoEnd) {
+    checkNotFrozen();
+    m_rawLine = line;
+    m_rawLineInfoEnd = line == null ? 0 : infoEnd;
+  }
+
+  /**
+   * Gets the line this position was parsed from if it was set by {@link #setRawLine} and nothing has changed since:
+   * no setter has been called, and no list (or INFO view) returned by a getter has been changed. Handing out the whole
+   * INFO multimap through {@link #getInfo()} counts as a change.
+   * <p>
+   * Its text up to {@link #getRawLineInfoEnd()} is the position's CHROM to INFO columns, exactly as they were read
+   * (before any of the parser's normalization, such as dropping empty list entries).
+   */
+  public @Nullable String getRawLine() {
+    return m_rawLine;
+  }
+
+  /**
+   * @return The end (exclusive) of the INFO column in {@link #getRawLine()}
+   */
+  public int getRawLineInfoEnd() {
+    return m_rawLineInfoEnd;
+  }
+
   /**
    * Gets an identifier from the reference genome or an angle-bracketed ID String ("{@code <ID>}") pointing to a contig
    * in the assembly file.
    */
   public String getChromosome() {
+    CharSequence chromosome = m_chromosome;
+    if (chromosome instanceof String) {
+      return (String)chromosome;
+    }
+    String string = chromosome.toString();
+    m_chromosome = string;
+    return string;
+  }
+
+  /**
+   * Gets CHROM without necessarily creating a {@code String}: a parsed position returns a {@link CharSlice} over the
+   * line until {@link #getChromosome()} is called.
+   */
+  public CharSequence getChromosomeView() {
     return m_chromosome;
   }
 
   public void setChromosome(String chromosome) {
+    checkNotFrozen();
+    changed();
     m_chromosome = chromosome;
   }
 
   public void setRef(String ref) {
+    checkNotFrozen();
+    changed();
     m_refBases = ref;
   }
 
@@ -329,20 +624,69 @@ public long getPosition() {
   }
 
   public void setPosition(long position) {
+    checkNotFrozen();
+    changed();
     m_position = position;
   }
 
+  /**
+   * Gets the last position (1-based, inclusive) this record covers: INFO {@code END} if present, otherwise POS plus
+   * the largest absolute {@code SVLEN} if present, otherwise the last base of REF.
+   */
+  public long getEndPosition() {
+    Long end = getInfo(ReservedInfoProperty.End);
+    if (end != null) {
+      return end;
+    }
+    List<Long> svlens = getInfo(ReservedInfoProperty.StructuralVariantLength);
+    if (svlens != null) {
+      long span = -1;
+      for (Long svlen : svlens) {
+        if (svlen != null) {
+          span = Math.max(span, Math.abs(svlen));
+        }
+      }
+      if (span >= 0) {
+        return m_position + span;
+      }
+    }
+    return m_position + Math.max(1, m_refBases.length()) - 1;
+  }
+
   /**
    * Gets the list of unique identifiers for this position.
    */
   public List<String> getIds() {
-    return m_ids;
+    if (unshare(IDS)) {
+      m_ids = new ArrayList<>(m_ids);
+    }
+    if (!isTracking()) {
+      return m_ids;
+    }
+    if (m_trackedIds == null) {
+      m_trackedIds = track(() -> m_ids, () -> m_ids);
+    }
+    return m_trackedIds;
   }
 
   /**
    * Gets the reference base(s) for this position.  Each base must be an A, C, G, T, or N.
    */
   public String getRef() {
+    CharSequence ref = m_refBases;
+    if (ref instanceof String) {
+      return (String)ref;
+    }
+    String string = ref.toString();
+    m_refBases = string;
+    return string;
+  }
+
+  /**
+   * Gets REF without necessarily creating a {@code String}: a parsed position returns a {@link CharSlice} over the
+   * line until {@link #getRef()} is called.
+   */
+  public CharSequence getRefView() {
     return m_refBases;
   }
 
@@ -354,7 +698,16 @@ public String getRef() {
    * </p>
    */
   public List<String> getAltBases() {
-    return m_altBases;
+    if (unshare(ALT_BASES)) {
+      m_altBases = new ArrayList<>(m_altBases);
+    }
+    if (!isTracking()) {
+      return m_altBases;
+    }
+    if (m_trackedAltBases == null) {
+      m_trackedAltBases = track(() -> m_altBases, () -> m_altBases);
+    }
+    return m_trackedAltBases;
   }
 
   /**
@@ -364,7 +717,7 @@ public List<String> getAltBases() {
    */
   public String getAllele(int index) {
     if (index == 0) {
-      return m_refBases;
+      return getRef();
     }
     return m_altBases.get(index - 1);
   }
@@ -390,11 +743,23 @@ public String getAllele(int index) {
    * whose QUAL is never read do not pay to build a {@link BigDecimal}.
    */
   public void setRawQuality(@Nullable String rawQuality) {
+    checkNotFrozen();
+    changed();
     m_rawQuality = rawQuality;
     m_quality = null;
   }
 
+  /**
+   * Gets the raw QUAL column text if it was set by {@link #setRawQuality} and has not been parsed yet, without parsing
+   * it.
+   */
+  public @Nullable String getRawQuality() {
+    return m_rawQuality;
+  }
+
   public void setQuality(@Nullable BigDecimal quality) {
+    checkNotFrozen();
+    changed();
     m_quality = quality;
     m_rawQuality = null;
   }
@@ -429,7 +794,16 @@ public boolean isPassingAllFilters() {
    * {@link FilterStatus#NONE}; use {@link #getFilterStatus()} to distinguish those cases.
    */
   public List<String> getFilters() {
-    return m_filter;
+    if (unshare(FILTERS)) {
+      m_filter = new ArrayList<>(m_filter);
+    }
+    if (!isTracking()) {
+      return m_filter;
+    }
+    if (m_trackedFilters == null) {
+      m_trackedFilters = track(() -> m_filter, () -> m_filter);
+    }
+    return m_trackedFilters;
   }
 
   /**
@@ -437,8 +811,18 @@ public List<String> getFilters() {
    * never read do not pay to build the INFO multimap.
    */
   public void setRawInfo(@Nullable String rawInfo) {
+    checkNotFrozen();
+    changed();
     m_rawInfo = rawInfo;
     m_info = null;
+    m_sharedFields &= ~INFO;
+  }
+
+  /**
+   * Gets the raw INFO column text if it was set by {@link #setRawInfo} and has not been parsed yet, without parsing it.
+   */
+  public @Nullable String getRawInfo() {
+    return m_rawInfo;
   }
 
   /**
@@ -487,10 +871,27 @@ private ListMultimap<String, String> info() {
   }
 
   /**
-   * Gets all INFO fields for every key.
+   * Returns the INFO multimap as {@link #info()} does, first replacing it with a mutable copy if it is still shared
+   * with the frozen position this was copied from.
+   */
+  private ListMultimap<String, String> mutableInfo() {
+    ListMultimap<String, String> info = info();
+    if (unshare(INFO)) {
+      info = ArrayListMultimap.create(info);
+      m_info = info;
+    }
+    return info;
+  }
+
+  /**
+   * Gets all INFO fields for every key. As the multimap can be changed in many ways, this counts as a change to the
+   * position (see {@link #getRawLine()}) unless it is frozen.
    */
   public ListMultimap<String, String> getInfo() {
-    return info();
+    if (!m_frozen) {
+      changed();
+    }
+    return mutableInfo();
   }
 
   /**
@@ -500,10 +901,29 @@ public ListMultimap<String, String> getInfo() {
    */
   public @Nullable List<String> getInfo(String id) {
     ListMultimap<String, String> info = info();
-    if (info.containsKey(id)) {
+    if (!info.containsKey(id)) {
+      return null;
+    }
+    if (!isTracking() && !isShared(INFO)) {
       return info.get(id);
     }
-    return null;
+    Map<String, List<String>> tracked = m_trackedInfo;
+    if (tracked == null) {
+      tracked = new HashMap<>();
+      m_trackedInfo = tracked;
+    }
+    List<String> values = tracked.get(id);
+    if (values == null) {
+      if (isShared(INFO)) {
+        // reads the shared multimap as it is, which is copied only if the values are changed
+        values = track(() -> info().get(id), () -> mutableInfo().get(id));
+      } else {
+        List<String> list = info.get(id);
+        values = track(() -> list, () -> list);
+      }
+      tracked.put(id, values);
+    }
+    return values;
   }
 
   /**
@@ -545,11 +965,33 @@ public boolean hasInfo(ReservedInfoProperty key) {
   }
 
   public List<String> getFormat() {
-    return m_format;
+    if (unshare(FORMAT)) {
+      m_format = new ArrayList<>(m_format);
+    }
+    if (!isTracking()) {
+      return m_format;
+    }
+    if (m_trackedFormat == null) {
+      m_trackedFormat = track(() -> m_format, () -> m_format);
+    }
+    return m_trackedFormat;
   }
 
+  /**
+   * Gets the INFO keys. Removing a key removes all its values.
+   */
   public Set<String> getInfoKeys() {
-    return info().keySet();
+    if (!isTracking() && !isShared(INFO)) {
+      return info().keySet();
+    }
+    if (m_trackedInfoKeys == null) {
+      // reads the shared multimap as it is, which is copied only if a key is removed
+      m_trackedInfoKeys = new TrackingSet<>(() -> info().keySet(), () -> {
+        changed();
+        return mutableInfo().keySet();
+      });
+    }
+    return m_trackedInfoKeys;
   }
 
   /**
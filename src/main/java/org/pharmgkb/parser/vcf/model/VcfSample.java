@@ -17,6 +17,12 @@
  * their values are kept as parallel lists and read by a short linear scan. A {@link LinkedHashMap} is materialized only
  * when the sample is mutated or its keys/entries are iterated.</p>
  *
+ * <p>A sample is mutable and not thread-safe, and even reading a parsed sample may update its internal state.
+ * {@link #freeze()} makes the sample read-only, after which it can be shared between threads once safely published;
+ * its properties are materialized, unless they are read from a frozen {@link VcfSampleBlock}. {@link #snapshot()}
+ * does the same to a copy, and {@link #mutableCopy()} returns a mutable sample that shares a frozen sample's
+ * properties until it is first changed.</p>
+ *
  * @author Mark Woon
  */
 public class VcfSample {
@@ -24,8 +30,15 @@ public class VcfSample {
   // Lean representation used on the parse path; both null once m_properties has been materialized.
   private @Nullable List<String> m_keys;
   private @Nullable List<String> m_values;
+  // the block m_values is read from, if any, for getPropertyView(); null once m_properties has been materialized
+  private @Nullable VcfSampleBlock m_block;
+  private int m_blockIndex;
   // Materialized on demand (mutation / key or entry iteration), or supplied directly via the map constructor.
   private @Nullable LinkedHashMap<String, String> m_properties;
+  // true once frozen; m_properties is then materialized (unless m_block is frozen) and never changed again
+  private boolean m_frozen;
+  // true if m_properties is shared with the frozen sample this was copied from, and must be copied before any change
+  private boolean m_sharesProperties;
 
   public VcfSample(@Nullable List<String> keys, @Nullable List<String> values) {
     if (keys == null) {
@@ -48,6 +61,28 @@ public VcfSample(@Nullable List<String> keys, @Nullable List<String> values) {
     m_values = values;
   }
 
+  /**
+   * Creates a sample whose values are read from a {@link VcfSampleBlock}. The block's keys and values came from
+   * splitting a line on tabs and colons, so they are not re-checked for structural delimiters.
+   */
+  VcfSample(VcfSampleBlock block, int sampleIndex) {
+    m_keys = block.getFormat();
+    m_values = block.sampleValues(sampleIndex);
+    m_block = block;
+    m_blockIndex = sampleIndex;
+  }
+
+  /**
+   * Creates a sample with the same representation as {@code other}, sharing (not copying) its lists or map.
+   */
+  private VcfSample(VcfSample other) {
+    m_keys = other.m_keys;
+    m_values = other.m_values;
+    m_block = other.m_block;
+    m_blockIndex = other.m_blockIndex;
+    m_properties = other.m_properties;
+  }
+
   public VcfSample(LinkedHashMap<String, String> properties) {
     m_properties = properties;
     for (Map.Entry<String, String> entry : m_properties.entrySet()) {
@@ -91,7 +126,7 @@ private static void checkNoStructuralDelimiter(String key, @Nullable String valu
    * Re-validates the current properties after possible mutation through {@link #propertyEntrySet()}.
    */
   public void validate() {
-    for (Map.Entry<String, String> entry : properties().entrySet()) {
+    for (Map.Entry<String, String> entry : readProperties().entrySet()) {
       checkNoStructuralDelimiter(entry.getKey(), entry.getValue());
       if (entry.getValue() != null && entry.getValue().isEmpty()) {
         throw new VcfFormatException("Sample property " + entry.getKey() + " has an empty value");
@@ -100,20 +135,108 @@ public void validate() {
   }
 
   /**
-   * Materializes (and caches) the property map, dropping the lean parallel-list representation.
+   * Makes this sample read-only: its properties are materialized now (unless they are read from a frozen
+   * {@link VcfSampleBlock}, which is left to answer lookups), after which mutators throw
+   * {@link UnsupportedOperationException}, as does mutating the keys or entries it returns, and the sample can be
+   * read from several threads once safely published.
+   *
+   * @return this sample
+   */
+  public VcfSample freeze() {
+    if (!m_frozen) {
+      if (m_properties == null && m_block != null && m_block.isFrozen()) {
+        // the values are read from the frozen block, which no longer changes, so the map is not needed
+        m_frozen = true;
+        return this;
+      }
+      if (m_properties == null) {
+        m_properties = toMap();
+        m_keys = null;
+        m_values = null;
+        m_block = null;
+      } else if (m_sharesProperties) {
+        m_sharesProperties = false;
+      }
+      m_frozen = true;
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return m_frozen;
+  }
+
+  /**
+   * Gets a frozen copy of this sample (see {@link #freeze()}), or this sample itself if it is already frozen. Unlike
+   * {@link #freeze()}, this sample is left as it is.
+   */
+  public VcfSample snapshot() {
+    if (m_frozen) {
+      return this;
+    }
+    VcfSample snapshot = new VcfSample(this);
+    snapshot.m_properties = m_properties == null ? toMap() : new LinkedHashMap<>(m_properties);
+    snapshot.m_keys = null;
+    snapshot.m_values = null;
+    snapshot.m_block = null;
+    return snapshot.freeze();
+  }
+
+  /**
+   * Gets a mutable copy of this sample. A copy of a frozen sample shares its properties until the copy is first
+   * changed; a copy of a sample that is not frozen copies them up front (unless they have not been materialized yet,
+   * in which case the unchanged values read from the line are shared).
+   */
+  public VcfSample mutableCopy() {
+    VcfSample copy = new VcfSample(this);
+    if (m_properties != null) {
+      if (m_frozen) {
+        copy.m_sharesProperties = true;
+      } else {
+        copy.m_properties = new LinkedHashMap<>(m_properties);
+      }
+    }
+    return copy;
+  }
+
+  private LinkedHashMap<String, String> toMap() {
+    LinkedHashMap<String, String> map = new LinkedHashMap<>();
+    List<String> keys = m_keys;
+    List<String> values = m_values;
+    assert keys != null && values != null;
+    for (int x = 0; x < keys.size(); x++) {
+      map.put(keys.get(x), values.get(x));
+    }
+    return map;
+  }
+
+  /**
+   * Gets the property map for reading only, without materializing (or un-sharing) it if it can be avoided.
+   */
+  private Map<String, String> readProperties() {
+    return m_properties != null ? m_properties : toMap();
+  }
+
+  /**
+   * Materializes (and caches) the property map for changing it, dropping the lean parallel-list representation. A
+   * sample read from a {@link VcfSampleBlock} counts as changed from then on (see {@link VcfSampleBlock#isChanged}).
    */
   private LinkedHashMap<String, String> properties() {
+    if (m_frozen) {
+      throw new UnsupportedOperationException("This sample is frozen; use mutableCopy() to change it");
+    }
     if (m_properties == null) {
-      LinkedHashMap<String, String> map = new LinkedHashMap<>();
-      List<String> keys = m_keys;
-      List<String> values = m_values;
-      assert keys != null && values != null;
-      for (int x = 0; x < keys.size(); x++) {
-        map.put(keys.get(x), values.get(x));
+      if (m_block != null) {
+        // the block can no longer copy this sample's column from the line
+        m_block.sampleChanged(m_blockIndex, this);
       }
-      m_properties = map;
+      m_properties = toMap();
       m_keys = null;
       m_values = null;
+      m_block = null;
+    } else if (m_sharesProperties) {
+      m_properties = new LinkedHashMap<>(m_properties);
+      m_sharesProperties = false;
     }
     return m_properties;
   }
@@ -132,6 +255,21 @@ private LinkedHashMap<String, String> properties() {
     return null;
   }
 
+  /**
+   * Gets a property's value without necessarily creating a {@code String}: an unchanged parsed sample returns a
+   * {@link CharSlice} over the line.
+   */
+  public @Nullable CharSequence getPropertyView(String key) {
+    VcfSampleBlock block = m_block;
+    if (block != null) {
+      List<String> keys = m_keys;
+      assert keys != null;
+      int keyIndex = keys.indexOf(key);
+      return keyIndex < 0 ? null : block.getRawValueView(m_blockIndex, keyIndex);
+    }
+    return getProperty(key);
+  }
+
   /**
    * Returns the value for the reserved property as the type specified by both {@link ReservedFormatProperty#getType()}
    * and {@link ReservedFormatProperty#isList()}.
@@ -183,14 +321,21 @@ public void clearProperties() {
    */
   public Set<String> getPropertyKeys() {
     // LinkedHashMap.keySet() returns a LinkedKeySet, which has guaranteed order
+    if (m_frozen) {
+      return Collections.unmodifiableSet(readProperties().keySet());
+    }
     return properties().keySet();
   }
 
   /**
-   * @return The backing, mutable property entries. Unlike {@link #putProperty}, mutating an entry's value directly
-   * (e.g. via {@link Map.Entry#setValue}) does not check for a line terminator, colon, or tab.
+   * @return The backing, mutable property entries (read-only if this sample is frozen). Unlike {@link #putProperty},
+   * mutating an entry's value directly (e.g. via {@link Map.Entry#setValue}) does not check for a line terminator,
+   * colon, or tab.
    */
   public Set<Map.Entry<String, String>> propertyEntrySet() {
+    if (m_frozen) {
+      return Collections.unmodifiableMap(readProperties()).entrySet();
+    }
     return properties().entrySet();
   }
 }
@@ -0,0 +1,497 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * The sample columns of one VCF data line, stored column-wise.
+ *
+ * <p>Rather than a {@link VcfSample} (and two lists) per sample, a block keeps the raw line, its FORMAT keys and a
+ * single {@code int[]} holding the start and end offset into the line of every (sample, FORMAT key) cell. Values are
+ * read by sample index and key ordinal with {@link #getValue(int, int)}, cutting the value out of the line on demand,
+ * so a 10,000-sample line costs a few arrays instead of tens of thousands of objects.</p>
+ *
+ * <p>Sample columns with byte-identical text (e.g. {@code 0/0:.:.:.} or {@code ./.} in a joint-called cohort) can
+ * share a single set of offsets: each sample then maps to a distinct column, and the values of a distinct column used
+ * by more than one sample are decoded once and shared by all of them.</p>
+ *
+ * <p>For compatibility, a block is also a {@code List<VcfSample>}: {@link #get} creates (and keeps) a {@link VcfSample}
+ * for a sample the first time it is asked for, and that sample reads its values from this block until it is mutated.
+ * Samples may be replaced with {@link #set}. They may also be added or removed, which hands out every sample and
+ * keeps them in a list from then on: sample indexes then no longer match the line's columns, so every sample counts as
+ * changed, and the methods that read a column as parsed ({@link #appendRawColumn}, {@link #isFilledIn(int)} and
+ * {@link #getDistinctColumnIndex}) still take the index a sample had when the line was parsed.</p>
+ *
+ * <p>A block keeps track of which samples have been changed (or replaced) since the line was parsed, so that a writer
+ * can copy the columns of the others straight from the line with {@link #appendRawColumn}, unless a value had to be
+ * filled in ({@link #isFilledIn(int)}).</p>
+ *
+ * <p>Like {@link VcfSample}, a block updates its internal state on first reads; {@link #freeze()} makes it read-only
+ * and safe to share between threads.</p>
+ */
+public final class VcfSampleBlock extends AbstractList<VcfSample> implements RandomAccess {
+  /** Offset used for both ends of a cell that holds the missing value (a dropped or zero-length field). */
+  public static final int MISSING = -1;
+  private static final String MISSING_VALUE = ".";
+
+  private final String m_line;
+  private final List<String> m_format;
+  private final int m_numSamples;
+  // sample index -> distinct column index; null if every sample column is distinct
+  private final int @Nullable [] m_sampleColumns;
+  private final int m_numColumns;
+  // cell (distinct column c, key k) is m_line[m_bounds[2 * (c * numKeys + k)], m_bounds[2 * (c * numKeys + k) + 1])
+  private final int[] m_bounds;
+  // decoded values of distinct columns shared by more than one sample; allocated on first use
+  private @Nullable List<String> @Nullable [] m_sharedValues;
+  private boolean @Nullable [] m_isShared;
+  // samples handed out by get() or replaced by set(); allocated on first use
+  private @Nullable VcfSample @Nullable [] m_samples;
+  // samples changed through get() or replaced by set(); allocated on first change
+  private boolean @Nullable [] m_changed;
+  private int m_numChanged;
+  // every sample, once one has been added or removed
+  private @Nullable List<VcfSample> m_resized;
+  private boolean m_frozen;
+
+
+  /**
+   * @param line The raw data line the offsets point into
+   * @param format The FORMAT keys, in order
+   * @param numSamples The number of samples
+   * @param bounds The start (inclusive) and end (exclusive) offset into {@code line} of every cell, sample by sample
+   * and key by key within a sample; both are {@link #MISSING} for a cell holding the missing value {@code "."}.
+   * Not copied.
+   */
+  public VcfSampleBlock(String line, List<String> format, int numSamples, int[] bounds) {
+    this(line, format, numSamples, null, numSamples, bounds);
+  }
+
+  /**
+   * @param line The raw data line the offsets point into
+   * @param format The FORMAT keys, in order
+   * @param numSamples The number of samples
+   * @param sampleColumns The distinct column each sample's values are read from, or null if every sample has its own;
+   * not copied
+   * @param numColumns The number of distinct columns
+   * @param bounds The start (inclusive) and end (exclusive) offset into {@code line} of every cell, distinct column by
+   * distinct column and key by key within a column; both are {@link #MISSING} for a cell holding the missing value
+   * {@code "."}. Not copied.
+   */
+  public VcfSampleBlock(String line, List<String> format, int numSamples, int @Nullable [] sampleColumns,
+      int numColumns, int[] bounds) {
+    if (bounds.length != 2 * numColumns * format.size()) {
+      throw new IllegalArgumentException("Expected " + (2 * numColumns * format.size()) + " offsets for " +
+          numColumns + " column(s) and " + format.size() + " FORMAT key(s) but got " + bounds.length);
+    }
+    if (sampleColumns == null ? numColumns != numSamples : sampleColumns.length != numSamples) {
+      throw new IllegalArgumentException("Expected a distinct column for each of " + numSamples + " sample(s)");
+    }
+    if (sampleColumns != null) {
+      for (int column : sampleColumns) {
+        if (column < 0 || column >= numColumns) {
+          throw new IllegalArgumentException("Distinct column " + column + " out of bounds for " + numColumns +
+              " column(s)");
+        }
+      }
+    }
+    m_line = line;
+    m_format = List.copyOf(format);
+    m_numSamples = numSamples;
+    m_sampleColumns = sampleColumns;
+    m_numColumns = numColumns;
+    m_bounds = bounds;
+  }
+
+
+  /**
+   * @return The raw data line this block reads from
+   */
+  public String getLine() {
+    return m_line;
+  }
+
+  /**
+   * @return The FORMAT keys, in order (unmodifiable)
+   */
+  public List<String> getFormat() {
+    return m_format;
+  }
+
+  /**
+   * @return The number of distinct sample columns; samples whose column text is identical may share one
+   */
+  public int getNumDistinctColumns() {
+    return m_numColumns;
+  }
+
+  /**
+   * @return The distinct column the sample's values are read from; samples with the same distinct column had identical
+   * column text
+   */
+  public int getDistinctColumnIndex(int sampleIndex) {
+    checkSampleIndex(sampleIndex);
+    return m_sampleColumns == null ? sampleIndex : m_sampleColumns[sampleIndex];
+  }
+
+  /**
+   * @return The ordinal of {@code key} in FORMAT, or {@code -1} if it is not present
+   */
+  public int getKeyIndex(String key) {
+    return m_format.indexOf(key);
+  }
+
+  /**
+   * Gets the value of a single cell, reflecting any change made to the sample through {@link #get}.
+   *
+   * @param sampleIndex The sample index, starting at 0
+   * @param keyIndex The FORMAT key ordinal, starting at 0
+   */
+  public @Nullable String getValue(int sampleIndex, int keyIndex) {
+    VcfSample sample = handedOut(sampleIndex);
+    if (sample != null) {
+      return sample.getProperty(m_format.get(keyIndex));
+    }
+    return getRawValue(sampleIndex, keyIndex);
+  }
+
+  /**
+   * @return The value, or null if {@code key} is not a FORMAT key of this line
+   */
+  public @Nullable String getValue(int sampleIndex, String key) {
+    int keyIndex = getKeyIndex(key);
+    if (keyIndex < 0) {
+      VcfSample sample = handedOut(sampleIndex);
+      return sample == null ? null : sample.getProperty(key);
+    }
+    return getValue(sampleIndex, keyIndex);
+  }
+
+  /**
+   * Gets the value of a single cell as {@link #getValue(int, int)} does, but without necessarily creating a
+   * {@code String}: an unchanged cell is returned as a {@link CharSlice} over the line.
+   */
+  public @Nullable CharSequence getValueView(int sampleIndex, int keyIndex) {
+    VcfSample sample = handedOut(sampleIndex);
+    if (sample != null) {
+      return sample.getPropertyView(m_format.get(keyIndex));
+    }
+    return getRawValueView(sampleIndex, keyIndex);
+  }
+
+  private @Nullable VcfSample handedOut(int sampleIndex) {
+    if (m_resized != null) {
+      return m_resized.get(sampleIndex);
+    }
+    return m_samples == null ? null : m_samples[checkSampleIndex(sampleIndex)];
+  }
+
+  /**
+   * Gets the value of a single cell as parsed from the line, as a {@link CharSlice} unless it has already been decoded.
+   */
+  CharSequence getRawValueView(int sampleIndex, int keyIndex) {
+    if (keyIndex < 0 || keyIndex >= m_format.size()) {
+      throw new IndexOutOfBoundsException("Key index " + keyIndex + " out of bounds for " + m_format.size() +
+          " FORMAT key(s)");
+    }
+    int column = getDistinctColumnIndex(sampleIndex);
+    if (m_sharedValues != null && m_sharedValues[column] != null) {
+      return m_sharedValues[column].get(keyIndex);
+    }
+    int cell = 2 * (column * m_format.size() + keyIndex);
+    int start = m_bounds[cell];
+    return start == MISSING ? MISSING_VALUE : new CharSlice(m_line, start, m_bounds[cell + 1]);
+  }
+
+  /**
+   * Gets the value of a single cell as parsed from the line, ignoring changes made through {@link #get}.
+   */
+  String getRawValue(int sampleIndex, int keyIndex) {
+    if (keyIndex < 0 || keyIndex >= m_format.size()) {
+      throw new IndexOutOfBoundsException("Key index " + keyIndex + " out of bounds for " + m_format.size() +
+          " FORMAT key(s)");
+    }
+    int column = getDistinctColumnIndex(sampleIndex);
+    if (isShared(column)) {
+      return sharedValues(column).get(keyIndex);
+    }
+    return decode(column, keyIndex);
+  }
+
+  /**
+   * Appends a sample's column as parsed from the line (its values joined by colons, with the missing value {@code "."}
+   * for a dropped or zero-length field), ignoring changes made through {@link #get} or {@link #set}.
+   */
+  public void appendRawColumn(int sampleIndex, StringBuilder sb) {
+    int column = getDistinctColumnIndex(sampleIndex);
+    int numKeys = m_format.size();
+    for (int k = 0; k < numKeys; k++) {
+      if (k > 0) {
+        sb.append(':');
+      }
+      int cell = 2 * (column * numKeys + k);
+      int start = m_bounds[cell];
+      if (start == MISSING) {
+        sb.append(MISSING_VALUE);
+      } else {
+        sb.append(m_line, start, m_bounds[cell + 1]);
+      }
+    }
+  }
+
+  /**
+   * @return Whether any of the sample's values was filled in with the missing value {@code "."} when the line was
+   * parsed (a dropped or zero-length field), so that its column text is not what {@link #appendRawColumn} writes
+   */
+  public boolean isFilledIn(int sampleIndex) {
+    int column = getDistinctColumnIndex(sampleIndex);
+    int numKeys = m_format.size();
+    for (int cell = column * numKeys; cell < (column + 1) * numKeys; cell++) {
+      if (m_bounds[2 * cell] == MISSING) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether any sample's values were filled in when the line was parsed (see {@link #isFilledIn(int)})
+   */
+  public boolean isFilledIn() {
+    for (int x = 0; x < m_bounds.length; x += 2) {
+      if (m_bounds[x] == MISSING) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return Whether the sample has been changed through {@link #get}, or replaced by {@link #set}, since the line was
+   * parsed; a sample handed out by {@link #get} counts as changed once it materializes its properties (see
+   * {@link VcfSample#getPropertyKeys()}). Once a sample has been added or removed, every sample counts as changed.
+   */
+  public boolean isChanged(int sampleIndex) {
+    if (m_resized != null) {
+      Objects.checkIndex(sampleIndex, m_resized.size());
+      return true;
+    }
+    checkSampleIndex(sampleIndex);
+    return m_changed != null && m_changed[sampleIndex];
+  }
+
+  /**
+   * @return Whether any sample has been changed, replaced, added or removed since the line was parsed (see
+   * {@link #isChanged(int)})
+   */
+  public boolean isChanged() {
+    return m_numChanged > 0 || m_resized != null;
+  }
+
+  /**
+   * Called by a sample this block handed out before it is first changed.
+   */
+  void sampleChanged(int sampleIndex, VcfSample sample) {
+    if (m_samples != null && m_samples[sampleIndex] == sample) {
+      markChanged(sampleIndex);
+    }
+  }
+
+  private void markChanged(int sampleIndex) {
+    if (m_changed == null) {
+      m_changed = new boolean[m_numSamples];
+    }
+    if (!m_changed[sampleIndex]) {
+      m_changed[sampleIndex] = true;
+      m_numChanged++;
+    }
+  }
+
+  /**
+   * The values of one sample, in FORMAT order, read from the line.
+   */
+  List<String> sampleValues(int sampleIndex) {
+    int column = getDistinctColumnIndex(sampleIndex);
+    if (isShared(column)) {
+      return sharedValues(column);
+    }
+    return new AbstractList<>() {
+      @Override
+      public String get(int keyIndex) {
+        return decode(column, keyIndex);
+      }
+
+      @Override
+      public int size() {
+        return m_format.size();
+      }
+    };
+  }
+
+  private String decode(int column, int keyIndex) {
+    int cell = 2 * (column * m_format.size() + keyIndex);
+    int start = m_bounds[cell];
+    return start == MISSING ? MISSING_VALUE : m_line.substring(start, m_bounds[cell + 1]);
+  }
+
+  private boolean isShared(int column) {
+    if (m_sampleColumns == null) {
+      return false;
+    }
+    if (m_isShared == null) {
+      boolean[] seen = new boolean[m_numColumns];
+      boolean[] shared = new boolean[m_numColumns];
+      for (int c : m_sampleColumns) {
+        shared[c] = seen[c];
+        seen[c] = true;
+      }
+      m_isShared = shared;
+    }
+    return m_isShared[column];
+  }
+
+  /**
+   * Decodes (once) the values of a distinct column shared by more than one sample.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private List<String> sharedValues(int column) {
+    if (m_sharedValues == null) {
+      m_sharedValues = new List[m_numColumns];
+    }
+    List<String> values = m_sharedValues[column];
+    if (values == null) {
+      String[] decoded = new String[m_format.size()];
+      for (int k = 0; k < decoded.length; k++) {
+        decoded[k] = decode(column, k);
+      }
+      values = List.of(decoded);
+      m_sharedValues[column] = values;
+    }
+    return values;
+  }
+
+  /**
+   * Makes this block read-only: shared values are decoded now, every sample already handed out by {@link #get} is
+   * {@link VcfSample#freeze() frozen}, and {@link #set}, {@link #add} and {@link #remove} throw
+   * {@link UnsupportedOperationException}. Afterwards, {@link #get} returns a new frozen sample for a sample that was
+   * not handed out before, which reads its values from the block rather than copying them into a map, and the block can
+   * be read from several threads once safely published.
+   *
+   * @return this block
+   */
+  public VcfSampleBlock freeze() {
+    if (!m_frozen) {
+      for (int c = 0; c < m_numColumns; c++) {
+        if (isShared(c)) {
+          sharedValues(c);
+        }
+      }
+      m_frozen = true;
+      if (m_resized != null) {
+        for (VcfSample sample : m_resized) {
+          sample.freeze();
+        }
+        m_resized = Collections.unmodifiableList(m_resized);
+      }
+      // once the block is frozen, a sample that is unchanged keeps reading its values from it
+      if (m_samples != null) {
+        for (VcfSample sample : m_samples) {
+          if (sample != null) {
+            sample.freeze();
+          }
+        }
+      }
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return m_frozen;
+  }
+
+  @Override
+  public VcfSample get(int index) {
+    if (m_resized != null) {
+      return m_resized.get(index);
+    }
+    checkSampleIndex(index);
+    if (m_frozen) {
+      VcfSample sample = m_samples == null ? null : m_samples[index];
+      return sample != null ? sample : new VcfSample(this, index).freeze();
+    }
+    if (m_samples == null) {
+      m_samples = new VcfSample[m_numSamples];
+    }
+    VcfSample sample = m_samples[index];
+    if (sample == null) {
+      sample = new VcfSample(this, index);
+      m_samples[index] = sample;
+    }
+    return sample;
+  }
+
+  @Override
+  public VcfSample set(int index, VcfSample sample) {
+    if (m_frozen) {
+      throw new UnsupportedOperationException("This block is frozen");
+    }
+    if (m_resized != null) {
+      return m_resized.set(index, sample);
+    }
+    VcfSample previous = get(index);
+    m_samples[index] = sample;
+    if (sample != previous) {
+      markChanged(index);
+    }
+    return previous;
+  }
+
+  @Override
+  public void add(int index, VcfSample sample) {
+    resized().add(index, sample);
+    modCount++;
+  }
+
+  @Override
+  public VcfSample remove(int index) {
+    VcfSample removed = resized().remove(index);
+    modCount++;
+    return removed;
+  }
+
+  /**
+   * @return The list of every sample, handing them all out the first time a sample is added or removed
+   */
+  private List<VcfSample> resized() {
+    if (m_frozen) {
+      throw new UnsupportedOperationException("This block is frozen");
+    }
+    if (m_resized == null) {
+      List<VcfSample> samples = new ArrayList<>(m_numSamples + 1);
+      for (int x = 0; x < m_numSamples; x++) {
+        samples.add(get(x));
+      }
+      m_resized = samples;
+    }
+    return m_resized;
+  }
+
+  @Override
+  public int size() {
+    return m_resized != null ? m_resized.size() : m_numSamples;
+  }
+
+  private int checkSampleIndex(int sampleIndex) {
+    if (sampleIndex < 0 || sampleIndex >= m_numSamples) {
+      throw new IndexOutOfBoundsException("Sample index " + sampleIndex + " out of bounds for " + m_numSamples +
+          " sample(s)");
+    }
+    return sampleIndex;
+  }
+}
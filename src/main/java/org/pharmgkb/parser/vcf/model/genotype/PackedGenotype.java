@@ -0,0 +1,359 @@
+package org.pharmgkb.parser.vcf.model.genotype;
+
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+import org.pharmgkb.parser.vcf.VcfFormatException;
+import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+
+/**
+ * A GT call (e.g. {@code 0|1} or {@code 0/0/1}) held as allele indexes and per-allele phasing rather than as allele
+ * strings, for any ploidy.
+ * <p>
+ * GT text is read by a hand-written scanner (no regular expressions and, for the common case, no allocation beyond
+ * this object). A call with a ploidy of at most {@value #MAX_PACKED_PLOIDY} and allele indexes no greater than
+ * {@value #MAX_PACKED_INDEX} is packed into a single {@code long}; see {@link #pack(CharSequence)} to work with that
+ * {@code long} directly. Anything larger falls back to an {@code int[]}.
+ * <p>
+ * Alleles are only resolved against a {@link VcfPosition} when asked, via {@link #getAllele} or
+ * {@link #toVcfGenotype}.
+ * <p>
+ * Phasing is tracked per allele: allele {@code i > 0} is phased if the separator before it is {@code |}. The first
+ * allele is never phased. {@link #isPhased()} is true only if every separator is {@code |}, and is vacuously true for
+ * a haploid call.
+ */
+public final class PackedGenotype {
+
+  /** The allele index reported for a missing allele ({@code .}). */
+  public static final int MISSING = -1;
+  /** Returned by {@link #pack(CharSequence)} for a valid call that does not fit into a {@code long}. */
+  public static final long NOT_PACKABLE = -1L;
+  public static final int MAX_PACKED_PLOIDY = 4;
+  public static final int MAX_PACKED_INDEX = 16382;
+
+  /*
+   * Packed layout (bit 63 is always 0, so a packed call is never NOT_PACKABLE):
+   *   bits 0-2                  ploidy (1-4)
+   *   bits 3+15i to 17+15i      allele i: lowest bit is its phase bit, the remaining 14 bits are index + 1
+   *                             (0 = missing)
+   */
+  private static final int sf_ploidyBits = 3;
+  private static final int sf_alleleBits = 15;
+  private static final long sf_ploidyMask = (1L << sf_ploidyBits) - 1;
+  private static final long sf_alleleMask = (1L << sf_alleleBits) - 1;
+
+  private final long m_packed;
+  // fallback for calls that cannot be packed (both null when m_packed is used)
+  private final int @Nullable [] m_alleles;
+  private final boolean @Nullable [] m_phased;
+
+
+  private PackedGenotype(long packed, int @Nullable [] alleles, boolean @Nullable [] phased) {
+    m_packed = packed;
+    m_alleles = alleles;
+    m_phased = phased;
+  }
+
+  /**
+   * @param gt A GT value like {@code 0/1}, {@code 1|2}, {@code .} or {@code 0/0/1}
+   * @throws VcfFormatException If {@code gt} is not a valid GT value
+   */
+  public static PackedGenotype parse(CharSequence gt) {
+    long packed = pack(gt);
+    if (packed != NOT_PACKABLE) {
+      return new PackedGenotype(packed, null, null);
+    }
+    // pack() has already validated the text, so this only needs to split it
+    int ploidy = 1;
+    for (int x = 0; x < gt.length(); x++) {
+      if (isSeparator(gt.charAt(x))) {
+        ploidy++;
+      }
+    }
+    int[] alleles = new int[ploidy];
+    boolean[] phased = new boolean[ploidy];
+    int allele = 0;
+    int index = MISSING;
+    for (int x = 0; x <= gt.length(); x++) {
+      char c = x < gt.length() ? gt.charAt(x) : '/';
+      if (isSeparator(c)) {
+        alleles[allele++] = index;
+        if (allele < ploidy) {
+          phased[allele] = c == '|';
+        }
+        index = MISSING;
+      } else if (c != '.') {
+        index = (index == MISSING ? 0 : index * 10) + (c - '0');
+      }
+    }
+    return new PackedGenotype(NOT_PACKABLE, alleles, phased);
+  }
+
+  /**
+   * @return The packed genotype for the sample's GT, or null if the sample has no GT
+   * @throws VcfFormatException If the sample's GT is not a valid GT value
+   */
+  public static @Nullable PackedGenotype fromVcf(VcfSample sample) {
+    String gt = sample.getProperty(ReservedFormatProperty.Genotype.getId());
+    if (gt == null) {
+      return null;
+    }
+    return parse(gt);
+  }
+
+  /**
+   * Scans a GT value into a single {@code long}, without allocating. Use {@link #ploidy(long)},
+   * {@link #alleleIndex(long, int)}, {@link #isPhased(long, int)} and {@link #isPhased(long)} to read it.
+   *
+   * @param gt A GT value like {@code 0/1}, {@code 1|2}, {@code .} or {@code 0/0/1}
+   * @return The packed call, or {@link #NOT_PACKABLE} if {@code gt} is valid but has a ploidy greater than
+   * {@value #MAX_PACKED_PLOIDY} or an allele index greater than {@value #MAX_PACKED_INDEX}
+   * @throws VcfFormatException If {@code gt} is not a valid GT value
+   */
+  public static long pack(CharSequence gt) {
+    int length = gt.length();
+    long packed = 0;
+    boolean packable = true;
+    int ploidy = 0;
+    int phase = 0;
+    int pos = 0;
+    while (true) {
+      if (pos >= length) {
+        // empty GT, or an empty allele after a trailing separator
+        throw invalid(gt);
+      }
+      int index;
+      char c = gt.charAt(pos);
+      if (c == '.') {
+        index = MISSING;
+        pos++;
+      } else if (c >= '0' && c <= '9') {
+        int start = pos;
+        long value = 0;
+        while (pos < length && (c = gt.charAt(pos)) >= '0' && c <= '9') {
+          if (pos - start < 18) {
+            value = value * 10 + (c - '0');
+          }
+          pos++;
+        }
+        if (pos - start > 18 || value > Integer.MAX_VALUE) {
+          throw new VcfFormatException("Allele index " + gt.subSequence(start, pos) + " is not a number");
+        }
+        index = (int)value;
+      } else {
+        throw invalid(gt);
+      }
+
+      ploidy++;
+      if (packable) {
+        if (ploidy > MAX_PACKED_PLOIDY || index > MAX_PACKED_INDEX) {
+          packable = false;
+        } else {
+          packed |= ((long)(index + 1) << 1 | phase) << (sf_ploidyBits + sf_alleleBits * (ploidy - 1));
+        }
+      }
+
+      if (pos == length) {
+        break;
+      }
+      c = gt.charAt(pos);
+      if (c == '|') {
+        phase = 1;
+      } else if (c == '/') {
+        phase = 0;
+      } else {
+        throw invalid(gt);
+      }
+      pos++;
+    }
+    return packable ? packed | ploidy : NOT_PACKABLE;
+  }
+
+  /**
+   * @return The ploidy of a call packed by {@link #pack(CharSequence)}
+   */
+  public static int ploidy(long packed) {
+    return (int)(packed & sf_ploidyMask);
+  }
+
+  /**
+   * @return The allele index at {@code allele} of a call packed by {@link #pack(CharSequence)}, or {@link #MISSING}
+   * @throws IndexOutOfBoundsException If {@code allele} is not less than the call's ploidy
+   */
+  public static int alleleIndex(long packed, int allele) {
+    return (int)(packedAllele(packed, allele) >>> 1) - 1;
+  }
+
+  /**
+   * @return Whether the allele at {@code allele} of a call packed by {@link #pack(CharSequence)} is phased with the
+   * allele before it
+   * @throws IndexOutOfBoundsException If {@code allele} is not less than the call's ploidy
+   */
+  public static boolean isPhased(long packed, int allele) {
+    return (packedAllele(packed, allele) & 1) != 0;
+  }
+
+  /**
+   * @return Whether every separator in a call packed by {@link #pack(CharSequence)} is {@code |}
+   */
+  public static boolean isPhased(long packed) {
+    int ploidy = ploidy(packed);
+    for (int x = 1; x < ploidy; x++) {
+      if (!isPhased(packed, x)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long packedAllele(long packed, int allele) {
+    if (allele < 0 || allele >= ploidy(packed)) {
+      throw new IndexOutOfBoundsException("Allele " + allele + " is out of range for ploidy " + ploidy(packed));
+    }
+    return (packed >>> (sf_ploidyBits + sf_alleleBits * allele)) & sf_alleleMask;
+  }
+
+
+  public int getPloidy() {
+    return m_alleles == null ? ploidy(m_packed) : m_alleles.length;
+  }
+
+  /**
+   * @return The allele index (0 for REF, 1 for the first ALT, ...) of the {@code allele}-th allele in this call, or
+   * {@link #MISSING} if it is {@code .}
+   * @throws IndexOutOfBoundsException If {@code allele} is not less than {@link #getPloidy()}
+   */
+  public int getAlleleIndex(int allele) {
+    if (m_alleles == null) {
+      return alleleIndex(m_packed, allele);
+    }
+    return m_alleles[allele];
+  }
+
+  /**
+   * @return Whether the {@code allele}-th allele is phased with the allele before it; always false for the first allele
+   * @throws IndexOutOfBoundsException If {@code allele} is not less than {@link #getPloidy()}
+   */
+  public boolean isPhased(int allele) {
+    if (m_phased == null) {
+      return isPhased(m_packed, allele);
+    }
+    return m_phased[allele];
+  }
+
+  /**
+   * @return True if every separator in this call is {@code |}; true for a haploid call
+   */
+  public boolean isPhased() {
+    for (int x = 1; x < getPloidy(); x++) {
+      if (!isPhased(x)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return True if every allele is missing (e.g. {@code .} or {@code ./.})
+   */
+  public boolean isNoCall() {
+    for (int x = 0; x < getPloidy(); x++) {
+      if (getAlleleIndex(x) != MISSING) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resolves the {@code allele}-th allele against {@code position}.
+   *
+   * @return The allele, or null if it is missing
+   * @throws VcfFormatException If the allele index is out of range for {@code position}
+   */
+  public @Nullable VcfAllele getAllele(VcfPosition position, int allele) {
+    int index = getAlleleIndex(allele);
+    if (index == MISSING) {
+      return null;
+    }
+    if (index > position.getAltBases().size()) {
+      throw new VcfFormatException("Allele index " + index + " is out of range: It should be between 0 " +
+          "and " + position.getAltBases().size() + ", inclusive");
+    }
+    return VcfAllele.of(position.getAllele(index));
+  }
+
+  /**
+   * Materializes this call as a {@link VcfGenotype}, following the same conventions as
+   * {@link VcfGenotype#fromNumberString}: a haploid call becomes a phased homozygous genotype, and a homozygous call
+   * is treated as phased.
+   *
+   * @throws VcfFormatException If this call is neither haploid nor diploid, or if an allele index is out of range for
+   * {@code position}
+   */
+  public VcfGenotype toVcfGenotype(VcfPosition position) {
+    int ploidy = getPloidy();
+    if (ploidy == 1) {
+      VcfAllele allele = getAllele(position, 0);
+      return new VcfGenotype(allele, allele, true);
+    }
+    if (ploidy != 2) {
+      throw new VcfFormatException("Genotype " + this + " is invalid");
+    }
+    VcfAllele allele1 = getAllele(position, 0);
+    VcfAllele allele2 = getAllele(position, 1);
+    // A/A -> A|A:
+    boolean isPhased = allele1 != null && allele1.equals(allele2) || isPhased(1);
+    return new VcfGenotype(allele1, allele2, isPhased);
+  }
+
+  /**
+   * @return This call as GT text, e.g. {@code 0|1}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int x = 0; x < getPloidy(); x++) {
+      if (x > 0) {
+        sb.append(isPhased(x) ? '|' : '/');
+      }
+      int index = getAlleleIndex(x);
+      if (index == MISSING) {
+        sb.append('.');
+      } else {
+        sb.append(index);
+      }
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PackedGenotype g)) {
+      return false;
+    }
+    if (m_alleles == null && g.m_alleles == null) {
+      return m_packed == g.m_packed;
+    }
+    return Arrays.equals(m_alleles, g.m_alleles) && Arrays.equals(m_phased, g.m_phased);
+  }
+
+  @Override
+  public int hashCode() {
+    return m_alleles == null ? Long.hashCode(m_packed) : 31 * Arrays.hashCode(m_alleles) + Arrays.hashCode(m_phased);
+  }
+
+
+  private static boolean isSeparator(char c) {
+    return c == '|' || c == '/';
+  }
+
+  private static VcfFormatException invalid(CharSequence gt) {
+    return new VcfFormatException("Genotype " + gt + " is invalid");
+  }
+}
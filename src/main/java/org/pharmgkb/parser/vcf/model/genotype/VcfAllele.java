@@ -1,5 +1,7 @@
 package org.pharmgkb.parser.vcf.model.genotype;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.errorprone.annotations.Immutable;
 import org.jspecify.annotations.Nullable;
 import org.pharmgkb.parser.vcf.VcfFormatException;
@@ -15,12 +17,29 @@
  *     <li>]34]ATGC</li>
  *     <li>]34:55]&lt;IDxx&gt;</li>
  * </ul>
+ * <p>
+ * Prefer {@link #of(String)} over the constructor when building many alleles (e.g. one per sample): it returns shared
+ * instances instead of allocating and re-validating each one.
  *
  * @author Douglas Myers-Turnbull
  */
 @Immutable
 public class VcfAllele {
 
+  // alleles longer than this are rarely repeated, so they are not worth caching
+  private static final int sf_maxCachedLength = 32;
+  private static final int sf_cacheSize = 4096;
+  // every valid single-character allele, indexed by that character
+  private static final VcfAllele[] sf_singleCharacterAlleles = new VcfAllele[128];
+  static {
+    for (char c : "ACGTNacgtn*.".toCharArray()) {
+      sf_singleCharacterAlleles[c] = new VcfAllele(String.valueOf(c));
+    }
+  }
+  private static final Cache<String, VcfAllele> sf_cache = CacheBuilder.newBuilder()
+      .maximumSize(sf_cacheSize)
+      .build();
+
   private final String m_string;
 
   /**
@@ -33,6 +52,34 @@ public VcfAllele(String string) {
     m_string = string;
   }
 
+  /**
+   * Returns a shared {@link VcfAllele} for {@code string}. Single-base alleles (as well as {@code *} and {@code .})
+   * come from a static table; other short alleles come from a bounded cache, so an allele that repeats across samples
+   * or positions is only validated once.
+   *
+   * @param string A string following the VCF specification for the REF or ALT columns
+   * @throws VcfFormatException If {@code string} does not look like an allele
+   */
+  public static VcfAllele of(String string) {
+    if (string.length() == 1) {
+      char c = string.charAt(0);
+      if (c < sf_singleCharacterAlleles.length && sf_singleCharacterAlleles[c] != null) {
+        return sf_singleCharacterAlleles[c];
+      }
+      // not a valid allele; let the constructor throw
+      return new VcfAllele(string);
+    }
+    if (string.length() > sf_maxCachedLength) {
+      return new VcfAllele(string);
+    }
+    VcfAllele allele = sf_cache.getIfPresent(string);
+    if (allele == null) {
+      allele = new VcfAllele(string);
+      sf_cache.put(string, allele);
+    }
+    return allele;
+  }
+
   /**
    * @return The allele string from the constructor
    */
@@ -19,7 +19,7 @@
  * <p>
  * <strong>Note:</strong> this class models at most two alleles and does not support arbitrary (polyploid) ploidy, even
  * though VCF 4.2 permits it (e.g. a triploid {@code 0/0/1}); parsing such a genotype throws {@link VcfFormatException}.
- * The file parser preserves a polyploid GT as raw sample data instead.
+ * The file parser preserves a polyploid GT as raw sample data instead; use {@link PackedGenotype} to read it.
  * <p>
  * For example:
  * <ul>
@@ -44,8 +44,6 @@ public class VcfGenotype {
   private static final String sf_unphasedDelimiter = "/";
   private static final Pattern sf_genotypePattern = Pattern.compile('(' + VcfUtils.ALT_BASE_PATTERN.pattern() + ")" +
       "[|/](" + VcfUtils.ALT_BASE_PATTERN.pattern() + ')');
-  private static final Pattern sf_digitPattern = Pattern.compile("(\\d+|\\.)");
-  private static final Pattern sf_numberPattern = Pattern.compile(sf_digitPattern + "[|/]" + sf_digitPattern);
 
   private final @Nullable VcfAllele m_allele1;
 
@@ -66,8 +64,8 @@ public static VcfGenotype fromString(String genotype) {
     if (matcher.matches() && !matcher.group(1).isEmpty() && !matcher.group(2).isEmpty()) {
       String allele1 = matcher.group(1);
       String allele2 = matcher.group(2);
-      VcfAllele vcfAllele1 = allele1.equals(sf_noData) ? null : new VcfAllele(allele1);
-      VcfAllele vcfAllele2 = allele2.equals(sf_noData) ? null : new VcfAllele(allele2);
+      VcfAllele vcfAllele1 = allele1.equals(sf_noData) ? null : VcfAllele.of(allele1);
+      VcfAllele vcfAllele2 = allele2.equals(sf_noData) ? null : VcfAllele.of(allele2);
       // A/A -> A|A:
       boolean isPhased = !allele1.equals(sf_noData) && allele1.equals(allele2) || genotype.contains(sf_phasedDelimiter);
       return new VcfGenotype(vcfAllele1, vcfAllele2, isPhased);
@@ -76,7 +74,8 @@ public static VcfGenotype fromString(String genotype) {
         return new VcfGenotype(null, null, true);
       }
       // the choice of isPhased=true is weird here but really means "phasing is resolved"
-      return new VcfGenotype(new VcfAllele(genotype), new VcfAllele(genotype), true);
+      VcfAllele allele = VcfAllele.of(genotype);
+      return new VcfGenotype(allele, allele, true);
     }
     throw new VcfFormatException("Genotype " + genotype + " is invalid");
   }
@@ -98,30 +97,10 @@ public static VcfGenotype fromVcf(VcfPosition position, VcfSample sample) {
   /**
    * @param genotype A string like 0/1
    * @return The genotype, or null if GT is null
+   * @see PackedGenotype
    */
   public static VcfGenotype fromNumberString(VcfPosition position, String genotype) {
-
-    Matcher matcher = sf_numberPattern.matcher(genotype);
-
-    if (matcher.matches() && !matcher.group(1).isEmpty() && !matcher.group(2).isEmpty()) {
-
-      String allele1 = getAlleleFromIndex(position, matcher.group(1)); // null if dot
-      String allele2 = getAlleleFromIndex(position, matcher.group(2)); // null if dot
-
-      VcfAllele vcfAllele1 = allele1==null? null : new VcfAllele(allele1);
-      VcfAllele vcfAllele2 = allele2==null? null : new VcfAllele(allele2);
-      // A/A -> A|A:
-      boolean isPhased = allele1 != null && allele1.equals(allele2) || genotype.contains(sf_phasedDelimiter);
-
-      return new VcfGenotype(vcfAllele1, vcfAllele2, isPhased);
-
-    } else if (sf_digitPattern.matcher(genotype).matches()) {
-      String allele = getAlleleFromIndex(position, genotype); // null if dot
-      VcfAllele vcfAllele = allele==null? null : new VcfAllele(allele);
-      return new VcfGenotype(vcfAllele, vcfAllele, true);
-    }
-
-    throw new VcfFormatException("Genotype " + genotype + " is invalid");
+    return PackedGenotype.parse(genotype).toVcfGenotype(position);
   }
 
   /**
@@ -225,26 +204,4 @@ public boolean equals(@Nullable Object o) {
   public int hashCode() {
     return Objects.hash(m_isPhased, m_allele1, m_allele2);
   }
-
-  @Nullable
-  private static String getAlleleFromIndex(VcfPosition position, String indexString) {
-    if (indexString.equals(sf_noData)) {
-      return null;
-    }
-    int index;
-    try {
-      index = Integer.parseInt(indexString);
-    } catch (NumberFormatException e) {
-      throw new VcfFormatException("Allele index " + indexString + " is not a number");
-    }
-    if (index < 0 || index > position.getAltBases().size()) {
-      throw new VcfFormatException("Allele index " + indexString + " is out of range: It should be between 0 " +
-          "and " + position.getAltBases().size() + ", inclusive");
-    }
-    if (index == 0) {
-      return position.getRef();
-    } else {
-      return position.getAltBases().get(index - 1);
-    }
-  }
 }
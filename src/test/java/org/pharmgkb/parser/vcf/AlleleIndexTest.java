@@ -0,0 +1,100 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link AlleleIndex}.
+ */
+public class AlleleIndexTest {
+  private static final long sf_locus = 10;
+
+  private final List<VcfPosition> m_positions = new ArrayList<>();
+
+
+  private int add(String ref, String... alts) {
+    m_positions.add(new VcfPosition("chr1", sf_locus, null, ref, List.of(alts), null, null, null, null));
+    return m_positions.size() - 1;
+  }
+
+  private int get(AlleleIndex index, String ref, String... alts) {
+    return index.get(sf_locus, sf_locus, "chr1", ref, List.of(alts), m_positions);
+  }
+
+  private List<Integer> chain(AlleleIndex index, int first) {
+    List<Integer> records = new ArrayList<>();
+    for (int record = first; record >= 0; record = index.next(record)) {
+      records.add(record);
+    }
+    return records;
+  }
+
+
+  @Test
+  public void testChain() {
+    AlleleIndex index = new AlleleIndex();
+    int first = index.put(sf_locus, -1, add("A", "T"), m_positions);
+    assertEquals(0, first);
+    first = index.put(sf_locus, first, add("A", "G"), m_positions);
+    assertEquals(0, first);
+    // replaces the first record
+    first = index.put(sf_locus, first, add("A", "T"), m_positions);
+    assertEquals(2, first);
+    assertEquals(List.of(2, 1), chain(index, first));
+    first = index.put(sf_locus, first, add("A", "C"), m_positions);
+    // replaces one in the middle
+    first = index.put(sf_locus, first, add("A", "G"), m_positions);
+    assertEquals(List.of(2, 4, 3), chain(index, first));
+    first = index.put(sf_locus, first, add("A", "C", "G"), m_positions);
+    first = index.put(sf_locus, first, add("A"), m_positions);
+    assertEquals(List.of(2, 4, 3, 5, 6), chain(index, first));
+    assertEquals(-1, index.next(0));
+    assertEquals(-1, index.next(1000));
+
+    assertEquals(2, get(index, "A", "T"));
+    assertEquals(4, get(index, "A", "G"));
+    assertEquals(5, get(index, "A", "C", "G"));
+    assertEquals(6, get(index, "A"));
+    assertEquals(-1, get(index, "A", "G", "C"));
+    assertEquals(-1, get(index, "C", "T"));
+    assertEquals(-1, index.get(sf_locus + 1, sf_locus + 1, "chr1", "A", List.of("T"), m_positions));
+    assertEquals(5, index.size());
+
+    AlleleIndex compact = index.compact(m_positions.size());
+    assertEquals(List.of(2, 4, 3, 5, 6), chain(compact, first));
+    assertEquals(4, compact.get(sf_locus, sf_locus, "chr1", "A", List.of("G"), m_positions));
+  }
+
+  @Test
+  public void testCollision() {
+    AlleleIndex index = new AlleleIndex();
+    // a record for A>G under the hash of A>T, as if the two hashes collided
+    int other = add("A", "G");
+    index.getRecords().put(AlleleIndex.hash(sf_locus, "A", List.of("T")), other);
+    int record = add("A", "T");
+    assertEquals(other, index.put(sf_locus, other, record, m_positions));
+    assertEquals(record, get(index, "A", "T"));
+    assertEquals(List.of(other, record), chain(index, other));
+    // replacing it probes past the colliding record again
+    int replacement = add("A", "T");
+    index.put(sf_locus, other, replacement, m_positions);
+    assertEquals(replacement, get(index, "A", "T"));
+    assertEquals(List.of(other, replacement), chain(index, other));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void testHash() {
+    long hash = AlleleIndex.hash(sf_locus, "A", List.of("T"));
+    assertEquals(hash, AlleleIndex.hash(sf_locus, new StringBuilder("A"), List.of("T")));
+    assertNotEquals(hash, AlleleIndex.hash(sf_locus + 1, "A", List.of("T")));
+    assertNotEquals(hash, AlleleIndex.hash(sf_locus, "AT", List.of()));
+    assertNotEquals(AlleleIndex.hash(sf_locus, "A", List.of("T", "G")),
+        AlleleIndex.hash(sf_locus, "A", List.of("TG")));
+  }
+}
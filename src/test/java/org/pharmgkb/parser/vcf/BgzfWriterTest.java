@@ -0,0 +1,122 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link BgzfWriter}.
+ */
+public class BgzfWriterTest {
+
+  /**
+   * Reads every block of BGZF {@code bytes}, checking each header and footer.
+   *
+   * @return The data of each block, the last being the (empty) end-of-file block
+   */
+  private static List<byte[]> readBlocks(byte[] bytes) throws Exception {
+    List<byte[]> blocks = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      int start = buffer.position();
+      assertEquals(0x1f, buffer.get(start) & 0xff);
+      assertEquals(0x8b, buffer.get(start + 1) & 0xff);
+      assertEquals(0x04, buffer.get(start + 3));
+      assertEquals(6, buffer.getShort(start + 10));
+      assertEquals('B', buffer.get(start + 12));
+      assertEquals('C', buffer.get(start + 13));
+      int blockSize = (buffer.getShort(start + 16) & 0xffff) + 1;
+      int end = start + blockSize;
+      int size = buffer.getInt(end - 4);
+      assertTrue(size <= BgzfWriter.MAX_BLOCK_SIZE);
+
+      Inflater inflater = new Inflater(true);
+      inflater.setInput(bytes, start + 18, blockSize - 26);
+      byte[] data = new byte[size];
+      int inflated = 0;
+      while (inflated < size) {
+        inflated += inflater.inflate(data, inflated, size - inflated);
+      }
+      inflater.end();
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      assertEquals((int)crc.getValue(), buffer.getInt(end - 8));
+      blocks.add(data);
+      buffer.position(end);
+    }
+    return blocks;
+  }
+
+  private static byte[] write(int numThreads, byte[]... blocks) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BgzfWriter writer = new BgzfWriter(Channels.newChannel(out), Deflater.DEFAULT_COMPRESSION, numThreads)) {
+      for (byte[] block : blocks) {
+        writer.writeBlock(block, 0, block.length);
+      }
+      writer.finish();
+    }
+    return out.toByteArray();
+  }
+
+
+  @Test
+  public void testWrite() throws Exception {
+    byte[] text = "chr1\t1\t.\tA\tT\t0\tPASS\t.\n".repeat(2000).getBytes();
+    byte[] random = new byte[BgzfWriter.MAX_BLOCK_SIZE];
+    new Random(1).nextBytes(random);
+    byte[][] blocks = {
+        Arrays.copyOf(text, BgzfWriter.MAX_BLOCK_SIZE),
+        // incompressible, so stored
+        random,
+        Arrays.copyOf(text, 10),
+        new byte[0],
+    };
+
+    for (int numThreads : new int[] {1, 3}) {
+      byte[] bytes = write(numThreads, blocks);
+      List<byte[]> read = readBlocks(bytes);
+      assertEquals(blocks.length + 1, read.size());
+      for (int x = 0; x < blocks.length; x++) {
+        assertArrayEquals(blocks[x], read.get(x));
+      }
+      assertEquals(0, read.get(blocks.length).length);
+      assertArrayEquals(BgzfWriter.EOF_BLOCK,
+          Arrays.copyOfRange(bytes, bytes.length - BgzfWriter.EOF_BLOCK.length, bytes.length));
+    }
+  }
+
+  @Test
+  public void testWriteInOrder() throws Exception {
+    byte[][] blocks = new byte[50][];
+    for (int x = 0; x < blocks.length; x++) {
+      blocks[x] = ("block " + x + "\n").repeat(x * 100).getBytes();
+    }
+    List<byte[]> read = readBlocks(write(4, blocks));
+    for (int x = 0; x < blocks.length; x++) {
+      assertArrayEquals(blocks[x], read.get(x));
+    }
+  }
+
+  @Test
+  public void testBlockTooLarge() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (BgzfWriter writer = new BgzfWriter(Channels.newChannel(out), Deflater.DEFAULT_COMPRESSION, 1)) {
+      byte[] data = new byte[BgzfWriter.MAX_BLOCK_SIZE + 1];
+      assertThrows(IllegalArgumentException.class, () -> writer.writeBlock(data, 0, data.length));
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> new BgzfWriter(Channels.newChannel(out), Deflater.DEFAULT_COMPRESSION, 0));
+  }
+}
@@ -0,0 +1,134 @@
+package org.pharmgkb.parser.vcf;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfDataStore.Genotype;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link GenotypeMatrix}.
+ */
+public class GenotypeMatrixTest {
+  @TempDir
+  Path m_tempDir;
+
+  private static List<VcfSample> samples(String... gts) {
+    List<VcfSample> samples = new ArrayList<>();
+    for (String gt : gts) {
+      samples.add(gt == null ? new VcfSample(List.of("DP"), List.of("5")) : new VcfSample(List.of("GT"), List.of(gt)));
+    }
+    return samples;
+  }
+
+  @Test
+  public void testCodes() {
+    VcfPosition position = new VcfPosition("chr1", 1, null, "A", new ArrayList<>(Arrays.asList("C", "G")), null,
+        null, null, null);
+    GenotypeMatrix matrix = new GenotypeMatrix(9);
+    assertEquals(0, matrix.addRow(position,
+        samples("0/0", "0|1", "1/1", "1/0", "0/2", "./.", null, "0/0/1", "1|1")));
+    assertEquals(1, matrix.getNumRows());
+
+    int[] codes = { GenotypeMatrix.HOM_REF, GenotypeMatrix.HET, GenotypeMatrix.HOM_ALT, GenotypeMatrix.ESCAPE,
+        GenotypeMatrix.ESCAPE, GenotypeMatrix.ESCAPE, GenotypeMatrix.ESCAPE, GenotypeMatrix.ESCAPE,
+        GenotypeMatrix.HOM_ALT };
+    for (int s = 0; s < codes.length; s++) {
+      assertEquals(codes[s], matrix.getCode(0, s), "sample " + s);
+    }
+    assertFalse(matrix.isPhased(0, 0));
+    assertTrue(matrix.isPhased(0, 1));
+    assertTrue(matrix.isPhased(0, 8));
+
+    assertEquals(new Genotype(List.of("A", "A"), false), matrix.getGenotype(0, 0, position));
+    assertEquals(new Genotype(List.of("A", "C"), true), matrix.getGenotype(0, 1, position));
+    assertEquals(new Genotype(List.of("C", "C"), false), matrix.getGenotype(0, 2, position));
+    assertEquals(new Genotype(List.of("C", "A"), false), matrix.getGenotype(0, 3, position));
+    assertEquals(new Genotype(List.of("A", "G"), false), matrix.getGenotype(0, 4, position));
+    assertNull(matrix.getGenotype(0, 5, position));
+    assertNull(matrix.getGenotype(0, 6, position));
+    assertEquals(new Genotype(List.of("A", "A", "C"), false), matrix.getGenotype(0, 7, position));
+
+    assertThrows(IndexOutOfBoundsException.class, () -> matrix.getCode(0, 9));
+    assertThrows(IndexOutOfBoundsException.class, () -> matrix.getCode(1, 0));
+    assertThrows(VcfFormatException.class, () -> matrix.addRow(position, samples("0/0")));
+  }
+
+  @Test
+  public void testSetRow() {
+    VcfPosition position = new VcfPosition("chr1", 1, null, "A", new ArrayList<>(Arrays.asList("C", "G")), null,
+        null, null, null);
+    GenotypeMatrix matrix = new GenotypeMatrix(3);
+    matrix.addRow(position, samples("1|1", "0/2", "0/1"));
+    matrix.addRow(position, samples("0/0", "0/0", "0/0"));
+    matrix.setRow(0, position, samples("0/0", "1/1", "1/2"));
+    assertEquals(2, matrix.getNumRows());
+    assertEquals(new Genotype(List.of("A", "A"), false), matrix.getGenotype(0, 0, position));
+    assertEquals(new Genotype(List.of("C", "C"), false), matrix.getGenotype(0, 1, position));
+    assertEquals(new Genotype(List.of("C", "G"), false), matrix.getGenotype(0, 2, position));
+    assertEquals(new Genotype(List.of("A", "A"), false), matrix.getGenotype(1, 2, position));
+    assertThrows(IndexOutOfBoundsException.class, () -> matrix.setRow(2, position, samples("0/0", "0/0", "0/0")));
+  }
+
+  @Test
+  public void testManyRows() {
+    VcfPosition position = new VcfPosition("chr1", 1, null, "A", new ArrayList<>(List.of("T")), null, null, null,
+        null);
+    String[] gts = { "0/0", "0/1", "1/1", "1|0" };
+    int numSamples = 70;
+    GenotypeMatrix matrix = new GenotypeMatrix(numSamples);
+    for (int r = 0; r < 100; r++) {
+      String[] row = new String[numSamples];
+      for (int s = 0; s < numSamples; s++) {
+        row[s] = gts[(r + s) % gts.length];
+      }
+      matrix.addRow(position, samples(row));
+    }
+    for (int r = 0; r < 100; r++) {
+      for (int s = 0; s < numSamples; s++) {
+        assertEquals(MemoryMappedVcfDataStore.toGenotype(position, samples(gts[(r + s) % gts.length]).get(0)),
+            matrix.getGenotype(r, s, position));
+      }
+    }
+  }
+
+  @Test
+  public void testReadCorrupt() throws Exception {
+    Path file = m_tempDir.resolve("matrix.snapshot");
+    // more rows than the snapshot has bytes for
+    try (SnapshotWriter out = new SnapshotWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+      out.writeInt(2);
+      out.writeInt(Integer.MAX_VALUE);
+    }
+    try (SnapshotReader in = new SnapshotReader(FileChannel.open(file, StandardOpenOption.READ))) {
+      assertThrows(VcfFormatException.class, () -> GenotypeMatrix.readFrom(in));
+    }
+
+    // an escaped genotype with a null allele
+    try (SnapshotWriter out = new SnapshotWriter(FileChannel.open(file, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING))) {
+      out.writeInt(1);
+      out.writeInt(0);
+      out.writeLongs(new long[0], 0);
+      out.writeLongs(new long[0], 0);
+      out.writeInt(0);
+      out.writeInt(1);
+      out.writeInt(1);
+      out.writeString(null);
+      out.writeBoolean(false);
+    }
+    try (SnapshotReader in = new SnapshotReader(FileChannel.open(file, StandardOpenOption.READ))) {
+      assertThrows(VcfFormatException.class, () -> GenotypeMatrix.readFrom(in));
+    }
+  }
+}
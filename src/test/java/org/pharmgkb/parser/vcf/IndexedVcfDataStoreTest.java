@@ -0,0 +1,133 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import com.google.common.cache.CacheStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfLineParser.DuplicateHandler;
+import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link IndexedVcfDataStore}.
+ */
+public class IndexedVcfDataStoreTest {
+  private static final String sf_header = "##fileformat=VCFv4.2\n" +
+      "##contig=<ID=chr1,length=1000>\n" +
+      "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\n";
+
+  @TempDir
+  Path m_tempDir;
+
+
+  private Path write(String vcf) throws IOException {
+    return Files.writeString(m_tempDir.resolve("test.vcf"), vcf);
+  }
+
+  @Test
+  public void testLookups() throws IOException {
+    StringBuilder vcf = new StringBuilder(sf_header);
+    for (int x = 1; x <= 300; x++) {
+      String chr = x % 3 == 0 ? "chr2" : "chr1";
+      vcf.append(chr).append('\t').append(x).append("\trs").append(x).append(";id").append(x)
+          .append("\tA\tG\t.\tPASS\t.\tGT\t0/1\t1|").append(x % 2).append(x % 7 == 0 ? "\r\n" : "\n");
+    }
+    Path file = write(vcf.toString());
+
+    try (IndexedVcfDataStore dataStore = new IndexedVcfDataStore.Builder()
+        .fromFile(file)
+        .setBlockSize(500)
+        .setCacheSize(20000)
+        .build()) {
+      assertEquals(2, dataStore.getMetadata().getNumSamples());
+      assertEquals(300, dataStore.getNumRecords());
+      assertTrue(dataStore.getNumBlocks() > 10);
+      for (int pass = 0; pass < 2; pass++) {
+        for (int x = 1; x <= 300; x++) {
+          String chr = x % 3 == 0 ? "chr2" : "chr1";
+          VcfPosition position = dataStore.getPositionAtLocus(chr, x);
+          assertNotNull(position, chr + ":" + x);
+          assertEquals(List.of("rs" + x, "id" + x), position.getIds());
+          assertSame(position, dataStore.getPositionForId("id" + x));
+          assertEquals(x, dataStore.getPositionForId("rs" + x).getPosition());
+          assertEquals("1|" + (x % 2), dataStore.getSampleForId("rs" + x, "s2")
+              .getProperty(ReservedFormatProperty.Genotype));
+          assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("A", "G"), false),
+              dataStore.getGenotypeAtLocus(chr, x, "s1"));
+          assertNull(dataStore.getPositionAtLocus(x % 3 == 0 ? "chr1" : "chr2", x));
+        }
+      }
+      assertNull(dataStore.getPositionForId("rs301"));
+      assertNull(dataStore.getSamplesAtLocus("chr3", 1));
+      assertThrows(UnsupportedOperationException.class,
+          () -> dataStore.getPositionForId("rs1").getIds().add("rs0"));
+
+      CacheStats stats = dataStore.getCacheStats();
+      assertTrue(stats.hitCount() > 0);
+      assertTrue(stats.missCount() > dataStore.getNumBlocks());
+      assertTrue(stats.evictionCount() > 0);
+      assertTrue(dataStore.getCachedSize() <= 20000);
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    try (IndexedVcfDataStore dataStore = new IndexedVcfDataStore.Builder().fromFile(write(sf_header)).build()) {
+      assertEquals(0, dataStore.getNumRecords());
+      assertEquals(0, dataStore.getNumBlocks());
+      assertNull(dataStore.getPositionAtLocus("chr1", 1));
+    }
+  }
+
+  @Test
+  public void testDuplicates() throws IOException {
+    Path file = write(sf_header +
+        "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\n" +
+        "chr1\t5\trs2\tA\tC\t.\tPASS\t.\tGT\t0/1\t0/1\n" +
+        "chr1\t6\trs1\tT\tG\t.\tPASS\t.\tGT\t1/1\t1/1\n");
+
+    assertThrows(VcfFormatException.class, () -> new IndexedVcfDataStore.Builder().fromFile(file).build());
+
+    try (IndexedVcfDataStore first = new IndexedVcfDataStore.Builder()
+        .fromFile(file)
+        .setDuplicateIdHandler(DuplicateHandler.KEEP_FIRST)
+        .setDuplicateLocusHandler(DuplicateHandler.KEEP_FIRST)
+        .build()) {
+      assertEquals("G", first.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+      assertEquals(5, first.getPositionForId("rs1").getPosition());
+    }
+
+    try (IndexedVcfDataStore last = new IndexedVcfDataStore.Builder()
+        .fromFile(file)
+        .setDuplicateIdHandler(DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(DuplicateHandler.KEEP_LAST)
+        .build()) {
+      assertEquals("C", last.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+      assertEquals(6, last.getPositionForId("rs1").getPosition());
+      assertEquals(5, last.getPositionForId("rs2").getPosition());
+    }
+  }
+
+  @Test
+  public void testMalformed() throws IOException {
+    assertThrows(VcfFormatException.class, () -> new IndexedVcfDataStore.Builder()
+        .fromFile(write(sf_header + "chr1\tx\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\n"))
+        .build());
+    assertThrows(VcfFormatException.class, () -> new IndexedVcfDataStore.Builder()
+        .fromFile(write(sf_header + "chr1\t1\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\n\nchr1\t2\trs2\tA\n"))
+        .build());
+
+    // only the indexed columns are read up front
+    try (IndexedVcfDataStore dataStore = new IndexedVcfDataStore.Builder()
+        .fromFile(write(sf_header + "chr1\t1\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\n"))
+        .build()) {
+      assertThrows(VcfFormatException.class, () -> dataStore.getPositionForId("rs1"));
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link LongIntHashMap}.
+ */
+public class LongIntHashMapTest {
+
+  @Test
+  public void testPutGet() {
+    LongIntHashMap map = new LongIntHashMap();
+    assertEquals(LongIntHashMap.NO_VALUE, map.get(5));
+    assertEquals(LongIntHashMap.NO_VALUE, map.put(5, 1));
+    assertEquals(LongIntHashMap.NO_VALUE, map.put(0, 2));
+    assertEquals(LongIntHashMap.NO_VALUE, map.put(Long.MIN_VALUE, 3));
+    assertEquals(1, map.put(5, 4));
+    assertEquals(3, map.size());
+    assertEquals(4, map.get(5));
+    assertEquals(2, map.get(0));
+    assertEquals(3, map.get(Long.MIN_VALUE));
+    assertTrue(map.containsKey(0));
+    assertFalse(map.containsKey(1));
+    assertThrows(IllegalArgumentException.class, () -> map.put(LongIntHashMap.EMPTY_KEY, 0));
+    assertThrows(IllegalArgumentException.class, () -> map.put(1, -1));
+  }
+
+  @Test
+  public void testGrow() {
+    LongIntHashMap map = new LongIntHashMap(0);
+    // keys that differ only in their high or low bits, like loci
+    for (int x = 0; x < 10000; x++) {
+      map.put(((long)(x % 25) << 40) | x, x);
+    }
+    assertEquals(10000, map.size());
+    for (int x = 0; x < 10000; x++) {
+      assertEquals(x, map.get(((long)(x % 25) << 40) | x));
+    }
+    assertEquals(LongIntHashMap.NO_VALUE, map.get(10000));
+    long[] keys = map.keys();
+    assertEquals(10000, keys.length);
+    for (long key : keys) {
+      assertEquals(key & ((1L << 40) - 1), map.get(key));
+    }
+
+    int[] values = map.values();
+    Arrays.sort(values);
+    for (int x = 0; x < values.length; x++) {
+      assertEquals(x, values[x]);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.pharmgkb.parser.vcf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pharmgkb.parser.vcf.MemoryMappedVcfLineParser.DuplicateHandler;
+import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.SampleSet;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link MappedVcfDataStore} and {@link MappedVcfDataStoreWriter}.
+ */
+public class MappedVcfDataStoreTest {
+  private static final String sf_header = "##fileformat=VCFv4.2\n" +
+      "##contig=<ID=chr1,length=1000>\n" +
+      "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\n";
+
+  @TempDir
+  Path m_tempDir;
+
+
+  private Path write(String vcf, String name, MappedVcfDataStoreWriter.Builder builder) throws IOException {
+    Path file = m_tempDir.resolve(name);
+    try (MappedVcfDataStoreWriter writer = builder.toFile(file).build()) {
+      new VcfParser.Builder()
+          .fromReader(new BufferedReader(new StringReader(vcf)))
+          .parseWith(writer)
+          .build().parse();
+    }
+    return file;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Path file = m_tempDir.resolve("store.bin");
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(VcfParserTest.class.getResourceAsStream(
+        "/vcfposition.vcf")));
+         MappedVcfDataStoreWriter writer = new MappedVcfDataStoreWriter.Builder().toFile(file).build()) {
+      new VcfParser.Builder()
+          .fromReader(reader)
+          .parseWith(writer)
+          .build().parse();
+    }
+
+    MappedVcfDataStore dataStore = MappedVcfDataStore.open(file);
+    assertEquals(1, dataStore.getMetadata().getNumSamples());
+    assertEquals("sample1", dataStore.getMetadata().getSampleName(0));
+    assertEquals(6, dataStore.getNumLoci());
+    assertEquals(6, dataStore.getNumIds());
+
+    VcfSample sample = dataStore.getSampleForId("rsb", "sample1");
+    assertNotNull(sample);
+    assertEquals("0|1", sample.getProperty(ReservedFormatProperty.Genotype));
+    assertEquals("glestring", sample.getProperty("GLE"));
+    MemoryMappedVcfDataStore.Genotype genotype = dataStore.getGenotypeForId("rsb", "sample1");
+    assertNotNull(genotype);
+    assertTrue(genotype.isPhased());
+    assertEquals(List.of("A", "T"), genotype.getAlleles());
+    assertNull(dataStore.getGenotypeForId("rsa", "sample1"));
+    assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("A", "T"), false),
+        dataStore.getGenotypeAtLocus("chr1", 3, 0));
+
+    VcfPosition position = dataStore.getPositionAtLocus("chr1", 1);
+    assertNotNull(position);
+    assertEquals(List.of("rsa"), position.getIds());
+    assertEquals("50", position.getInfo("END").get(0));
+    assertEquals(position.getPosition(), dataStore.getPositionForId("rsa").getPosition());
+    // only the columns up to FORMAT are read for a position
+    VcfPosition withSamples = dataStore.getPositionForId("rsb");
+    assertEquals(13, withSamples.getFormat().size());
+    assertTrue(withSamples.getRawLine().endsWith("\tGT:DP:FT:GL:GLE:PL:GP:GQ:HQ:PS:PQ:EC:MQ"));
+
+    SampleSet selection = SampleSet.all(dataStore.getMetadata());
+    assertEquals(1, dataStore.getSamplesAtLocus("chr1", 2, selection).size());
+
+    assertNull(dataStore.getPositionAtLocus("chr1", 7));
+    assertNull(dataStore.getPositionAtLocus("chr2", 1));
+    assertNull(dataStore.getPositionForId("rs"));
+    assertNull(dataStore.getPositionForId("rsz"));
+    assertNull(dataStore.getSampleForId("rsb", "nosuchsample"));
+  }
+
+  @Test
+  public void testUnsortedAndChunked() throws IOException {
+    StringBuilder vcf = new StringBuilder(sf_header.replace("##contig=<ID=chr1,length=1000>\n", ""));
+    for (int x = 200; x > 0; x--) {
+      String chr = x % 2 == 0 ? "chr2" : "chr10";
+      vcf.append(chr).append('\t').append(x).append("\trs").append(x).append("\tA\tG\t.\tPASS\t.\tGT\t0/1\t1|")
+          .append(x % 2).append('\n');
+    }
+    Path file = write(vcf.toString(), "store.bin", new MappedVcfDataStoreWriter.Builder());
+
+    for (long chunkSize : new long[] { 1L << 30, 64, 1000 }) {
+      MappedVcfDataStore dataStore = MappedVcfDataStore.open(file, chunkSize);
+      assertEquals(200, dataStore.getNumLoci());
+      for (int x = 1; x <= 200; x++) {
+        String chr = x % 2 == 0 ? "chr2" : "chr10";
+        VcfPosition position = dataStore.getPositionAtLocus(chr, x);
+        assertNotNull(position, chr + ":" + x);
+        assertEquals(List.of("rs" + x), position.getIds());
+        assertEquals(chr, dataStore.getPositionForId("rs" + x).getChromosome());
+        assertEquals("1|" + (x % 2), dataStore.getSampleAtLocus(chr, x, "s2")
+            .getProperty(ReservedFormatProperty.Genotype));
+        // read from the one sample's column
+        assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("A", "G"), false),
+            dataStore.getGenotypeAtLocus(chr, x, 0));
+        assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("G", x % 2 == 0 ? "A" : "G"), true),
+            dataStore.getGenotypeForId("rs" + x, "s2"));
+        assertNull(dataStore.getPositionAtLocus(x % 2 == 0 ? "chr10" : "chr2", x));
+      }
+      assertThrows(IndexOutOfBoundsException.class, () -> dataStore.getGenotypeAtLocus("chr2", 2, 2));
+    }
+  }
+
+  @Test
+  public void testDuplicates() throws IOException {
+    String vcf = sf_header +
+        "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\t0/0\n" +
+        "chr1\t5\trs2\tA\tC\t.\tPASS\t.\tGT\t0/1\t0/1\n" +
+        "chr1\t6\trs1\tT\tG\t.\tPASS\t.\tGT\t1/1\t1/1\n";
+
+    Path file = m_tempDir.resolve("fail.bin");
+    assertThrows(VcfFormatException.class, () -> write(vcf, "fail.bin", new MappedVcfDataStoreWriter.Builder()));
+    assertFalse(Files.exists(file));
+
+    MappedVcfDataStore first = MappedVcfDataStore.open(write(vcf, "first.bin", new MappedVcfDataStoreWriter.Builder()
+        .setDuplicateIdHandler(DuplicateHandler.KEEP_FIRST)
+        .setDuplicateLocusHandler(DuplicateHandler.KEEP_FIRST)));
+    assertEquals(2, first.getNumLoci());
+    assertEquals(2, first.getNumIds());
+    assertEquals("G", first.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals(5, first.getPositionForId("rs1").getPosition());
+
+    MappedVcfDataStore last = MappedVcfDataStore.open(write(vcf, "last.bin", new MappedVcfDataStoreWriter.Builder()
+        .setDuplicateIdHandler(DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(DuplicateHandler.KEEP_LAST)));
+    assertEquals("C", last.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals(6, last.getPositionForId("rs1").getPosition());
+    assertEquals(5, last.getPositionForId("rs2").getPosition());
+  }
+
+  @Test
+  public void testNotAStore() throws IOException {
+    Path file = m_tempDir.resolve("bad.bin");
+    Files.write(file, new byte[100]);
+    assertThrows(VcfFormatException.class, () -> MappedVcfDataStore.open(file));
+    Files.write(file, new byte[10]);
+    assertThrows(VcfFormatException.class, () -> MappedVcfDataStore.open(file));
+  }
+}
@@ -3,12 +3,25 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.SampleSet;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,6 +30,9 @@
  * @author Douglas Myers-Turnbull
  */
 public class MemoryMappedVcfDataStoreParserTest {
+  @TempDir
+  Path m_tempDir;
+
 
   @Test
   public void test() throws IOException {
@@ -40,6 +56,32 @@ public void test() throws IOException {
     }
   }
 
+  @Test
+  public void testSampleSelection() throws IOException {
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(VcfParserTest.class.getResourceAsStream(
+        "/vcfposition.vcf")))) {
+      MemoryMappedVcfLineParser lineParser = new MemoryMappedVcfLineParser.Builder().build();
+      new VcfParser.Builder()
+          .fromReader(reader)
+          .parseWith(lineParser)
+          .build().parse();
+      MemoryMappedVcfDataStore dataStore = lineParser.getDataStore();
+      assertNotNull(dataStore.getMetadata());
+      SampleSet selection = SampleSet.of(dataStore.getMetadata(), List.of("sample1"));
+
+      List<VcfSample> selected = dataStore.getSamplesForId("rsb", selection);
+      assertNotNull(selected);
+      assertEquals(1, selected.size());
+      assertSame(dataStore.getSampleForId("rsb", "sample1"), selected.get(0));
+      assertEquals(selected, dataStore.getSamplesAtLocus("chr1", 2, selection));
+      assertNull(dataStore.getSamplesForId("nope", selection));
+
+      assertTrue(dataStore.getSamplesForId("rsb", SampleSet.none(selection.getNumSamples())).isEmpty());
+      assertThrows(IllegalArgumentException.class,
+          () -> dataStore.getSamplesForId("rsb", SampleSet.all(selection.getNumSamples() + 1)));
+    }
+  }
+
   @Test
   public void testMissingAndUnknownLookups() throws IOException {
     try (BufferedReader reader = new BufferedReader(new InputStreamReader(VcfParserTest.class.getResourceAsStream(
@@ -74,6 +116,399 @@ public void testMissingAndUnknownLookups() throws IOException {
     }
   }
 
+  @Test
+  public void testDuplicates() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "##contig=<ID=chr2,length=1000>\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n" +
+        "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\n" +
+        "chr2\t5\trs2\tA\tC\t.\tPASS\t.\tGT\t0/1\n" +
+        "chr1\t5\trs3\tA\tT\t.\tPASS\t.\tGT\t1/1\n" +
+        "chr1\t6\trs1\tT\tG\t.\tPASS\t.\tGT\t1/1\n";
+
+    assertThrows(VcfFormatException.class, () -> load(vcf, new MemoryMappedVcfLineParser.Builder()));
+
+    MemoryMappedVcfDataStore first = load(vcf, new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST));
+    assertEquals("G", first.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals("C", first.getPositionAtLocus("chr2", 5).getAltBases().get(0));
+    assertEquals(5, first.getPositionForId("rs1").getPosition());
+    // IDs are linked independently of loci
+    assertEquals("T", first.getPositionForId("rs3").getAltBases().get(0));
+    assertEquals(Arrays.asList(5L, 5L, 6L),
+        first.getAllPositions().stream().map(p -> p.getPosition()).toList());
+
+    MemoryMappedVcfDataStore last = load(vcf, new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST));
+    assertEquals("T", last.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals(6, last.getPositionForId("rs1").getPosition());
+    assertEquals("T", last.getPositionForId("rs3").getAltBases().get(0));
+    assertEquals(Arrays.asList("C", "T", "G"),
+        last.getAllPositions().stream().map(p -> p.getAltBases().get(0)).toList());
+    assertEquals(3, last.getAllSamples().size());
+
+    assertNull(last.getPositionAtLocus("chr1", -1));
+    assertNull(last.getPositionAtLocus("chr1", Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testDuplicatesReplaceRecords() throws IOException {
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n");
+    for (int x = 0; x < 100; x++) {
+      vcf.append("chr1\t5\trs1\tA\tG\t").append(x).append("\tPASS\t.\tGT\t").append(x % 2 == 0 ? "0/1" : "1/1")
+          .append("\n");
+      vcf.append("chr1\t6\trs2\tT\tC,G\t").append(x).append("\tPASS\t.\tGT\t1/2\n");
+    }
+    for (boolean indexAlleles : new boolean[] {false, true}) {
+      MemoryMappedVcfLineParser.Builder builder = new MemoryMappedVcfLineParser.Builder()
+          .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+          .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+          .useGenotypeMatrix();
+      if (indexAlleles) {
+        builder.indexAlleles();
+      }
+      MemoryMappedVcfDataStore dataStore = load(vcf.toString(), builder);
+      // each duplicate overwrote the record it replaced
+      assertEquals(2, dataStore.getNumRecords());
+      assertEquals(new BigDecimal(99), dataStore.getPositionForId("rs1").getQuality());
+      assertEquals(new BigDecimal(99), dataStore.getPositionAtLocus("chr1", 6).getQuality());
+      assertEquals(List.of("G", "G"), dataStore.getGenotypeAtLocus("chr1", 5, "sample1").getAlleles());
+      assertEquals(List.of("C", "G"), dataStore.getGenotypeForId("rs2", "sample1").getAlleles());
+      assertEquals(List.of("rs2"), idsInRange(dataStore, "chr1", 6, 6));
+    }
+
+    // a record still linked by an ID it does not share with its duplicate is kept
+    MemoryMappedVcfDataStore dataStore = load("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n" +
+        "chr1\t5\trs1\tA\tG\t.\tPASS\t.\n" +
+        "chr1\t5\trs2\tA\tC\t.\tPASS\t.\n", new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST));
+    assertEquals(2, dataStore.getNumRecords());
+    assertEquals("G", dataStore.getPositionForId("rs1").getAltBases().get(0));
+    assertEquals("C", dataStore.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+  }
+
+  @Test
+  public void testRange() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n" +
+        "chr22\t42126300\trs1\tG\t<DEL>\t.\tPASS\tSVTYPE=DEL;END=42127000\tGT\t0/1\n" +
+        "chr22\t42126400\trs2\tA\tG\t.\tPASS\t.\tGT\t0/0\n" +
+        "chr22\t42126450\trs3\tTACG\tT\t.\tPASS\t.\tGT\t0/1\n" +
+        "chr22\t42126499\trs4\tA\tG\t.\tPASS\t.\tGT\t1/1\n" +
+        "chr22\t42128000\trs5\tC\t<DEL>\t.\tPASS\tSVTYPE=DEL;SVLEN=-5000\tGT\t0/1\n" +
+        "chr22\t42130881\trs6\tC\tT\t.\tPASS\t.\tGT\t0/1\n" +
+        "chr22\t42130882\trs7\tC\tT\t.\tPASS\t.\tGT\t0/1\n" +
+        "chr1\t42127000\trs8\tC\tT\t.\tPASS\t.\tGT\t0/1\n";
+    MemoryMappedVcfDataStore dataStore = load(vcf, new MemoryMappedVcfLineParser.Builder());
+
+    assertEquals(Arrays.asList("rs1", "rs4", "rs5", "rs6"), idsInRange(dataStore, "chr22", 42126499, 42130881));
+    // rs3 (TACG) covers 42126450-42126453
+    assertEquals(Arrays.asList("rs1", "rs3"), idsInRange(dataStore, "chr22", 42126453, 42126453));
+    assertEquals(List.of("rs5"), idsInRange(dataStore, "chr22", 42133000, 42140000));
+    assertEquals(List.of(), idsInRange(dataStore, "chr22", 42133001, 42140000));
+    assertEquals(List.of(), idsInRange(dataStore, "chr22", 42130881, 42126499));
+    assertEquals(List.of(), idsInRange(dataStore, "chr2", 1, Long.MAX_VALUE));
+    assertEquals(8, idsInRange(dataStore, "chr22", 1, Long.MAX_VALUE).size() +
+        idsInRange(dataStore, "chr1", 1, Long.MAX_VALUE).size());
+
+    Iterator<List<VcfSample>> samples = dataStore.getSamplesInRange("chr22", 42126400, 42126400);
+    assertEquals("0/1", samples.next().get(0).getProperty(ReservedFormatProperty.Genotype));
+    assertEquals("0/0", samples.next().get(0).getProperty(ReservedFormatProperty.Genotype));
+    assertFalse(samples.hasNext());
+
+    // records added after a query are found by the next one
+    dataStore.setRecordAtLocus(dataStore.toLocusKey("chr2", 10), dataStore.addRecord(
+        dataStore.getPositionForId("rs2").mutableCopy(), dataStore.getSamplesForId("rs2")));
+    assertEquals(List.of("rs2"), idsInRange(dataStore, "chr2", 1, 100));
+  }
+
+  private static List<String> idsInRange(MemoryMappedVcfDataStore dataStore, String chromosome, long start,
+      long end) {
+    List<String> ids = new ArrayList<>();
+    dataStore.getPositionsInRange(chromosome, start, end).forEachRemaining(p -> ids.addAll(p.getIds()));
+    return ids;
+  }
+
+  @Test
+  public void testGenotypeMatrix() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\ts4\n" +
+        "chr1\t1\trs1\tA\tT\t.\tPASS\t.\tGT:DP\t0/0:3\t0|1:4\t1/1:5\t./.:0\n" +
+        "chr1\t2\trs2\tA\tT,G\t.\tPASS\t.\tGT\t1/2\t0/2\t1|0\t0\n" +
+        "chr1\t3\trs3\tA\t.\t.\tPASS\t.\tDP\t1\t2\t3\t4\n" +
+        "chr1\t4\trs4\tA\tT\t.\tPASS\t.\tGT\t0/.\t0/1/1\t0/\t1/1\n";
+    MemoryMappedVcfDataStore plain = load(vcf, new MemoryMappedVcfLineParser.Builder());
+    MemoryMappedVcfDataStore packed = load(vcf, new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix());
+    MemoryMappedVcfDataStore genotypesOnly = load(vcf, new MemoryMappedVcfLineParser.Builder()
+        .useGenotypeMatrix()
+        .discardSamples());
+    for (int r = 1; r <= 4; r++) {
+      for (int s = 0; s < 4; s++) {
+        MemoryMappedVcfDataStore.Genotype expected = plain.getGenotypeForId("rs" + r, s);
+        assertEquals(expected, packed.getGenotypeForId("rs" + r, s), "rs" + r + " sample " + s);
+        assertEquals(expected, genotypesOnly.getGenotypeAtLocus("chr1", r, "s" + (s + 1)));
+      }
+    }
+    assertEquals("3", packed.getSampleForId("rs1", 0).getProperty("DP"));
+    assertThrows(IllegalStateException.class, () -> genotypesOnly.getSampleForId("rs1", 0));
+    assertNull(genotypesOnly.getGenotypeForId("nope", 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> genotypesOnly.getGenotypeForId("rs1", 4));
+    assertThrows(IllegalStateException.class, () -> new MemoryMappedVcfLineParser.Builder().discardSamples().build());
+
+    String badIndex = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n" +
+        "chr1\t1\trsx\tA\tT\t.\tPASS\t.\tGT\t5/0\n";
+    assertThrows(VcfFormatException.class,
+        () -> load(badIndex, new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix()));
+  }
+
+  @Test
+  public void testForEachGenotype() throws IOException {
+    String[] calls = { "0/0", "0/1", "1/1", "0|1", "1|1", "1/2", "./.", "0" };
+    int numSamples = 70;
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+    for (int s = 0; s < numSamples; s++) {
+      vcf.append("\ts").append(s);
+    }
+    vcf.append('\n');
+    for (int r = 1; r <= 100; r++) {
+      vcf.append("chr1\t").append(r).append("\trs").append(r).append("\tA\tT,G\t.\tPASS\t.\tGT");
+      for (int s = 0; s < numSamples; s++) {
+        vcf.append('\t').append(calls[(r * 7 + s * 3) % calls.length]);
+      }
+      vcf.append('\n');
+    }
+    // replaces the record at chr1:50
+    vcf.append("chr1\t50\trs999\tA\tT\t.\tPASS\t.\tGT").append("\t1/1".repeat(numSamples)).append('\n');
+    MemoryMappedVcfLineParser.Builder keepLast = new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST);
+    MemoryMappedVcfDataStore plain = load(vcf.toString(), keepLast);
+    MemoryMappedVcfDataStore packed = load(vcf.toString(), keepLast.useGenotypeMatrix());
+    for (MemoryMappedVcfDataStore dataStore : List.of(plain, packed, packed.freeze())) {
+      for (int s : new int[] { 0, 31, 32, 64, 69 }) {
+        List<Long> positions = new ArrayList<>();
+        int sample = s;
+        dataStore.forEachGenotype("s" + s, (position, genotype) -> {
+          positions.add(position.getPosition());
+          assertEquals(plain.getGenotypeAtLocus(position.getChromosome(), position.getPosition(), sample), genotype,
+              position + " sample " + sample);
+        });
+        assertEquals(100, positions.size());
+        // in the order the records were added
+        assertEquals(100L, positions.get(98));
+        assertEquals(50L, positions.get(99));
+      }
+    }
+    List<MemoryMappedVcfDataStore.Genotype> genotypes = new ArrayList<>();
+    packed.forEachGenotype(5, (position, genotype) -> genotypes.add(genotype));
+    assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("T", "T"), false), genotypes.get(99));
+    assertThrows(IllegalArgumentException.class, () -> packed.forEachGenotype("nope", (position, genotype) -> { }));
+    assertThrows(IndexOutOfBoundsException.class, () -> packed.forEachGenotype(numSamples, (p, g) -> { }));
+  }
+
+  @Test
+  public void testGetGenotypes() throws IOException {
+    String[] calls = { "0/0", "0/1", "1/1", "0|1", "1|0", "1/2", "./.", "0" };
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts0\ts1\ts2\ts3\ts4\n");
+    for (String chromosome : List.of("chr2", "chr1")) {
+      for (int r = 1; r <= 200; r++) {
+        vcf.append(chromosome).append('\t').append(r * 10).append("\t.\tA\tT,G\t.\tPASS\t.\tGT");
+        for (int s = 0; s < 5; s++) {
+          vcf.append('\t').append(calls[(r + s * 3 + chromosome.length()) % calls.length]);
+        }
+        vcf.append('\n');
+      }
+    }
+    List<MemoryMappedVcfDataStore.Locus> loci = new ArrayList<>();
+    for (long position : new long[] { 10, 15, 20, 700, 1990, 2000, 2010 }) {
+      loci.add(new MemoryMappedVcfDataStore.Locus("chr1", position));
+    }
+    // out of order, an unknown chromosome, and a chromosome seen before
+    loci.add(new MemoryMappedVcfDataStore.Locus("chr2", 500));
+    loci.add(new MemoryMappedVcfDataStore.Locus("chr2", 30));
+    loci.add(new MemoryMappedVcfDataStore.Locus("chrX", 10));
+    loci.add(new MemoryMappedVcfDataStore.Locus("chr1", 1000));
+
+    MemoryMappedVcfDataStore plain = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder());
+    MemoryMappedVcfDataStore packed = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix());
+    GenotypeTable table = new GenotypeTable();
+    for (MemoryMappedVcfDataStore dataStore : List.of(plain, packed, packed.freeze())) {
+      SampleSet samples = SampleSet.of(5, 0, 2, 3, 4);
+      dataStore.getGenotypes(loci, samples, table);
+      assertEquals(loci.size(), table.getNumLoci());
+      assertEquals(4, table.getNumSamples());
+      assertEquals(2, table.getSampleIndex(1));
+      for (int row = 0; row < loci.size(); row++) {
+        MemoryMappedVcfDataStore.Locus locus = loci.get(row);
+        assertSame(plain.getPositionAtLocus(locus.getChromosome(), locus.getPosition()) == null ? null :
+            dataStore.getPositionAtLocus(locus.getChromosome(), locus.getPosition()), table.getPosition(row));
+        for (int column = 0; column < 4; column++) {
+          assertEquals(plain.getGenotypeAtLocus(locus.getChromosome(), locus.getPosition(),
+              table.getSampleIndex(column)), table.getGenotype(row, column), locus + " column " + column);
+        }
+      }
+      assertTrue(table.isFound(0));
+      assertFalse(table.isFound(1));
+      assertFalse(table.isFound(6));
+      assertFalse(table.isFound(9));
+      assertTrue(table.isFound(10));
+
+      // reused for fewer loci and samples
+      dataStore.getGenotypes(loci.subList(1, 3), SampleSet.of(5, 1), table);
+      assertEquals(2, table.getNumLoci());
+      assertEquals(1, table.getNumSamples());
+      assertNull(table.getPosition(0));
+      assertEquals(plain.getGenotypeAtLocus("chr1", 20, 1), table.getGenotype(1, 0));
+      assertThrows(IndexOutOfBoundsException.class, () -> table.getGenotype(2, 0));
+      assertThrows(IndexOutOfBoundsException.class, () -> table.getGenotype(0, 1));
+
+      // and again for more
+      dataStore.getGenotypes(loci, SampleSet.all(5), table);
+      assertEquals(5, table.getNumSamples());
+      assertEquals(4, table.getSampleIndex(4));
+      assertEquals(plain.getGenotypeAtLocus("chr1", 1000, 4), table.getGenotype(loci.size() - 1, 4));
+    }
+    assertThrows(IllegalArgumentException.class, () -> plain.getGenotypes(loci, SampleSet.all(4), table));
+  }
+
+  @Test
+  public void testIndexAlleles() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n" +
+        "chr1\t100\trs1\tA\tT\t.\tPASS\tN=1\tGT\t0/1\n" +
+        "chr1\t100\trs1\tA\tG\t.\tPASS\tN=2\tGT\t0/0\n" +
+        "chr1\t100\trs2\tAC\tA\t.\tPASS\tN=3\tGT\t1/1\n" +
+        "chr1\t200\trs3\tA\tC\t.\tPASS\tN=4\tGT\t0/1\n" +
+        "chr1\t100\t.\tA\tT\t.\tPASS\tN=5\tGT\t1/1\n";
+    assertThrows(VcfFormatException.class, () -> load(vcf, new MemoryMappedVcfLineParser.Builder()));
+    // the same locus and alleles is still a duplicate
+    assertThrows(VcfFormatException.class, () -> load(vcf, new MemoryMappedVcfLineParser.Builder().indexAlleles()));
+
+    MemoryMappedVcfLineParser.Builder builder = new MemoryMappedVcfLineParser.Builder()
+        .indexAlleles()
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST);
+    MemoryMappedVcfDataStore dataStore = load(vcf, builder);
+    Path file = m_tempDir.resolve("alleles.snapshot");
+    dataStore.writeSnapshot(file);
+    for (MemoryMappedVcfDataStore store : List.of(dataStore, dataStore.freeze(),
+        MemoryMappedVcfDataStore.readSnapshot(file))) {
+      // the last A>T replaced the first, in its place
+      List<String> info = new ArrayList<>();
+      for (VcfPosition position : store.getPositionsAtLocus("chr1", 100)) {
+        info.add(position.getInfo("N").get(0));
+      }
+      assertEquals(List.of("5", "2", "3"), info);
+      assertEquals("5", store.getPositionAtLocus("chr1", 100).getInfo("N").get(0));
+      assertEquals("2", store.getPositionAtLocus("chr1", 100, "A", List.of("G")).getInfo("N").get(0));
+      assertEquals("3", store.getPositionAtLocus("chr1", 100, "AC", List.of("A")).getInfo("N").get(0));
+      assertEquals("0/0", store.getSamplesAtLocus("chr1", 100, "A", List.of("G")).get(0).getProperty("GT"));
+      assertNull(store.getPositionAtLocus("chr1", 100, "A", List.of("C")));
+      assertNull(store.getPositionAtLocus("chr2", 100, "A", List.of("T")));
+      assertEquals(1, store.getPositionsAtLocus("chr1", 200).size());
+      assertTrue(store.getPositionsAtLocus("chr1", 300).isEmpty());
+      // the ID stays with the first record at the locus
+      assertEquals("1", store.getPositionForId("rs1").getInfo("N").get(0));
+      assertEquals("3", store.getPositionForId("rs2").getInfo("N").get(0));
+
+      assertEquals(4, store.getAllPositions().size());
+      List<String> inRange = new ArrayList<>();
+      store.getPositionsInRange("chr1", 1, 1000).forEachRemaining(p -> inRange.add(p.getInfo("N").get(0)));
+      assertEquals(List.of("5", "2", "3", "4"), inRange);
+      List<String> genotypes = new ArrayList<>();
+      store.forEachGenotype(0, (position, genotype) -> genotypes.add(String.valueOf(genotype)));
+      // in the order the records were added
+      assertEquals(List.of("A/A", "A/A", "A/C", "T/T"), genotypes);
+    }
+    assertEquals(2, dataStore.getStats().getNumLoci());
+
+    // without the allele index, the only record at a locus can still be looked up by its alleles
+    MemoryMappedVcfDataStore plain = load(vcf, new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST)
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST));
+    assertEquals(1, plain.getPositionsAtLocus("chr1", 100).size());
+    assertNotNull(plain.getPositionAtLocus("chr1", 100, "A", List.of("T")));
+    assertNull(plain.getPositionAtLocus("chr1", 100, "A", List.of("G")));
+  }
+
+  @Test
+  public void testFreeze() throws Exception {
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\n");
+    for (int x = 1; x <= 500; x++) {
+      vcf.append("chr1\t").append(x).append("\trs").append(x).append("\tA\tT\t30\tPASS\tDP=").append(x)
+          .append("\tGT\t0/1\t1|1\n");
+    }
+    MemoryMappedVcfLineParser lineParser = new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix().build();
+    new VcfParser.Builder()
+        .fromReader(new BufferedReader(new StringReader(vcf.toString())))
+        .parseWith(lineParser)
+        .build().parse();
+    MemoryMappedVcfDataStore loaded = lineParser.getDataStore();
+    assertFalse(loaded.isFrozen());
+
+    MemoryMappedVcfDataStore frozen = loaded.freeze();
+    assertNotSame(loaded, frozen);
+    assertSame(frozen, loaded.freeze());
+    assertSame(frozen, frozen.freeze());
+    assertTrue(frozen.isFrozen());
+    assertTrue(loaded.isFrozen());
+
+    VcfPosition position = frozen.getPositionForId("rs7");
+    assertTrue(position.isFrozen());
+    assertThrows(UnsupportedOperationException.class, () -> position.setPosition(1));
+    assertThrows(UnsupportedOperationException.class,
+        () -> frozen.getSampleForId("rs7", 0).putProperty("GT", "1/1"));
+    assertThrows(IllegalStateException.class, () -> frozen.addRecord(position, List.of()));
+    assertThrows(IllegalStateException.class, () -> frozen.toLocusKey("chr2", 1));
+    // the loading store rejects records too, since they are shared (the parser wraps the IllegalStateException)
+    assertThrows(VcfFormatException.class, () -> new VcfParser.Builder()
+        .fromReader(new BufferedReader(new StringReader(vcf.toString())))
+        .parseWith(lineParser)
+        .build().parse());
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(() -> {
+          for (int x = 1; x <= 500; x++) {
+            if (frozen.getPositionAtLocus("chr1", x).getInfo("DP").get(0).equals(String.valueOf(x)) &&
+                frozen.getGenotypeForId("rs" + x, "s2").isPhased() &&
+                "0/1".equals(frozen.getSampleAtLocus("chr1", x, 0).getProperty("GT")) &&
+                frozen.getPositionsInRange("chr1", x, x).hasNext()) {
+              continue;
+            }
+            return false;
+          }
+          return true;
+        }));
+      }
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static MemoryMappedVcfDataStore load(String vcf, MemoryMappedVcfLineParser.Builder builder)
+      throws IOException {
+    try (BufferedReader reader = new BufferedReader(new StringReader(vcf))) {
+      MemoryMappedVcfLineParser lineParser = builder.build();
+      new VcfParser.Builder()
+          .fromReader(reader)
+          .parseWith(lineParser)
+          .build().parse();
+      return lineParser.getDataStore();
+    }
+  }
+
   @Test
   public void testMalformedGenotypeConvertsToVcfFormatException() throws IOException {
     // ALT has one allele (T), so valid GT indices are 0 (REF) and 1; index 5 is out of range
@@ -134,4 +569,320 @@ public void testGenotypeAllelesAreImmutable() {
     // the returned list must itself be immutable
     assertThrows(UnsupportedOperationException.class, () -> genotype.getAlleles().add("G"));
   }
+
+  @Test
+  public void testRsids() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n" +
+        "chr1\t1\trs1;esv9\tA\tG\t.\tPASS\t.\tGT\t0/1\n" +
+        "chr1\t2\trs01\tA\tG\t.\tPASS\t.\tGT\t1/1\n" +
+        "chr1\t3\trs12345678901\tA\tG\t.\tPASS\t.\tGT\t0/0\n";
+    MemoryMappedVcfDataStore dataStore = load(vcf, new MemoryMappedVcfLineParser.Builder());
+    for (MemoryMappedVcfDataStore store : List.of(dataStore, dataStore.freeze())) {
+      assertEquals(1, store.getPositionForId("rs1").getPosition());
+      assertEquals(1, store.getPositionForId("esv9").getPosition());
+      // not canonical, so kept by its text and not confused with rs1
+      assertEquals(2, store.getPositionForId("rs01").getPosition());
+      assertEquals(3, store.getPositionForId("rs12345678901").getPosition());
+      assertEquals(new MemoryMappedVcfDataStore.Genotype(List.of("G", "G"), false), store.getGenotypeForId("rs01", 0));
+      assertNull(store.getPositionForId("rs2"));
+      assertNull(store.getPositionForId("rs"));
+    }
+  }
+
+  @Test
+  public void testMembershipFilters() throws IOException {
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n");
+    for (int x = 1; x <= 1000; x++) {
+      vcf.append("chr1\t").append(x * 2).append("\trs").append(x).append(";id").append(x)
+          .append("\tA\tG\t.\tPASS\t.\tGT\t0/1\n");
+    }
+    // more records than expected, so the filters are overfull
+    MemoryMappedVcfDataStore dataStore = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder()
+        .useMembershipFilters(500, 0.01));
+    for (MemoryMappedVcfDataStore store : List.of(dataStore, dataStore.freeze())) {
+      for (int x = 1; x <= 1000; x++) {
+        assertEquals(x * 2, store.getPositionForId("rs" + x).getPosition());
+        assertEquals(x * 2, store.getPositionForId("id" + x).getPosition());
+        assertNotNull(store.getPositionAtLocus("chr1", x * 2));
+        assertNull(store.getPositionAtLocus("chr1", x * 2 - 1));
+        assertNull(store.getPositionForId("rs" + (x + 1000)));
+        assertNull(store.getGenotypeForId("id" + (x + 1000), 0));
+      }
+    }
+
+    vcf.append("chr1\t2000\trs9999\tA\tG\t.\tPASS\t.\tGT\t0/1\n");
+    assertThrows(VcfFormatException.class, () -> load(vcf.toString(), new MemoryMappedVcfLineParser.Builder()
+        .useMembershipFilters(2000, 0.01)));
+    assertThrows(IllegalArgumentException.class, () -> new MemoryMappedVcfLineParser.Builder()
+        .useMembershipFilters(100, 1));
+  }
+
+  @Test
+  public void testStats() throws IOException {
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\n");
+    for (int x = 1; x <= 100; x++) {
+      vcf.append("chr1\t").append(x).append("\trs").append(x).append(x % 2 == 0 ? ";id" + x : "")
+          .append("\tA\tG\t50\tPASS\tDP=").append(x).append("\tGT:DP\t0/1:3\t1/1:4\n");
+    }
+    MemoryMappedVcfDataStore dataStore = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder());
+    MemoryMappedVcfDataStore.Stats stats = dataStore.getStats();
+    assertEquals(100, stats.getNumRecords());
+    assertEquals(100, stats.getNumLoci());
+    assertEquals(100, stats.getNumRsids());
+    assertEquals(50, stats.getNumOtherIds());
+    assertTrue(stats.getPositionBytes() > 0);
+    // every sample block holds its line
+    assertTrue(stats.getSampleBytes() > vcf.length());
+    assertEquals(0, stats.getGenotypeMatrixBytes());
+    assertEquals(0, stats.getFilterBytes());
+    assertTrue(stats.getLocusIndexBytes() > 100 * 12);
+    assertTrue(stats.getIdIndexBytes() > 100 * 12);
+    assertEquals(stats.getPositionBytes() + stats.getSampleBytes() + stats.getLocusIndexBytes() +
+        stats.getIdIndexBytes(), stats.getTotalBytes());
+    // each line's ALT, FILTER and FORMAT keys are equal to the first line's
+    assertTrue(stats.getDuplicateStringShare() > 0.3 && stats.getDuplicateStringShare() < 1,
+        String.valueOf(stats.getDuplicateStringShare()));
+    assertTrue(stats.toString().startsWith("100 records"));
+
+    // sizing does not parse QUAL or INFO
+    assertEquals("50", dataStore.getRecordPosition(0).getRawQuality());
+    assertEquals("DP=1", dataStore.getRecordPosition(0).getRawInfo());
+    MemoryMappedVcfDataStore.Stats frozenStats = dataStore.freeze().getStats();
+    assertEquals(100, frozenStats.getNumRsids());
+    assertTrue(frozenStats.getLocusIndexBytes() > 0);
+
+    MemoryMappedVcfDataStore.Stats matrixStats = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder()
+        .useGenotypeMatrix().discardSamples().useMembershipFilters(100, 0.01)).getStats();
+    assertEquals(0, matrixStats.getSampleBytes());
+    assertTrue(matrixStats.getGenotypeMatrixBytes() > 0);
+    assertTrue(matrixStats.getFilterBytes() > 0);
+    assertTrue(matrixStats.getTotalBytes() < stats.getTotalBytes());
+  }
+
+  @Test
+  public void testMemoryLimit() throws IOException {
+    StringBuilder vcf = new StringBuilder("##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n");
+    for (int x = 1; x <= 100; x++) {
+      vcf.append("chr1\t").append(x).append("\trs").append(x).append("\tA\tG\t.\tPASS\t.\tGT\t0/1\n");
+    }
+    long totalBytes = load(vcf.toString(), new MemoryMappedVcfLineParser.Builder()).getStats().getTotalBytes();
+
+    VcfFormatException ex = assertThrows(VcfFormatException.class, () -> load(vcf.toString(),
+        new MemoryMappedVcfLineParser.Builder().setMemoryLimit(totalBytes / 2)));
+    assertTrue(ex.getCause() instanceof IllegalStateException);
+    assertTrue(ex.getLineNumber() < 100, ex.getMessage());
+
+    assertEquals(100, load(vcf.toString(), new MemoryMappedVcfLineParser.Builder().setMemoryLimit(totalBytes * 2))
+        .getNumRecords());
+    assertThrows(IllegalArgumentException.class, () -> new MemoryMappedVcfLineParser.Builder().setMemoryLimit(0));
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "##contig=<ID=chr1,length=1000>\n" +
+        "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP\">\n" +
+        "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n" +
+        "##FILTER=<ID=q10,Description=\"Quality below 10\">\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\n" +
+        "chr1\t1\trs1;esv1\tA\tG,T\t5.5\tPASS\tDB;AC=1,2\tGT:DP\t0/1:5\t1/2:.\t0/1:5\n" +
+        "chr1\t2\t.\tAC\t.\t.\t.\t.\tGT\t0/0\t./.\t0|0\n" +
+        "chr2\t3\trs3\tA\tG\t10\tq10\tAC=1\tGT:DP:GQ\t1|1:7\t0/1:3:9\t.\n";
+    Path file = m_tempDir.resolve("store.snapshot");
+    VcfWriter writer = new VcfWriter.Builder().toWriter(new PrintWriter(new StringWriter())).build();
+
+    List<MemoryMappedVcfLineParser.Builder> builders = List.of(
+        new MemoryMappedVcfLineParser.Builder(),
+        new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix().useMembershipFilters(10, 0.01),
+        new MemoryMappedVcfLineParser.Builder().useGenotypeMatrix().discardSamples());
+    for (MemoryMappedVcfLineParser.Builder builder : builders) {
+      boolean retainSamples = builder != builders.get(2);
+      MemoryMappedVcfDataStore expected = load(vcf, builder);
+      for (MemoryMappedVcfDataStore written : List.of(expected, expected.freeze())) {
+        written.writeSnapshot(file);
+        MemoryMappedVcfDataStore dataStore = MemoryMappedVcfDataStore.readSnapshot(file);
+        assertFalse(dataStore.isFrozen());
+        assertEquals(3, dataStore.getMetadata().getNumSamples());
+        assertTrue(dataStore.getMetadata().getInfo().containsKey("DB"));
+        assertEquals(expected.getNumRecords(), dataStore.getNumRecords());
+        for (String id : List.of("rs1", "esv1", "rs3")) {
+          assertEquals(expected.getPositionForId(id).getPosition(), dataStore.getPositionForId(id).getPosition());
+        }
+        for (int x = 0; x < expected.getNumRecords(); x++) {
+          VcfPosition position = dataStore.getRecordPosition(x);
+          assertEquals(expected.getRecordPosition(x).getInfo(), position.getInfo());
+          assertEquals(expected.getRecordPosition(x).getIds(), position.getIds());
+          assertEquals(expected.getRecordPosition(x).getAltBases(), position.getAltBases());
+          assertEquals(expected.getRecordPosition(x).getFilterStatus(), position.getFilterStatus());
+          assertEquals(expected.getRecordPosition(x).getQuality(), position.getQuality());
+          for (int sample = 0; sample < 3; sample++) {
+            assertEquals(expected.getGenotypeAtLocus(position.getChromosome(), position.getPosition(), sample),
+                dataStore.getGenotypeAtLocus(position.getChromosome(), position.getPosition(), sample));
+          }
+        }
+        if (retainSamples) {
+          for (int x = 0; x < expected.getNumRecords(); x++) {
+            assertEquals(writer.toLine(expected.getMetadata(), expected.getRecordPosition(x),
+                    expected.getRecordSamples(x)),
+                writer.toLine(dataStore.getMetadata(), dataStore.getRecordPosition(x), dataStore.getRecordSamples(x)));
+          }
+        }
+        assertNull(dataStore.getPositionAtLocus("chr1", 3));
+        assertNull(dataStore.getPositionForId("rs2"));
+        // records share the snapshot's lists and INFO, which are copied when first changed
+        VcfPosition first = dataStore.getRecordPosition(0);
+        first.getInfo("AC").set(0, "3");
+        first.getFormat().add("GQ");
+        assertEquals(Arrays.asList("3", "2"), first.getInfo("AC"));
+        assertEquals(List.of("1"), dataStore.getRecordPosition(2).getInfo("AC"));
+        assertEquals(List.of("GT"), dataStore.getRecordPosition(1).getFormat());
+      }
+    }
+
+    Files.write(file, new byte[] { 1, 2, 3 });
+    assertThrows(VcfFormatException.class, () -> MemoryMappedVcfDataStore.readSnapshot(file));
+    load(vcf, new MemoryMappedVcfLineParser.Builder()).writeSnapshot(file);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 10));
+    assertThrows(VcfFormatException.class, () -> MemoryMappedVcfDataStore.readSnapshot(file));
+  }
+
+  @Test
+  public void testLoadInParallel() throws IOException {
+    String header = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\n";
+    List<Path> files = new ArrayList<>();
+    StringBuilder all = new StringBuilder(header);
+    for (int c = 1; c <= 4; c++) {
+      StringBuilder vcf = new StringBuilder(header);
+      for (int x = 1; x <= 50; x++) {
+        vcf.append("chr").append(c).append('\t').append(x).append("\trs").append(c * 100 + x)
+            .append("\tA\tG\t.\tPASS\t.\tGT\t0/1\t1|1\n");
+      }
+      all.append(vcf.substring(header.length()));
+      files.add(Files.writeString(m_tempDir.resolve("chr" + c + ".vcf"), vcf));
+    }
+
+    MemoryMappedVcfDataStore expected = load(all.toString(), new MemoryMappedVcfLineParser.Builder());
+    MemoryMappedVcfDataStore dataStore = new MemoryMappedVcfLineParser.Builder()
+        .useGenotypeMatrix()
+        .loadInParallel(files, 3);
+    assertEquals(2, dataStore.getMetadata().getNumSamples());
+    assertEquals(expected.getNumRecords(), dataStore.getNumRecords());
+    for (int c = 1; c <= 4; c++) {
+      for (int x = 1; x <= 50; x++) {
+        VcfPosition position = dataStore.getPositionAtLocus("chr" + c, x);
+        assertNotNull(position);
+        assertEquals(List.of("rs" + (c * 100 + x)), position.getIds());
+        assertEquals(expected.getGenotypeForId("rs" + (c * 100 + x), "s2"),
+            dataStore.getGenotypeForId("rs" + (c * 100 + x), "s2"));
+      }
+    }
+  }
+
+  @Test
+  public void testLoadInParallelDuplicates() throws IOException {
+    String header = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n";
+    List<Path> files = List.of(
+        Files.writeString(m_tempDir.resolve("a.vcf"), header +
+            "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\n"),
+        Files.writeString(m_tempDir.resolve("b.vcf"), header +
+            "chr1\t5\trs2\tA\tC\t.\tPASS\t.\tGT\t0/1\n" +
+            "chr1\t6\trs1\tT\tG\t.\tPASS\t.\tGT\t1/1\n"));
+
+    assertThrows(VcfFormatException.class, () -> new MemoryMappedVcfLineParser.Builder().loadInParallel(files, 2));
+
+    MemoryMappedVcfDataStore first = new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_FIRST)
+        .loadInParallel(files, 2);
+    assertEquals("G", first.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals(5, first.getPositionForId("rs1").getPosition());
+
+    MemoryMappedVcfDataStore last = new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .loadInParallel(files, 2);
+    assertEquals("C", last.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+    assertEquals(6, last.getPositionForId("rs1").getPosition());
+
+    // within a file, the records are merged in the order they were parsed, including those a duplicate replaced
+    List<Path> reordered = List.of(Files.writeString(m_tempDir.resolve("c.vcf"), header +
+        "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\n" +
+        "chr1\t6\trs1;rs2\tT\tG\t.\tPASS\t.\tGT\t1/1\n" +
+        "chr1\t5\trs2\tA\tC\t.\tPASS\t.\tGT\t0/1\n"));
+    last = new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .loadInParallel(reordered, 1);
+    assertEquals(6, last.getPositionForId("rs1").getPosition());
+    assertEquals(5, last.getPositionForId("rs2").getPosition());
+    assertEquals("C", last.getPositionAtLocus("chr1", 5).getAltBases().get(0));
+  }
+
+  @Test
+  public void testLoadInParallelDiscardSamples() throws IOException {
+    String header = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\n";
+    String[] gts = { "0/1", "1|1", "1/2", "./.", "0", "2|1" };
+    List<Path> files = new ArrayList<>();
+    StringBuilder all = new StringBuilder(header);
+    for (int c = 1; c <= 3; c++) {
+      StringBuilder vcf = new StringBuilder();
+      for (int x = 1; x <= 20; x++) {
+        vcf.append("chr").append(c).append('\t').append(x).append("\trs").append(c * 100 + x)
+            .append("\tA\tG,T\t.\tPASS\t.\tGT");
+        for (int s = 0; s < 3; s++) {
+          vcf.append('\t').append(gts[(c + x + s) % gts.length]);
+        }
+        vcf.append('\n');
+      }
+      if (c == 3) {
+        // replaces a record of the first file
+        vcf.append("chr1\t1\trs101\tA\tG,T\t.\tPASS\t.\tGT\t2/2\t./.\t0|1\n");
+      }
+      all.append(vcf);
+      files.add(Files.writeString(m_tempDir.resolve("chr" + c + ".vcf"),
+          "##fileformat=VCFv4.2\n##contig=<ID=chr" + c + ">\n" + header.substring(header.indexOf("#CHROM")) + vcf));
+    }
+
+    MemoryMappedVcfDataStore expected = load(all.toString(), new MemoryMappedVcfLineParser.Builder()
+        .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+        .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST));
+    for (int numThreads : new int[] { 1, 2 }) {
+      MemoryMappedVcfDataStore dataStore = new MemoryMappedVcfLineParser.Builder()
+          .setDuplicateIdHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+          .setDuplicateLocusHandler(MemoryMappedVcfLineParser.DuplicateHandler.KEEP_LAST)
+          .useGenotypeMatrix()
+          .discardSamples()
+          .loadInParallel(files, numThreads);
+      assertEquals(Set.of("chr1", "chr2", "chr3"), dataStore.getMetadata().getContigs().keySet());
+      assertThrows(IllegalStateException.class, () -> dataStore.getSamplesForId("rs101"));
+      for (int c = 1; c <= 3; c++) {
+        for (int x = 1; x <= 20; x++) {
+          for (String sample : List.of("s1", "s2", "s3")) {
+            String id = "rs" + (c * 100 + x);
+            assertEquals(expected.getGenotypeForId(id, sample), dataStore.getGenotypeForId(id, sample), id);
+          }
+        }
+      }
+      assertEquals(List.of("T", "T"), dataStore.getGenotypeForId("rs101", "s1").getAlleles());
+    }
+  }
+
+  @Test
+  public void testLoadInParallelSampleMismatch() throws IOException {
+    String line = "chr1\t5\trs1\tA\tG\t.\tPASS\t.\tGT\t0/0\n";
+    List<Path> files = List.of(
+        Files.writeString(m_tempDir.resolve("a.vcf"), "##fileformat=VCFv4.2\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\n" + line),
+        Files.writeString(m_tempDir.resolve("b.vcf"), "##fileformat=VCFv4.2\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts2\n" + line.replace("rs1", "rs2")));
+    assertThrows(VcfFormatException.class, () -> new MemoryMappedVcfLineParser.Builder().loadInParallel(files, 2));
+  }
 }
@@ -0,0 +1,33 @@
+package org.pharmgkb.parser.vcf;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link RangeIndex}.
+ */
+public class RangeIndexTest {
+
+  @Test
+  public void testFind() {
+    // contig 0: [10, 1000], [20, 20], [30, 40], [500, 600]; contig 2: [5, 5]
+    RangeIndex index = new RangeIndex(3,
+        new int[] { 0, 0, 0, 0, 2 },
+        new long[] { 10, 20, 30, 500, 5 },
+        new long[] { 1000, 20, 40, 600, 5 },
+        new int[] { 7, 3, 1, 0, 2 });
+
+    assertArrayEquals(new int[] { 7, 3 }, index.find(0, 20, 25));
+    assertArrayEquals(new int[] { 7, 1, 0 }, index.find(0, 35, 500));
+    assertArrayEquals(new int[] { 7 }, index.find(0, 601, 1000));
+    assertArrayEquals(new int[0], index.find(0, 1001, Long.MAX_VALUE));
+    assertArrayEquals(new int[] { 7, 3, 1, 0 }, index.find(0, Long.MIN_VALUE, Long.MAX_VALUE));
+    assertArrayEquals(new int[0], index.find(0, 1, 9));
+    assertArrayEquals(new int[0], index.find(1, 1, 100));
+    assertArrayEquals(new int[] { 2 }, index.find(2, 5, 5));
+    assertArrayEquals(new int[0], index.find(3, 5, 5));
+    assertArrayEquals(new int[0], index.find(-1, 5, 5));
+  }
+}
@@ -0,0 +1,49 @@
+package org.pharmgkb.parser.vcf;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link RsidIndex}.
+ */
+public class RsidIndexTest {
+
+  @Test
+  public void testParse() {
+    assertEquals(0, RsidIndex.parse("rs0"));
+    assertEquals(1, RsidIndex.parse("rs1"));
+    assertEquals(1234567890L, RsidIndex.parse("rs1234567890"));
+    assertEquals(999999999999999999L, RsidIndex.parse("rs999999999999999999"));
+    for (String id : new String[] { "", "rs", "r1", "RS1", "rs01", "rs00", "rs1a", "rs-1", "xrs1", "rs1 ", ".",
+        "rs1234567890123456789" }) {
+      assertEquals(RsidIndex.NOT_AN_RSID, RsidIndex.parse(id), id);
+    }
+  }
+
+  @Test
+  public void testCompact() {
+    RsidIndex index = new RsidIndex();
+    Random random = new Random(42);
+    long[] rsids = new long[5000];
+    for (int x = 0; x < rsids.length; x++) {
+      // plenty of collisions and runs of equal keys
+      rsids[x] = x % 3 == 0 ? random.nextInt(100) : random.nextLong() & Long.MAX_VALUE;
+      index.put(rsids[x], x);
+    }
+    RsidIndex compact = index.compact();
+    assertTrue(compact.isCompact());
+    assertSame(compact, compact.compact());
+    assertEquals(index.size(), compact.size());
+    for (long rsid : rsids) {
+      assertEquals(index.get(rsid), compact.get(rsid));
+    }
+    assertEquals(-1, compact.get(100));
+    assertThrows(IllegalStateException.class, () -> compact.put(1, 1));
+
+    assertEquals(0, new RsidIndex().compact().size());
+    assertEquals(-1, new RsidIndex().compact().get(1));
+  }
+}
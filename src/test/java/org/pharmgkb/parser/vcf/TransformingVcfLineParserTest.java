@@ -7,8 +7,11 @@
 import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.parser.vcf.model.IdDescriptionMetadata;
@@ -95,6 +98,72 @@ public void testIdentityRoundTrip() throws Exception {
     assertEquals(input, sw.toString());
   }
 
+  /**
+   * An identity transformation writes a line whose empty entries were dropped or filled in as
+   * {@code EMPTY_FIELD_HANDLING.md} documents, rather than copying the line as it was.
+   */
+  @Test
+  public void testIdentityRoundTripNormalizesEmptyEntries() throws Exception {
+    String header = "##fileformat=VCFv4.2\n" +
+        "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n" +
+        "##INFO=<ID=AF,Number=A,Type=Float,Description=\"Frequency\">\n" +
+        "##INFO=<ID=AD,Number=.,Type=Integer,Description=\"Depths\">\n" +
+        "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP\">\n" +
+        "##FILTER=<ID=q10,Description=\"Low quality\">\n" +
+        "##FILTER=<ID=q20,Description=\"Lower quality\">\n" +
+        "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+        "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n" +
+        "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Quality\">\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\n";
+    // input line, then the expected output, each from the table in EMPTY_FIELD_HANDLING.md
+    String[][] lines = {
+        {"1\t1\trs1;;rs2\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1", "1\t1\trs1;rs2\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t2\trs3;\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1", "1\t2\trs3\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t3\t.\tA\tT\t10\tq10;;q20\tDP=10\tGT\t0/1\t1/1", "1\t3\t.\tA\tT\t10\tq10;q20\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t4\t.\tA\tT\t10\tq10;\tDP=10\tGT\t0/1\t1/1", "1\t4\t.\tA\tT\t10\tq10\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t5\t.\tA\tT,,C\t10\tPASS\tDP=10\tGT\t0/1\t1/1", "1\t5\t.\tA\tT,C\t10\tPASS\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t6\t.\tA\tT,\t10\tPASS\tDP=10\tGT\t0/1\t1/1", "1\t6\t.\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t7\t.\tA\tT\t10\tPASS\tDP=10\tGT::GQ\t0/1:.:30\t1/1:.:20",
+            "1\t7\t.\tA\tT\t10\tPASS\tDP=10\tGT::GQ\t0/1:.:30\t1/1:.:20"},
+        {"1\t8\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP:\t0/1:3:.\t1/1:4:.",
+            "1\t8\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP:\t0/1:3:.\t1/1:4:."},
+        {"1\t9\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP\t0/1:\t1/1:3", "1\t9\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP\t0/1:.\t1/1:3"},
+        {"1\t10\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP:GQ\t0/1::30\t1/1:3:20",
+            "1\t10\t.\tA\tT\t10\tPASS\tDP=10\tGT:DP:GQ\t0/1:.:30\t1/1:3:20"},
+        {"1\t11\t.\tA\tT\t10\tPASS\tDP=10;;AF=0.5\tGT\t0/1\t1/1",
+            "1\t11\t.\tA\tT\t10\tPASS\tAF=0.5;DP=10\tGT\t0/1\t1/1"},
+        {"1\t12\t.\tA\tT\t10\tPASS\tDP=10;\tGT\t0/1\t1/1", "1\t12\t.\tA\tT\t10\tPASS\tDP=10\tGT\t0/1\t1/1"},
+        {"1\t13\t.\tA\tT\t10\tPASS\tAD=1,,2\tGT\t0/1\t1/1", "1\t13\t.\tA\tT\t10\tPASS\tAD=1,.,2\tGT\t0/1\t1/1"},
+        {"1\t14\t.\tA\tT\t10\tPASS\tAD=1,2,\tGT\t0/1\t1/1", "1\t14\t.\tA\tT\t10\tPASS\tAD=1,2,.\tGT\t0/1\t1/1"},
+        {"1\t15\t.\tA\tT\t10\tPASS\tAD=\tGT\t0/1\t1/1", "1\t15\t.\tA\tT\t10\tPASS\tAD=.\tGT\t0/1\t1/1"},
+        {"1\t16\t.\tA\tT\t10\tPASS\tDB;DP=10\tGT\t0/1\t1/1", "1\t16\t.\tA\tT\t10\tPASS\tDB;DP=10\tGT\t0/1\t1/1"},
+        // all of the above at once
+        {"1\t17\trs1;;rs2\tA\tT,,C\t1e3\tq10;;q20\tDP=10;;AF=0.5\tGT:DP\t0/1:\t1/1:3",
+            "1\t17\trs1;rs2\tA\tT,C\t1E+3\tq10;q20\tAF=0.5;DP=10\tGT:DP\t0/1:.\t1/1:3"},
+    };
+    StringBuilder vcf = new StringBuilder(header);
+    List<String> expected = new ArrayList<>();
+    for (String[] line : lines) {
+      vcf.append(line[0]).append("\n");
+      expected.add(line[1]);
+    }
+
+    StringWriter sw = new StringWriter();
+    TransformingVcfLineParser lineParser = new TransformingVcfLineParser.Builder()
+        .addTransformation(new VcfTransformation() {}, new PrintWriter(sw)).build();
+    try (VcfParser parser = new VcfParser.Builder()
+        .parseWith(lineParser)
+        .fromReader(new BufferedReader(new StringReader(vcf.toString())))
+        .build()) {
+      parser.parse();
+    }
+    // the header is written in its own order
+    List<String> dataLines = Arrays.stream(sw.toString().split("\n"))
+        .filter(line -> !line.startsWith("#"))
+        .collect(Collectors.toList());
+    assertEquals(expected, dataLines);
+  }
+
   /**
    * A VCF with metadata but no data lines must still get its header written (the header write must not depend on a data
    * line being present).
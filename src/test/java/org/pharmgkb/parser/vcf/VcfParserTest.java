@@ -22,6 +22,7 @@
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
+import org.pharmgkb.parser.vcf.model.VcfSampleBlock;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -58,6 +59,17 @@ void testToListMatchesPatternSplit() {
     }
   }
 
+  @Test
+  void testHasEmptyInfoEntry() {
+    for (String info : new String[] {".", "DP=10", "DB", "DB;DP=10", "AD=1,2;AF=0.5"}) {
+      assertFalse(VcfParser.hasEmptyInfoEntry(info), info);
+    }
+    for (String info : new String[] {"DP=10;;AF=0.5", "DP=10;", ";DP=10", "AD=1,,2", "AD=1,2,", "AD=", "=5;DB",
+        "AD=,1"}) {
+      assertTrue(VcfParser.hasEmptyInfoEntry(info), info);
+    }
+  }
+
   @Test
   void testBasic() throws IOException {
     try (BufferedReader reader = Files.newBufferedReader(PathUtils.getPathToResource("/basic.vcf"));
@@ -356,6 +368,77 @@ void testEmptySampleValueFilledWithDot() throws IOException {
     assertEquals(".", trailing.getProperty("GQ"));
   }
 
+  @Test
+  void testSamplesAreColumnar() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\n" +
+        "chr1\t100\t.\tA\tT\t.\tPASS\t.\tGT:GLE:DP\t0/1:0:-1.5,1:-2.5:7\t./.\t1/1:.:\n";
+    List<List<VcfSample>> captured = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(vcf));
+         VcfParser parser = new VcfParser.Builder()
+             .fromReader(reader)
+             .parseWith((metadata, position, sampleData) -> captured.add(sampleData))
+             .build()) {
+      parser.parse();
+    }
+    assertTrue(captured.get(0) instanceof VcfSampleBlock);
+    VcfSampleBlock block = (VcfSampleBlock)captured.get(0);
+    assertEquals(3, block.size());
+    assertEquals(List.of("GT", "GLE", "DP"), block.getFormat());
+    assertEquals("0/1", block.getValue(0, 0));
+    assertEquals("0:-1.5,1:-2.5", block.getValue(0, 1));
+    assertEquals("7", block.getValue(0, 2));
+    assertEquals("./.", block.getValue(1, 0));
+    assertEquals(".", block.getValue(1, 2));
+    assertEquals(".", block.getValue(2, "GLE"));
+    assertEquals(".", block.getValue(2, "DP"));
+    assertEquals("7", block.get(0).getProperty("DP"));
+  }
+
+  @Test
+  void testIdenticalSampleColumnsShared() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts1\ts2\ts3\ts4\ts5\n" +
+        "chr1\t100\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/0:.\t0/1:9\t0/0:.\t0/0\t0/0:.\n";
+    List<List<VcfSample>> captured = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(vcf));
+         VcfParser parser = new VcfParser.Builder()
+             .fromReader(reader)
+             .parseWith((metadata, position, sampleData) -> captured.add(sampleData))
+             .build()) {
+      parser.parse();
+    }
+    VcfSampleBlock block = (VcfSampleBlock)captured.get(0);
+    // "0/0" is not the same text as "0/0:.", even though both read as GT=0/0, DP=.
+    assertEquals(3, block.getNumDistinctColumns());
+    assertEquals(block.getDistinctColumnIndex(0), block.getDistinctColumnIndex(2));
+    assertEquals(block.getDistinctColumnIndex(0), block.getDistinctColumnIndex(4));
+    assertNotEquals(block.getDistinctColumnIndex(0), block.getDistinctColumnIndex(3));
+    assertEquals("9", block.getValue(1, "DP"));
+    assertEquals("0/0", block.getValue(3, "GT"));
+    assertEquals(".", block.getValue(3, "DP"));
+
+    // samples sharing a column are still independent
+    block.get(2).putProperty("DP", "4");
+    assertEquals("4", block.getValue(2, "DP"));
+    assertEquals(".", block.getValue(0, "DP"));
+    assertEquals(".", block.get(4).getProperty("DP"));
+  }
+
+  @Test
+  void testTooManySampleValuesRejected() throws IOException {
+    String vcf = "##fileformat=VCFv4.2\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\n" +
+        "chr1\t100\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/1:5:30\n";
+    try (BufferedReader reader = new BufferedReader(new StringReader(vcf));
+         VcfParser parser = new VcfParser.Builder()
+             .fromReader(reader)
+             .parseWith((metadata, position, sampleData) -> { })
+             .build()) {
+      assertThrows(VcfFormatException.class, parser::parse);
+    }
+  }
+
   @Test
   void testGleSampleValueRoundTrips() throws IOException {
     String gle = "0:-75.22,1:-223.42,0/0:-323.03,1/0:-99.29,1/1:-802.53";
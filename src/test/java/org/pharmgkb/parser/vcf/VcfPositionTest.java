@@ -5,8 +5,10 @@
 import java.util.Arrays;
 import java.util.Collections;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 import org.junit.jupiter.api.Test;
+import org.pharmgkb.parser.vcf.model.CharSlice;
 import org.pharmgkb.parser.vcf.model.ReservedInfoProperty;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 
@@ -130,6 +132,20 @@ public void testGetInfoStructuralVariantLengthIsMultiValued() {
     assertEquals(Arrays.asList(-100L, -110L), p.getInfo(ReservedInfoProperty.StructuralVariantLength));
   }
 
+  @Test
+  public void testGetEndPosition() {
+    VcfPosition snv = new VcfPosition("chr1", 100, null, "C", null, null, null, null, null);
+    assertEquals(100, snv.getEndPosition());
+    VcfPosition deletion = new VcfPosition("chr1", 100, null, "CAT", null, null, null, null, null);
+    assertEquals(102, deletion.getEndPosition());
+
+    VcfPosition sv = new VcfPosition("chr1", 100, null, "C", null, null, null, null, null);
+    sv.setRawInfo("SVTYPE=DEL;SVLEN=-50,-200");
+    assertEquals(300, sv.getEndPosition());
+    sv.setRawInfo("SVTYPE=DEL;END=150;SVLEN=-50");
+    assertEquals(150, sv.getEndPosition());
+  }
+
   private static VcfPosition newPosition() {
     return new VcfPosition("chr", 1, null, "C", null, null, null, null, null);
   }
@@ -459,4 +475,179 @@ public void testInfoValueWithStructuralCharactersRejected() {
     assertThrows(VcfFormatException.class, equalsInKey::validate);
   }
 
+  @Test
+  public void testFreeze() {
+    VcfPosition position = newPosition();
+    position.getIds().add("rs1");
+    position.setRawQuality("29.5");
+    position.setRawInfo("DP=5;AF=0.1,0.2");
+    assertFalse(position.isFrozen());
+    assertSame(position, position.freeze());
+    assertTrue(position.isFrozen());
+
+    // everything was parsed up front, and reads are unchanged
+    assertEquals(new BigDecimal("29.5"), position.getQuality());
+    assertEquals(Arrays.asList("0.1", "0.2"), position.getInfo("AF"));
+    assertEquals(Collections.singletonList("rs1"), position.getIds());
+
+    assertThrows(UnsupportedOperationException.class, () -> position.getIds().add("rs2"));
+    assertThrows(UnsupportedOperationException.class, () -> position.getAltBases().add("G"));
+    assertThrows(UnsupportedOperationException.class, () -> position.getInfo().put("DB", ""));
+    assertThrows(UnsupportedOperationException.class, () -> position.setPosition(2));
+    assertThrows(UnsupportedOperationException.class, () -> position.setQuality(null));
+    position.validate();
+    assertTrue(position.isFrozen());
+  }
+
+  @Test
+  public void testSnapshot() {
+    VcfPosition position = newPosition();
+    position.getAltBases().add("T");
+    position.setRawInfo("DP=5");
+    VcfPosition snapshot = position.snapshot();
+    assertNotSame(position, snapshot);
+    assertTrue(snapshot.isFrozen());
+    assertSame(snapshot, snapshot.snapshot());
+
+    // the original is left mutable and independent
+    assertFalse(position.isFrozen());
+    position.getInfo().put("DB", "");
+    position.getAltBases().add("G");
+    assertFalse(snapshot.hasInfo("DB"));
+    assertEquals(Collections.singletonList("T"), snapshot.getAltBases());
+  }
+
+  @Test
+  public void testMutableCopyIsCopyOnWrite() {
+    VcfPosition frozen = newPosition();
+    frozen.getAltBases().add("T");
+    frozen.setRawInfo("DP=5");
+    frozen.freeze();
+
+    VcfPosition copy = frozen.mutableCopy();
+    assertFalse(copy.isFrozen());
+    copy.setPosition(7);
+    copy.getAltBases().add("G");
+    copy.getInfo().put("DB", "");
+    assertEquals(7, copy.getPosition());
+    assertEquals(Arrays.asList("T", "G"), copy.getAltBases());
+    assertTrue(copy.hasInfo("DB"));
+    assertEquals(Collections.singletonList("5"), copy.getInfo("DP"));
+
+    assertEquals(1, frozen.getPosition());
+    assertEquals(Collections.singletonList("T"), frozen.getAltBases());
+    assertFalse(frozen.hasInfo("DB"));
+
+    // a copy of a mutable position does not share its lists
+    VcfPosition second = copy.mutableCopy();
+    second.getAltBases().clear();
+    assertEquals(2, copy.getAltBases().size());
+  }
+
+  @Test
+  public void testSharingIsExplicit() {
+    // an immutable list from the caller is not mistaken for one shared with a frozen position
+    VcfPosition position = new VcfPosition("chr", 1, null, "C", ImmutableList.of("T"), null, null, null, null);
+    assertThrows(UnsupportedOperationException.class, () -> position.getAltBases().add("G"));
+
+    VcfPosition frozen = newPosition();
+    frozen.setRawInfo("DP=5;AF=0.5");
+    frozen.freeze();
+    VcfPosition copy = frozen.mutableCopy();
+    // looking values up reads the shared multimap, and changing them copies it
+    assertEquals(Collections.singletonList("5"), copy.getInfo("DP"));
+    assertTrue(copy.getInfoKeys().contains("AF"));
+    copy.getInfo("DP").set(0, "6");
+    assertTrue(copy.getInfoKeys().remove("AF"));
+    assertEquals(Collections.singletonList("6"), copy.getInfo("DP"));
+    assertFalse(copy.hasInfo("AF"));
+    assertEquals(Collections.singletonList("5"), frozen.getInfo("DP"));
+    assertTrue(frozen.hasInfo("AF"));
+
+    VcfPosition keys = frozen.mutableCopy();
+    keys.getInfoKeys().removeIf(key -> key.equals("DP"));
+    assertFalse(keys.hasInfo("DP"));
+    assertTrue(frozen.hasInfo("DP"));
+  }
+
+  @Test
+  public void testViews() {
+    String line = "chr7\t55\t.\tAC";
+    VcfPosition position = new VcfPosition(new CharSlice(line, 0, 4), 55, null, new CharSlice(line, 10, 12), null,
+        null, null, null, null);
+    assertTrue(position.getChromosomeView() instanceof CharSlice);
+    assertEquals("AC", position.getRefView().toString());
+    assertEquals("chr7", position.getChromosome());
+    // the String replaces the slice once created
+    assertSame(position.getChromosome(), position.getChromosomeView());
+    assertEquals("AC", position.getAllele(0));
+
+    // freezing makes both Strings, so that reading them writes nothing
+    VcfPosition frozen = new VcfPosition(new CharSlice(line, 0, 4), 55, null, new CharSlice(line, 10, 12), null,
+        null, null, null, null).freeze();
+    assertTrue(frozen.getChromosomeView() instanceof String);
+    assertTrue(frozen.getRefView() instanceof String);
+
+    // any other CharSequence is copied
+    StringBuilder chrom = new StringBuilder("chr1");
+    VcfPosition copied = new VcfPosition(chrom, 1, null, "A", null, null, null, null, null);
+    chrom.setLength(0);
+    assertEquals("chr1", copied.getChromosome());
+
+    assertThrows(VcfFormatException.class, () -> new VcfPosition(new CharSlice(line, 0, 6), 1, null, "A", null, null,
+        null, null, null));
+  }
+
+  @Test
+  public void testRawLineTracking() {
+    String line = "chr\t1\t.\tC\tT\t.\tPASS\tDP=5;AF=0.5";
+    VcfPosition position = newPosition();
+    position.setRawInfo("DP=5;AF=0.5");
+    position.setRawLine(line, line.length());
+    // reading does not count as a change
+    assertEquals(Collections.emptyList(), position.getIds());
+    assertEquals(Collections.singletonList("5"), position.getInfo("DP"));
+    assertTrue(position.getInfoKeys().contains("AF"));
+    assertTrue(position.hasInfo("AF"));
+    assertEquals(line, position.getRawLine());
+    assertEquals(line.length(), position.getRawLineInfoEnd());
+
+    // the same view is handed out until the position is changed
+    assertSame(position.getAltBases(), position.getAltBases());
+    assertSame(position.getInfo("DP"), position.getInfo("DP"));
+    position.getAltBases().add("T");
+    assertNull(position.getRawLine());
+    assertTrue(position.getAltBases() instanceof ArrayList);
+
+    VcfPosition info = newPosition();
+    info.setRawInfo("DP=5;AF=0.5");
+    info.setRawLine(line, line.length());
+    info.getInfo("DP").set(0, "6");
+    assertNull(info.getRawLine());
+
+    VcfPosition keys = newPosition();
+    keys.setRawInfo("DP=5;AF=0.5");
+    keys.setRawLine(line, line.length());
+    assertFalse(keys.getInfoKeys().remove("GQ"));
+    assertNotNull(keys.getRawLine());
+    keys.getInfoKeys().removeIf(key -> key.equals("AF"));
+    assertNull(keys.getRawLine());
+    assertFalse(keys.hasInfo("AF"));
+
+    VcfPosition multimap = newPosition();
+    multimap.setRawLine(line, line.length());
+    multimap.getInfo();
+    assertNull(multimap.getRawLine());
+
+    VcfPosition setter = newPosition();
+    setter.setRawLine(line, line.length());
+    VcfPosition copy = setter.mutableCopy();
+    setter.setQuality(new BigDecimal("3"));
+    assertNull(setter.getRawLine());
+    // a copy keeps the line until it is changed itself, as does a frozen position
+    assertEquals(line, copy.getRawLine());
+    copy.getFilters().iterator();
+    assertEquals(line, copy.freeze().getRawLine());
+    assertThrows(UnsupportedOperationException.class, () -> copy.setRawLine(null, 0));
+  }
 }
@@ -5,20 +5,30 @@
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.pharmgkb.parser.vcf.model.FormatMetadata;
 import org.pharmgkb.parser.vcf.model.FormatType;
 import org.pharmgkb.parser.vcf.model.InfoMetadata;
 import org.pharmgkb.parser.vcf.model.InfoType;
 import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.SampleSet;
 import org.pharmgkb.parser.vcf.model.VcfMetadata;
 import org.pharmgkb.parser.vcf.model.VcfPosition;
 import org.pharmgkb.parser.vcf.model.VcfSample;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -28,6 +38,8 @@
  * @author Douglas Myers-Turnbull
  */
 public class VcfWriterTest {
+  @TempDir
+  Path m_tempDir;
 
   @Test
   public void testWriteLineRejectsEmptyRef() throws Exception {
@@ -384,4 +396,338 @@ public void testWriteHeaderRejectsLoneCarriageReturnInjectedThroughRawView() thr
     assertThrows(RuntimeException.class, () -> writer.writeHeader(metadata));
   }
 
+  @Test
+  public void testSelectSamples() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2")
+        .setColumns(Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT",
+            "S1", "S2", "S3"))
+        .build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    position.getFormat().add("GT");
+    VcfSample sample1 = new VcfSample(new LinkedHashMap<>());
+    sample1.putProperty(ReservedFormatProperty.Genotype, "0/0");
+    VcfSample sample2 = new VcfSample(new LinkedHashMap<>());
+    sample2.putProperty(ReservedFormatProperty.Genotype, "0/1");
+    VcfSample sample3 = new VcfSample(new LinkedHashMap<>());
+    sample3.putProperty(ReservedFormatProperty.Genotype, "1/1");
+
+    SampleSet selection = SampleSet.of(metadata, Arrays.asList("S3", "S1"));
+    StringWriter sw = new StringWriter();
+    VcfWriter writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).selectSamples(selection).build();
+    // the writer keeps its own copy of the selection
+    selection.add(1);
+    writer.writeHeader(metadata);
+    writer.writeLine(metadata, position, Arrays.asList(sample1, sample2, sample3));
+    String[] lines = sw.toString().split("\n");
+    assertEquals("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS3", lines[lines.length - 2]);
+    assertEquals("chr1\t1\t.\tA\tT\t0\tPASS\t.\tGT\t0/0\t1/1", lines[lines.length - 1]);
+
+    // the sample count is still checked against the header
+    assertThrows(VcfFormatException.class,
+        () -> writer.writeLine(metadata, position, Arrays.asList(sample1, sample3)));
+  }
+
+  @Test
+  public void testSelectNoSamples() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2")
+        .setColumns(Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT", "S1"))
+        .build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    position.getFormat().add("GT");
+    VcfSample sample = new VcfSample(new LinkedHashMap<>());
+    sample.putProperty(ReservedFormatProperty.Genotype, "0/1");
+    StringWriter sw = new StringWriter();
+    VcfWriter writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).selectSamples(SampleSet.none(1))
+        .build();
+    writer.writeHeader(metadata);
+    writer.writeLine(metadata, position, Collections.singletonList(sample));
+    assertTrue(sw.toString().endsWith("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n" +
+        "chr1\t1\t.\tA\tT\t0\tPASS\t.\n"));
+
+    VcfWriter mismatched = new VcfWriter.Builder().toWriter(new PrintWriter(new StringWriter()))
+        .selectSamples(SampleSet.all(2))
+        .build();
+    assertThrows(IllegalArgumentException.class, () -> mismatched.writeHeader(metadata));
+  }
+
+  @Test
+  public void testFlushPolicy() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    int[] flushes = new int[1];
+    StringWriter sw = new StringWriter() {
+      @Override
+      public void flush() {
+        flushes[0]++;
+      }
+    };
+
+    // by default, after the header and every line
+    VcfWriter writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).build();
+    writer.writeHeader(metadata);
+    writer.writeLine(metadata, position, Collections.emptyList());
+    writer.writeLine(metadata, position, Collections.emptyList());
+    assertEquals(3, flushes[0]);
+
+    flushes[0] = 0;
+    writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw))
+        .setFlushPolicy(VcfWriter.FlushPolicy.everyLines(3))
+        .build();
+    for (int i = 0; i < 7; i++) {
+      writer.writeLine(metadata, position, Collections.emptyList());
+    }
+    assertEquals(2, flushes[0]);
+
+    // each line is 22 characters
+    flushes[0] = 0;
+    writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw))
+        .setFlushPolicy(VcfWriter.FlushPolicy.everyBytes(40))
+        .build();
+    for (int i = 0; i < 7; i++) {
+      writer.writeLine(metadata, position, Collections.emptyList());
+    }
+    assertEquals(3, flushes[0]);
+
+    flushes[0] = 0;
+    writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw))
+        .setFlushPolicy(VcfWriter.FlushPolicy.onClose())
+        .build();
+    writer.writeHeader(metadata);
+    writer.writeLine(metadata, position, Collections.emptyList());
+    assertEquals(0, flushes[0]);
+    writer.flush();
+    assertEquals(1, flushes[0]);
+
+    assertThrows(IllegalArgumentException.class, () -> VcfWriter.FlushPolicy.everyLines(0));
+    assertThrows(IllegalArgumentException.class, () -> VcfWriter.FlushPolicy.everyBytes(-1));
+  }
+
+  @Test
+  public void testWriteToFile() throws Exception {
+    InfoMetadata info = new InfoMetadata("NOTE", "A note", InfoType.String, "1", null, null);
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").addInfo(info)
+        .setColumns(Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT", "S1"))
+        .build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    position.getFormat().add("GT");
+    // 2-, 3- and 4-byte UTF-8
+    position.getInfo().put("NOTE", "\u00e9\u20ac\ud83d\ude00");
+    VcfSample sample = new VcfSample(new LinkedHashMap<>());
+    sample.putProperty(ReservedFormatProperty.Genotype, "0/1");
+
+    StringWriter sw = new StringWriter();
+    VcfWriter expected = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).build();
+    expected.writeHeader(metadata);
+    Path file = m_tempDir.resolve("out.vcf");
+    // by default, a file is written out only as the buffer fills
+    try (VcfWriter writer = new VcfWriter.Builder().toFile(file).build()) {
+      writer.writeHeader(metadata);
+      assertEquals(0, Files.size(file));
+      for (int i = 0; i < 5000; i++) {
+        writer.writeLine(metadata, position, Collections.singletonList(sample));
+        expected.writeLine(metadata, position, Collections.singletonList(sample));
+      }
+      // more than fills the buffer, which is written out as it fills
+      long written = Files.size(file);
+      assertTrue(written > 0 && written < sw.toString().getBytes(StandardCharsets.UTF_8).length);
+      writer.flush();
+      assertEquals(sw.toString(), Files.readString(file, StandardCharsets.UTF_8));
+    }
+    assertEquals(sw.toString(), Files.readString(file, StandardCharsets.UTF_8));
+
+    try (VcfWriter writer = new VcfWriter.Builder().toFile(file)
+        .setFlushPolicy(VcfWriter.FlushPolicy.everyLine())
+        .build()) {
+      writer.writeHeader(metadata);
+      assertTrue(Files.readString(file, StandardCharsets.UTF_8).endsWith("\tS1\n"));
+    }
+  }
+
+  @Test
+  public void testWriteBgzf() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2")
+        .setColumns(Arrays.asList("CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT", "S1"))
+        .build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    position.getFormat().add("GT");
+    VcfSample sample = new VcfSample(new LinkedHashMap<>());
+    sample.putProperty(ReservedFormatProperty.Genotype, "0/1");
+
+    StringWriter sw = new StringWriter();
+    VcfWriter expected = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).build();
+    expected.writeHeader(metadata);
+    Path file = m_tempDir.resolve("out.vcf.gz");
+    try (VcfWriter writer = new VcfWriter.Builder().toFile(file).compressWithBgzf(2).build()) {
+      writer.writeHeader(metadata);
+      for (int i = 0; i < 20000; i++) {
+        position.setPosition(i + 1);
+        writer.writeLine(metadata, position, Collections.singletonList(sample));
+        expected.writeLine(metadata, position, Collections.singletonList(sample));
+      }
+    }
+    byte[] bytes = Files.readAllBytes(file);
+    byte[] eof = Arrays.copyOfRange(bytes, bytes.length - BgzfWriter.EOF_BLOCK.length, bytes.length);
+    assertArrayEquals(BgzfWriter.EOF_BLOCK, eof);
+    try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+      assertEquals(sw.toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    assertThrows(IllegalStateException.class,
+        () -> new VcfWriter.Builder().toWriter(new PrintWriter(new StringWriter())).compressWithBgzf(1).build());
+  }
+
+  @Test
+  public void testWriteToFileDropsLineWithLineTerminator() throws Exception {
+    InfoMetadata info = new InfoMetadata("NS", "d", InfoType.Integer, "1", null, null);
+    info.getPropertiesRaw().put("Description", "\u00e9\rvalue");
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").addInfo(info).build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    Path file = m_tempDir.resolve("out.vcf");
+    try (VcfWriter writer = new VcfWriter.Builder().toFile(file).build()) {
+      assertThrows(RuntimeException.class, () -> writer.writeHeader(metadata));
+      writer.writeLine(metadata, position, Collections.emptyList());
+    }
+    assertEquals("##fileformat=VCFv4.2\nchr1\t1\t.\tA\tT\t0\tPASS\t.\n",
+        Files.readString(file, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testRawLinePassthrough() throws Exception {
+    String header = "##fileformat=VCFv4.2\n" +
+        "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+        "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Depth\">\n" +
+        "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\n";
+    // QUAL 1e3 would be written differently if formatted again
+    String line = "chr1\t1\trs1\tA\tT\t1e3\tPASS\tDP=5\tGT:DP\t0/1:12\t1/1:7";
+    // the DP of S2 is dropped, so that column is written as it would be without the line
+    String dropped = "chr1\t2\trs2\tA\tT\t1e3\tPASS\tDP=5\tGT:DP\t0/1:12\t1/1";
+    StringWriter sw = new StringWriter();
+    VcfWriter writer = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).build();
+    VcfWriter selected = new VcfWriter.Builder().toWriter(new PrintWriter(new StringWriter()))
+        .selectSamples(SampleSet.all(2))
+        .build();
+    List<String> selectedLines = new ArrayList<>();
+    VcfLineParser lineParser = (metadata, position, samples) -> {
+      writer.writeLine(metadata, position, samples);
+      selectedLines.add(selected.toLine(metadata, position, samples));
+      if (position.getPosition() == 1) {
+        // only the changed sample is formatted again
+        samples.get(1).putProperty("GT", "0/0");
+        writer.writeLine(metadata, position, samples);
+        // and only the changed position
+        position.getFilters().add("q10");
+        writer.writeLine(metadata, position, samples);
+      }
+    };
+    try (BufferedReader reader = new BufferedReader(new StringReader(header + line + "\n" + dropped + "\n"));
+         VcfParser parser = new VcfParser.Builder().fromReader(reader).parseWith(lineParser).build()) {
+      parser.parse();
+    }
+    String[] lines = sw.toString().split("\n");
+    assertEquals(line, lines[0]);
+    assertEquals("chr1\t1\trs1\tA\tT\t1e3\tPASS\tDP=5\tGT:DP\t0/1:12\t0/0:7", lines[1]);
+    assertEquals("chr1\t1\trs1\tA\tT\t1E+3\tq10\tDP=5\tGT:DP\t0/1:12\t0/0:7", lines[2]);
+    assertEquals("chr1\t2\trs2\tA\tT\t1e3\tPASS\tDP=5\tGT:DP\t0/1:12\t1/1:.", lines[3]);
+    // with a sample selection, the columns are copied one by one
+    assertEquals(List.of(line, lines[3]), selectedLines);
+  }
+
+  @Test
+  public void testWriteInBackground() throws Exception {
+    InfoMetadata info = new InfoMetadata("NOTE", "A note", InfoType.String, "1", null, null);
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").addInfo(info).build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+
+    StringWriter sw = new StringWriter();
+    VcfWriter expected = new VcfWriter.Builder().toWriter(new PrintWriter(sw)).build();
+    expected.writeHeader(metadata);
+    Path file = m_tempDir.resolve("out.vcf");
+    try (VcfWriter writer = new VcfWriter.Builder().toFile(file)
+        .writeInBackground(2)
+        .setFlushPolicy(VcfWriter.FlushPolicy.everyLines(1000))
+        .build()) {
+      writer.writeHeader(metadata);
+      for (int i = 0; i < 10000; i++) {
+        // the line is formatted before writeLine returns, so the position can be changed right away
+        position.setPosition(i + 1);
+        position.getInfo().put("NOTE", "\u00e9" + i);
+        writer.writeLine(metadata, position, Collections.emptyList());
+        expected.writeLine(metadata, position, Collections.emptyList());
+        position.getInfo().clear();
+      }
+      writer.flush();
+      assertEquals(sw.toString(), Files.readString(file, StandardCharsets.UTF_8));
+      position.setPosition(10001);
+      writer.writeLine(metadata, position, Collections.emptyList());
+      expected.writeLine(metadata, position, Collections.emptyList());
+    }
+    assertEquals(sw.toString(), Files.readString(file, StandardCharsets.UTF_8));
+
+    assertThrows(IllegalArgumentException.class, () -> new VcfWriter.Builder().writeInBackground(0));
+  }
+
+  @Test
+  public void testWriteInBackgroundBatches() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    StringWriter sw = new StringWriter();
+    AtomicInteger writes = new AtomicInteger();
+    AtomicInteger flushes = new AtomicInteger();
+    PrintWriter counting = new PrintWriter(sw) {
+      @Override
+      public void write(String s) {
+        writes.incrementAndGet();
+        super.write(s);
+      }
+
+      @Override
+      public void flush() {
+        flushes.incrementAndGet();
+        super.flush();
+      }
+    };
+    // with the default flush policy, lines are only handed over once a batch is full
+    try (VcfWriter writer = new VcfWriter.Builder().toWriter(counting).writeInBackground(2).build()) {
+      for (int i = 0; i < 10000; i++) {
+        position.setPosition(i + 1);
+        writer.writeLine(metadata, position, Collections.emptyList());
+      }
+    }
+    assertEquals(10000, sw.toString().split("\n").length);
+    assertTrue(writes.get() < 20, writes.get() + " batch(es) written");
+    assertTrue(flushes.get() <= 2, flushes.get() + " flush(es)");
+  }
+
+  @Test
+  public void testWriteInBackgroundFailure() throws Exception {
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").build();
+    VcfPosition position = new VcfPosition("chr1", 1, "A", new BigDecimal("0"));
+    position.getAltBases().add("T");
+    PrintWriter failing = new PrintWriter(new StringWriter()) {
+      @Override
+      public void write(String s) {
+        throw new IllegalStateException("No space left");
+      }
+    };
+    VcfWriter writer = new VcfWriter.Builder().toWriter(failing).writeInBackground(1).build();
+    // only queued, so it does not fail yet
+    writer.writeLine(metadata, position, Collections.emptyList());
+    IllegalStateException ex = assertThrows(IllegalStateException.class, writer::flush);
+    assertEquals("No space left", ex.getCause().getMessage());
+    assertThrows(IllegalStateException.class,
+        () -> writer.writeLine(metadata, position, Collections.emptyList()));
+    assertThrows(IllegalStateException.class, writer::close);
+    // once closed, it stays closed
+    writer.close();
+    assertThrows(IllegalStateException.class,
+        () -> writer.writeLine(metadata, position, Collections.emptyList()));
+  }
 }
@@ -0,0 +1,41 @@
+package org.pharmgkb.parser.vcf.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link CharSlice}.
+ */
+class CharSliceTest {
+
+  @Test
+  void testSlice() {
+    String line = "chr1\t100\tA";
+    CharSlice chrom = new CharSlice(line, 0, 4);
+    assertEquals(4, chrom.length());
+    assertEquals('1', chrom.charAt(3));
+    assertEquals("chr1", chrom.toString());
+    assertSame(chrom.toString(), chrom.toString());
+    assertEquals("hr", chrom.subSequence(1, 3).toString());
+    assertEquals("chr1".hashCode(), chrom.hashCode());
+    assertEquals("", new CharSlice(line, 4, 4).toString());
+
+    assertThrows(IndexOutOfBoundsException.class, () -> chrom.charAt(4));
+    assertThrows(IndexOutOfBoundsException.class, () -> new CharSlice(line, 5, 4));
+    assertThrows(IndexOutOfBoundsException.class, () -> new CharSlice(line, 0, line.length() + 1));
+  }
+
+  @Test
+  void testEquality() {
+    CharSlice slice = new CharSlice("xxACGTxx", 2, 6);
+    assertTrue(slice.contentEquals("ACGT"));
+    assertTrue(slice.contentEquals(new StringBuilder("ACGT")));
+    assertFalse(slice.contentEquals("ACG"));
+    assertEquals(slice, new CharSlice("ACGT", 0, 4));
+    assertEquals(slice.hashCode(), new CharSlice("ACGT", 0, 4).hashCode());
+    assertNotEquals(slice, new CharSlice("ACGA", 0, 4));
+    assertEquals("<ACGT>", slice.appendTo(new StringBuilder("<")).append('>').toString());
+  }
+}
@@ -0,0 +1,74 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link SampleSet}.
+ */
+public class SampleSetTest {
+
+  @Test
+  public void testAddRemove() {
+    SampleSet set = SampleSet.none(130);
+    assertTrue(set.isEmpty());
+    set.add(0);
+    set.add(64);
+    set.add(129);
+    set.add(64);
+    assertEquals(3, set.size());
+    assertTrue(set.contains(64));
+    assertFalse(set.contains(63));
+    set.remove(64);
+    assertFalse(set.contains(64));
+    assertArrayEquals(new int[] { 0, 129 }, set.toArray());
+    assertThrows(IndexOutOfBoundsException.class, () -> set.add(130));
+    assertThrows(IndexOutOfBoundsException.class, () -> set.contains(-1));
+  }
+
+  @Test
+  public void testAll() {
+    SampleSet set = SampleSet.all(70);
+    assertEquals(70, set.size());
+    assertEquals(69, set.nextSample(69));
+    assertEquals(-1, set.nextSample(70));
+    assertEquals(set, SampleSet.of(70, IntStream.range(0, 70).toArray()));
+    assertTrue(SampleSet.all(0).isEmpty());
+  }
+
+  @Test
+  public void testIteration() {
+    SampleSet set = SampleSet.of(200, 3, 64, 65, 199);
+    assertEquals(3, set.nextSample(0));
+    assertEquals(64, set.nextSample(4));
+    assertEquals(199, set.nextSample(66));
+    List<Integer> seen = new ArrayList<>();
+    set.forEach(seen::add);
+    assertEquals(Arrays.asList(3, 64, 65, 199), seen);
+
+    SampleSet copy = set.copy();
+    copy.remove(3);
+    assertTrue(set.contains(3));
+    assertNotEquals(set, copy);
+  }
+
+  @Test
+  public void testOfNames() {
+    VcfMetadata metadata = new VcfMetadata.Builder()
+        .setFileFormat("VCFv4.2")
+        .setColumns(Arrays.asList("#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT",
+            "sample1", "sample2", "sample3"))
+        .build();
+    SampleSet set = SampleSet.of(metadata, Arrays.asList("sample3", "sample1"));
+    assertEquals(3, set.getNumSamples());
+    assertArrayEquals(new int[] { 0, 2 }, set.toArray());
+    assertEquals(3, SampleSet.all(metadata).size());
+    assertThrows(IllegalArgumentException.class, () -> SampleSet.of(metadata, List.of("nosuchsample")));
+  }
+}
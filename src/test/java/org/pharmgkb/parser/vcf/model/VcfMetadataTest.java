@@ -1,6 +1,8 @@
 package org.pharmgkb.parser.vcf.model;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.pharmgkb.parser.vcf.VcfFormatException;
 
@@ -26,6 +28,34 @@ public void testGetSampleIndex() {
     assertEquals(-1, metadata.getSampleIndex("INFO"));
   }
 
+  @Test
+  public void testGetColumnIndex() {
+    VcfMetadata metadata = new VcfMetadata.Builder()
+        .setFileFormat("VCFv4.2")
+        .setColumns(Arrays.asList("#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER", "INFO", "FORMAT",
+            "sample1", "sample2"))
+        .build();
+    assertEquals(0, metadata.getColumnIndex("#CHROM"));
+    assertEquals(8, metadata.getColumnIndex("FORMAT"));
+    assertEquals(10, metadata.getColumnIndex("sample2"));
+    assertEquals(-1, metadata.getColumnIndex("nosuchsample"));
+  }
+
+  @Test
+  public void testGetSampleIndexManySamples() {
+    List<String> columns = new ArrayList<>(Arrays.asList("#CHROM", "POS", "ID", "REF", "ALT", "QUAL", "FILTER",
+        "INFO", "FORMAT"));
+    for (int i = 0; i < 5000; i++) {
+      columns.add("NA" + i);
+    }
+    VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").setColumns(columns).build();
+    assertEquals(5000, metadata.getNumSamples());
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(i, metadata.getSampleIndex("NA" + i));
+    }
+    assertEquals(-1, metadata.getSampleIndex("NA5000"));
+  }
+
   @Test
   public void testAddAssemblyRejectsLineTerminator() {
     VcfMetadata metadata = new VcfMetadata.Builder().setFileFormat("VCFv4.2").build();
@@ -0,0 +1,194 @@
+package org.pharmgkb.parser.vcf.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Tests {@link VcfSampleBlock}.
+ */
+class VcfSampleBlockTest {
+
+  // FORMAT GT:DP with samples "0/1:12" and "1/1" (DP dropped)
+  private static final String LINE = "chr1\t1\t.\tA\tT\t.\tPASS\t.\tGT:DP\t0/1:12\t1/1";
+
+  private static VcfSampleBlock block() {
+    int first = LINE.indexOf("0/1");
+    int second = LINE.indexOf("1/1");
+    int[] bounds = {
+        first, first + 3, first + 4, first + 6,
+        second, second + 3, VcfSampleBlock.MISSING, VcfSampleBlock.MISSING,
+    };
+    return new VcfSampleBlock(LINE, Arrays.asList("GT", "DP"), 2, bounds);
+  }
+
+  @Test
+  void testGetValue() {
+    VcfSampleBlock block = block();
+    assertEquals(2, block.size());
+    assertEquals(1, block.getKeyIndex("DP"));
+    assertEquals(-1, block.getKeyIndex("GQ"));
+    assertEquals("0/1", block.getValue(0, 0));
+    assertEquals("12", block.getValue(0, 1));
+    assertEquals("1/1", block.getValue(1, "GT"));
+    assertEquals(".", block.getValue(1, "DP"));
+    assertNull(block.getValue(1, "GQ"));
+    assertThrows(IndexOutOfBoundsException.class, () -> block.getValue(2, 0));
+    assertThrows(IndexOutOfBoundsException.class, () -> block.getValue(0, 2));
+    assertThrows(IllegalArgumentException.class,
+        () -> new VcfSampleBlock(LINE, List.of("GT"), 2, new int[] { 0, 1 }));
+  }
+
+  @Test
+  void testSampleView() {
+    VcfSampleBlock block = block();
+    VcfSample sample = block.get(0);
+    assertSame(sample, block.get(0));
+    assertEquals("12", sample.getProperty(ReservedFormatProperty.Depth.getId()));
+    assertEquals(Arrays.asList("GT", "DP"), List.copyOf(sample.getPropertyKeys()));
+
+    // changes made through the view are seen by the block's accessors
+    sample.putProperty("DP", "13");
+    sample.putProperty("GQ", "20");
+    assertEquals("13", block.getValue(0, 1));
+    assertEquals("20", block.getValue(0, "GQ"));
+    assertEquals("1/1", block.getValue(1, 0));
+  }
+
+  @Test
+  void testSetAndStructuralChanges() {
+    VcfSampleBlock block = block();
+    LinkedHashMap<String, String> properties = new LinkedHashMap<>();
+    properties.put("GT", "0/0");
+    VcfSample replacement = new VcfSample(properties);
+    VcfSample previous = block.set(1, replacement);
+    assertEquals("1/1", previous.getProperty("GT"));
+    assertSame(replacement, block.get(1));
+    assertEquals("0/0", block.getValue(1, 0));
+    assertNull(block.getValue(1, "DP"));
+
+    assertThrows(UnsupportedOperationException.class, () -> block.getFormat().add("GQ"));
+
+    // adding or removing samples works as with any list, and every sample then counts as changed
+    VcfSample first = block.get(0);
+    assertFalse(block.isChanged(0));
+    assertSame(first, block.remove(0));
+    assertEquals(1, block.size());
+    assertSame(replacement, block.get(0));
+    assertTrue(block.isChanged(0));
+    block.add(first);
+    assertEquals(List.of(replacement, first), List.copyOf(block));
+    assertEquals("12", block.getValue(1, "DP"));
+    assertTrue(block.removeIf(sample -> sample == replacement));
+    assertEquals(List.of(first), List.copyOf(block));
+    assertTrue(block.isChanged());
+    // columns as parsed are still read by the index the sample had on the line
+    StringBuilder sb = new StringBuilder();
+    block.appendRawColumn(1, sb);
+    assertEquals("1/1:.", sb.toString());
+
+    block.freeze();
+    assertTrue(first.isFrozen());
+    assertThrows(UnsupportedOperationException.class, () -> block.add(replacement));
+    assertThrows(UnsupportedOperationException.class, () -> block.remove(0));
+    assertThrows(UnsupportedOperationException.class, () -> block.set(0, replacement));
+  }
+
+  @Test
+  void testSharedColumns() {
+    // samples 0 and 2 share the "0/1:12" column
+    int first = LINE.indexOf("0/1");
+    int second = LINE.indexOf("1/1");
+    int[] bounds = {
+        first, first + 3, first + 4, first + 6,
+        second, second + 3, VcfSampleBlock.MISSING, VcfSampleBlock.MISSING,
+    };
+    VcfSampleBlock block = new VcfSampleBlock(LINE, Arrays.asList("GT", "DP"), 3, new int[] { 0, 1, 0 }, 2, bounds);
+    assertEquals(3, block.size());
+    assertEquals(2, block.getNumDistinctColumns());
+    assertEquals(0, block.getDistinctColumnIndex(2));
+    assertEquals("12", block.getValue(2, 1));
+    assertSame(block.getValue(0, 1), block.getValue(2, 1));
+    assertEquals(".", block.getValue(1, 1));
+
+    assertThrows(IllegalArgumentException.class,
+        () -> new VcfSampleBlock(LINE, Arrays.asList("GT", "DP"), 3, new int[] { 0, 1, 2 }, 2, bounds));
+    assertThrows(IllegalArgumentException.class,
+        () -> new VcfSampleBlock(LINE, Arrays.asList("GT", "DP"), 3, new int[] { 0, 1 }, 2, bounds));
+  }
+
+  @Test
+  void testFreeze() {
+    VcfSampleBlock block = block();
+    VcfSample first = block.get(0);
+    assertSame(block, block.freeze());
+    assertTrue(first.isFrozen());
+    assertSame(first, block.get(0));
+    VcfSample second = block.get(1);
+    assertTrue(second.isFrozen());
+    assertEquals("1/1", second.getProperty("GT"));
+    assertEquals("12", block.getValue(0, "DP"));
+    assertThrows(UnsupportedOperationException.class, () -> block.set(0, second));
+    assertThrows(UnsupportedOperationException.class, () -> first.putProperty("DP", "1"));
+    assertThrows(UnsupportedOperationException.class, () -> second.putProperty("DP", "1"));
+
+    // frozen samples still read their values from the line, rather than from a map of their own
+    assertTrue(first.getPropertyView("DP") instanceof CharSlice);
+    assertTrue(second.getPropertyView("GT") instanceof CharSlice);
+    assertEquals(List.of("GT", "DP"), List.copyOf(second.getPropertyKeys()));
+    assertThrows(UnsupportedOperationException.class, () -> second.getPropertyKeys().remove("GT"));
+    VcfSample copy = second.mutableCopy();
+    copy.putProperty("DP", "1");
+    assertEquals("1", copy.getProperty("DP"));
+    assertEquals(".", second.getProperty("DP"));
+  }
+
+  @Test
+  void testViews() {
+    VcfSampleBlock block = block();
+    CharSequence gt = block.getValueView(0, 0);
+    assertTrue(gt instanceof CharSlice);
+    assertEquals("0/1", gt.toString());
+    assertEquals(".", block.getValueView(1, 1).toString());
+    assertTrue(block.get(0).getPropertyView("DP") instanceof CharSlice);
+    assertEquals("12", block.get(0).getPropertyView("DP").toString());
+    assertNull(block.get(0).getPropertyView("GQ"));
+
+    // once changed, a sample's views are its values
+    block.get(0).putProperty("DP", "13");
+    assertEquals("13", block.getValueView(0, 1));
+    assertEquals("13", block.get(0).getPropertyView("DP"));
+  }
+
+  @Test
+  void testChangeTracking() {
+    VcfSampleBlock block = block();
+    StringBuilder sb = new StringBuilder();
+    block.appendRawColumn(0, sb);
+    sb.append('\t');
+    block.appendRawColumn(1, sb);
+    assertEquals("0/1:12\t1/1:.", sb.toString());
+
+    // reading does not count as a change, nor does changing a copy
+    assertEquals("0/1", block.get(0).getProperty("GT"));
+    block.get(0).mutableCopy().putProperty("DP", "13");
+    assertFalse(block.isChanged());
+
+    block.get(0).putProperty("DP", "13");
+    assertTrue(block.isChanged(0));
+    assertFalse(block.isChanged(1));
+    block.set(1, block.get(1));
+    assertFalse(block.isChanged(1));
+    block.set(1, new VcfSample(new LinkedHashMap<>()));
+    assertTrue(block.isChanged(1));
+    assertTrue(block.isChanged());
+    // the raw column ignores changes
+    sb.setLength(0);
+    block.appendRawColumn(0, sb);
+    assertEquals("0/1:12", sb.toString());
+  }
+}
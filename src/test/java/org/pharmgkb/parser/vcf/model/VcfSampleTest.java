@@ -9,7 +9,10 @@
 import org.pharmgkb.parser.vcf.VcfFormatException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 /**
@@ -176,4 +179,39 @@ void testGleValueIsExemptFromColonCheck() {
     // a tab in GLE's value is still rejected (tab always means a spurious sample column, regardless of key)
     assertThrows(VcfFormatException.class, () -> sample.putProperty("GLE", "a\tb"));
   }
+
+  @Test
+  void testFreeze() {
+    VcfSample sample = new VcfSample(Arrays.asList("GT", "DP"), Arrays.asList("0/1", "5"));
+    assertSame(sample, sample.freeze());
+    assertTrue(sample.isFrozen());
+    assertEquals("5", sample.getProperty("DP"));
+    assertEquals(Arrays.asList("GT", "DP"), new ArrayList<>(sample.getPropertyKeys()));
+    assertThrows(UnsupportedOperationException.class, () -> sample.putProperty("GQ", "1"));
+    assertThrows(UnsupportedOperationException.class, () -> sample.removeProperty("DP"));
+    assertThrows(UnsupportedOperationException.class, () -> sample.getPropertyKeys().remove("DP"));
+    assertThrows(UnsupportedOperationException.class,
+        () -> sample.propertyEntrySet().iterator().next().setValue("1/1"));
+    sample.validate();
+  }
+
+  @Test
+  void testSnapshotAndMutableCopy() {
+    VcfSample sample = new VcfSample(Arrays.asList("GT", "DP"), Arrays.asList("0/1", "5"));
+    VcfSample snapshot = sample.snapshot();
+    assertTrue(snapshot.isFrozen());
+    assertFalse(sample.isFrozen());
+    sample.putProperty("DP", "6");
+    assertEquals("5", snapshot.getProperty("DP"));
+
+    VcfSample copy = snapshot.mutableCopy();
+    copy.putProperty("GQ", "30");
+    assertEquals("30", copy.getProperty("GQ"));
+    assertEquals("5", copy.getProperty("DP"));
+    assertFalse(snapshot.containsProperty("GQ"));
+
+    VcfSample second = copy.mutableCopy();
+    second.removeProperty("GT");
+    assertEquals("0/1", copy.getProperty("GT"));
+  }
 }
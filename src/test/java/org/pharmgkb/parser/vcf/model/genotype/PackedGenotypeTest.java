@@ -0,0 +1,119 @@
+package org.pharmgkb.parser.vcf.model.genotype;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import com.google.common.collect.ArrayListMultimap;
+import org.junit.jupiter.api.Test;
+import org.pharmgkb.parser.vcf.VcfFormatException;
+import org.pharmgkb.parser.vcf.model.ReservedFormatProperty;
+import org.pharmgkb.parser.vcf.model.VcfPosition;
+import org.pharmgkb.parser.vcf.model.VcfSample;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+public class PackedGenotypeTest {
+
+  @Test
+  public void testPack() {
+    long packed = PackedGenotype.pack("0|1");
+    assertEquals(2, PackedGenotype.ploidy(packed));
+    assertEquals(0, PackedGenotype.alleleIndex(packed, 0));
+    assertEquals(1, PackedGenotype.alleleIndex(packed, 1));
+    assertFalse(PackedGenotype.isPhased(packed, 0));
+    assertTrue(PackedGenotype.isPhased(packed, 1));
+    assertTrue(PackedGenotype.isPhased(packed));
+
+    packed = PackedGenotype.pack("./2");
+    assertEquals(PackedGenotype.MISSING, PackedGenotype.alleleIndex(packed, 0));
+    assertEquals(2, PackedGenotype.alleleIndex(packed, 1));
+    assertFalse(PackedGenotype.isPhased(packed));
+
+    packed = PackedGenotype.pack("1");
+    assertEquals(1, PackedGenotype.ploidy(packed));
+    assertTrue(PackedGenotype.isPhased(packed));
+    assertThrows(IndexOutOfBoundsException.class, () -> PackedGenotype.alleleIndex(PackedGenotype.pack("1"), 1));
+
+    packed = PackedGenotype.pack("0/0|1/" + PackedGenotype.MAX_PACKED_INDEX);
+    assertEquals(4, PackedGenotype.ploidy(packed));
+    assertEquals(PackedGenotype.MAX_PACKED_INDEX, PackedGenotype.alleleIndex(packed, 3));
+    assertTrue(PackedGenotype.isPhased(packed, 2));
+    assertFalse(PackedGenotype.isPhased(packed, 3));
+
+    assertEquals(PackedGenotype.NOT_PACKABLE, PackedGenotype.pack("0/0/0/0/1"));
+    assertEquals(PackedGenotype.NOT_PACKABLE, PackedGenotype.pack("0/" + (PackedGenotype.MAX_PACKED_INDEX + 1)));
+  }
+
+  @Test
+  public void testInvalid() {
+    for (String gt : new String[] { "", "/", "0/", "/0", "0//1", "0-1", "A/T", ".1", "0/1 ", "+1" }) {
+      assertThrows(VcfFormatException.class, () -> PackedGenotype.pack(gt), gt);
+      assertThrows(VcfFormatException.class, () -> PackedGenotype.parse(gt), gt);
+    }
+    assertThrows(VcfFormatException.class, () -> PackedGenotype.parse("0/99999999999"));
+  }
+
+  @Test
+  public void testParse() {
+    PackedGenotype genotype = PackedGenotype.parse("1|0");
+    assertEquals(2, genotype.getPloidy());
+    assertEquals(1, genotype.getAlleleIndex(0));
+    assertEquals(0, genotype.getAlleleIndex(1));
+    assertTrue(genotype.isPhased());
+    assertFalse(genotype.isNoCall());
+    assertEquals("1|0", genotype.toString());
+
+    assertTrue(PackedGenotype.parse("./.").isNoCall());
+    assertTrue(PackedGenotype.parse(".").isNoCall());
+    assertFalse(PackedGenotype.parse("./1").isNoCall());
+    assertEquals(PackedGenotype.parse("0/1"), PackedGenotype.parse("0/1"));
+    assertNotEquals(PackedGenotype.parse("0/1"), PackedGenotype.parse("0|1"));
+  }
+
+  @Test
+  public void testParseUnpackable() {
+    PackedGenotype polyploid = PackedGenotype.parse("0/0|1/./20000/3");
+    assertEquals(6, polyploid.getPloidy());
+    assertEquals(0, polyploid.getAlleleIndex(0));
+    assertEquals(1, polyploid.getAlleleIndex(2));
+    assertTrue(polyploid.isPhased(2));
+    assertFalse(polyploid.isPhased(3));
+    assertEquals(PackedGenotype.MISSING, polyploid.getAlleleIndex(3));
+    assertEquals(20000, polyploid.getAlleleIndex(4));
+    assertEquals(3, polyploid.getAlleleIndex(5));
+    assertFalse(polyploid.isPhased());
+    assertEquals("0/0|1/./20000/3", polyploid.toString());
+    assertEquals(polyploid, PackedGenotype.parse("0/0|1/./20000/3"));
+  }
+
+  @Test
+  public void testToVcfGenotype() {
+    VcfPosition position = position();
+    assertEquals("A/G", PackedGenotype.parse("0/1").toVcfGenotype(position).toString());
+    assertEquals("AAA|AAA", PackedGenotype.parse("2/2").toVcfGenotype(position).toString());
+    assertEquals("G|G", PackedGenotype.parse("1").toVcfGenotype(position).toString());
+    assertEquals(".|G", PackedGenotype.parse(".|1").toVcfGenotype(position).toString());
+    assertEquals(new VcfAllele("<ID>"), PackedGenotype.parse("0/1/3").getAllele(position, 2));
+    assertNull(PackedGenotype.parse("0/.").getAllele(position, 1));
+
+    // materializing a polyploid call as a VcfGenotype is not supported
+    assertThrows(VcfFormatException.class, () -> PackedGenotype.parse("0/1/3").toVcfGenotype(position));
+    assertThrows(VcfFormatException.class, () -> PackedGenotype.parse("0/9").toVcfGenotype(position));
+  }
+
+  @Test
+  public void testFromVcf() {
+    VcfSample sample = new VcfSample(new LinkedHashMap<>());
+    assertNull(PackedGenotype.fromVcf(sample));
+    sample.putProperty(ReservedFormatProperty.Genotype, "0|1");
+    assertEquals(PackedGenotype.parse("0|1"), PackedGenotype.fromVcf(sample));
+  }
+
+  private static VcfPosition position() {
+    List<String> alts = Arrays.asList("G", "AAA", "<ID>", "C[2:321682[");
+    return new VcfPosition("chr1", 1, Arrays.asList("id"), "A", alts, new BigDecimal("0.0"),
+        Arrays.asList(), ArrayListMultimap.create(), Arrays.asList("GT"));
+  }
+}
@@ -7,6 +7,21 @@
 
 public class VcfAlleleTest {
 
+  @Test
+  public void testOf() {
+    assertSame(VcfAllele.of("A"), VcfAllele.of("A"));
+    assertSame(VcfAllele.of("*"), VcfAllele.of("*"));
+    assertEquals(new VcfAllele("t"), VcfAllele.of("t"));
+    assertSame(VcfAllele.of("ATG"), VcfAllele.of("ATG"));
+    assertEquals(new VcfAllele("<DEL>"), VcfAllele.of("<DEL>"));
+    String longAllele = "ACGT".repeat(20);
+    assertEquals(longAllele, VcfAllele.of(longAllele).toString());
+
+    assertThrows(VcfFormatException.class, () -> VcfAllele.of("X"));
+    assertThrows(VcfFormatException.class, () -> VcfAllele.of("AXG"));
+    assertThrows(VcfFormatException.class, () -> VcfAllele.of(""));
+  }
+
   @Test
   public void testLength() throws Exception {
     assertEquals(3, new VcfAllele("AAT").length());